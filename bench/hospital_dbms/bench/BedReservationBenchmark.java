@@ -0,0 +1,39 @@
+package hospital_dbms.bench;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import hospital_dbms.models.*;
+
+/**
+ * Cost of finding and reserving a free bed.
+ * Every claimed bed is released again so the pool of free beds stays the same size.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BedReservationBenchmark {
+
+    @Benchmark
+    public Bed getAvailableBed(BenchmarkDatabase db) throws SQLException {
+        return Bed.getAvailableBed(db.pick(db.hospitalIDs), db.pickSpecialization());
+    }
+
+    @Benchmark
+    public Bed claimAndRelease(BenchmarkDatabase db) throws SQLException {
+        HospitalVisit visit = HospitalVisit.getByID(db.pick(db.visitIDs));
+        if (visit.getBedNumber() != null && visit.getBedNumber() != 0) {
+            return null;
+        }
+        Bed bed = Bed.claim(visit.getHospitalID(), db.pickSpecialization(), visit.getID());
+        if (bed != null) {
+            bed.release();
+        }
+        return bed;
+    }
+
+}
@@ -0,0 +1,213 @@
+package hospital_dbms.bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.*;
+
+import hospital_dbms.db.SchemaMigrator;
+import hospital_dbms.models.*;
+import static hospital_dbms.HospitalDBMS.getConnection;
+import static hospital_dbms.HospitalDBMS.releaseConnection;
+
+/**
+ * Shared benchmark state: a database filled with the given number of rows per table.
+ * Run the benchmarks against a scratch database (see the bench target in the Makefile),
+ * since the tables are dropped and recreated.
+ * A database that already holds data for the requested size is reused instead of being rebuilt.
+ */
+@State(Scope.Benchmark)
+public class BenchmarkDatabase {
+
+    // Specializations offered by every generated hospital
+    static final String[] SPECIALIZATIONS = {"neurology", "pediatrics", "cardiology", "oncology"};
+    // Number of rows in Patient, Bed, HospitalVisit, MedicalRecord and Billing
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int rows;
+
+    int[] hospitalIDs;
+    int[] patientIDs;
+    int[] doctorIDs;
+    int[] nurseIDs;
+    int[] bedIDs;
+    int[] visitIDs;
+    int[] recordIDs;
+    int[] billingIDs;
+
+    private final Random random = new Random(42);
+
+    /** Build (or reuse) the database and load the IDs of its rows */
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        // Reports print their results; keep them out of the benchmark output
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        if (storedSize() != rows) {
+            populate();
+        }
+        loadIDs();
+        releaseConnection();
+    }
+
+    /** Return the thread's connection to the pool */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        releaseConnection();
+    }
+
+    /** A random ID from one of the ID arrays */
+    int pick(int[] ids) {
+        return ids[random.nextInt(ids.length)];
+    }
+
+    /** A random specialization offered by every hospital */
+    String pickSpecialization() {
+        return SPECIALIZATIONS[random.nextInt(SPECIALIZATIONS.length)];
+    }
+
+    /** The size the existing data was generated for, or -1 if there is none */
+    private int storedSize() {
+        try (Statement statement = getConnection().createStatement();
+             ResultSet rs = statement.executeQuery("SELECT rowCount FROM BenchmarkInfo")) {
+            return rs.next() ? rs.getInt(1) : -1;
+        } catch (SQLException e) {
+            return -1;
+        }
+    }
+
+    /** Drop and recreate every table, then fill them with generated rows */
+    private void populate() throws SQLException {
+        Connection c = getConnection();
+        try (Statement statement = c.createStatement()) {
+            statement.executeUpdate("DROP TABLE IF EXISTS BenchmarkInfo");
+        }
+
+        new SchemaMigrator(c).dropTable();
+        Billing.dropTable();
+        Bed.dropTable();
+        MedicalRecord.dropTable();
+        ResponsibleStaff.dropTable();
+        HospitalVisit.dropTable();
+        Staff.dropTable();
+        Patient.dropTable();
+        Person.dropTable();
+        HospitalSpecialty.dropTable();
+        Hospital.dropTable();
+        Specialization.dropTable();
+
+        Hospital.createTable();
+        Specialization.createTable();
+        HospitalSpecialty.createTable();
+        Patient.createTable();
+        Staff.createTable();
+        Bed.createTable();
+        HospitalVisit.createTable();
+        ResponsibleStaff.createTable();
+        MedicalRecord.createTable();
+        Billing.createTable();
+
+        List<Specialization> specializations = new ArrayList<>();
+        for (String name : SPECIALIZATIONS) {
+            specializations.add(new Specialization(name, 10f));
+        }
+        Relation.insertAll(specializations);
+
+        int hospitalCount = Math.max(2, rows / 5000);
+        List<Hospital> hospitals = new ArrayList<>();
+        for (int i = 0; i < hospitalCount; i++) {
+            hospitals.add(new Hospital(i + " Hospital Rd, NC", String.format("%010d", i)));
+        }
+        Relation.insertAll(hospitals);
+
+        List<HospitalSpecialty> hospitalSpecialties = new ArrayList<>();
+        List<Staff> doctors = new ArrayList<>();
+        List<Staff> nurses = new ArrayList<>();
+        Date staffBirthday = Date.valueOf("1980-01-01");
+        for (Hospital h : hospitals) {
+            for (String name : SPECIALIZATIONS) {
+                hospitalSpecialties.add(new HospitalSpecialty(h.getHospitalID(), name));
+                doctors.add(new Staff("Doctor", "1 Staff St", "5550000000", staffBirthday, Staff.JobTitle.DOCTOR,
+                                      h.getHospitalID(), name, "Surgeon", h.getAddress(), name));
+                nurses.add(new Staff("Nurse", "2 Staff St", "5550000001", staffBirthday, Staff.JobTitle.NURSE,
+                                     h.getHospitalID(), name, "Nurse", h.getAddress(), null));
+            }
+        }
+        Relation.insertAll(hospitalSpecialties);
+        Relation.insertAll(doctors);
+        Relation.insertAll(nurses);
+
+        List<Patient> patients = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            patients.add(new Patient("Patient " + i, i + " Main St", String.format("%010d", i),
+                                     Date.valueOf("1950-01-01"), 100000000 + i, i % 2 == 0 ? "F" : "M",
+                                     Patient.Status.PROCESSING));
+        }
+        Relation.insertAll(patients);
+
+        List<Bed> beds = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            Staff nurse = nurses.get(i % nurses.size());
+            beds.add(new Bed(nurse.getHospitalID(), nurse.getDepartment(), nurse.getID(), false));
+        }
+        Relation.insertAll(beds);
+        beds = null;
+
+        List<HospitalVisit> visits = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            Hospital h = hospitals.get(random.nextInt(hospitals.size()));
+            Date start = new Date(Date.valueOf("2019-01-01").getTime() + random.nextInt(365) * 86400000L);
+            Date end = i % 2 == 0 ? null : new Date(start.getTime() + (1 + random.nextInt(14)) * 86400000L);
+            visits.add(new HospitalVisit(h.getHospitalID(), patients.get(i).getID(), start, end, "diagnosis", null, 20f));
+        }
+        Relation.insertAll(visits);
+
+        List<Relation> related = new ArrayList<>(rows * 3);
+        for (int i = 0; i < rows; i++) {
+            HospitalVisit visit = visits.get(i);
+            Staff doctor = doctors.get(random.nextInt(doctors.size()));
+            related.add(new ResponsibleStaff(visit.getID(), doctor.getID()));
+            related.add(new MedicalRecord(visit.getID(), doctor.getID(), "rest", "checkup", "blood test", "negative",
+                                          "none", 50, 25, 100));
+            related.add(new Billing(patients.get(i).getID(), "CASH"));
+        }
+        Relation.insertAll(related);
+        new SchemaMigrator(c).migrate();
+
+        try (Statement statement = c.createStatement()) {
+            statement.executeUpdate("CREATE TABLE BenchmarkInfo (rowCount INT NOT NULL)");
+            statement.executeUpdate("INSERT INTO BenchmarkInfo VALUES (" + rows + ")");
+        }
+    }
+
+    /** Read the IDs of the generated rows back from the database */
+    private void loadIDs() throws SQLException {
+        hospitalIDs = ids("SELECT ID FROM Hospital");
+        patientIDs = ids("SELECT personID FROM Patient");
+        doctorIDs = ids("SELECT personID FROM Staff WHERE jobTitle='DOCTOR'");
+        nurseIDs = ids("SELECT personID FROM Staff WHERE jobTitle='NURSE'");
+        bedIDs = ids("SELECT ID FROM Bed");
+        visitIDs = ids("SELECT ID FROM HospitalVisit");
+        recordIDs = ids("SELECT ID FROM MedicalRecord");
+        billingIDs = ids("SELECT ID FROM Billing");
+    }
+
+    private static int[] ids(String query) throws SQLException {
+        int[] ids = new int[16];
+        int count = 0;
+        try (Statement statement = getConnection().createStatement();
+             ResultSet rs = statement.executeQuery(query)) {
+            while (rs.next()) {
+                if (count == ids.length) {
+                    ids = Arrays.copyOf(ids, count * 2);
+                }
+                ids[count++] = rs.getInt(1);
+            }
+        }
+        return Arrays.copyOf(ids, count);
+    }
+}
@@ -0,0 +1,80 @@
+package hospital_dbms.bench;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import hospital_dbms.models.*;
+
+/**
+ * Insert, lookup-by-ID and update throughput for the model classes
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ModelCrudBenchmark {
+
+    @Benchmark
+    public Patient patientInsert(BenchmarkDatabase db) throws SQLException {
+        Patient p = new Patient("Bench Patient", "1 Bench St", "5551234567", Date.valueOf("1970-01-01"),
+                                123456789, "F", Patient.Status.PROCESSING);
+        p.insert();
+        return p;
+    }
+
+    @Benchmark
+    public Patient patientGetByID(BenchmarkDatabase db) throws SQLException {
+        return Patient.getByID(db.pick(db.patientIDs));
+    }
+
+    @Benchmark
+    public void patientUpdate(BenchmarkDatabase db) throws SQLException {
+        Patient p = Patient.getByID(db.pick(db.patientIDs));
+        p.setStatus(Patient.Status.IN_TREATMENT);
+        p.update();
+    }
+
+    @Benchmark
+    public Staff staffGetByID(BenchmarkDatabase db) throws SQLException {
+        return Staff.getByID(db.pick(db.doctorIDs));
+    }
+
+    @Benchmark
+    public Bed bedGetByID(BenchmarkDatabase db) throws SQLException {
+        return Bed.getById(db.pick(db.bedIDs));
+    }
+
+    @Benchmark
+    public HospitalVisit visitInsert(BenchmarkDatabase db) throws SQLException {
+        HospitalVisit v = new HospitalVisit(db.pick(db.hospitalIDs), db.pick(db.patientIDs),
+                                            Date.valueOf("2020-01-01"), null, "bench", null, 20f);
+        v.insert();
+        return v;
+    }
+
+    @Benchmark
+    public HospitalVisit visitGetByID(BenchmarkDatabase db) throws SQLException {
+        return HospitalVisit.getByID(db.pick(db.visitIDs));
+    }
+
+    @Benchmark
+    public void visitUpdate(BenchmarkDatabase db) throws SQLException {
+        HospitalVisit v = HospitalVisit.getByID(db.pick(db.visitIDs));
+        v.setDiagnosis("updated");
+        v.update();
+    }
+
+    @Benchmark
+    public MedicalRecord recordGetByID(BenchmarkDatabase db) throws SQLException {
+        return MedicalRecord.getByID(db.pick(db.recordIDs));
+    }
+
+    @Benchmark
+    public Billing billingGetByID(BenchmarkDatabase db) throws SQLException {
+        return Billing.getById(db.pick(db.billingIDs));
+    }
+}
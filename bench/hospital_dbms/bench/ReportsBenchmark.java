@@ -0,0 +1,55 @@
+package hospital_dbms.bench;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import hospital_dbms.Reports;
+
+/**
+ * Run time of each report over the generated data (output is discarded)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class ReportsBenchmark {
+
+    @Benchmark
+    public void hospitalsBySpecialty(BenchmarkDatabase db) throws SQLException {
+        Reports.printHospitalsBySpecialty();
+    }
+
+    @Benchmark
+    public void doctorsForPatient(BenchmarkDatabase db) throws SQLException {
+        Reports.printDoctorsForPatient(db.pick(db.patientIDs));
+    }
+
+    @Benchmark
+    public void hospitalUsage(BenchmarkDatabase db) throws SQLException {
+        Reports.printHospitalUsage();
+    }
+
+    @Benchmark
+    public void billing(BenchmarkDatabase db) {
+        Reports.printBilling(db.pick(db.patientIDs), Date.valueOf("2019-01-01"), Date.valueOf("2019-12-31"));
+    }
+
+    @Benchmark
+    public void availableBeds(BenchmarkDatabase db) {
+        Reports.printAvailableBeds(db.pick(db.hospitalIDs));
+    }
+
+    @Benchmark
+    public void patientsPerMonth(BenchmarkDatabase db) {
+        Reports.printPatientsPerMonth(db.pick(db.hospitalIDs));
+    }
+
+    @Benchmark
+    public void visitTable(BenchmarkDatabase db) {
+        Reports.printTable("HospitalVisit");
+    }
+}
@@ -0,0 +1,707 @@
+package hospital_dbms;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import hospital_dbms.export.ExportFormat;
+import hospital_dbms.models.*;
+import static hospital_dbms.HospitalDBMS.getConnection;
+import static hospital_dbms.HospitalDBMS.releaseConnection;
+
+/**
+ * Import legacy data from CSV files: patients, staff, hospital visits, medical records and billing accounts.
+ *
+ * Each file has a header line naming its columns (any order, case doesn't matter; see Kind for the columns).
+ * The file is read one record at a time and cut into chunks, which a pool of workers parse, validate and
+ * insert in parallel, each on its own pooled connection. A row is rejected if a value can't be parsed, breaks
+ * a model rule (e.g. a Patient status outside Patient.Status, a specialization for staff who aren't doctors)
+ * or refers to a row that doesn't exist (checked with one query per chunk and referenced table; a medical
+ * record's doctorID must be a doctor). Valid rows are inserted with Relation.insertAll, as multi-row INSERT
+ * batches committed every Relation.DEFAULT_BATCH_SIZE rows, so the Person rows of patients and staff get their
+ * generated IDs before their Patient and Staff rows are written, and the visit rollups and search index stay
+ * current. A batch the database refuses is retried one row at a time. Rejected rows, with their line number
+ * and the reason, are written to FILE.rejected.csv.
+ *
+ * Files are imported in the order staff, patients, visits, records, billing, so each can refer to the ones
+ * before. A file may have an ID column holding the rows' IDs in the legacy system; the later files' references
+ * to that kind (patientID, doctorID, visitID) are then legacy IDs too and are mapped to the generated IDs.
+ * Otherwise references are IDs already in the database. Beds named by imported visits are not marked occupied.
+ */
+public class BulkImporter {
+
+    /** A row that can't be imported, and why */
+    private static class Rejected extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        Rejected(String reason) {
+            super(reason);
+        }
+    }
+
+    /** What can be imported, in import order, and the columns of each */
+    public enum Kind {
+        STAFF("staff", new String[] {"name", "jobTitle", "hospitalID"},
+              new String[] {"ID", "address", "phoneNum", "dateOfBirth", "department", "profTitle", "officeAddress", "specialization"}),
+        PATIENTS("patients", new String[] {"name", "status"},
+                 new String[] {"ID", "address", "phoneNum", "dateOfBirth", "ssn", "gender"}),
+        VISITS("visits", new String[] {"hospitalID", "patientID", "startDate"},
+               new String[] {"ID", "endDate", "diagnosis", "bedNumber", "registrationFee"}),
+        RECORDS("records", new String[] {"visitID", "doctorID"},
+                new String[] {"prescription", "diagnostic", "test", "result", "treatment", "consultationFee", "testFee", "treatmentFee"}),
+        BILLING("billing", new String[] {"patientID"}, new String[] {"paymentInfo"});
+
+        final String name;
+        final String[] required;
+        final String[] optional;
+
+        Kind(String name, String[] required, String[] optional) {
+            this.name = name;
+            this.required = required;
+            this.optional = optional;
+        }
+    }
+
+    /** A table whose rows are checked to exist, with the IDs known to exist so far */
+    private static class Lookup {
+        // Most IDs checked by one query
+        private static final int IDS_PER_QUERY = 1000;
+
+        final String description;
+        // SELECT of the key column with an IN list to fill in
+        final String query;
+        final Set<Object> known = ConcurrentHashMap.newKeySet();
+
+        Lookup(String description, String query) {
+            this.description = description;
+            this.query = query;
+        }
+
+        /** The IDs that exist, querying the ones not already known on the current thread's connection */
+        Set<Object> existing(Collection<Object> ids) throws SQLException {
+            List<Object> unknown = new ArrayList<>();
+            for (Object id : ids) {
+                if (!known.contains(id)) {
+                    unknown.add(id);
+                }
+            }
+            for (int start = 0; start < unknown.size(); start += IDS_PER_QUERY) {
+                List<Object> group = unknown.subList(start, Math.min(start + IDS_PER_QUERY, unknown.size()));
+                String in = String.join(", ", Collections.nCopies(group.size(), "?"));
+                try (PreparedStatement statement = getConnection().prepareStatement(String.format(query, in))) {
+                    for (int i = 0; i < group.size(); i++) {
+                        statement.setObject(i + 1, group.get(i));
+                    }
+                    try (ResultSet rs = statement.executeQuery()) {
+                        while (rs.next()) {
+                            known.add(rs.getObject(1));
+                        }
+                    }
+                }
+            }
+            Set<Object> existing = new HashSet<>();
+            for (Object id : ids) {
+                if (known.contains(id)) {
+                    existing.add(id);
+                }
+            }
+            return existing;
+        }
+    }
+
+    /** A row a record refers to, which must exist */
+    private static class Reference {
+        final Lookup lookup;
+        final Object id;
+        // The column the ID came from
+        final String column;
+
+        Reference(Lookup lookup, Object id, String column) {
+            this.lookup = lookup;
+            this.id = id;
+            this.column = column;
+        }
+    }
+
+    /** A record of the file being imported, and what it became */
+    private static class Staged {
+        // Line the record starts on
+        final int line;
+        final String text;
+        Relation row;
+        // The row's ID in the legacy system, if the file has an ID column
+        Integer legacyID;
+        final List<Reference> references = new ArrayList<>();
+        // Why the record was rejected, or null
+        String reason;
+
+        Staged(int line, String text) {
+            this.line = line;
+            this.text = text;
+        }
+
+        void mustExist(Lookup lookup, Object id, String column) {
+            references.add(new Reference(lookup, id, column));
+        }
+    }
+
+    /** Reads CSV records, which span several lines when a quoted field holds line breaks */
+    private static class RecordReader {
+        private final BufferedReader in;
+        // Lines read so far, and the line the last record started on
+        private int lines = 0;
+        private int recordLine = 0;
+
+        RecordReader(BufferedReader in) {
+            this.in = in;
+        }
+
+        /** The next record's text, skipping blank lines, or null at the end of the file */
+        String next() throws IOException {
+            String text;
+            do {
+                text = in.readLine();
+                lines++;
+            } while (text != null && text.trim().isEmpty());
+            if (text == null) {
+                return null;
+            }
+            recordLine = lines;
+            // An odd number of quotes so far means a quoted field continues on the next line
+            int quotes = count(text);
+            if (quotes % 2 == 0) {
+                return text;
+            }
+            StringBuilder record = new StringBuilder(text);
+            for (String next; quotes % 2 != 0 && (next = in.readLine()) != null; ) {
+                lines++;
+                record.append('\n').append(next);
+                quotes += count(next);
+            }
+            return record.toString();
+        }
+
+        /** The line the last record read starts on */
+        int getRecordLine() {
+            return recordLine;
+        }
+
+        private static int count(String text) {
+            int n = 0;
+            for (int i = 0; i < text.length(); i++) {
+                if (text.charAt(i) == '"') {
+                    n++;
+                }
+            }
+            return n;
+        }
+    }
+
+    /** The values of one record by column name */
+    private static class Fields {
+        private final Map<String, Integer> columns;
+        private final List<String> values;
+
+        Fields(Map<String, Integer> columns, List<String> values) {
+            this.columns = columns;
+            this.values = values;
+        }
+
+        /** The value of a column, or null if the column is missing or blank */
+        String string(String column) {
+            Integer index = columns.get(column.toLowerCase(Locale.ROOT));
+            if (index == null || values.get(index).trim().isEmpty()) {
+                return null;
+            }
+            return values.get(index).trim();
+        }
+
+        String required(String column) throws Rejected {
+            String value = string(column);
+            if (value == null) {
+                throw new Rejected(column + " is required");
+            }
+            return value;
+        }
+
+        int requiredInteger(String column) throws Rejected {
+            required(column);
+            return integer(column);
+        }
+
+        Integer integer(String column) throws Rejected {
+            String value = string(column);
+            try {
+                return value == null ? null : Integer.valueOf(value);
+            } catch (NumberFormatException e) {
+                throw new Rejected(column + " must be a whole number, not " + value);
+            }
+        }
+
+        Float decimal(String column) throws Rejected {
+            String value = string(column);
+            try {
+                return value == null ? null : Float.valueOf(value);
+            } catch (NumberFormatException e) {
+                throw new Rejected(column + " must be a number, not " + value);
+            }
+        }
+
+        Date requiredDate(String column) throws Rejected {
+            required(column);
+            return date(column);
+        }
+
+        Date date(String column) throws Rejected {
+            String value = string(column);
+            try {
+                return value == null ? null : Date.valueOf(value);
+            } catch (IllegalArgumentException e) {
+                throw new Rejected(column + " must be a date (yyyy-mm-dd), not " + value);
+            }
+        }
+
+        <E extends Enum<E>> E choice(String column, Class<E> type) throws Rejected {
+            String value = required(column);
+            try {
+                return Enum.valueOf(type, value.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new Rejected(column + " must be one of " + Arrays.toString(type.getEnumConstants()) + ", not " + value);
+            }
+        }
+    }
+
+    /** Default number of records parsed, validated and inserted together */
+    public static final int DEFAULT_CHUNK_ROWS = Integer.getInteger("hospital.import.chunkRows", 5000);
+
+    private final Lookup hospitals = new Lookup("hospital", "SELECT ID FROM Hospital WHERE ID IN (%s)");
+    private final Lookup specializations = new Lookup("specialization", "SELECT name FROM Specialization WHERE name IN (%s)");
+    private final Lookup patients = new Lookup("patient", "SELECT personID FROM Patient WHERE personID IN (%s)");
+    private final Lookup doctors = new Lookup("doctor", "SELECT personID FROM Staff WHERE jobTitle='DOCTOR' AND personID IN (%s)");
+    private final Lookup visits = new Lookup("visit", "SELECT ID FROM HospitalVisit WHERE ID IN (%s)");
+    private final Lookup beds = new Lookup("bed", "SELECT ID FROM Bed WHERE ID IN (%s)");
+
+    // Generated IDs by legacy ID, for each kind imported from a file with an ID column
+    private final Map<Kind, Map<Integer, Integer>> legacyIDs = new ConcurrentHashMap<>();
+
+    private final int threads;
+    private final int chunkRows;
+
+    /**
+     * Construct an importer
+     * @param threads Number of chunks imported at once; each holds a pooled connection
+     * @param chunkRows Number of records parsed, validated and inserted together
+     */
+    public BulkImporter(int threads, int chunkRows) {
+        if (threads < 1 || chunkRows < 1) {
+            throw new IllegalArgumentException("Threads and chunk rows must be positive");
+        }
+        this.threads = threads;
+        this.chunkRows = chunkRows;
+    }
+
+    /**
+     * Main method for the importer
+     * @param args kind=FILE for each file to import (staff, patients, visits, records, billing), then optionally
+     *             threads=N and chunkRows=N
+     * @throws Exception upon error while connecting to the Database or reading a file
+     */
+    public static void main(String[] args) throws Exception {
+        Map<Kind, Path> files = new LinkedHashMap<>();
+        int threads = Math.min(Runtime.getRuntime().availableProcessors(), HospitalDBMS.POOL_MAX_SIZE);
+        int chunkRows = DEFAULT_CHUNK_ROWS;
+        for (String arg : args) {
+            String[] option = arg.split("=", 2);
+            if (option.length != 2) {
+                usage();
+            }
+            if (option[0].equals("threads")) {
+                threads = Math.min(Integer.parseInt(option[1]), HospitalDBMS.POOL_MAX_SIZE);
+            } else if (option[0].equals("chunkRows")) {
+                chunkRows = Integer.parseInt(option[1]);
+            } else {
+                Kind kind = Arrays.stream(Kind.values()).filter(k -> k.name.equals(option[0])).findFirst().orElse(null);
+                if (kind == null) {
+                    usage();
+                }
+                files.put(kind, Paths.get(option[1]));
+            }
+        }
+        if (files.isEmpty()) {
+            usage();
+        }
+
+        BulkImporter importer = new BulkImporter(threads, chunkRows);
+        int rejected = 0;
+        for (Kind kind : Kind.values()) {
+            if (files.containsKey(kind)) {
+                rejected += importer.importFile(kind, files.get(kind));
+            }
+        }
+        System.exit(rejected == 0 ? 0 : 1);
+    }
+
+    private static void usage() {
+        System.out.println("Usage: BulkImporter [staff=FILE] [patients=FILE] [visits=FILE] [records=FILE] [billing=FILE] "
+                           + "[threads=N] [chunkRows=N]");
+        System.exit(1);
+    }
+
+    /**
+     * Import one CSV file, printing progress as chunks finish and a summary at the end
+     * @return The number of rows rejected
+     * @throws IOException if the file can't be read or its header is wrong
+     */
+    public int importFile(Kind kind, Path file) throws IOException, SQLException {
+        long started = System.currentTimeMillis();
+        Path rejectsFile = file.resolveSibling(file.getFileName() + ".rejected.csv");
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        // Chunks read but not yet imported; the reader waits when it is 2 * threads ahead
+        Semaphore ahead = new Semaphore(2 * threads);
+        List<Future<List<Staged>>> chunks = new ArrayList<>();
+        AtomicInteger imported = new AtomicInteger();
+        int records = 0;
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            RecordReader reader = new RecordReader(in);
+            String headerText = reader.next();
+            if (headerText == null) {
+                throw new IOException(file + " is empty");
+            }
+            Map<String, Integer> columns = header(kind, parseFields(headerText));
+            if (columns.containsKey("id")) {
+                legacyIDs.put(kind, new ConcurrentHashMap<>());
+            }
+            Set<Integer> claimed = ConcurrentHashMap.newKeySet();
+
+            while (true) {
+                List<Staged> chunk = new ArrayList<>(chunkRows);
+                for (String text; chunk.size() < chunkRows && (text = reader.next()) != null; ) {
+                    chunk.add(new Staged(reader.getRecordLine(), text));
+                }
+                if (chunk.isEmpty()) {
+                    break;
+                }
+                records += chunk.size();
+                ahead.acquire();
+                chunks.add(pool.submit(() -> {
+                    try {
+                        return importChunk(kind, columns, claimed, chunk, imported);
+                    } finally {
+                        releaseConnection();
+                        ahead.release();
+                    }
+                }));
+            }
+
+            List<Staged> rejects = new ArrayList<>();
+            for (Future<List<Staged>> chunk : chunks) {
+                rejects.addAll(chunk.get());
+            }
+            writeRejects(rejectsFile, rejects);
+            System.out.printf("Imported %d of %d %s from %s in %d ms; %d rejected%s\n", imported.get(), records,
+                              kind.name, file, System.currentTimeMillis() - started, rejects.size(),
+                              rejects.isEmpty() ? "" : " (see " + rejectsFile + ")");
+            return rejects.size();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import of " + file + " interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw new IOException("Unable to import " + file + ": " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Parse, validate and insert one chunk on the current thread's connection
+     * @return The rejected records, with their reasons
+     */
+    private List<Staged> importChunk(Kind kind, Map<String, Integer> columns, Set<Integer> claimed,
+                                     List<Staged> chunk, AtomicInteger imported) throws SQLException {
+        List<Staged> rejects = new ArrayList<>();
+        List<Staged> valid = new ArrayList<>();
+        for (Staged staged : chunk) {
+            try {
+                List<String> values = parseFields(staged.text);
+                if (values.size() != columns.size()) {
+                    throw new Rejected("Expected " + columns.size() + " fields but found " + values.size());
+                }
+                stage(kind, new Fields(columns, values), staged);
+                if (staged.legacyID != null && !claimed.add(staged.legacyID)) {
+                    throw new Rejected("ID " + staged.legacyID + " appears more than once");
+                }
+                valid.add(staged);
+            } catch (Rejected e) {
+                reject(rejects, staged, e.getMessage());
+            }
+        }
+
+        // One query per referenced table for the whole chunk
+        Map<Lookup, Set<Object>> referenced = new HashMap<>();
+        for (Staged staged : valid) {
+            for (Reference reference : staged.references) {
+                referenced.computeIfAbsent(reference.lookup, k -> new HashSet<>()).add(reference.id);
+            }
+        }
+        Map<Lookup, Set<Object>> existing = new HashMap<>();
+        for (Map.Entry<Lookup, Set<Object>> entry : referenced.entrySet()) {
+            existing.put(entry.getKey(), entry.getKey().existing(entry.getValue()));
+        }
+        List<Staged> checked = new ArrayList<>();
+        for (Staged staged : valid) {
+            Reference missing = null;
+            for (Reference reference : staged.references) {
+                if (!existing.get(reference.lookup).contains(reference.id)) {
+                    missing = reference;
+                    break;
+                }
+            }
+            if (missing == null) {
+                checked.add(staged);
+            } else {
+                reject(rejects, staged, missing.column + " " + missing.id + " is not a " + missing.lookup.description);
+            }
+        }
+
+        for (int start = 0; start < checked.size(); start += Relation.DEFAULT_BATCH_SIZE) {
+            List<Staged> batch = checked.subList(start, Math.min(start + Relation.DEFAULT_BATCH_SIZE, checked.size()));
+            try {
+                insert(kind, batch);
+            } catch (SQLException e) {
+                // Find the rows the database refuses
+                for (Staged staged : batch) {
+                    try {
+                        insert(kind, List.of(staged));
+                    } catch (SQLException e2) {
+                        reject(rejects, staged, e2.getMessage());
+                    }
+                }
+            }
+        }
+        imported.addAndGet(chunk.size() - rejects.size());
+        return rejects;
+    }
+
+    /** Reject a record, dropping its row so only the reason is kept until the file is done */
+    private static void reject(List<Staged> rejects, Staged staged, String reason) {
+        staged.reason = reason;
+        staged.row = null;
+        staged.references.clear();
+        rejects.add(staged);
+    }
+
+    /** Insert rows in one transaction, then record the IDs generated for their legacy IDs */
+    private void insert(Kind kind, List<Staged> batch) throws SQLException {
+        List<Relation> rows = new ArrayList<>(batch.size());
+        for (Staged staged : batch) {
+            rows.add(staged.row);
+        }
+        Relation.insertAll(rows, rows.size());
+
+        Map<Integer, Integer> ids = legacyIDs.get(kind);
+        if (ids != null) {
+            for (Staged staged : batch) {
+                ids.put(staged.legacyID, staged.row instanceof Person ? ((Person) staged.row).getID()
+                                                                      : ((HospitalVisit) staged.row).getID());
+            }
+        }
+    }
+
+    /** Build a record's row, checking the model rules, and note the rows it refers to */
+    private void stage(Kind kind, Fields f, Staged staged) throws Rejected {
+        staged.legacyID = f.integer("ID");
+        if (staged.legacyID == null && legacyIDs.containsKey(kind)) {
+            throw new Rejected("ID is required when the file has an ID column");
+        }
+        switch (kind) {
+            case STAFF: {
+                Staff.JobTitle jobTitle = f.choice("jobTitle", Staff.JobTitle.class);
+                String specialization = f.string("specialization");
+                if (specialization != null && jobTitle != Staff.JobTitle.DOCTOR) {
+                    throw new Rejected("Only doctors can have a specialization");
+                }
+                int hospitalID = f.requiredInteger("hospitalID");
+                staged.row = new Staff(f.required("name"), f.string("address"), f.string("phoneNum"), f.date("dateOfBirth"),
+                                       jobTitle, hospitalID, f.string("department"), f.string("profTitle"),
+                                       f.string("officeAddress"), specialization);
+                staged.mustExist(hospitals, hospitalID, "hospitalID");
+                if (specialization != null) {
+                    staged.mustExist(specializations, specialization, "specialization");
+                }
+                break;
+            }
+            case PATIENTS:
+                staged.row = new Patient(f.required("name"), f.string("address"), f.string("phoneNum"), f.date("dateOfBirth"),
+                                         f.integer("ssn"), f.string("gender"), f.choice("status", Patient.Status.class));
+                break;
+            case VISITS: {
+                int hospitalID = f.requiredInteger("hospitalID");
+                int patientID = reference(Kind.PATIENTS, f.integer("patientID"), "patientID");
+                Date startDate = f.requiredDate("startDate");
+                Date endDate = f.date("endDate");
+                if (endDate != null && endDate.before(startDate)) {
+                    throw new Rejected("endDate is before startDate");
+                }
+                Integer bedNumber = f.integer("bedNumber");
+                staged.row = new HospitalVisit(hospitalID, patientID, startDate, endDate, f.string("diagnosis"),
+                                               bedNumber, f.decimal("registrationFee"));
+                staged.mustExist(hospitals, hospitalID, "hospitalID");
+                staged.mustExist(patients, patientID, "patientID");
+                if (bedNumber != null) {
+                    staged.mustExist(beds, bedNumber, "bedNumber");
+                }
+                break;
+            }
+            case RECORDS: {
+                int visitID = reference(Kind.VISITS, f.integer("visitID"), "visitID");
+                int doctorID = reference(Kind.STAFF, f.integer("doctorID"), "doctorID");
+                staged.row = new MedicalRecord(visitID, doctorID, f.string("prescription"), f.string("diagnostic"),
+                                               f.string("test"), f.string("result"), f.string("treatment"),
+                                               fee(f, "consultationFee"), fee(f, "testFee"), fee(f, "treatmentFee"));
+                staged.mustExist(visits, visitID, "visitID");
+                staged.mustExist(doctors, doctorID, "doctorID");
+                break;
+            }
+            case BILLING: {
+                int patientID = reference(Kind.PATIENTS, f.integer("patientID"), "patientID");
+                staged.row = new Billing(patientID, f.string("paymentInfo"));
+                staged.mustExist(patients, patientID, "patientID");
+                break;
+            }
+        }
+    }
+
+    /**
+     * Map a reference to a kind imported with legacy IDs to its generated ID; other references are database IDs
+     * @throws Rejected if the reference is missing, or is a legacy ID that wasn't imported
+     */
+    private int reference(Kind kind, Integer id, String column) throws Rejected {
+        if (id == null) {
+            throw new Rejected(column + " is required");
+        }
+        Map<Integer, Integer> ids = legacyIDs.get(kind);
+        if (ids == null) {
+            return id;
+        }
+        Integer generated = ids.get(id);
+        if (generated == null) {
+            throw new Rejected(column + " " + id + " is not an imported " + kind.name + " ID");
+        }
+        return generated;
+    }
+
+    /** A fee column, 0 if blank */
+    private static int fee(Fields f, String column) throws Rejected {
+        Integer fee = f.integer(column);
+        if (fee != null && fee < 0) {
+            throw new Rejected(column + " can't be negative");
+        }
+        return fee == null ? 0 : fee;
+    }
+
+    /**
+     * Check a header against a kind's columns
+     * @return The index of each column by its lower-case name
+     * @throws IOException if a column is unknown, repeated or required and missing
+     */
+    private static Map<String, Integer> header(Kind kind, List<String> names) throws IOException {
+        Set<String> allowed = new HashSet<>();
+        for (String column : kind.required) {
+            allowed.add(column.toLowerCase(Locale.ROOT));
+        }
+        for (String column : kind.optional) {
+            allowed.add(column.toLowerCase(Locale.ROOT));
+        }
+        Map<String, Integer> columns = new HashMap<>();
+        for (int i = 0; i < names.size(); i++) {
+            String name = names.get(i).trim().toLowerCase(Locale.ROOT);
+            if (!allowed.contains(name) || columns.put(name, i) != null) {
+                throw new IOException("Unexpected column " + names.get(i) + " in the " + kind.name + " header; columns are "
+                                      + Arrays.toString(kind.required) + " and optionally " + Arrays.toString(kind.optional));
+            }
+        }
+        for (String column : kind.required) {
+            if (!columns.containsKey(column.toLowerCase(Locale.ROOT))) {
+                throw new IOException("The " + kind.name + " header is missing the " + column + " column");
+            }
+        }
+        return columns;
+    }
+
+    /** Split a CSV record into fields (RFC 4180: quoted fields may hold commas, "" quotes and line breaks) */
+    private static List<String> parseFields(String record) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < record.length(); i++) {
+            char c = record.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < record.length() && record.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c != '\r') {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    /** Write the rejected records, in file order, with their line numbers and reasons */
+    private static void writeRejects(Path file, List<Staged> rejects) throws IOException {
+        if (rejects.isEmpty()) {
+            Files.deleteIfExists(file);
+            return;
+        }
+        rejects.sort((a, b) -> Integer.compare(a.line, b.line));
+        try (Writer out = new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            String[] labels = {"line", "reason", "record"};
+            StringBuilder line = new StringBuilder();
+            ExportFormat.CSV.header(line, labels);
+            for (Staged staged : rejects) {
+                ExportFormat.CSV.row(line, labels, new Object[] {staged.line, staged.reason, staged.text});
+            }
+            out.append(line);
+        }
+    }
+}
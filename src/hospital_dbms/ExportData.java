@@ -0,0 +1,79 @@
+package hospital_dbms;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+import hospital_dbms.export.ExportFormat;
+import hospital_dbms.export.TableExport;
+
+/**
+ * Export tables to compressed CSV or NDJSON files for downstream analytics, one file per chunk of IDs.
+ * Runs TableExport, so running an export again into the same directory resumes it
+ */
+public class ExportData {
+
+    // Exported when no tables are given
+    private static final List<String> DEFAULT_TABLES = Arrays.asList("Person", "HospitalVisit", "MedicalRecord", "Billing");
+
+    /**
+     * Main method for the export
+     * @param args Optionally dir=PATH (default exports), format=csv|ndjson (default csv), tables=A,B,...
+     *             (default Person,HospitalVisit,MedicalRecord,Billing), from=ID and to=ID (the range of IDs to
+     *             export), workers=N, chunkSize=N, and nogzip (write uncompressed files)
+     * @throws SQLException upon error while connecting to the Database or planning the export
+     * @throws IOException if the directory can't be created
+     */
+    public static void main(String[] args) throws SQLException, IOException {
+        String directory = "exports";
+        ExportFormat format = ExportFormat.CSV;
+        List<String> tables = DEFAULT_TABLES;
+        Integer fromID = null;
+        Integer toID = null;
+        int workers = TableExport.DEFAULT_WORKERS;
+        int chunkSize = TableExport.DEFAULT_CHUNK_SIZE;
+        boolean gzip = true;
+        try {
+            for (String arg : args) {
+                String value = arg.substring(arg.indexOf('=') + 1);
+                if (arg.startsWith("dir=")) {
+                    directory = value;
+                } else if (arg.startsWith("format=")) {
+                    format = ExportFormat.valueOf(value.toUpperCase());
+                } else if (arg.startsWith("tables=")) {
+                    tables = Arrays.asList(value.split(","));
+                } else if (arg.startsWith("from=")) {
+                    fromID = Integer.parseInt(value);
+                } else if (arg.startsWith("to=")) {
+                    toID = Integer.parseInt(value);
+                } else if (arg.startsWith("workers=")) {
+                    workers = Integer.parseInt(value);
+                } else if (arg.startsWith("chunkSize=")) {
+                    chunkSize = Integer.parseInt(value);
+                } else if (arg.equals("nogzip")) {
+                    gzip = false;
+                } else {
+                    usage();
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            usage();
+        }
+
+        TableExport export = new TableExport(Paths.get(directory), format, gzip, workers, chunkSize);
+        TableExport.Result result = export.run(tables, fromID, toID);
+        System.out.printf("Exported %d rows of %s to %s in %d ms (%.0f rows/s); "
+                          + "%d chunks written, %d already done, %d failed\n",
+                          result.getRows(), String.join(", ", tables), directory, result.getElapsedMillis(),
+                          result.getThroughput(), result.getChunks(), result.getSkipped(), result.getFailed());
+        System.exit(result.getFailed() == 0 ? 0 : 1);
+    }
+
+    private static void usage() {
+        System.out.println("Usage: ExportData [dir=PATH] [format=csv|ndjson] [tables=" + String.join(",", TableExport.TABLES.keySet())
+                           + "] [from=ID] [to=ID] [workers=N] [chunkSize=N] [nogzip]");
+        System.exit(1);
+    }
+}
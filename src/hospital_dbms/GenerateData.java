@@ -0,0 +1,440 @@
+package hospital_dbms;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static hospital_dbms.HospitalDBMS.getConnection;
+import static hospital_dbms.HospitalDBMS.releaseConnection;
+import hospital_dbms.db.SchemaMigrator;
+import hospital_dbms.models.*;
+
+/**
+ * Create large amounts of synthetic data for scale testing.
+ * Drops and recreates every table, like InitializeDatabase, then fills them with generated hospitals,
+ * staff, beds, patients, visits, responsible staff, medical records and billing accounts.
+ * The same seed and sizes always produce the same data (apart from generated IDs).
+ *
+ * Arguments are name=value pairs:
+ *   patients=N   number of patients (default 100000); the other tables are sized relative to it
+ *   hospitals=N  number of hospitals (default patients / 5000, at least 2)
+ *   threads=N    number of loader threads (default number of processors, at most the pool size)
+ *   seed=N       random seed (default 42)
+ */
+public class GenerateData {
+
+    // Specializations and their charges per day
+    private static final String[] SPECIALIZATIONS = {
+        "neurology", "pediatrics", "cardiology", "oncology", "orthopedics", "emergency",
+        "radiology", "geriatrics", "obstetrics", "dermatology", "psychiatry", "urology"
+    };
+    private static final float[] CHARGES_PER_DAY = {
+        350f, 200f, 400f, 450f, 300f, 500f, 250f, 180f, 280f, 120f, 220f, 260f
+    };
+
+    private static final String[] FIRST_NAMES = {
+        "James", "Mary", "John", "Patricia", "Robert", "Jennifer", "Michael", "Linda", "William", "Elizabeth",
+        "David", "Barbara", "Richard", "Susan", "Joseph", "Jessica", "Thomas", "Sarah", "Charles", "Karen",
+        "Daniel", "Nancy", "Matthew", "Lisa", "Anthony", "Sandra", "Mark", "Ashley", "Steven", "Emily"
+    };
+    private static final String[] LAST_NAMES = {
+        "Smith", "Johnson", "Williams", "Brown", "Jones", "Garcia", "Miller", "Davis", "Rodriguez", "Martinez",
+        "Hernandez", "Lopez", "Wilson", "Anderson", "Thomas", "Taylor", "Moore", "Jackson", "Martin", "Lee",
+        "Thompson", "White", "Harris", "Clark", "Lewis", "Walker", "Young", "Allen", "King", "Wright"
+    };
+    private static final String[] STREETS = {
+        "Main St", "Oak Ave", "Pine St", "Maple Ave", "Cedar Ln", "Elm St", "Hillsborough St", "Glenwood Ave",
+        "Wade Ave", "Western Blvd", "Capital Blvd", "Falls of Neuse Rd"
+    };
+    private static final String[] DIAGNOSES = {
+        "observation", "infection", "fracture", "chest pain", "fever", "injury", "chronic condition", "follow-up"
+    };
+    private static final String[] TESTS = {"Blood test", "X-ray", "MRI", "CT scan", "Ultrasound", "ECG", "Biopsy"};
+    private static final String[] PAYMENT_INFO = {"CASH", "CARD", "INSURANCE"};
+
+    // The "current" date of the generated data; visits start in the three years before it
+    private static final long END_MILLIS = Date.valueOf("2019-12-01").getTime();
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+    private static final int HISTORY_DAYS = 3 * 365;
+
+    // Patients generated and inserted together by one task
+    private static final int PATIENTS_PER_CHUNK = 5000;
+
+    /** A generated hospital with the specialties it offers and the staff working in each */
+    private static class GeneratedHospital {
+        Hospital hospital;
+        // Relative size; bigger hospitals get more staff, beds and visits
+        double weight;
+        String[] specialties;
+        // Staff IDs per specialty, parallel to specialties
+        int[][] doctors;
+        int[][] nurses;
+    }
+
+    private final int patientCount;
+    private final int hospitalCount;
+    private final int threads;
+    private final long seed;
+
+    private final List<GeneratedHospital> hospitals = new ArrayList<>();
+    // Cumulative hospital weights, for picking hospitals by size
+    private double[] cumulativeWeights;
+
+    private final AtomicLong rowsInserted = new AtomicLong();
+
+    GenerateData(int patientCount, int hospitalCount, int threads, long seed) {
+        this.patientCount = patientCount;
+        this.hospitalCount = hospitalCount;
+        this.threads = threads;
+        this.seed = seed;
+    }
+
+    /**
+     * Main method for the generator. Drops, recreates and populates all of the tables in the HospitalDBMS system
+     * @param args name=value options (see the class comment)
+     * @throws Exception upon error while connecting to the Database or inserting the data
+     */
+    public static void main(String[] args) throws Exception {
+        int patients = 100000;
+        int hospitals = -1;
+        int threads = Math.min(Runtime.getRuntime().availableProcessors(), HospitalDBMS.POOL_MAX_SIZE);
+        long seed = 42;
+
+        for (String arg : args) {
+            String[] option = arg.split("=", 2);
+            if (option.length != 2) {
+                throw new IllegalArgumentException("Expected name=value but got " + arg);
+            }
+            switch (option[0]) {
+                case "patients": patients = Integer.parseInt(option[1]); break;
+                case "hospitals": hospitals = Integer.parseInt(option[1]); break;
+                case "threads": threads = Math.min(Integer.parseInt(option[1]), HospitalDBMS.POOL_MAX_SIZE); break;
+                case "seed": seed = Long.parseLong(option[1]); break;
+                default: throw new IllegalArgumentException("Unknown option " + option[0]);
+            }
+        }
+        if (hospitals < 1) {
+            hospitals = Math.max(2, patients / 5000);
+        }
+
+        new GenerateData(patients, hospitals, threads, seed).run();
+    }
+
+    /** Reset the tables and generate all of the data */
+    void run() throws Exception {
+        long start = System.nanoTime();
+        System.out.println("Generating " + patientCount + " patients in " + hospitalCount + " hospitals using "
+                           + threads + " threads (seed " + seed + ")");
+
+        InitializeDatabase.resetTables();
+        createHospitals();
+        releaseConnection();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            // Staff and beds of each hospital, then patients and their visits (which need the staff)
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (int i = 0; i < hospitals.size(); i++) {
+                int index = i;
+                tasks.add(() -> createStaffAndBeds(index));
+            }
+            runAll(executor, tasks);
+            System.out.println("Created staff and beds (" + rowsInserted.get() + " rows so far)");
+
+            tasks.clear();
+            for (int first = 0; first < patientCount; first += PATIENTS_PER_CHUNK) {
+                int chunkStart = first;
+                int chunkSize = Math.min(PATIENTS_PER_CHUNK, patientCount - first);
+                tasks.add(() -> createPatients(chunkStart, chunkSize));
+            }
+            runAll(executor, tasks);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Indexes are cheaper to build once the data is loaded than to maintain on every insert
+        System.out.println("Applying schema migrations");
+        new SchemaMigrator(getConnection()).migrate();
+        releaseConnection();
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Inserted %d rows in %.1f s (%.0f rows/s)%n", rowsInserted.get(), seconds,
+                          rowsInserted.get() / seconds);
+    }
+
+    /** Run tasks on the executor and wait for all of them, failing on the first error */
+    private static void runAll(ExecutorService executor, List<Callable<Void>> tasks) throws Exception {
+        List<Future<Void>> futures = new ArrayList<>();
+        for (Callable<Void> task : tasks) {
+            futures.add(executor.submit(task));
+        }
+        try {
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            for (Future<Void> future : futures) {
+                future.cancel(true);
+            }
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    /** Insert the specializations, the hospitals and the specialties each hospital offers */
+    private void createHospitals() throws SQLException {
+        Random random = new Random(seed);
+
+        List<Specialization> specializations = new ArrayList<>();
+        for (int i = 0; i < SPECIALIZATIONS.length; i++) {
+            specializations.add(new Specialization(SPECIALIZATIONS[i], CHARGES_PER_DAY[i]));
+        }
+        Relation.insertAll(specializations);
+
+        // Hospital sizes follow a Zipf-like distribution: a few large hospitals and many small ones
+        List<Relation> rows = new ArrayList<>();
+        cumulativeWeights = new double[hospitalCount];
+        double totalWeight = 0;
+        for (int i = 0; i < hospitalCount; i++) {
+            GeneratedHospital h = new GeneratedHospital();
+            h.hospital = new Hospital(address(random), phone(random));
+            h.weight = 1.0 / Math.pow(i + 1, 0.8);
+            totalWeight += h.weight;
+            cumulativeWeights[i] = totalWeight;
+            hospitals.add(h);
+            rows.add(h.hospital);
+        }
+        Relation.insertAll(rows);
+
+        // Larger hospitals offer more specialties
+        rows.clear();
+        for (GeneratedHospital h : hospitals) {
+            h.weight /= totalWeight;
+            int count = Math.min(SPECIALIZATIONS.length, 4 + (int) Math.round(h.weight * hospitalCount * 2));
+            String[] shuffled = SPECIALIZATIONS.clone();
+            for (int i = shuffled.length - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                String swap = shuffled[i];
+                shuffled[i] = shuffled[j];
+                shuffled[j] = swap;
+            }
+            h.specialties = Arrays.copyOf(shuffled, count);
+            for (String specialty : h.specialties) {
+                rows.add(new HospitalSpecialty(h.hospital.getHospitalID(), specialty));
+            }
+        }
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            cumulativeWeights[i] /= totalWeight;
+        }
+        Relation.insertAll(rows);
+        rowsInserted.addAndGet(specializations.size() + hospitals.size() + rows.size());
+    }
+
+    /**
+     * Insert the staff and beds of one hospital.
+     * Roughly one doctor per 100 patients, two nurses per doctor and one bed per 20 patients, split by hospital size.
+     */
+    private Void createStaffAndBeds(int index) throws SQLException {
+        GeneratedHospital h = hospitals.get(index);
+        Random random = new Random(seed * 31 + index);
+        int hospitalID = h.hospital.getHospitalID();
+        double share = h.weight / h.specialties.length;
+        int doctorsPerSpecialty = Math.max(1, (int) Math.round(share * patientCount / 100));
+        int bedsPerSpecialty = Math.max(2, (int) Math.round(share * patientCount / 20));
+
+        try {
+            List<Staff> staff = new ArrayList<>();
+            staff.add(new Staff(name(random), address(random), phone(random), birthDate(random, 45, 10),
+                                Staff.JobTitle.ADMINISTRATOR, hospitalID, "Administration", "Administrator",
+                                h.hospital.getAddress(), null));
+            staff.add(new Staff(name(random), address(random), phone(random), birthDate(random, 40, 10),
+                                Staff.JobTitle.BILLER, hospitalID, "Billing", "Billing Specialist",
+                                h.hospital.getAddress(), null));
+
+            List<List<Staff>> doctors = new ArrayList<>();
+            List<List<Staff>> nurses = new ArrayList<>();
+            for (String specialty : h.specialties) {
+                List<Staff> specialtyDoctors = new ArrayList<>();
+                List<Staff> specialtyNurses = new ArrayList<>();
+                for (int i = 0; i < doctorsPerSpecialty; i++) {
+                    specialtyDoctors.add(new Staff(name(random), address(random), phone(random), birthDate(random, 48, 10),
+                                                   Staff.JobTitle.DOCTOR, hospitalID, specialty,
+                                                   random.nextInt(4) == 0 ? "Senior Physician" : "Physician",
+                                                   h.hospital.getAddress(), specialty));
+                }
+                for (int i = 0; i < doctorsPerSpecialty * 2; i++) {
+                    specialtyNurses.add(new Staff(name(random), address(random), phone(random), birthDate(random, 38, 11),
+                                                  Staff.JobTitle.NURSE, hospitalID, specialty,
+                                                  random.nextInt(4) == 0 ? "Senior Nurse" : "Nurse",
+                                                  h.hospital.getAddress(), null));
+                }
+                doctors.add(specialtyDoctors);
+                nurses.add(specialtyNurses);
+                staff.addAll(specialtyDoctors);
+                staff.addAll(specialtyNurses);
+            }
+            Relation.insertAll(staff);
+
+            h.doctors = ids(doctors);
+            h.nurses = ids(nurses);
+
+            List<Bed> beds = new ArrayList<>();
+            for (int s = 0; s < h.specialties.length; s++) {
+                for (int i = 0; i < bedsPerSpecialty; i++) {
+                    beds.add(new Bed(hospitalID, h.specialties[s], pick(random, h.nurses[s]), false));
+                }
+            }
+            Relation.insertAll(beds);
+            rowsInserted.addAndGet(staff.size() * 2 + beds.size());
+        } finally {
+            releaseConnection();
+        }
+        return null;
+    }
+
+    /**
+     * Insert a chunk of patients with their visits, responsible staff, medical records and billing accounts.
+     * Each patient has one or more visits (fewer is more likely); only the latest visit can still be open.
+     */
+    private Void createPatients(int first, int count) throws SQLException {
+        Random random = new Random(seed * 17 + first);
+
+        // MedicalRecord looks up its doctor; keep each doctor in the identity map for the whole chunk
+        EntityCache.beginUnitOfWork();
+        try {
+            List<Patient> patients = new ArrayList<>();
+            int[] visitCounts = new int[count];
+            boolean[] openVisit = new boolean[count];
+            for (int i = 0; i < count; i++) {
+                visitCounts[i] = 1 + geometric(random, 0.45, 9);
+                openVisit[i] = random.nextInt(20) == 0;
+
+                Patient patient = new Patient(name(random), address(random), phone(random), birthDate(random, 45, 22),
+                                              100000000 + first + i, random.nextBoolean() ? "F" : "M",
+                                              openVisit[i] ? Patient.Status.IN_TREATMENT
+                                                           : Patient.Status.TREATMENT_COMPLETE);
+                patients.add(patient);
+            }
+            Relation.insertAll(patients);
+
+            List<Relation> billing = new ArrayList<>();
+            List<HospitalVisit> visits = new ArrayList<>();
+            List<int[]> visitStaff = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                Patient patient = patients.get(i);
+                billing.add(new Billing(patient.getID(), PAYMENT_INFO[random.nextInt(PAYMENT_INFO.length)]));
+
+                // Patients mostly return to the same hospital
+                GeneratedHospital h = pickHospital(random);
+                long[] starts = new long[visitCounts[i]];
+                for (int v = 0; v < starts.length; v++) {
+                    starts[v] = END_MILLIS - random.nextInt(HISTORY_DAYS) * DAY_MILLIS;
+                }
+                Arrays.sort(starts);
+
+                for (int v = 0; v < starts.length; v++) {
+                    if (random.nextInt(5) == 0) {
+                        h = pickHospital(random);
+                    }
+                    int specialty = random.nextInt(h.specialties.length);
+                    Date start = new Date(starts[v]);
+                    Date end = null;
+                    if (!(openVisit[i] && v == starts.length - 1)) {
+                        // Stays are short with a long tail
+                        long stay = Math.round(Math.exp(random.nextGaussian() * 0.8 + 0.7));
+                        end = new Date(Math.min(END_MILLIS, starts[v] + stay * DAY_MILLIS));
+                    }
+                    visits.add(new HospitalVisit(h.hospital.getHospitalID(), patient.getID(), start, end,
+                                                 DIAGNOSES[random.nextInt(DIAGNOSES.length)] + " (" + h.specialties[specialty] + ")",
+                                                 null, random.nextInt(10) == 0 ? 40f : 20f));
+                    visitStaff.add(new int[] {pick(random, h.doctors[specialty]), pick(random, h.nurses[specialty])});
+                }
+            }
+            Relation.insertAll(visits);
+            Relation.insertAll(billing);
+
+            List<Relation> related = new ArrayList<>();
+            for (int v = 0; v < visits.size(); v++) {
+                int visitID = visits.get(v).getID();
+                int doctorID = visitStaff.get(v)[0];
+                related.add(new ResponsibleStaff(visitID, doctorID));
+                related.add(new ResponsibleStaff(visitID, visitStaff.get(v)[1]));
+
+                int records = 1 + geometric(random, 0.5, 4);
+                for (int r = 0; r < records; r++) {
+                    boolean tested = random.nextInt(3) != 0;
+                    boolean treated = random.nextInt(2) == 0;
+                    related.add(new MedicalRecord(visitID, doctorID, treated ? "prescribed medication" : "none",
+                                                  DIAGNOSES[random.nextInt(DIAGNOSES.length)],
+                                                  tested ? TESTS[random.nextInt(TESTS.length)] : "none",
+                                                  tested ? (random.nextInt(4) == 0 ? "positive" : "negative") : "n/a",
+                                                  treated ? "treatment plan" : "not required",
+                                                  50 + random.nextInt(101),
+                                                  tested ? 50 + random.nextInt(251) : 0,
+                                                  treated ? 100 + random.nextInt(1901) : 0));
+                }
+            }
+            Relation.insertAll(related);
+
+            // Patients are two rows each (Person and Patient)
+            long total = rowsInserted.addAndGet(count * 2L + billing.size() + visits.size() + related.size());
+            System.out.println("Inserted patients " + first + "-" + (first + count - 1) + " (" + total + " rows so far)");
+        } finally {
+            EntityCache.endUnitOfWork();
+            releaseConnection();
+        }
+        return null;
+    }
+
+    /** Pick a hospital, with bigger hospitals more likely */
+    private GeneratedHospital pickHospital(Random random) {
+        int index = Arrays.binarySearch(cumulativeWeights, random.nextDouble());
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return hospitals.get(Math.min(index, hospitals.size() - 1));
+    }
+
+    /** Number of failures before the first success, with the given success probability, capped at max */
+    private static int geometric(Random random, double p, int max) {
+        int n = 0;
+        while (n < max && random.nextDouble() > p) {
+            n++;
+        }
+        return n;
+    }
+
+    private static int pick(Random random, int[] ids) {
+        return ids[random.nextInt(ids.length)];
+    }
+
+    private static int[][] ids(List<List<Staff>> staff) {
+        int[][] ids = new int[staff.size()][];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = staff.get(i).stream().mapToInt(Staff::getID).toArray();
+        }
+        return ids;
+    }
+
+    private static String name(Random random) {
+        return FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] + " " + LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+    }
+
+    private static String address(Random random) {
+        return (1 + random.nextInt(9999)) + " " + STREETS[random.nextInt(STREETS.length)] + ", NC "
+               + (27500 + random.nextInt(500));
+    }
+
+    private static String phone(Random random) {
+        return "919" + (2000000 + random.nextInt(8000000));
+    }
+
+    /** A date of birth for an age drawn from a normal distribution (clamped to 0-100 years) */
+    private static Date birthDate(Random random, double meanAge, double deviation) {
+        double age = Math.max(0, Math.min(100, meanAge + random.nextGaussian() * deviation));
+        return new Date(END_MILLIS - (long) (age * 365.25 * DAY_MILLIS));
+    }
+}
@@ -1,48 +1,324 @@
 package hospital_dbms;
+import hospital_dbms.analytics.AnalyticsSnapshot;
+import hospital_dbms.db.ConnectionPool;
+import hospital_dbms.db.SchemaMigrator;
+import hospital_dbms.db.StatementCache;
+import hospital_dbms.db.TransactionGroupConnection;
+import hospital_dbms.models.BedAvailabilityIndex;
+import hospital_dbms.models.HospitalUsage;
+import hospital_dbms.models.HospitalVisit;
+import hospital_dbms.models.PersonSearchIndex;
+import hospital_dbms.models.VisitRollup;
+import hospital_dbms.models.WriteBehindBuffer;
+import hospital_dbms.ui.BatchRunner;
 import hospital_dbms.ui.HospitalUI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
- * Main class for the HospitalDBMS program. Starts the connection to the database and initiates the UI
+ * Main class for the HospitalDBMS program. Sets up the connection pool for the database and initiates the UI
  */
 public class HospitalDBMS {
 
     // Username to log in to the Database, stored in the Environment variable ${JDBC_USERNAME}
-    private static final String USERNAME = "root"; //System.getenv("JDBC_USERNAME");
+    private static final String USERNAME = System.getProperty("hospital.jdbc.username", "root"); //System.getenv("JDBC_USERNAME");
     // Password to log in to the Database, stored in the Environment variable ${JDBC_PASSWORD}
-    private static final String PASSWORD = "changeme"; //System.getenv("JDBC_PASSWORD");
-    // The URL of the Database
-    private static final String JDBC_URL = "jdbc:mysql://localhost:1111/db";
-    // Connection object
-    private static Connection connection = null;
+    private static final String PASSWORD = System.getProperty("hospital.jdbc.password", "changeme"); //System.getenv("JDBC_PASSWORD");
+    // The URL of the Database (-Dhospital.jdbc.url points the program at another database, e.g. for benchmarks).
+    // rewriteBatchedStatements lets the driver send JDBC batches as multi-row INSERTs
+    private static final String JDBC_URL = System.getProperty("hospital.jdbc.url", "jdbc:mysql://localhost:1111/db?rewriteBatchedStatements=true");
+
+    // Connection pool settings; each can be overridden with a -Dhospital.pool.* system property
+    private static final int POOL_MIN_SIZE = Integer.getInteger("hospital.pool.minSize", 1);
+    static final int POOL_MAX_SIZE = Integer.getInteger("hospital.pool.maxSize", 10);
+    private static final long POOL_IDLE_TIMEOUT_MILLIS = Long.getLong("hospital.pool.idleTimeoutMillis", 60000);
+    private static final long POOL_LEAK_THRESHOLD_MILLIS = Long.getLong("hospital.pool.leakThresholdMillis", 300000);
+    private static final long POOL_BORROW_TIMEOUT_MILLIS = Long.getLong("hospital.pool.borrowTimeoutMillis", 30000);
+    // Number of prepared statements cached per pooled connection
+    private static final int STATEMENT_CACHE_SIZE = Integer.getInteger("hospital.pool.statementCacheSize", 64);
+    // How often the HospitalUsage counts are checked against the Bed table (0 turns the check off)
+    private static final long USAGE_RECONCILE_MILLIS = Long.getLong("hospital.usage.reconcileMillis", 300000);
+    // How often the analytics snapshot used by the aggregate reports is refreshed (0, the default, doesn't load it)
+    private static final long ANALYTICS_REFRESH_MILLIS = Long.getLong("hospital.analytics.refreshMillis", 0);
+    // How often buffered HospitalVisit and Bed updates are written (0, the default, writes every update at once)
+    private static final long WRITE_BEHIND_FLUSH_MILLIS = Long.getLong("hospital.writeBehind.flushMillis", 0);
+    // Number of buffered rows that are written without waiting for the timer
+    private static final int WRITE_BEHIND_MAX_PENDING = Integer.getInteger("hospital.writeBehind.maxPending", 1000);
+    // When a buffered update returns: "commit" (once it is written) or "async" (once it is buffered)
+    private static final String WRITE_BEHIND_DURABILITY = System.getProperty("hospital.writeBehind.durability", "commit");
+    // Whether the person search index is loaded at startup rather than on the first search
+    private static final boolean SEARCH_PRELOAD = Boolean.getBoolean("hospital.search.preload");
+
+    // Pool that all connections are borrowed from
+    private static ConnectionPool pool = null;
+    // The connection each thread has currently borrowed from the pool
+    private static final ThreadLocal<Connection> connection = new ThreadLocal<>();
+    // Wrapper handed to the models while the thread runs a transaction group (see beginTransactionGroup)
+    private static final ThreadLocal<Connection> transactionGroup = new ThreadLocal<>();
+    // Actions waiting for the current thread's transaction to commit (see afterCommit)
+    private static final ThreadLocal<List<Runnable>> afterCommit = ThreadLocal.withInitial(ArrayList::new);
+    // Set when a model rolls back its work on the thread (see rolledBack and takeRollback)
+    private static final ThreadLocal<Boolean> modelRolledBack = ThreadLocal.withInitial(() -> false);
 
     /**
-     * Main method for the program. Initiates the SQL connection and runs the UI
+     * Main method for the program. Initiates the SQL connection pool and runs the UI
      * @param args Arguments for the program
      */
     public static void main(String[] args) throws Exception {
-        Connection connection = getConnection();
-        new HospitalUI(connection);
+        startUp();
+
+        if (args.length > 0) {
+            runBatch(args);
+        } else {
+            new HospitalUI();
+        }
     }
 
     /**
-     * Returns the SQL connection object
+     * Prepare the program to serve requests: warn if the database schema is out of date,
+     * load the bed availability index and the hospital usage counts, maintain the visit rollups,
+     * and start loading the analytics snapshot and the person search index and buffering updates if they are turned on
      */
-    public static Connection getConnection() {
+    public static void startUp() {
+        int version = 0;
+        try {
+            version = new SchemaMigrator(getConnection()).currentVersion();
+            if (version < SchemaMigrator.latestVersion()) {
+                System.out.println("Database schema is at version " + version + " of " + SchemaMigrator.latestVersion()
+                                   + "; run 'make migrate' to add the missing indexes and tables");
+            }
+        } catch (SQLException e) {
+            System.out.println("Unable to check the database schema version");
+        }
+        // The VisitRollup table arrives with migration 4; without it visits-per-month reports count visits
+        if (version >= 4) {
+            VisitRollup.enable();
+        }
+        // The bedSpecialization column arrives with migration 8; without it released beds aren't billed
+        if (version >= 8) {
+            HospitalVisit.keepBedSpecialization();
+        }
+        // The updatedAt columns arrive with migration 5; without them every refresh reloads the snapshot
+        AnalyticsSnapshot.start(ANALYTICS_REFRESH_MILLIS, version >= 5);
+        try {
+            // The HospitalUsage table arrives with migration 3; without it usage reports count beds
+            if (version >= 3) {
+                HospitalUsage.load();
+                HospitalUsage.startReconciler(USAGE_RECONCILE_MILLIS);
+            }
+        } catch (SQLException e) {
+            System.out.println("Unable to load hospital usage; usage reports will count beds");
+        }
+        try {
+            BedAvailabilityIndex.reconcile();
+        } catch (SQLException e) {
+            System.out.println("Unable to load bed availability; beds will be looked up in the database");
+        } finally {
+            releaseConnection();
+        }
+        if (SEARCH_PRELOAD) {
+            PersonSearchIndex.loadInBackground();
+        }
+        try {
+            WriteBehindBuffer.start(WRITE_BEHIND_FLUSH_MILLIS, WRITE_BEHIND_MAX_PENDING,
+                                    WriteBehindBuffer.Durability.valueOf(WRITE_BEHIND_DURABILITY.toUpperCase()));
+        } catch (IllegalArgumentException e) {
+            System.out.println("Unknown write-behind durability " + WRITE_BEHIND_DURABILITY
+                               + " (use commit or async); updates will be written at once");
+        }
+    }
 
-        if (connection == null) {
+    /**
+     * Run commands from a file instead of the interactive UI.
+     * Arguments: --batch FILE [--group N], where N is the number of commands per transaction (default 1)
+     */
+    private static void runBatch(String[] args) throws Exception {
+        Path file = null;
+        int groupSize = 1;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--batch") && i + 1 < args.length) {
+                file = Paths.get(args[++i]);
+            } else if (args[i].equals("--group") && i + 1 < args.length) {
+                groupSize = Integer.parseInt(args[++i]);
+            } else {
+                System.out.println("Unknown argument " + args[i]);
+                System.out.println("Usage: HospitalDBMS [--batch FILE [--group N]]");
+                System.exit(1);
+            }
+        }
+        if (file == null) {
+            System.out.println("Usage: HospitalDBMS [--batch FILE [--group N]]");
+            System.exit(1);
+        }
+        new BatchRunner(groupSize).run(file);
+        System.exit(0);
+    }
+
+    /**
+     * Returns the connection pool, creating it the first time it is needed
+     */
+    public static synchronized ConnectionPool getPool() {
+        if (pool == null) {
             try {
                 Class.forName("org.mariadb.jdbc.Driver");
             } catch (ClassNotFoundException e) {
                 System.out.println("Unable to load jdbc driver");
             }
+            pool = new ConnectionPool(JDBC_URL, USERNAME, PASSWORD, POOL_MIN_SIZE, POOL_MAX_SIZE,
+                                      POOL_IDLE_TIMEOUT_MILLIS, POOL_LEAK_THRESHOLD_MILLIS, POOL_BORROW_TIMEOUT_MILLIS,
+                                      STATEMENT_CACHE_SIZE);
+        }
+        return pool;
+    }
+
+    /**
+     * Returns the SQL connection object for the current thread.
+     * The first call on a thread borrows a connection from the pool; it is kept until releaseConnection() is called
+     */
+    public static Connection getConnection() {
+        Connection group = transactionGroup.get();
+        if (group != null) {
+            return group;
+        }
+        return borrowedConnection();
+    }
+
+    /** Returns the connection the current thread has borrowed, borrowing one if needed */
+    private static Connection borrowedConnection() {
+        Connection c = connection.get();
+        if (c == null) {
             try {
-                connection = DriverManager.getConnection(JDBC_URL, USERNAME, PASSWORD);
+                c = getPool().borrow();
             } catch (SQLException e) {
                 throw new RuntimeException(e.getMessage());
             }
+            connection.set(c);
+        }
+        return c;
+    }
+
+    /**
+     * Returns the prepared statement cache of the current thread's connection
+     */
+    public static StatementCache getStatementCache() {
+        return getPool().getStatementCache(borrowedConnection());
+    }
+
+    /**
+     * Run the following operations on this thread in a single transaction.
+     * The commits the models make are deferred until endTransactionGroup()
+     * @throws SQLException if auto-commit cannot be turned off
+     */
+    public static void beginTransactionGroup() throws SQLException {
+        if (transactionGroup.get() != null) {
+            throw new IllegalStateException("A transaction group is already running on this thread");
+        }
+        Connection c = borrowedConnection();
+        c.setAutoCommit(false);
+        transactionGroup.set(TransactionGroupConnection.wrap(c));
+    }
+
+    /** Whether the current thread is running a transaction group */
+    public static boolean inTransactionGroup() {
+        return transactionGroup.get() != null;
+    }
+
+    /**
+     * Finish the current thread's transaction group
+     * @param commit Whether to commit the group's work; it is rolled back otherwise
+     * @return false if the work was rolled back, either because commit was false or because
+     *         an operation in the group rolled back the transaction
+     * @throws SQLException if the commit or rollback fails
+     */
+    public static boolean endTransactionGroup(boolean commit) throws SQLException {
+        Connection group = transactionGroup.get();
+        if (group == null) {
+            throw new IllegalStateException("No transaction group is running on this thread");
+        }
+        transactionGroup.remove();
+
+        Connection c = borrowedConnection();
+        commit = commit && !TransactionGroupConnection.wasRolledBack(group);
+        try {
+            if (commit) {
+                c.commit();
+                committed();
+            } else {
+                c.rollback();
+            }
+        } finally {
+            afterCommit.get().clear();
+            c.setAutoCommit(true);
+        }
+        return commit;
+    }
+
+    /**
+     * Run an action once the current thread's work is committed, so in-memory state (counts, indexes, caches)
+     * never shows changes that are later rolled back. With auto-commit on the action runs at once; otherwise
+     * it waits for the transaction, or the transaction group, to commit, and is dropped if it is rolled back
+     * @param action Work that must not fail, such as updating an in-memory structure
+     */
+    public static void afterCommit(Runnable action) throws SQLException {
+        if (!inTransactionGroup() && getConnection().getAutoCommit()) {
+            action.run();
+        } else {
+            afterCommit.get().add(action);
+        }
+    }
+
+    /**
+     * Run the actions waiting for the transaction the current thread has just committed.
+     * Does nothing in a transaction group, whose work is only committed by endTransactionGroup()
+     */
+    public static void committed() {
+        if (inTransactionGroup()) {
+            return;
+        }
+        List<Runnable> actions = afterCommit.get();
+        while (!actions.isEmpty()) {
+            List<Runnable> ready = new ArrayList<>(actions);
+            actions.clear();
+            for (Runnable action : ready) {
+                action.run();
+            }
+        }
+    }
+
+    /**
+     * Drop the actions waiting for the current thread's transaction, which a model has rolled back,
+     * and remember the rollback for takeRollback()
+     */
+    public static void rolledBack() {
+        afterCommit.get().clear();
+        modelRolledBack.set(true);
+    }
+
+    /**
+     * Check whether a model has rolled back work on the current thread since the last call, for callers that
+     * can't otherwise tell that an operation failed (the models report some failures only on the console)
+     */
+    public static boolean takeRollback() {
+        boolean rolledBack = modelRolledBack.get();
+        modelRolledBack.set(false);
+        return rolledBack;
+    }
+
+    /**
+     * Returns the current thread's connection to the pool (if it has one).
+     * Uncommitted work on the connection is rolled back.
+     */
+    public static void releaseConnection() {
+        transactionGroup.remove();
+        afterCommit.get().clear();
+        Connection c = connection.get();
+        if (c != null) {
+            connection.remove();
+            getPool().release(c);
         }
-        return connection;
     }
 
 }
@@ -1,9 +1,13 @@
 package hospital_dbms;
 
 import java.sql.*;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.List;
 
 import static hospital_dbms.HospitalDBMS.getConnection;
+import hospital_dbms.billing.BillingRun;
+import hospital_dbms.db.SchemaMigrator;
 import hospital_dbms.models.*;
 
 /**
@@ -20,29 +24,15 @@ public class InitializeDatabase {
     public static void main(String[] args) throws SQLException {
         Connection c = getConnection();
 
-        // Drop all tables
-        Billing.dropTable();
-        Bed.dropTable();
-        MedicalRecord.dropTable();
-        ResponsibleStaff.dropTable();
-        HospitalVisit.dropTable();
-        Staff.dropTable();
-        Patient.dropTable();
-        Person.dropTable();
-        HospitalSpecialty.dropTable();
-        Hospital.dropTable();
-        Specialization.dropTable();
+        resetTables();
 
         // Create Hospitals
-        Hospital.createTable();
         Hospital h1 = new Hospital("111 St NC, 111", "101");
         h1.insert();
         Hospital h2 = new Hospital("222 St NC, 222", "202");
         h2.insert();
 
         // Create sample specializations
-        Specialization.createTable();
-
         String[] names = {"neurology", "pediatrics", "cardiology", "oncology"};
 
         for (int i = 0; i < names.length; i++) {
@@ -51,7 +41,6 @@ public class InitializeDatabase {
         }
 
         // Assign specializations to hospitals
-        HospitalSpecialty.createTable();
         HospitalSpecialty hs1 = new HospitalSpecialty(h1.getHospitalID(), "pediatrics");
         hs1.insert();
         HospitalSpecialty hs2 = new HospitalSpecialty(h1.getHospitalID(), "neurology");
@@ -63,7 +52,6 @@ public class InitializeDatabase {
 
 
         // Create Patients
-        Patient.createTable();
         Patient patient1 = new Patient("John", "81 ABC St , NC 27", "513", Date.valueOf("1980-02-22"),
                                        null, "M", Patient.Status.TREATMENT_COMPLETE);
         patient1.insert();  // ID 3001 in sample data
@@ -77,7 +65,6 @@ public class InitializeDatabase {
         patient3.insert(); // ID 3002 in sample data
 
         // Create Staff
-        Staff.createTable();
         Staff operator = new Staff("Simpson", "21 ABC St, NC 27", "919", dateFromAge(35),
                                    Staff.JobTitle.BILLER, h1.getHospitalID(), "Billing",
                                    "Accounts Supervisor", h1.getAddress(), null);
@@ -118,25 +105,23 @@ public class InitializeDatabase {
         doctor3.insert();
 
         // Create Beds
-        Bed.createTable();
         Bed bed1 = new Bed(h1.getHospitalID(), "neurology", nurse1.getID(), true);
         bed1.insert();
 
         Bed bed2 = new Bed(h1.getHospitalID(), "neurology", nurse1.getID(), true);
         bed2.insert();
 
-        // Make a BUNCH of beds (several per department of each hospital)
-        String[] h1Depts = {"neurology", "pediatrics"};
-        String[] h2Depts = {"cardiology", "oncology"};
+        // Make a BUNCH of beds (several per department of each hospital), inserted as one batch
+        List<Bed> beds = new ArrayList<>();
         for (int i = 0; i < 20; i++) {
-            new Bed(h1.getHospitalID(), "neurology", nurse1.getID(), false).insert();
-            new Bed(h1.getHospitalID(), "pediatrics", nurse3.getID(), false).insert();
-            new Bed(h2.getHospitalID(), "cardiology", nurse4.getID(), false).insert();
-            new Bed(h2.getHospitalID(), "oncology", nurse4.getID(), false).insert();
+            beds.add(new Bed(h1.getHospitalID(), "neurology", nurse1.getID(), false));
+            beds.add(new Bed(h1.getHospitalID(), "pediatrics", nurse3.getID(), false));
+            beds.add(new Bed(h2.getHospitalID(), "cardiology", nurse4.getID(), false));
+            beds.add(new Bed(h2.getHospitalID(), "oncology", nurse4.getID(), false));
         }
+        Relation.insertAll(beds);
 
         // Create HospitalVisit
-        HospitalVisit.createTable();
         HospitalVisit checkin1 = new HospitalVisit(h1.getHospitalID(), patient1.getID(), Date.valueOf("2019-08-05"),
                                                    null, "abc", bed1.getID(), 20f); // TODO: bed number 5001
         checkin1.insert();
@@ -150,20 +135,55 @@ public class InitializeDatabase {
         checkin3.insert();
 
         // Create ResponsibleStaff
-        ResponsibleStaff.createTable();
         new ResponsibleStaff(checkin1.getID(), doctor1.getID()).insert();
         new ResponsibleStaff(checkin1.getID(), nurse1.getID()).insert();
         new ResponsibleStaff(checkin2.getID(), doctor2.getID()).insert();
 
         // Create MedicalRecords
-        MedicalRecord.createTable();
         MedicalRecord mr1 = new MedicalRecord(checkin1.getID(), doctor1.getID(), "antibiotics", "Testing for TB", "TB Blood test", "positive", "TB Treatment", 50, 75, 200);
         mr1.insert();
 
         MedicalRecord mr2 = new MedicalRecord(checkin1.getID(), doctor1.getID(), "continue antibiotics", "Testing for TB", "X-ray chest (TB) Advanced", "negative", "Not required", 0, 125, 0);
         mr2.insert();
 
-        // Create Billing table
+        // Add the indexes and other changes made since the tables were first designed
+        new SchemaMigrator(c).migrate();
+    }
+
+    /**
+     * Drop every table in the HospitalDBMS system and create them again, empty.
+     * The schema is left at its baseline; run the migrations afterwards to bring it up to date
+     * @throws SQLException upon error while executing the DROP or CREATE statements
+     */
+    static void resetTables() throws SQLException {
+        // Drop all tables (children before the tables they reference)
+        new SchemaMigrator(getConnection()).dropTable();
+        Billing.dropTable();
+        BillingStatement.dropTable();
+        BillingRun.dropTable();
+        HospitalUsage.dropTable();
+        VisitRollup.dropTable();
+        Bed.dropTable();
+        MedicalRecord.dropTable();
+        ResponsibleStaff.dropTable();
+        HospitalVisit.dropTable();
+        Staff.dropTable();
+        Patient.dropTable();
+        Person.dropTable();
+        HospitalSpecialty.dropTable();
+        Hospital.dropTable();
+        Specialization.dropTable();
+
+        // Create all tables (parents before the tables that reference them)
+        Hospital.createTable();
+        Specialization.createTable();
+        HospitalSpecialty.createTable();
+        Patient.createTable();
+        Staff.createTable();
+        Bed.createTable();
+        HospitalVisit.createTable();
+        ResponsibleStaff.createTable();
+        MedicalRecord.createTable();
         Billing.createTable();
     }
 
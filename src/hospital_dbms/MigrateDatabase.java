@@ -0,0 +1,29 @@
+package hospital_dbms;
+
+import java.sql.SQLException;
+
+import hospital_dbms.db.SchemaMigrator;
+import static hospital_dbms.HospitalDBMS.getConnection;
+
+/**
+ * Bring an existing database's schema up to date by applying any missing migrations
+ */
+public class MigrateDatabase {
+
+    /**
+     * Main method for the migration tool
+     * @param args Not used
+     * @throws SQLException upon error while connecting to the Database or applying a migration
+     */
+    public static void main(String[] args) throws SQLException {
+        SchemaMigrator migrator = new SchemaMigrator(getConnection());
+        int from = migrator.currentVersion();
+        int applied = migrator.migrate();
+
+        if (applied == 0) {
+            System.out.println("Schema is up to date (version " + from + ")");
+        } else {
+            System.out.println("Migrated schema from version " + from + " to " + migrator.currentVersion());
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package hospital_dbms;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static hospital_dbms.HospitalDBMS.getConnection;
+
+/**
+ * Checks that the hot queries of the HospitalDBMS system use indexes.
+ * Runs EXPLAIN on each query and fails if the plan reads a large table with a full scan (type ALL).
+ * Plans depend on table statistics, so run it against a realistically sized database (see GenerateData).
+ */
+public class QueryPlanCheck {
+
+    /** A query to check, with sample parameters and the tables it must not scan */
+    private static class HotQuery {
+        final String name;
+        final String sql;
+        final Object[] parameters;
+        final List<String> indexedTables;
+
+        HotQuery(String name, String sql, Object[] parameters, String... indexedTables) {
+            this.name = name;
+            this.sql = sql;
+            this.parameters = parameters;
+            this.indexedTables = Arrays.asList(indexedTables);
+        }
+    }
+
+    // Copies of the hot queries (keep in sync with the methods named)
+    private static final HotQuery[] HOT_QUERIES = {
+        new HotQuery("Patient.getCurrentVisit",
+                "SELECT * FROM HospitalVisit WHERE endDate IS NULL AND patientID=? AND hospitalID=? LIMIT 1",
+                new Object[] {1, 1}, "HospitalVisit"),
+        new HotQuery("Bed.getAvailableBed",
+                "SELECT * FROM Bed WHERE hospitalID = ? AND specializationName=? AND occupied=FALSE LIMIT 1",
+                new Object[] {1, "neurology"}, "Bed"),
+        new HotQuery("Bed.release",
+                "UPDATE HospitalVisit SET bedSpecialization=(SELECT specializationName FROM Bed WHERE ID=?), " +
+                "bedNumber=NULL WHERE bedNumber=?",
+                new Object[] {1, 1}, "HospitalVisit"),
+        new HotQuery("Reports.printDoctorsForPatient",
+                "SELECT DISTINCT name FROM ResponsibleStaff RS " +
+                "  JOIN HospitalVisit HV ON RS.visitID = HV.ID " +
+                "  JOIN Staff S ON RS.staffID=S.personID " +
+                "  JOIN Person ON S.personID=Person.ID " +
+                "WHERE S.jobTitle='DOCTOR' AND HV.patientID=? AND HV.endDate IS NULL",
+                new Object[] {1}, "RS", "HV", "S", "Person"),
+        new HotQuery("BillingEngine.compute (visits starting in the period)",
+                "SELECT ID FROM HospitalVisit WHERE startDate >= ? AND startDate <= ? AND patientID >= ? AND patientID < ?",
+                new Object[] {Date.valueOf("2019-01-01"), Date.valueOf("2019-01-31"), 1, 2}, "HospitalVisit"),
+        new HotQuery("BillingEngine.compute (visits open when the period starts)",
+                "SELECT ID FROM HospitalVisit WHERE startDate < ? AND (endDate >= ? OR endDate IS NULL) " +
+                "AND patientID >= ? AND patientID < ?",
+                new Object[] {Date.valueOf("2019-01-01"), Date.valueOf("2019-01-01"), 1, 2}, "HospitalVisit"),
+        new HotQuery("Reports.printAvailableBeds",
+                "SELECT specializationName, COUNT(IF(occupied=FALSE, 1, null)), COUNT(IF(occupied=TRUE, 1, null)) " +
+                "FROM Bed WHERE HospitalID=? GROUP BY specializationName",
+                new Object[] {1}, "Bed"),
+        new HotQuery("HospitalUsage.fold",
+                "UPDATE HospitalUsage SET occupiedBeds=occupiedBeds+1 WHERE hospitalID=? AND specializationName=?",
+                new Object[] {1, "neurology"}, "HospitalUsage"),
+        new HotQuery("Reports.printAvailableBeds (HospitalUsage)",
+                "SELECT specializationName, totalBeds - occupiedBeds, occupiedBeds FROM HospitalUsage WHERE hospitalID=?",
+                new Object[] {1}, "HospitalUsage"),
+        new HotQuery("Reports.printPatientsPerMonth",
+                "SELECT YEAR(startDate), MONTH(startDate), COUNT(*) FROM HospitalVisit " +
+                "WHERE hospitalID=? AND startDate >= ? AND startDate < ? GROUP BY YEAR(startDate), MONTH(startDate)",
+                new Object[] {1, Date.valueOf("2019-01-01"), Date.valueOf("2020-01-01")}, "HospitalVisit"),
+        new HotQuery("Reports.printPatientsPerMonth (VisitRollup)",
+                "SELECT year, month, visits FROM VisitRollup WHERE hospitalID=? AND year * 100 + month >= ? AND year * 100 + month < ?",
+                new Object[] {1, 201901, 202001}, "VisitRollup"),
+        new HotQuery("SnapshotLoader.readChanges",
+                "SELECT ID, hospitalID, patientID, startDate, registrationFee, endDate, bedNumber FROM HospitalVisit WHERE updatedAt >= ?",
+                new Object[] {new Timestamp(System.currentTimeMillis())}, "HospitalVisit"),
+    };
+
+    /**
+     * Main method for the plan check. Prints the plan of every hot query and exits with status 1
+     * if any of them scans a whole table that should be read through an index
+     * @param args Not used
+     * @throws SQLException upon error while connecting to the Database or running EXPLAIN
+     */
+    public static void main(String[] args) throws SQLException {
+        List<String> failures = new ArrayList<>();
+        for (HotQuery query : HOT_QUERIES) {
+            failures.addAll(check(query));
+        }
+
+        if (failures.isEmpty()) {
+            System.out.println("All " + HOT_QUERIES.length + " hot queries use indexes");
+        } else {
+            System.out.println("Full table scans found:");
+            for (String failure : failures) {
+                System.out.println("  " + failure);
+            }
+            System.exit(1);
+        }
+    }
+
+    /**
+     * EXPLAIN one query and print its plan
+     * @return A description of every full scan of a table the query should read through an index
+     */
+    private static List<String> check(HotQuery query) throws SQLException {
+        List<String> failures = new ArrayList<>();
+        System.out.println(query.name);
+
+        try (PreparedStatement statement = getConnection().prepareStatement("EXPLAIN " + query.sql)) {
+            for (int i = 0; i < query.parameters.length; i++) {
+                statement.setObject(i + 1, query.parameters[i]);
+            }
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    String table = rs.getString("table");
+                    String type = rs.getString("type");
+                    System.out.printf("  %-16s type=%-8s key=%-28s rows=%s%n",
+                                      table, type, rs.getString("key"), rs.getString("rows"));
+                    if ("ALL".equals(type) && query.indexedTables.contains(table)) {
+                        failures.add(query.name + ": " + table);
+                    }
+                }
+            }
+        }
+        return failures;
+    }
+}
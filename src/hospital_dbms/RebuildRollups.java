@@ -0,0 +1,34 @@
+package hospital_dbms;
+
+import java.sql.Date;
+import java.sql.SQLException;
+
+import hospital_dbms.db.SchemaMigrator;
+import hospital_dbms.models.VisitRollup;
+import static hospital_dbms.HospitalDBMS.getConnection;
+
+/**
+ * Recount the VisitRollup visits-per-month counts from the HospitalVisit table,
+ * to backfill them or repair them after visits were changed outside this program
+ */
+public class RebuildRollups {
+
+    /**
+     * Main method for the rebuild tool
+     * @param args Optional first and last dates (yyyy-mm-dd) whose months are rebuilt; all months by default
+     * @throws SQLException upon error while connecting to the Database or recounting
+     */
+    public static void main(String[] args) throws SQLException {
+        Date from = args.length > 0 ? Date.valueOf(args[0]) : null;
+        Date to = args.length > 1 ? Date.valueOf(args[1]) : null;
+
+        if (new SchemaMigrator(getConnection()).currentVersion() < 4) {
+            System.out.println("The VisitRollup table doesn't exist yet; run 'make migrate' first");
+            System.exit(1);
+        }
+        int written = VisitRollup.rebuild(from, to);
+        System.out.println("Rebuilt " + written + " monthly visit counts"
+                           + (from == null && to == null ? "" : " from " + (from == null ? "the start" : from)
+                                                               + " to " + (to == null ? "the end" : to)));
+    }
+}
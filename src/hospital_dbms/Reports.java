@@ -1,47 +1,126 @@
 package hospital_dbms;
 
+import java.io.IOException;
 import java.sql.*;
-
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import hospital_dbms.analytics.AnalyticsSnapshot;
+import hospital_dbms.billing.BillingEngine;
+import hospital_dbms.models.BillingStatement;
+import hospital_dbms.models.HospitalUsage;
 import hospital_dbms.models.Patient;
+import hospital_dbms.models.PersonSearchIndex;
+import hospital_dbms.models.VisitRollup;
 import static hospital_dbms.HospitalDBMS.getConnection;
 
 /** 
- * Functions for printing reports about Hospitals and Patients records
+ * Functions for printing (or fetching as rows) reports about Hospitals and Patients records.
+ * The aggregate reports run on the in-memory AnalyticsSnapshot instead of the database while it is loaded
  */
 public class Reports {
 
+    // Rows fetched from the server at a time; a fetch size makes the driver stream results instead of buffering them all
+    static final int STREAMING_FETCH_SIZE = 1000;
+
+    // SQL for each report
+    private static final String HOSPITALS_BY_SPECIALTY_QUERY =
+            "SELECT hospitalID, address, specialization from HospitalSpecialty HS JOIN Hospital H ON HS.hospitalID=H.ID ORDER BY specialization;";
+    private static final String DOCTORS_FOR_PATIENT_QUERY = (
+            "SELECT DISTINCT name FROM " +
+            "ResponsibleStaff RS " +
+            "  JOIN HospitalVisit HV ON RS.visitID = HV.ID " +
+            "  JOIN Staff S ON RS.staffID=S.personID " +
+            "  JOIN Person ON S.personID=Person.ID " +
+            "WHERE S.jobTitle='DOCTOR' AND HV.patientID=? AND HV.endDate IS NULL"
+            );
+    private static final String HOSPITAL_USAGE_QUERY =
+            "SELECT HospitalID, COUNT(IF(occupied=FALSE, 1, null)) AS 'Available Beds', COUNT(IF(occupied=TRUE, 1, null)) AS 'Occupied Beds', (COUNT(IF(occupied=TRUE, 1, null)) / COUNT(*)) * 100 AS 'Usage %' FROM Bed GROUP BY HospitalID;";
+    private static final String AVAILABLE_BEDS_QUERY = (
+            "SELECT specializationName AS 'Specialization', " +
+            "  COUNT(IF(occupied=FALSE, 1, null)) AS 'Available Beds', " +
+            "  COUNT(IF(occupied=TRUE, 1, null)) AS 'Occupied Beds' " +
+            "FROM Bed WHERE HospitalID=? " +
+            "GROUP BY specializationName;"
+            );
+    // The same usage reports read from the HospitalUsage counts (one row per hospital and specialization)
+    private static final String HOSPITAL_USAGE_SUMMARY_QUERY = (
+            "SELECT hospitalID AS 'HospitalID', " +
+            "  SUM(totalBeds - occupiedBeds) AS 'Available Beds', " +
+            "  SUM(occupiedBeds) AS 'Occupied Beds', " +
+            "  (SUM(occupiedBeds) / SUM(totalBeds)) * 100 AS 'Usage %' " +
+            "FROM HospitalUsage GROUP BY hospitalID HAVING SUM(totalBeds) > 0;"
+            );
+    private static final String AVAILABLE_BEDS_SUMMARY_QUERY = (
+            "SELECT NULLIF(specializationName, '') AS 'Specialization', " +
+            "  totalBeds - occupiedBeds AS 'Available Beds', " +
+            "  occupiedBeds AS 'Occupied Beds' " +
+            "FROM HospitalUsage WHERE hospitalID=? AND totalBeds > 0;"
+            );
+    // Visits per month (of the startDate) between two dates; months of different years are kept apart
+    private static final String PATIENTS_PER_MONTH_QUERY = (
+            "SELECT CONCAT(MONTHNAME(MIN(startDate)), ' ', YEAR(startDate)) AS 'Month', " +
+            "  COUNT(*) AS 'Visits' " +
+            "FROM HospitalVisit " +
+            "WHERE hospitalID=? AND startDate >= ? AND startDate < ? " +
+            "GROUP BY YEAR(startDate), MONTH(startDate) " +
+            "ORDER BY YEAR(startDate), MONTH(startDate);"
+            );
+    // The same report read from the VisitRollup counts; months are given as year * 100 + month
+    private static final String PATIENTS_PER_MONTH_ROLLUP_QUERY = (
+            "SELECT CONCAT(MONTHNAME(MAKEDATE(year, 1) + INTERVAL month - 1 MONTH), ' ', year) AS 'Month', " +
+            "  visits AS 'Visits' " +
+            "FROM VisitRollup " +
+            "WHERE hospitalID=? AND year * 100 + month >= ? AND year * 100 + month < ? AND visits > 0 " +
+            "ORDER BY year, month;"
+            );
+
     /**
-     * Prints out an SQL table
+     * Prints out the first page of an SQL table (see TableListing to page through the rest)
      * @param tableName Name of the table to print out
      */
     public static void printTable(String tableName) {
-        String sanitizedTableName = tableName.replaceAll("[^a-zA-Z]", "");
-
-        String query = "SELECT * FROM " + sanitizedTableName;
-
         try {
-            Connection conn = getConnection();
-            Statement stmnt = conn.createStatement();
-
-            ResultSet rs = stmnt.executeQuery(query);
-            printResultsSet(rs, 20);
+            TableListing.Page page = printTablePage(new TableListing(tableName, null, null, TableListing.DEFAULT_PAGE_SIZE), null);
+            if (page.hasMore()) {
+                System.out.println("Only the first " + page.getRows().size() + " rows are shown");
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
         } catch (SQLException e) {
             System.out.println("Error printing relation");
         }
     }
 
+    /**
+     * Prints out one page of a table listing
+     * @param listing The table, columns and filters to list
+     * @param after The key of the last row already printed (TableListing.Page.getNextKey()), or null for the first page
+     * @return The page printed
+     */
+    public static TableListing.Page printTablePage(TableListing listing, Object[] after) throws SQLException {
+        TableListing.Page page = listing.page(after);
+        printRows(page.getRows(), 20, null);
+        return page;
+    }
+
     /**
      * Displays the Hospitals grouped by their specialties
      */
     public static void printHospitalsBySpecialty() throws SQLException {
-        Connection conn = getConnection();
-        Statement statement = conn.createStatement();
-
-        String query = "SELECT hospitalID, address, specialization from HospitalSpecialty HS JOIN Hospital H ON HS.hospitalID=H.ID ORDER BY specialization;";
-
-        ResultSet rs = statement.executeQuery(query);
+        AnalyticsSnapshot snapshot = AnalyticsSnapshot.current();
+        if (snapshot != null) {
+            printRows(snapshot.getHospitalsBySpecialty(), 15, null);
+            return;
+        }
+        try (Statement statement = createStreamingStatement()) {
+            ResultSet rs = statement.executeQuery(HOSPITALS_BY_SPECIALTY_QUERY);
 
-        printResultsSet(rs, 15);
+            printResultsSet(rs, 15);
+        }
     }
 
     /**
@@ -49,74 +128,41 @@ public class Reports {
      * @param patientID ID of the Patient to print the doctors of
      */
     public static void printDoctorsForPatient(int patientID) throws SQLException {
-        Connection conn = getConnection();
         Patient p = Patient.getByID(patientID);
 
-        String query = (
-                "SELECT DISTINCT name FROM " +
-                "ResponsibleStaff RS " +
-                "  JOIN HospitalVisit HV ON RS.visitID = HV.ID " +
-                "  JOIN Staff S ON RS.staffID=S.personID " +
-                "  JOIN Person ON S.personID=Person.ID " +
-                "WHERE S.jobTitle='DOCTOR' AND HV.patientID=? AND HV.endDate IS NULL"
-                );
-        PreparedStatement statement = conn.prepareStatement(query);
-        statement.setInt(1, patientID);
+        try (PreparedStatement statement = prepareStreamingStatement(DOCTORS_FOR_PATIENT_QUERY)) {
+            statement.setInt(1, patientID);
 
-        ResultSet rs = statement.executeQuery();
-
-        if (!rs.next()) {
-            System.out.println(p.getName() + " is not currently seeing any doctors");
-        } else { rs.beforeFirst(); }
-
-        System.out.println(p.getName() + " is currently seeing the following doctors:");
-
-        printResultsSet(rs, 10);
+            ResultSet rs = statement.executeQuery();
 
+            if (printResultsSet(rs, 10, p.getName() + " is currently seeing the following doctors:") == 0) {
+                System.out.println(p.getName() + " is not currently seeing any doctors");
+            }
+        }
     }
 
     /**
-     * Displays the Overall Hospital Usage in the system
+     * Displays the Overall Hospital Usage in the system (from the HospitalUsage counts once they are loaded)
      */
     public static void printHospitalUsage() throws SQLException {
-        Connection conn = getConnection();
-        Statement statement = conn.createStatement();
-
-        String query = "SELECT HospitalID, COUNT(IF(occupied=FALSE, 1, null)) AS 'Available Beds', COUNT(IF(occupied=TRUE, 1, null)) AS 'Occupied Beds', (COUNT(IF(occupied=TRUE, 1, null)) / COUNT(*)) * 100 AS 'Usage %' FROM Bed GROUP BY HospitalID;";
-
-        ResultSet rs = statement.executeQuery(query);
+        AnalyticsSnapshot snapshot = AnalyticsSnapshot.current();
+        if (snapshot != null) {
+            printRows(snapshot.getHospitalUsage(), 15, null);
+            return;
+        }
+        try (Statement statement = createStreamingStatement()) {
+            ResultSet rs = statement.executeQuery(HospitalUsage.isLoaded() ? HOSPITAL_USAGE_SUMMARY_QUERY : HOSPITAL_USAGE_QUERY);
 
-        printResultsSet(rs, 15);
+            printResultsSet(rs, 15);
+        }
     }
 
     /**
-     * Prints a summary of the fees billed to a patient for visits starting between the given dates
+     * Prints a patient's billing statement for the period between the given dates (inclusive); see BillingEngine
      */
     public static void printBilling(int patientID, Date startDate, Date endDate) {
-        Connection conn = getConnection();
-        String query = (
-                "SELECT P.name, " +
-                "  SUM(registrationFee) AS 'Regitration Fees', " +
-                "  SUM(consultaionFee) AS 'Consult Fees', " +
-                "  SUM(testFee) AS 'Test Fees', " +
-                "  SUM(treatmentFee) AS 'Treatment Fees', " +
-                "  SUM(consultaionFee) + SUM(testFee) + SUM(treatmentFee) + SUM(registrationFee) AS 'Total Billed' " +
-                "FROM MedicalRecord MR " +
-                "  JOIN HospitalVisit HV ON MR.visitID=HV.ID" +
-                "  JOIN Person P ON HV.patientID=P.ID " +
-                "WHERE startDate < ? AND startDate > ? AND P.ID=?"
-                );
-
         try {
-            PreparedStatement stmnt = conn.prepareStatement(query);
-
-            stmnt.setDate(1, endDate);
-            stmnt.setDate(2, startDate);
-            stmnt.setInt(3, patientID);
-
-            ResultSet rs = stmnt.executeQuery();
-
-            printResultsSet(rs, 16);
+            printRows(getBilling(patientID, startDate, endDate), 16, null);
         } catch (SQLException e) {
             System.out.println("Error getting billing records for patient. Please try again.");
         }
@@ -127,29 +173,15 @@ public class Reports {
      * @param hospitalID The Hospital ID to display Beds for
      */
     public static void printAvailableBeds(int hospitalID) {
-        Connection conn = getConnection();
-        String query = (
-                "SELECT specializationName AS 'Specialization', " +
-                "  COUNT(IF(occupied=FALSE, 1, null)) AS 'Available Beds', " +
-                "  COUNT(IF(occupied=TRUE, 1, null)) AS 'Occupied Beds' " +
-                "FROM Bed WHERE HospitalID=? " +
-                "GROUP BY specializationName;"
-                );
-
-        try {
-            PreparedStatement stmnt = conn.prepareStatement(query);
-
+        String query = HospitalUsage.isLoaded() ? AVAILABLE_BEDS_SUMMARY_QUERY : AVAILABLE_BEDS_QUERY;
+        try (PreparedStatement stmnt = prepareStreamingStatement(query)) {
             stmnt.setInt(1, hospitalID);
 
             ResultSet rs = stmnt.executeQuery();
 
-            if (!rs.next()) {
+            if (printResultsSet(rs, 16) == 0) {
                 System.out.println("No beds found for hospital with id " + hospitalID);
-            } else {
-                rs.beforeFirst();
             }
-
-            printResultsSet(rs, 16);
         } catch (SQLException e) {
             System.out.println("Error getting beds. Please try again.");
         }
@@ -161,66 +193,286 @@ public class Reports {
      * @param hospitalID the ID of the Hospital to display the number of Patients for
      */
     public static void printPatientsPerMonth(int hospitalID) {
-        Connection conn = getConnection();
-        String query = (
-                "SELECT MONTHNAME(startDate) AS 'Month', " +
-                "  COUNT(*) AS 'Visits' " +
-                "FROM HospitalVisit " +
-                "WHERE hospitalID=? " +
-                "GROUP BY MONTHNAME(startDate);"
-                );
-
-        try {
-            PreparedStatement stmnt = conn.prepareStatement(query);
+        printPatientsPerMonth(hospitalID, null, null);
+    }
 
-            stmnt.setInt(1, hospitalID);
+    /**
+     * Displays the number of Patients per month for a given Hospital, between two months.
+     * Read from the analytics snapshot while it is loaded, otherwise from the VisitRollup counts when they are maintained
+     * @param hospitalID the ID of the Hospital to display the number of Patients for
+     * @param from A date in the first month to display, or null for no limit
+     * @param to A date in the last month to display, or null for no limit
+     */
+    public static void printPatientsPerMonth(int hospitalID, Date from, Date to) {
+        AnalyticsSnapshot snapshot = AnalyticsSnapshot.current();
+        if (snapshot != null) {
+            try {
+                if (printRows(snapshot.getPatientsPerMonth(hospitalID, from, to), 16, null) == 0) {
+                    System.out.println("No visits found for hospital with id " + hospitalID);
+                }
+            } catch (SQLException e) {
+                System.out.println("Error getting visits. Please try again.");
+            }
+            return;
+        }
+        String query = VisitRollup.isEnabled() ? PATIENTS_PER_MONTH_ROLLUP_QUERY : PATIENTS_PER_MONTH_QUERY;
+        try (PreparedStatement stmnt = prepareStreamingStatement(query)) {
+            bindMonthRange(stmnt, hospitalID, from, to);
 
             ResultSet rs = stmnt.executeQuery();
 
-            if (!rs.next()) {
-                System.out.println("Visits found for hospital with id " + hospitalID);
-            } else {
-                rs.beforeFirst();
+            if (printResultsSet(rs, 16) == 0) {
+                System.out.println("No visits found for hospital with id " + hospitalID);
             }
-
-            printResultsSet(rs, 16);
         } catch (SQLException e) {
             System.out.println("Error getting visits. Please try again.");
         }
 
     }
 
+    /** Get the Hospitals and their specialties, as rows of column label to value */
+    public static List<Map<String, Object>> getHospitalsBySpecialty() throws SQLException {
+        AnalyticsSnapshot snapshot = AnalyticsSnapshot.current();
+        if (snapshot != null) {
+            return snapshot.getHospitalsBySpecialty();
+        }
+        return fetchRows(HOSPITALS_BY_SPECIALTY_QUERY);
+    }
+
+    /** Get the names of the doctors a Patient is currently seeing */
+    public static List<Map<String, Object>> getDoctorsForPatient(int patientID) throws SQLException {
+        return fetchRows(DOCTORS_FOR_PATIENT_QUERY, patientID);
+    }
+
+    /** Get the bed usage of every Hospital, from the in-memory HospitalUsage counts once they are loaded */
+    public static List<Map<String, Object>> getHospitalUsage() throws SQLException {
+        AnalyticsSnapshot snapshot = AnalyticsSnapshot.current();
+        if (snapshot != null) {
+            return snapshot.getHospitalUsage();
+        }
+        if (!HospitalUsage.isLoaded()) {
+            return fetchRows(HOSPITAL_USAGE_QUERY);
+        }
+        List<Map<String, Object>> rows = new ArrayList<>();
+        Map<String, Object> row = null;
+        for (HospitalUsage.Counts c : HospitalUsage.getUsage()) {
+            if (row == null || !row.get("HospitalID").equals(c.getHospitalID())) {
+                row = new LinkedHashMap<>();
+                row.put("HospitalID", c.getHospitalID());
+                row.put("Available Beds", 0);
+                row.put("Occupied Beds", 0);
+                rows.add(row);
+            }
+            row.put("Available Beds", (Integer) row.get("Available Beds") + c.getAvailableBeds());
+            row.put("Occupied Beds", (Integer) row.get("Occupied Beds") + c.getOccupiedBeds());
+        }
+        for (Map<String, Object> r : rows) {
+            int available = (Integer) r.get("Available Beds");
+            int occupied = (Integer) r.get("Occupied Beds");
+            r.put("Usage %", occupied * 100.0 / (available + occupied));
+        }
+        return rows;
+    }
+
     /**
-     * Prints out a ResultSet from an SQL query
-     * @param rs The ResultSet received after running an SQL query
-     * @param width The width to make the columns when printing
+     * Get a patient's billing statement for the period between the given dates (inclusive),
+     * computed from the analytics snapshot while it is loaded
      */
-    public static void printResultsSet(ResultSet rs, int width) throws SQLException {
-        ResultSetMetaData rsmd = rs.getMetaData();
-        int columnsNumber = rsmd.getColumnCount();
-        if (!rs.next()) {
-            return;
-        } else {
-            rs.beforeFirst();
+    public static List<Map<String, Object>> getBilling(int patientID, Date startDate, Date endDate) throws SQLException {
+        AnalyticsSnapshot snapshot = AnalyticsSnapshot.current();
+        BillingStatement statement = snapshot != null
+                ? snapshot.getBillingStatement(patientID, startDate, endDate)
+                : new BillingEngine(startDate, endDate).statementFor(patientID);
+
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("Name", patientName(patientID));
+        row.put("Visits", statement.getVisits());
+        row.put("Registration Fees", statement.getRegistrationFees());
+        row.put("Consult Fees", statement.getConsultFees());
+        row.put("Test Fees", statement.getTestFees());
+        row.put("Treatment Fees", statement.getTreatmentFees());
+        row.put("Bed Days", statement.getBedDays());
+        row.put("Bed Charges", statement.getBedCharges());
+        row.put("Total Billed", statement.getTotal());
+        List<Map<String, Object>> rows = new ArrayList<>();
+        rows.add(row);
+        return rows;
+    }
+
+    /** Get the available and occupied beds of a Hospital by specialty, from the in-memory counts once they are loaded */
+    public static List<Map<String, Object>> getAvailableBeds(int hospitalID) throws SQLException {
+        if (!HospitalUsage.isLoaded()) {
+            return fetchRows(AVAILABLE_BEDS_QUERY, hospitalID);
+        }
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (HospitalUsage.Counts c : HospitalUsage.getUsage(hospitalID)) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("Specialization", c.getSpecialization());
+            row.put("Available Beds", c.getAvailableBeds());
+            row.put("Occupied Beds", c.getOccupiedBeds());
+            rows.add(row);
         }
-        System.out.print("\n");
+        return rows;
+    }
 
-        for (int i = 1; i <= columnsNumber; i++) {
-            System.out.print(String.format("%" + width + "s | ", rsmd.getColumnName(i)));
+    /**
+     * Get the number of visits per month for a Hospital, between two months
+     * @param from A date in the first month, or null for no limit
+     * @param to A date in the last month, or null for no limit
+     */
+    public static List<Map<String, Object>> getPatientsPerMonth(int hospitalID, Date from, Date to) throws SQLException {
+        AnalyticsSnapshot snapshot = AnalyticsSnapshot.current();
+        if (snapshot != null) {
+            return snapshot.getPatientsPerMonth(hospitalID, from, to);
+        }
+        LocalDate[] months = monthRange(from, to);
+        if (VisitRollup.isEnabled()) {
+            return fetchRows(PATIENTS_PER_MONTH_ROLLUP_QUERY, hospitalID, monthKey(months[0]), monthKey(months[1]));
         }
-        System.out.print("\n");
-        for (int i = 0; i < columnsNumber * (width + 3); i++) {
-            System.out.print("-");
+        return fetchRows(PATIENTS_PER_MONTH_QUERY, hospitalID, Date.valueOf(months[0]), Date.valueOf(months[1]));
+    }
+
+    /**
+     * Find people (patients and staff) by name, phone number or date of birth, best matches first
+     * (see PersonSearchIndex.search)
+     * @param query Name words or prefixes, phone digits and yyyy-mm-dd dates, separated by spaces
+     * @param limit Most people to return
+     */
+    public static List<Map<String, Object>> searchPeople(String query, int limit) throws SQLException {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (PersonSearchIndex.Match match : PersonSearchIndex.search(query, limit)) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("ID", match.getID());
+            row.put("Name", match.getName());
+            row.put("Phone", match.getPhoneNum());
+            row.put("Date of Birth", match.getDateOfBirth());
+            row.put("Score", Math.round(match.getScore() * 100) / 100.0);
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    /** Prints the people matching a search, best matches first */
+    public static void printPeopleSearch(String query, int limit) throws SQLException {
+        if (printRows(searchPeople(query, limit), 20, null) == 0) {
+            System.out.println("No people match \"" + query + "\"");
         }
-        System.out.print("\n");
+    }
+
+    /** Set the parameters of PATIENTS_PER_MONTH_QUERY or PATIENTS_PER_MONTH_ROLLUP_QUERY */
+    private static void bindMonthRange(PreparedStatement statement, int hospitalID, Date from, Date to) throws SQLException {
+        LocalDate[] months = monthRange(from, to);
+        statement.setInt(1, hospitalID);
+        if (VisitRollup.isEnabled()) {
+            statement.setInt(2, monthKey(months[0]));
+            statement.setInt(3, monthKey(months[1]));
+        } else {
+            statement.setDate(2, Date.valueOf(months[0]));
+            statement.setDate(3, Date.valueOf(months[1]));
+        }
+    }
+
+    /**
+     * The first day of the month of from, and the first day of the month after to
+     * (nulls give the earliest and latest dates the database stores)
+     */
+    private static LocalDate[] monthRange(Date from, Date to) {
+        LocalDate start = from == null ? LocalDate.of(1000, 1, 1) : from.toLocalDate().withDayOfMonth(1);
+        LocalDate end = to == null ? LocalDate.of(9999, 12, 1) : to.toLocalDate().withDayOfMonth(1).plusMonths(1);
+        return new LocalDate[] {start, end};
+    }
+
+    private static int monthKey(LocalDate month) {
+        return month.getYear() * 100 + month.getMonthValue();
+    }
+
+    /** The name of a Patient, or null if there is no such Patient */
+    private static String patientName(int patientID) throws SQLException {
+        Patient p = Patient.getByID(patientID);
+        return p == null ? null : p.getName();
+    }
 
-        while (rs.next()) {
-            for (int i = 1; i <= columnsNumber; i++) {
-                String columnValue = rs.getString(i);
-                System.out.print(String.format("%" + width + "s | ", columnValue));
+    /**
+     * Run a report query and collect its rows
+     * @param query The report's SQL
+     * @param parameters Values for the query's ? placeholders, in order
+     * @return One map per row from column label to value, keeping the column order
+     */
+    private static List<Map<String, Object>> fetchRows(String query, Object... parameters) throws SQLException {
+        try (PreparedStatement statement = prepareStreamingStatement(query)) {
+            for (int i = 0; i < parameters.length; i++) {
+                statement.setObject(i + 1, parameters[i]);
+            }
+
+            List<Map<String, Object>> rows = new ArrayList<>();
+            try (ResultSet rs = statement.executeQuery()) {
+                ResultSetMetaData meta = rs.getMetaData();
+                int columns = meta.getColumnCount();
+                while (rs.next()) {
+                    Map<String, Object> row = new LinkedHashMap<>();
+                    for (int c = 1; c <= columns; c++) {
+                        row.put(meta.getColumnLabel(c), rs.getObject(c));
+                    }
+                    rows.add(row);
+                }
             }
-            System.out.print("\n");
+            return rows;
         }
-        System.out.print("\n");
+    }
+
+    /**
+     * Prints out a ResultSet from an SQL query, reading it one row at a time
+     * @param rs The ResultSet received after running an SQL query (may be forward-only)
+     * @param width The width to make the columns when printing
+     * @return The number of rows printed
+     */
+    public static int printResultsSet(ResultSet rs, int width) throws SQLException {
+        return printResultsSet(rs, width, null);
+    }
+
+    /**
+     * Prints out a ResultSet from an SQL query, reading it one row at a time
+     * @param rs The ResultSet received after running an SQL query (may be forward-only)
+     * @param width The width to make the columns when printing
+     * @param title A line to print above the table if there are any rows
+     * @return The number of rows printed
+     */
+    public static int printResultsSet(ResultSet rs, int width, String title) throws SQLException {
+        return new ResultSetPrinter(width).print(rs, title);
+    }
+
+    /**
+     * Prints out rows computed in memory, in the same format as printResultsSet
+     * @param rows One map per row from column label to value
+     * @param width The width to make the columns when printing
+     * @param title A line to print above the table if there are any rows
+     * @return The number of rows printed
+     */
+    public static int printRows(List<Map<String, Object>> rows, int width, String title) throws SQLException {
+        try {
+            return new ResultSetPrinter(width).print(rows, title);
+        } catch (IOException e) {
+            throw new SQLException("Unable to write results: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Create a forward-only, read-only Statement whose results are streamed from the server
+     * rather than loaded into memory all at once. The caller must close it
+     */
+    static Statement createStreamingStatement() throws SQLException {
+        Statement statement = getConnection().createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        statement.setFetchSize(STREAMING_FETCH_SIZE);
+        return statement;
+    }
+
+    /**
+     * Prepare a forward-only, read-only statement whose results are streamed from the server
+     * rather than loaded into memory all at once. The caller must close it
+     */
+    static PreparedStatement prepareStreamingStatement(String query) throws SQLException {
+        PreparedStatement statement = getConnection().prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        statement.setFetchSize(STREAMING_FETCH_SIZE);
+        return statement;
     }
 }
@@ -0,0 +1,155 @@
+package hospital_dbms;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Prints a ResultSet as a fixed-width text table while reading it, one row at a time.
+ * Works on forward-only, streaming result sets, so memory use doesn't grow with the number of rows.
+ * Rows computed in memory (column label to value) can be printed in the same format.
+ * One line buffer is reused for every row and output goes through a single buffered Writer.
+ */
+public class ResultSetPrinter {
+
+    // Size of the output buffer in characters
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Writer out;
+    private final int width;
+    // Spaces used to right-align values; a value is padded with the first (width - length) of them
+    private final char[] padding;
+    // Reused for building each line
+    private final StringBuilder line = new StringBuilder();
+
+    /**
+     * Construct a printer that writes to standard output
+     * @param width The width of each column
+     */
+    public ResultSetPrinter(int width) {
+        this(new BufferedWriter(new OutputStreamWriter(System.out), BUFFER_SIZE), width);
+    }
+
+    /**
+     * Construct a printer that writes to the given Writer
+     * @param out Where the table is written. It is flushed, but not closed, after each table
+     * @param width The width of each column
+     */
+    public ResultSetPrinter(Writer out, int width) {
+        this.out = out;
+        this.width = width;
+        this.padding = new char[width];
+        Arrays.fill(padding, ' ');
+    }
+
+    /**
+     * Print every remaining row of a ResultSet. Nothing is printed if there are no rows
+     * @param rs The rows to print; it is read to the end but not closed
+     * @param title A line printed above the table if there is at least one row, or null for none
+     * @return The number of rows printed
+     */
+    public int print(ResultSet rs, String title) throws SQLException {
+        ResultSetMetaData rsmd = rs.getMetaData();
+        int columnsNumber = rsmd.getColumnCount();
+        int rows = 0;
+
+        try {
+            while (rs.next()) {
+                if (rows == 0) {
+                    if (title != null) {
+                        out.write(title);
+                        out.write('\n');
+                    }
+                    printHeader(rsmd, columnsNumber);
+                }
+                line.setLength(0);
+                for (int i = 1; i <= columnsNumber; i++) {
+                    appendCell(rs.getString(i));
+                }
+                line.append('\n');
+                out.append(line);
+                rows++;
+            }
+            if (rows > 0) {
+                out.write('\n');
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new SQLException("Unable to write results: " + e.getMessage(), e);
+        }
+        return rows;
+    }
+
+    /**
+     * Print rows of column label to value, taking the columns from the first row. Nothing is printed if there are no rows
+     * @param rows The rows to print
+     * @param title A line printed above the table if there is at least one row, or null for none
+     * @return The number of rows printed
+     */
+    public int print(List<Map<String, Object>> rows, String title) throws IOException {
+        if (!rows.isEmpty()) {
+            if (title != null) {
+                out.write(title);
+                out.write('\n');
+            }
+            List<String> labels = new ArrayList<>(rows.get(0).keySet());
+            printHeader(labels);
+            for (Map<String, Object> row : rows) {
+                line.setLength(0);
+                for (String label : labels) {
+                    Object value = row.get(label);
+                    appendCell(value == null ? null : value.toString());
+                }
+                line.append('\n');
+                out.append(line);
+            }
+            out.write('\n');
+        }
+        out.flush();
+        return rows.size();
+    }
+
+    /** Print the column names and a separator line */
+    private void printHeader(ResultSetMetaData rsmd, int columnsNumber) throws SQLException, IOException {
+        List<String> labels = new ArrayList<>(columnsNumber);
+        for (int i = 1; i <= columnsNumber; i++) {
+            labels.add(rsmd.getColumnLabel(i));
+        }
+        printHeader(labels);
+    }
+
+    /** Print the column names and a separator line */
+    private void printHeader(List<String> labels) throws IOException {
+        int columnsNumber = labels.size();
+        line.setLength(0);
+        line.append('\n');
+        for (String label : labels) {
+            appendCell(label);
+        }
+        line.append('\n');
+        for (int i = 0; i < columnsNumber * (width + 3); i++) {
+            line.append('-');
+        }
+        line.append('\n');
+        out.append(line);
+    }
+
+    /** Append one right-aligned cell followed by the column separator */
+    private void appendCell(String value) {
+        if (value == null) {
+            value = "null";
+        }
+        if (value.length() < width) {
+            line.append(padding, 0, width - value.length());
+        }
+        line.append(value).append(" | ");
+    }
+}
@@ -0,0 +1,69 @@
+package hospital_dbms;
+
+import java.sql.Date;
+import java.sql.SQLException;
+
+import hospital_dbms.billing.BillingRun;
+import hospital_dbms.db.SchemaMigrator;
+import hospital_dbms.models.HospitalVisit;
+import static hospital_dbms.HospitalDBMS.getConnection;
+
+/**
+ * Compute the BillingStatements of every Patient for a billing period and write them to the
+ * BillingStatement table, replacing any statements already written for the period.
+ * Runs BillingRun, so running a period again resumes it from its last checkpoint
+ */
+public class RunBilling {
+
+    /**
+     * Main method for the billing run
+     * @param args The first and last dates (yyyy-mm-dd) of the billing period, then optionally
+     *             workers=N, partitionSize=N, and restart (bill every partition again)
+     * @throws SQLException upon error while connecting to the Database or planning the run
+     */
+    public static void main(String[] args) throws SQLException {
+        if (args.length < 2) {
+            usage();
+        }
+        Date periodStart = Date.valueOf(args[0]);
+        Date periodEnd = Date.valueOf(args[1]);
+        int workers = BillingRun.DEFAULT_WORKERS;
+        int partitionSize = BillingRun.DEFAULT_PARTITION_SIZE;
+        boolean restart = false;
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].startsWith("workers=")) {
+                workers = Integer.parseInt(args[i].substring("workers=".length()));
+            } else if (args[i].startsWith("partitionSize=")) {
+                partitionSize = Integer.parseInt(args[i].substring("partitionSize=".length()));
+            } else if (args[i].equals("restart")) {
+                restart = true;
+            } else {
+                usage();
+            }
+        }
+
+        int version = new SchemaMigrator(getConnection()).currentVersion();
+        if (version < 7) {
+            System.out.println("The billing tables don't exist yet; run 'make migrate' first");
+            System.exit(1);
+        }
+        if (version >= 8) {
+            HospitalVisit.keepBedSpecialization();
+        }
+        BillingRun run = new BillingRun(periodStart, periodEnd, workers, partitionSize);
+        if (restart) {
+            run.restart();
+        }
+        BillingRun.Result result = run.run();
+        System.out.printf("Wrote %d billing statements for %s to %s in %d ms (%.0f statements/s); "
+                          + "%d partitions billed, %d already done, %d failed\n",
+                          result.getStatements(), periodStart, periodEnd, result.getElapsedMillis(),
+                          result.getThroughput(), result.getPartitions(), result.getSkipped(), result.getFailed());
+        System.exit(result.getFailed() == 0 ? 0 : 1);
+    }
+
+    private static void usage() {
+        System.out.println("Usage: RunBilling FIRST_DAY LAST_DAY (yyyy-mm-dd) [workers=N] [partitionSize=N] [restart]");
+        System.exit(1);
+    }
+}
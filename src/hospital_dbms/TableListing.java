@@ -0,0 +1,325 @@
+package hospital_dbms;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static hospital_dbms.HospitalDBMS.getConnection;
+
+/**
+ * Lists the rows of a table one page at a time, with keyset (seek) pagination over the table's key.
+ *
+ * Each page is one query, ORDER BY the key with a LIMIT, that starts after the last key of the previous page
+ * (WHERE key > last), so the database reads only the rows it returns from the key's index and every page costs
+ * the same however far into the table it is. Pages can be limited to some columns and to the rows matching
+ * filters ("column operator value"). Tables without a primary key are paged by the columns that identify
+ * their rows (e.g. Patient by personID). A page's cursor (see Page.getCursor()) can be handed back to
+ * continue from it later, e.g. by an HTTP client.
+ */
+public class TableListing {
+
+    /** A filter on one column, such as "hospitalID = 3" or "endDate IS NULL" */
+    public static class Filter {
+        // "column operator value"; the value is optional for IS NULL and IS NOT NULL
+        private static final Pattern SYNTAX = Pattern.compile(
+                "\\s*(\\w+)\\s*(<=|>=|!=|<>|=|<|>|(?i:not\\s+like|like|is\\s+not\\s+null|is\\s+null))\\s*(.*?)\\s*");
+
+        private final String column;
+        private final String operator;
+        private final String value;
+
+        /**
+         * Construct a filter
+         * @param column The column to compare
+         * @param operator One of =, !=, <, <=, >, >=, LIKE, NOT LIKE, IS NULL, IS NOT NULL
+         * @param value The value to compare with (ignored for IS NULL and IS NOT NULL)
+         */
+        public Filter(String column, String operator, String value) {
+            this.column = identifier(column);
+            this.operator = operator.trim().replaceAll("\\s+", " ").toUpperCase(Locale.ROOT).replace("<>", "!=");
+            if (!OPERATORS.contains(this.operator)) {
+                throw new IllegalArgumentException("Unknown operator " + operator);
+            }
+            this.value = isNullTest() ? null : value;
+        }
+
+        /**
+         * Parse a filter written as "column operator value", e.g. "status = IN_TREATMENT" or "name LIKE Jo%".
+         * The value may be quoted with single quotes
+         * @throws IllegalArgumentException if the filter can't be parsed
+         */
+        public static Filter parse(String text) {
+            Matcher m = SYNTAX.matcher(text);
+            if (!m.matches()) {
+                throw new IllegalArgumentException("Filters are written as \"column operator value\", not " + text);
+            }
+            String value = m.group(3);
+            if (value.length() >= 2 && value.startsWith("'") && value.endsWith("'")) {
+                value = value.substring(1, value.length() - 1);
+            }
+            Filter filter = new Filter(m.group(1), m.group(2), value);
+            if (filter.isNullTest() != value.isEmpty()) {
+                throw new IllegalArgumentException("Filters are written as \"column operator value\", not " + text);
+            }
+            return filter;
+        }
+
+        private boolean isNullTest() {
+            return operator.startsWith("IS ");
+        }
+
+        @Override
+        public String toString() {
+            return column + " " + operator + (isNullTest() ? "" : " " + value);
+        }
+    }
+
+    /** One page of rows */
+    public static class Page {
+        private final List<Map<String, Object>> rows;
+        // Key of the last row, or null if this is the last page
+        private final Object[] nextKey;
+
+        Page(List<Map<String, Object>> rows, Object[] nextKey) {
+            this.rows = rows;
+            this.nextKey = nextKey;
+        }
+
+        /** The page's rows, from column label to value, in key order */
+        public List<Map<String, Object>> getRows() {
+            return rows;
+        }
+
+        /** Whether there are rows after this page */
+        public boolean hasMore() {
+            return nextKey != null;
+        }
+
+        /** The key to start the next page after, or null if this is the last page */
+        public Object[] getNextKey() {
+            return nextKey;
+        }
+
+        /** The next page's key as an opaque string for page(String), or null if this is the last page */
+        public String getCursor() {
+            if (nextKey == null) {
+                return null;
+            }
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(Json.write(nextKey).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /** Rows per page when none is given */
+    public static final int DEFAULT_PAGE_SIZE = Integer.getInteger("hospital.listing.pageSize", 50);
+    /** Most rows a page may hold */
+    public static final int MAX_PAGE_SIZE = 10000;
+
+    private static final Set<String> OPERATORS = Set.of("=", "!=", "<", "<=", ">", ">=", "LIKE", "NOT LIKE", "IS NULL", "IS NOT NULL");
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+    // The columns each table is paged by, in order: its primary key, or the columns that identify its rows
+    private static final Map<String, String[]> KEYS = new LinkedHashMap<>();
+    static {
+        KEYS.put("Person", new String[] {"ID"});
+        KEYS.put("Patient", new String[] {"personID"});
+        KEYS.put("Staff", new String[] {"personID"});
+        KEYS.put("Hospital", new String[] {"ID"});
+        KEYS.put("Specialization", new String[] {"name"});
+        KEYS.put("HospitalSpecialty", new String[] {"hospitalID", "specialization"});
+        KEYS.put("HospitalVisit", new String[] {"ID"});
+        KEYS.put("ResponsibleStaff", new String[] {"visitID", "staffID"});
+        KEYS.put("Bed", new String[] {"ID"});
+        KEYS.put("MedicalRecord", new String[] {"ID"});
+        KEYS.put("Billing", new String[] {"ID"});
+        KEYS.put("HospitalUsage", new String[] {"hospitalID", "specializationName"});
+        KEYS.put("VisitRollup", new String[] {"hospitalID", "year", "month"});
+        KEYS.put("BillingStatement", new String[] {"ID"});
+        KEYS.put("BillingCheckpoint", new String[] {"periodStart", "periodEnd", "fromPatientID"});
+        KEYS.put("SchemaVersion", new String[] {"version"});
+    }
+
+    private final String table;
+    private final String[] key;
+    // Columns to list, or empty for every column
+    private final List<String> columns;
+    private final List<Filter> filters;
+    private final int pageSize;
+    // Queries for the first page and for the pages after a key
+    private final String firstQuery;
+    private final String nextQuery;
+
+    /**
+     * Construct a listing of a table
+     * @param table The table's name (case doesn't matter); see getTables()
+     * @param columns The columns to list, or null or empty for every column
+     * @param filters Filters every listed row must match, or null for none
+     * @param pageSize Rows per page, from 1 to MAX_PAGE_SIZE
+     * @throws IllegalArgumentException if the table is unknown, a column name isn't valid or the page size is out of range
+     */
+    public TableListing(String table, List<String> columns, List<Filter> filters, int pageSize) {
+        this.table = KEYS.keySet().stream().filter(t -> t.equalsIgnoreCase(table.trim())).findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Unknown table " + table + "; tables are " + KEYS.keySet()));
+        this.key = KEYS.get(this.table);
+        this.columns = new ArrayList<>();
+        if (columns != null) {
+            for (String column : columns) {
+                this.columns.add(identifier(column));
+            }
+        }
+        this.filters = filters == null ? Collections.emptyList() : new ArrayList<>(filters);
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("Page size must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        this.pageSize = pageSize;
+        this.firstQuery = buildQuery(false);
+        this.nextQuery = buildQuery(true);
+    }
+
+    /** The tables that can be listed */
+    public static Set<String> getTables() {
+        return Collections.unmodifiableSet(KEYS.keySet());
+    }
+
+    /** The table's name as the database spells it */
+    public String getTable() {
+        return table;
+    }
+
+    /** The first page */
+    public Page first() throws SQLException {
+        return page((Object[]) null);
+    }
+
+    /**
+     * The page after a key
+     * @param after The key of the last row already listed (Page.getNextKey()), or null for the first page
+     */
+    public Page page(Object[] after) throws SQLException {
+        if (after != null && after.length != key.length) {
+            throw new IllegalArgumentException("A " + table + " key has " + key.length + " values");
+        }
+        try (PreparedStatement statement = getConnection().prepareStatement(after == null ? firstQuery : nextQuery)) {
+            int parameter = 1;
+            for (Filter filter : filters) {
+                if (!filter.isNullTest()) {
+                    statement.setString(parameter++, filter.value);
+                }
+            }
+            for (int i = 0; after != null && i < key.length; i++) {
+                for (int j = 0; j <= i; j++) {
+                    statement.setObject(parameter++, after[j]);
+                }
+            }
+            // One row more than the page, to know whether there is another page
+            statement.setInt(parameter, pageSize + 1);
+
+            List<Map<String, Object>> rows = new ArrayList<>();
+            Object[] last = null;
+            try (ResultSet rs = statement.executeQuery()) {
+                ResultSetMetaData meta = rs.getMetaData();
+                int listed = columns.isEmpty() ? meta.getColumnCount() : columns.size();
+                while (rows.size() < pageSize && rs.next()) {
+                    Map<String, Object> row = new LinkedHashMap<>();
+                    for (int c = 1; c <= listed; c++) {
+                        row.put(meta.getColumnLabel(c), rs.getObject(c));
+                    }
+                    rows.add(row);
+                    last = new Object[key.length];
+                    for (int i = 0; i < key.length; i++) {
+                        last[i] = rs.getObject(key[i]);
+                    }
+                }
+                return new Page(rows, rs.next() ? last : null);
+            }
+        }
+    }
+
+    /**
+     * The page after a cursor
+     * @param cursor A cursor from Page.getCursor(), or null or empty for the first page
+     * @throws IllegalArgumentException if the cursor isn't one of this table's
+     */
+    public Page page(String cursor) throws SQLException {
+        if (cursor == null || cursor.isEmpty()) {
+            return first();
+        }
+        Object after;
+        try {
+            after = Json.parse(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor " + cursor);
+        }
+        if (!(after instanceof List)) {
+            throw new IllegalArgumentException("Invalid cursor " + cursor);
+        }
+        return page(((List<?>) after).toArray());
+    }
+
+    /**
+     * Build the page query: the listed columns (plus the key, to seek from), the filters, then rows after the
+     * given key. A key (k1, k2) > (a, b) is written k1 > a OR (k1 = a AND k2 > b), which uses the key's index
+     * as a range
+     * @param seek Whether the query starts after a key, rather than at the first row
+     */
+    private String buildQuery(boolean seek) {
+        StringBuilder sql = new StringBuilder("SELECT ");
+        if (columns.isEmpty()) {
+            sql.append('*');
+        } else {
+            List<String> selected = new ArrayList<>(columns);
+            for (String column : key) {
+                if (selected.stream().noneMatch(column::equalsIgnoreCase)) {
+                    selected.add(column);
+                }
+            }
+            sql.append(String.join(", ", quoted(selected)));
+        }
+        sql.append(" FROM ").append(table).append(" WHERE TRUE");
+        for (Filter filter : filters) {
+            sql.append(" AND `").append(filter.column).append("` ").append(filter.operator);
+            sql.append(filter.isNullTest() ? "" : " ?");
+        }
+        if (seek) {
+            sql.append(" AND (");
+            for (int i = 0; i < key.length; i++) {
+                sql.append(i == 0 ? "(" : " OR (");
+                for (int j = 0; j < i; j++) {
+                    sql.append('`').append(key[j]).append("` = ? AND ");
+                }
+                sql.append('`').append(key[i]).append("` > ?)");
+            }
+            sql.append(')');
+        }
+        sql.append(" ORDER BY ").append(String.join(", ", quoted(List.of(key)))).append(" LIMIT ?");
+        return sql.toString();
+    }
+
+    private static List<String> quoted(List<String> columns) {
+        List<String> quoted = new ArrayList<>();
+        for (String column : columns) {
+            quoted.add('`' + column + '`');
+        }
+        return quoted;
+    }
+
+    /** Check a column name, which is put into the SQL */
+    private static String identifier(String column) {
+        String trimmed = column.trim();
+        if (!IDENTIFIER.matcher(trimmed).matches()) {
+            throw new IllegalArgumentException("Invalid column name " + column);
+        }
+        return trimmed;
+    }
+}
@@ -0,0 +1,365 @@
+package hospital_dbms.analytics;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.Month;
+import java.time.format.TextStyle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import hospital_dbms.models.BillingStatement;
+
+/**
+ * A read-only copy of HospitalVisit, MedicalRecord and Bed (plus the small Specialization and HospitalSpecialty tables) held in
+ * primitive column arrays, for running the aggregate Reports without scanning the OLTP tables.
+ *
+ * Each report is a loop over a few int[] or float[] columns, split across a fork-join pool (see ParallelScan).
+ * Strings are dictionary-encoded, dates are stored as epoch days and months, and SQL NULL is stored as
+ * NO_DATE, NULL_FLOAT or Dictionary.NULL. Results have the same columns as the reports' SQL.
+ *
+ * start() loads the snapshot on a background thread and refreshes it periodically; current() returns the
+ * latest one, or null until the first load finishes. Once the schema has the updatedAt columns (migration 5)
+ * refreshes read only the changed rows; every FULL_RELOAD_EVERY refreshes the tables are read in full, which
+ * also drops deleted rows. Reports read a snapshot that is up to one refresh period (plus the reload
+ * overlap) out of date.
+ */
+public final class AnalyticsSnapshot {
+
+    /** Stored in the date columns for a NULL date */
+    static final int NO_DATE = Integer.MIN_VALUE;
+
+    // Columns of the visits table
+    static final int VISIT_ID = 0;
+    static final int VISIT_HOSPITAL = 1;
+    static final int VISIT_PATIENT = 2;
+    static final int VISIT_START_DAY = 3;
+    static final int VISIT_START_MONTH = 4;
+    static final int VISIT_END_DAY = 5;
+    static final int VISIT_BED = 6;
+    static final int VISIT_INTS = 7;
+    static final int VISIT_REGISTRATION_FEE = 0;
+    static final int VISIT_FLOATS = 1;
+    // Columns of the medical records table
+    static final int RECORD_ID = 0;
+    static final int RECORD_VISIT = 1;
+    static final int RECORD_INTS = 2;
+    static final int RECORD_CONSULT_FEE = 0;
+    static final int RECORD_TEST_FEE = 1;
+    static final int RECORD_TREATMENT_FEE = 2;
+    static final int RECORD_FLOATS = 3;
+    // Columns of the beds table
+    static final int BED_ID = 0;
+    static final int BED_HOSPITAL = 1;
+    static final int BED_SPECIALIZATION = 2;
+    static final int BED_OCCUPIED = 3;
+    static final int BED_INTS = 4;
+    // Columns of the hospitals-by-specialty table, whose rows are numbered in specialization order
+    static final int SPECIALTY_ROW = 0;
+    static final int SPECIALTY_HOSPITAL = 1;
+    static final int SPECIALTY_ADDRESS = 2;
+    static final int SPECIALTY_SPECIALIZATION = 3;
+    static final int SPECIALTY_INTS = 4;
+
+    // Number of incremental refreshes between full loads
+    private static final int FULL_RELOAD_EVERY = Integer.getInteger("hospital.analytics.fullReloadEvery", 20);
+
+    // The latest snapshot, or null before the first load
+    private static volatile AnalyticsSnapshot current = null;
+    // Whether refreshes may read only changed rows (the schema has the updatedAt columns)
+    private static boolean incremental = false;
+    // Incremental refreshes since the last full load
+    private static int refreshesSinceLoad = 0;
+    // Runs refresh() periodically, once started
+    private static ScheduledExecutorService refresher = null;
+
+    final ColumnTable visits;
+    final ColumnTable records;
+    final ColumnTable beds;
+    final ColumnTable specialties;
+    final Dictionary strings;
+    // Specialization.chargesPerDay by the dictionary code of the specialization's name (NULL_FLOAT if unset)
+    final float[] chargesPerDay;
+    // Rows changed at or after this time are read by the next refresh
+    final Timestamp watermark;
+    private final long loadedAt = System.currentTimeMillis();
+    // The range of the visits' start months, for sizing the per-month counts
+    private final int firstMonth;
+    private final int lastMonth;
+
+    AnalyticsSnapshot(ColumnTable visits, ColumnTable records, ColumnTable beds, ColumnTable specialties,
+                      Dictionary strings, float[] chargesPerDay, Timestamp watermark) {
+        this.visits = visits;
+        this.records = records;
+        this.beds = beds;
+        this.specialties = specialties;
+        this.strings = strings;
+        this.chargesPerDay = chargesPerDay;
+        this.watermark = watermark;
+
+        int[] months = visits.ints[VISIT_START_MONTH];
+        int first = Integer.MAX_VALUE;
+        int last = NO_DATE;
+        for (int r = 0; r < visits.size; r++) {
+            if (months[r] != NO_DATE) {
+                first = Math.min(first, months[r]);
+                last = Math.max(last, months[r]);
+            }
+        }
+        this.firstMonth = first;
+        this.lastMonth = last;
+    }
+
+    /** The latest snapshot, or null if analytics aren't running or the first load hasn't finished */
+    public static AnalyticsSnapshot current() {
+        return current;
+    }
+
+    /**
+     * Load the snapshot and refresh it every periodMillis on a background thread
+     * @param periodMillis Time between refreshes; 0 or less doesn't start the job
+     * @param changesOnly Whether the schema has the updatedAt columns, so refreshes can read only changed rows
+     */
+    public static synchronized void start(long periodMillis, boolean changesOnly) {
+        if (refresher != null || periodMillis <= 0) {
+            return;
+        }
+        incremental = changesOnly;
+        refresher = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "analytics-refresher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refresher.scheduleWithFixedDelay(() -> {
+            try {
+                refresh();
+            } catch (SQLException e) {
+                System.out.println("Unable to refresh the analytics snapshot: " + e.getMessage());
+            }
+        }, 0, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** Stop the job started by start() and stop serving reports from the snapshot */
+    public static synchronized void stop() {
+        if (refresher != null) {
+            refresher.shutdownNow();
+            refresher = null;
+        }
+        current = null;
+    }
+
+    /**
+     * Bring the snapshot up to date: read the changed rows, or every row on the first load,
+     * when refreshes can't be incremental and every FULL_RELOAD_EVERY refreshes
+     */
+    public static synchronized void refresh() throws SQLException {
+        AnalyticsSnapshot previous = current;
+        boolean full = previous == null || !incremental || refreshesSinceLoad >= FULL_RELOAD_EVERY;
+        try (SnapshotLoader loader = SnapshotLoader.open()) {
+            current = full ? loader.loadAll() : loader.loadChanges(previous);
+        }
+        refreshesSinceLoad = full ? 0 : refreshesSinceLoad + 1;
+    }
+
+    /** Milliseconds since this snapshot was loaded */
+    public long getAgeMillis() {
+        return System.currentTimeMillis() - loadedAt;
+    }
+
+    /** Number of visits, medical records and beds held */
+    public int getRowCount() {
+        return visits.size + records.size + beds.size;
+    }
+
+    /** The Hospitals and their specialties, ordered by specialization */
+    public List<Map<String, Object>> getHospitalsBySpecialty() {
+        ColumnTable table = specialties;
+        List<Map<String, Object>> rows = new ArrayList<>(table.size);
+        for (int r = 0; r < table.size; r++) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("hospitalID", table.ints[SPECIALTY_HOSPITAL][r]);
+            row.put("address", strings.decode(table.ints[SPECIALTY_ADDRESS][r]));
+            row.put("specialization", strings.decode(table.ints[SPECIALTY_SPECIALIZATION][r]));
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    /** The available and occupied beds and usage of every Hospital with beds, ordered by hospital */
+    public List<Map<String, Object>> getHospitalUsage() {
+        ColumnTable table = beds;
+        int[] hospitals = table.ints[BED_HOSPITAL];
+        int[] occupied = table.ints[BED_OCCUPIED];
+        // counts[2h] is hospital h's total beds, counts[2h + 1] its occupied beds
+        int[] counts = ParallelScan.run(table.size, (from, to) -> {
+            int[] c = new int[64];
+            for (int r = from; r < to; r++) {
+                int slot = hospitals[r] * 2;
+                if (slot + 1 >= c.length) {
+                    c = Arrays.copyOf(c, Math.max(slot + 2, c.length * 2));
+                }
+                c[slot]++;
+                c[slot + 1] += occupied[r];
+            }
+            return c;
+        }, AnalyticsSnapshot::addCounts);
+
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (int h = 0; h * 2 < counts.length; h++) {
+            int total = counts[h * 2];
+            if (total == 0) {
+                continue;
+            }
+            int occupiedBeds = counts[h * 2 + 1];
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("HospitalID", h);
+            row.put("Available Beds", total - occupiedBeds);
+            row.put("Occupied Beds", occupiedBeds);
+            row.put("Usage %", occupiedBeds * 100.0 / total);
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    /**
+     * The number of visits to a Hospital per month of their startDate, between two months, ordered by month
+     * @param from A date in the first month, or null for no limit
+     * @param to A date in the last month, or null for no limit
+     */
+    public List<Map<String, Object>> getPatientsPerMonth(int hospitalID, Date from, Date to) {
+        int first = Math.max(firstMonth, from == null ? firstMonth : month(from));
+        int last = Math.min(lastMonth, to == null ? lastMonth : month(to));
+        List<Map<String, Object>> rows = new ArrayList<>();
+        if (first > last) {
+            return rows;
+        }
+
+        ColumnTable table = visits;
+        int[] hospitals = table.ints[VISIT_HOSPITAL];
+        int[] months = table.ints[VISIT_START_MONTH];
+        int buckets = last - first + 1;
+        int[] counts = ParallelScan.run(table.size, (start, end) -> {
+            int[] c = new int[buckets];
+            for (int r = start; r < end; r++) {
+                int bucket = months[r] - first;
+                // NO_DATE and months outside the range give a bucket outside 0..buckets-1
+                if (hospitals[r] == hospitalID && bucket >= 0 && bucket < buckets) {
+                    c[bucket]++;
+                }
+            }
+            return c;
+        }, AnalyticsSnapshot::addCounts);
+
+        for (int b = 0; b < buckets; b++) {
+            if (counts[b] > 0) {
+                int month = first + b;
+                Map<String, Object> row = new LinkedHashMap<>();
+                row.put("Month", Month.of(month % 12 + 1).getDisplayName(TextStyle.FULL, Locale.ENGLISH) + " " + month / 12);
+                row.put("Visits", counts[b]);
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Compute a Patient's BillingStatement for a period (both dates inclusive) with the same charges as
+     * BillingEngine: the registration and medical record fees of visits starting in the period, and the
+     * daily charge of each visit's bed for its days in the period
+     */
+    public BillingStatement getBillingStatement(int patientID, Date periodStart, Date periodEnd) {
+        int first = day(periodStart);
+        int last = day(periodEnd);
+        int openUntil = (int) Math.min(last, LocalDate.now().toEpochDay());
+
+        ColumnTable visitTable = visits;
+        ColumnTable bedTable = beds;
+        int[] patients = visitTable.ints[VISIT_PATIENT];
+        int[] startDays = visitTable.ints[VISIT_START_DAY];
+        int[] endDays = visitTable.ints[VISIT_END_DAY];
+        int[] bedIDs = visitTable.ints[VISIT_BED];
+        float[] registrationFees = visitTable.floats[VISIT_REGISTRATION_FEE];
+        int[] bedSpecializations = bedTable.ints[BED_SPECIALIZATION];
+        float[] rates = chargesPerDay;
+        BillingStatement statement = ParallelScan.run(visitTable.size, (from, to) -> {
+            BillingStatement s = new BillingStatement(patientID, periodStart, periodEnd);
+            for (int v = from; v < to; v++) {
+                if (patients[v] != patientID || startDays[v] == NO_DATE || startDays[v] > last) {
+                    continue;
+                }
+                if (startDays[v] >= first) {
+                    s.addVisit(orZero(registrationFees[v]));
+                }
+                int bed = bedTable.rowOf(bedIDs[v]);
+                int specialization = bed == ColumnTable.NO_ROW ? Dictionary.NULL : bedSpecializations[bed];
+                if (specialization != Dictionary.NULL && specialization < rates.length && !Float.isNaN(rates[specialization])) {
+                    int days = Math.min(endDays[v] == NO_DATE ? openUntil : endDays[v], last)
+                               - Math.max(startDays[v], first) + 1;
+                    if (days > 0) {
+                        s.addBedDays(days, rates[specialization]);
+                    }
+                }
+            }
+            return s;
+        }, BillingStatement::add);
+
+        ColumnTable recordTable = records;
+        int[] visitIDs = recordTable.ints[RECORD_VISIT];
+        float[] consultFees = recordTable.floats[RECORD_CONSULT_FEE];
+        float[] testFees = recordTable.floats[RECORD_TEST_FEE];
+        float[] treatmentFees = recordTable.floats[RECORD_TREATMENT_FEE];
+        BillingStatement recordFees = ParallelScan.run(recordTable.size, (from, to) -> {
+            BillingStatement s = new BillingStatement(patientID, periodStart, periodEnd);
+            for (int r = from; r < to; r++) {
+                int v = visitTable.rowOf(visitIDs[r]);
+                if (v != ColumnTable.NO_ROW && patients[v] == patientID && startDays[v] != NO_DATE
+                        && startDays[v] >= first && startDays[v] <= last) {
+                    s.addRecord(orZero(consultFees[r]), orZero(testFees[r]), orZero(treatmentFees[r]));
+                }
+            }
+            return s;
+        }, BillingStatement::add);
+
+        return statement.add(recordFees);
+    }
+
+    /** Epoch day of a date, or NO_DATE */
+    static int day(Date date) {
+        return date == null ? NO_DATE : (int) date.toLocalDate().toEpochDay();
+    }
+
+    /** Month number (year * 12 + month - 1) of a date, or NO_DATE */
+    static int month(Date date) {
+        if (date == null) {
+            return NO_DATE;
+        }
+        LocalDate d = date.toLocalDate();
+        return d.getYear() * 12 + d.getMonthValue() - 1;
+    }
+
+    /** A fee, or 0 for NULL_FLOAT */
+    private static double orZero(float fee) {
+        return Float.isNaN(fee) ? 0 : fee;
+    }
+
+    /** Add two arrays of counts, which may differ in length */
+    private static int[] addCounts(int[] a, int[] b) {
+        if (a.length < b.length) {
+            int[] swap = a;
+            a = b;
+            b = swap;
+        }
+        for (int i = 0; i < b.length; i++) {
+            a[i] += b[i];
+        }
+        return a;
+    }
+}
@@ -0,0 +1,128 @@
+package hospital_dbms.analytics;
+
+import java.util.Arrays;
+
+/**
+ * The rows of one table held as primitive column arrays: ints[c][row] and floats[c][row].
+ * Column 0 of ints is the row's ID, and rowOf() finds a row from its ID through an array indexed by ID
+ * (the tables use AUTO_INCREMENT keys, so the IDs are dense).
+ *
+ * A table is never resized in place: upsert() returns a table with the new rows, sharing this table's
+ * arrays while they have room. Readers of this table only look at its first size rows, so rows appended
+ * for the new table stay invisible to them; a changed row is overwritten in place, so a scan running
+ * during a refresh may see some of the refresh's changes.
+ */
+final class ColumnTable {
+
+    /** Returned by rowOf() for an ID that isn't in the table */
+    static final int NO_ROW = -1;
+    /** Stored in a float column for SQL NULL */
+    static final float NULL_FLOAT = Float.NaN;
+
+    /** Rows read from the database, waiting to be added with upsert() */
+    static final class Rows {
+        int size = 0;
+        int[][] ints;
+        float[][] floats;
+
+        Rows(int intColumns, int floatColumns) {
+            ints = new int[intColumns][256];
+            floats = new float[floatColumns][256];
+        }
+
+        /** Make room for one more row and return its index */
+        int add() {
+            if (size == ints[0].length) {
+                int capacity = size * 2;
+                for (int c = 0; c < ints.length; c++) {
+                    ints[c] = Arrays.copyOf(ints[c], capacity);
+                }
+                for (int c = 0; c < floats.length; c++) {
+                    floats[c] = Arrays.copyOf(floats[c], capacity);
+                }
+            }
+            return size++;
+        }
+    }
+
+    /** Number of rows */
+    final int size;
+    /** The int columns; ints[0] holds the IDs. Arrays may be longer than size */
+    final int[][] ints;
+    /** The float columns. Arrays may be longer than size */
+    final float[][] floats;
+    // Row of each ID, or NO_ROW
+    private final int[] rowOfID;
+
+    /** Construct an empty table */
+    ColumnTable(int intColumns, int floatColumns) {
+        this(0, new int[intColumns][0], new float[floatColumns][0], new int[0]);
+    }
+
+    private ColumnTable(int size, int[][] ints, float[][] floats, int[] rowOfID) {
+        this.size = size;
+        this.ints = ints;
+        this.floats = floats;
+        this.rowOfID = rowOfID;
+    }
+
+    /** Find the row holding an ID, or NO_ROW if it isn't in the table */
+    int rowOf(int id) {
+        if (id < 0 || id >= rowOfID.length) {
+            return NO_ROW;
+        }
+        int row = rowOfID[id];
+        return row < size ? row : NO_ROW;
+    }
+
+    /**
+     * Add new rows and overwrite changed ones (matched by ID)
+     * @return The table holding the result; this table is unchanged apart from overwritten rows
+     */
+    ColumnTable upsert(Rows rows) {
+        int[] ids = rows.ints[0];
+        int maxID = rowOfID.length - 1;
+        int added = 0;
+        for (int r = 0; r < rows.size; r++) {
+            if (rowOf(ids[r]) == NO_ROW) {
+                added++;
+            }
+            maxID = Math.max(maxID, ids[r]);
+        }
+
+        int[][] ints = this.ints.clone();
+        float[][] floats = this.floats.clone();
+        int capacity = ints[0].length;
+        if (size + added > capacity) {
+            capacity = Math.max(size + added, capacity + capacity / 2);
+            for (int c = 0; c < ints.length; c++) {
+                ints[c] = Arrays.copyOf(ints[c], capacity);
+            }
+            for (int c = 0; c < floats.length; c++) {
+                floats[c] = Arrays.copyOf(floats[c], capacity);
+            }
+        }
+        int[] index = rowOfID;
+        if (maxID >= index.length) {
+            int length = Math.max(maxID + 1, index.length + index.length / 2);
+            index = Arrays.copyOf(index, length);
+            Arrays.fill(index, rowOfID.length, length, NO_ROW);
+        }
+
+        int size = this.size;
+        for (int r = 0; r < rows.size; r++) {
+            int row = index[ids[r]];
+            if (row == NO_ROW || row >= size) {
+                row = size++;
+                index[ids[r]] = row;
+            }
+            for (int c = 0; c < ints.length; c++) {
+                ints[c][row] = rows.ints[c][r];
+            }
+            for (int c = 0; c < floats.length; c++) {
+                floats[c][row] = rows.floats[c][r];
+            }
+        }
+        return new ColumnTable(size, ints, floats, index);
+    }
+}
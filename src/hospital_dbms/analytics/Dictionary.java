@@ -0,0 +1,50 @@
+package hospital_dbms.analytics;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Dictionary encoding for a string column: each distinct value is stored once and the column holds
+ * its int code. Codes are never reused or removed, so a code read from a column can always be decoded.
+ * Values are added by the snapshot loader while reports decode them from other threads.
+ */
+final class Dictionary {
+
+    /** The code stored for null */
+    static final int NULL = -1;
+
+    private final Map<String, Integer> codes = new HashMap<>();
+    // Values by code; replaced (not written in place) when it grows, so readers never see a torn array
+    private volatile String[] values = new String[16];
+    private int size = 0;
+
+    /** Get the code of a value, adding it if it's new */
+    synchronized int encode(String value) {
+        if (value == null) {
+            return NULL;
+        }
+        Integer code = codes.get(value);
+        if (code != null) {
+            return code;
+        }
+        String[] current = values;
+        if (size == current.length) {
+            current = Arrays.copyOf(current, size * 2);
+        }
+        current[size] = value;
+        values = current;
+        codes.put(value, size);
+        return size++;
+    }
+
+    /** Get the value of a code returned by encode() */
+    String decode(int code) {
+        return code == NULL ? null : values[code];
+    }
+
+    /** Number of distinct values */
+    synchronized int size() {
+        return size;
+    }
+}
@@ -0,0 +1,67 @@
+package hospital_dbms.analytics;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+
+/**
+ * Runs an aggregation over a range of rows with fork-join: the range is split in halves until the
+ * pieces are small, each piece is scanned on its own with a plain loop over the column arrays
+ * (which the JIT can unroll and vectorize), and the partial results are combined pairwise.
+ */
+final class ParallelScan {
+
+    // Ranges with at most this many rows are scanned without splitting
+    private static final int SPLIT_ROWS = Integer.getInteger("hospital.analytics.splitRows", 32 * 1024);
+    // Pool for report scans, kept apart from the common pool so reports can't starve other parallel work
+    private static final ForkJoinPool POOL = new ForkJoinPool(
+            Integer.getInteger("hospital.analytics.parallelism", Runtime.getRuntime().availableProcessors()));
+
+    /** Scans rows from (inclusive) to to (exclusive) and returns a partial result */
+    interface Leaf<A> {
+        A scan(int from, int to);
+    }
+
+    private ParallelScan() {}
+
+    /**
+     * Aggregate the rows 0 to rows-1
+     * @param leaf Scans one piece of the range
+     * @param combine Merges two partial results (it may modify and return either)
+     */
+    static <A> A run(int rows, Leaf<A> leaf, BinaryOperator<A> combine) {
+        if (rows <= SPLIT_ROWS) {
+            return leaf.scan(0, rows);
+        }
+        return POOL.invoke(new ScanTask<>(0, rows, leaf, combine));
+    }
+
+    private static final class ScanTask<A> extends RecursiveTask<A> {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        // Tasks are never serialized; the scan and merge functions aren't Serializable
+        private final transient Leaf<A> leaf;
+        private final transient BinaryOperator<A> combine;
+
+        ScanTask(int from, int to, Leaf<A> leaf, BinaryOperator<A> combine) {
+            this.from = from;
+            this.to = to;
+            this.leaf = leaf;
+            this.combine = combine;
+        }
+
+        @Override
+        protected A compute() {
+            if (to - from <= SPLIT_ROWS) {
+                return leaf.scan(from, to);
+            }
+            int middle = (from + to) >>> 1;
+            ScanTask<A> left = new ScanTask<>(from, middle, leaf, combine);
+            left.fork();
+            A right = new ScanTask<>(middle, to, leaf, combine).compute();
+            return combine.apply(left.join(), right);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package hospital_dbms.analytics;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Arrays;
+
+import static hospital_dbms.HospitalDBMS.getConnection;
+import static hospital_dbms.HospitalDBMS.releaseConnection;
+
+/**
+ * Reads the tables of an AnalyticsSnapshot from the database.
+ *
+ * Reads go to the replica named by -Dhospital.analytics.jdbc.url when it is set, and otherwise to the
+ * primary through the pool. Whole tables are read in chunks of CHUNK_ROWS by ID, each chunk a short
+ * statement of its own, so a load never holds a long-running read open on the primary. Refreshes read
+ * only the rows whose updatedAt (added by schema migration 5) is at or after the previous load's watermark.
+ */
+final class SnapshotLoader implements AutoCloseable {
+
+    // Replica to read from instead of the primary, and its login (defaulting to the primary's)
+    private static final String REPLICA_URL = System.getProperty("hospital.analytics.jdbc.url");
+    private static final String REPLICA_USERNAME = System.getProperty("hospital.analytics.jdbc.username",
+            System.getProperty("hospital.jdbc.username", "root"));
+    private static final String REPLICA_PASSWORD = System.getProperty("hospital.analytics.jdbc.password",
+            System.getProperty("hospital.jdbc.password", "changeme"));
+    // Rows read per statement when loading a whole table
+    private static final int CHUNK_ROWS = Integer.getInteger("hospital.analytics.chunkRows", 50000);
+    // How far before a load's start its watermark is set. Rows whose updatedAt is older than this when
+    // they commit (long transactions, replica lag, clock skew) are only picked up by the next full load
+    private static final long OVERLAP_MILLIS = Long.getLong("hospital.analytics.overlapMillis", 60000);
+
+    private static final String VISIT_COLUMNS =
+            "SELECT ID, hospitalID, patientID, startDate, registrationFee, endDate, bedNumber FROM HospitalVisit";
+    private static final String RECORD_COLUMNS =
+            "SELECT ID, visitID, consultaionFee, testFee, treatmentFee FROM MedicalRecord";
+    private static final String BED_COLUMNS =
+            "SELECT ID, hospitalID, specializationName, occupied FROM Bed";
+    private static final String SPECIALTY_QUERY =
+            "SELECT hospitalID, address, specialization FROM HospitalSpecialty HS JOIN Hospital H ON HS.hospitalID=H.ID " +
+            "ORDER BY specialization";
+    private static final String CHARGES_QUERY = "SELECT name, chargesPerDay FROM Specialization";
+
+    /** Copies the current row of a ResultSet into a row of the column arrays */
+    private interface RowReader {
+        void read(ResultSet rs, ColumnTable.Rows rows, int row, Dictionary strings) throws SQLException;
+    }
+
+    private final Connection connection;
+    // Whether the connection was opened to the replica (and so is closed rather than released)
+    private final boolean replica;
+
+    private SnapshotLoader(Connection connection, boolean replica) {
+        this.connection = connection;
+        this.replica = replica;
+    }
+
+    /** Connect to the replica if one is configured, or use the current thread's pooled connection */
+    static SnapshotLoader open() throws SQLException {
+        if (REPLICA_URL == null) {
+            return new SnapshotLoader(getConnection(), false);
+        }
+        Connection c = DriverManager.getConnection(REPLICA_URL, REPLICA_USERNAME, REPLICA_PASSWORD);
+        c.setReadOnly(true);
+        return new SnapshotLoader(c, true);
+    }
+
+    /** Read every table into a new snapshot */
+    AnalyticsSnapshot loadAll() throws SQLException {
+        Timestamp watermark = watermark();
+        Dictionary strings = new Dictionary();
+        ColumnTable visits = loadTable(VISIT_COLUMNS, AnalyticsSnapshot.VISIT_INTS, AnalyticsSnapshot.VISIT_FLOATS,
+                                       SnapshotLoader::readVisit, strings);
+        ColumnTable records = loadTable(RECORD_COLUMNS, AnalyticsSnapshot.RECORD_INTS, AnalyticsSnapshot.RECORD_FLOATS,
+                                        SnapshotLoader::readRecord, strings);
+        ColumnTable beds = loadTable(BED_COLUMNS, AnalyticsSnapshot.BED_INTS, 0, SnapshotLoader::readBed, strings);
+        return new AnalyticsSnapshot(visits, records, beds, loadSpecialties(strings), strings, loadCharges(strings), watermark);
+    }
+
+    /**
+     * Read the rows changed since a snapshot was loaded into a new snapshot.
+     * Deleted rows are not noticed; they stay until the next loadAll()
+     */
+    AnalyticsSnapshot loadChanges(AnalyticsSnapshot previous) throws SQLException {
+        Timestamp watermark = watermark();
+        Dictionary strings = previous.strings;
+        ColumnTable visits = previous.visits.upsert(readChanges(VISIT_COLUMNS, previous.watermark,
+                AnalyticsSnapshot.VISIT_INTS, AnalyticsSnapshot.VISIT_FLOATS, SnapshotLoader::readVisit, strings));
+        ColumnTable records = previous.records.upsert(readChanges(RECORD_COLUMNS, previous.watermark,
+                AnalyticsSnapshot.RECORD_INTS, AnalyticsSnapshot.RECORD_FLOATS, SnapshotLoader::readRecord, strings));
+        ColumnTable beds = previous.beds.upsert(readChanges(BED_COLUMNS, previous.watermark,
+                AnalyticsSnapshot.BED_INTS, 0, SnapshotLoader::readBed, strings));
+        return new AnalyticsSnapshot(visits, records, beds, loadSpecialties(strings), strings, loadCharges(strings), watermark);
+    }
+
+    @Override
+    public void close() throws SQLException {
+        if (replica) {
+            connection.close();
+        } else {
+            releaseConnection();
+        }
+    }
+
+    /** The database's time less the overlap; rows changed at or after it are read by the next refresh */
+    private Timestamp watermark() throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT NOW(3)")) {
+            rs.next();
+            return new Timestamp(rs.getTimestamp(1).getTime() - OVERLAP_MILLIS);
+        }
+    }
+
+    /** Read a whole table, CHUNK_ROWS rows at a time in ID order */
+    private ColumnTable loadTable(String select, int intColumns, int floatColumns, RowReader reader, Dictionary strings)
+            throws SQLException {
+        ColumnTable table = new ColumnTable(intColumns, floatColumns);
+        try (PreparedStatement statement = connection.prepareStatement(select + " WHERE ID > ? ORDER BY ID LIMIT ?")) {
+            int lastID = Integer.MIN_VALUE;
+            while (true) {
+                statement.setInt(1, lastID);
+                statement.setInt(2, CHUNK_ROWS);
+                ColumnTable.Rows rows = new ColumnTable.Rows(intColumns, floatColumns);
+                try (ResultSet rs = statement.executeQuery()) {
+                    read(rs, rows, reader, strings);
+                }
+                table = table.upsert(rows);
+                if (rows.size < CHUNK_ROWS) {
+                    return table;
+                }
+                lastID = rows.ints[0][rows.size - 1];
+            }
+        }
+    }
+
+    /** Read the rows of a table changed at or after a time */
+    private ColumnTable.Rows readChanges(String select, Timestamp since, int intColumns, int floatColumns,
+                                         RowReader reader, Dictionary strings) throws SQLException {
+        ColumnTable.Rows rows = new ColumnTable.Rows(intColumns, floatColumns);
+        try (PreparedStatement statement = connection.prepareStatement(select + " WHERE updatedAt >= ?",
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            statement.setFetchSize(CHUNK_ROWS);
+            statement.setTimestamp(1, since);
+            try (ResultSet rs = statement.executeQuery()) {
+                read(rs, rows, reader, strings);
+            }
+        }
+        return rows;
+    }
+
+    /** Read the hospitals of each specialty, numbering the rows in specialization order */
+    private ColumnTable loadSpecialties(Dictionary strings) throws SQLException {
+        ColumnTable.Rows rows = new ColumnTable.Rows(AnalyticsSnapshot.SPECIALTY_INTS, 0);
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery(SPECIALTY_QUERY)) {
+            while (rs.next()) {
+                int row = rows.add();
+                rows.ints[AnalyticsSnapshot.SPECIALTY_ROW][row] = row;
+                rows.ints[AnalyticsSnapshot.SPECIALTY_HOSPITAL][row] = rs.getInt(1);
+                rows.ints[AnalyticsSnapshot.SPECIALTY_ADDRESS][row] = strings.encode(rs.getString(2));
+                rows.ints[AnalyticsSnapshot.SPECIALTY_SPECIALIZATION][row] = strings.encode(rs.getString(3));
+            }
+        }
+        return new ColumnTable(AnalyticsSnapshot.SPECIALTY_INTS, 0).upsert(rows);
+    }
+
+    /** Read the daily charge of each specialization, indexed by the dictionary code of its name */
+    private float[] loadCharges(Dictionary strings) throws SQLException {
+        float[] charges = new float[0];
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery(CHARGES_QUERY)) {
+            while (rs.next()) {
+                int code = strings.encode(rs.getString(1));
+                if (code >= charges.length) {
+                    int length = charges.length;
+                    charges = Arrays.copyOf(charges, Math.max(code + 1, length * 2));
+                    Arrays.fill(charges, length, charges.length, ColumnTable.NULL_FLOAT);
+                }
+                charges[code] = getFloat(rs, 2);
+            }
+        }
+        return charges;
+    }
+
+    private static void read(ResultSet rs, ColumnTable.Rows rows, RowReader reader, Dictionary strings) throws SQLException {
+        while (rs.next()) {
+            reader.read(rs, rows, rows.add(), strings);
+        }
+    }
+
+    private static void readVisit(ResultSet rs, ColumnTable.Rows rows, int row, Dictionary strings) throws SQLException {
+        rows.ints[AnalyticsSnapshot.VISIT_ID][row] = rs.getInt(1);
+        rows.ints[AnalyticsSnapshot.VISIT_HOSPITAL][row] = rs.getInt(2);
+        rows.ints[AnalyticsSnapshot.VISIT_PATIENT][row] = rs.getInt(3);
+        Date startDate = rs.getDate(4);
+        rows.ints[AnalyticsSnapshot.VISIT_START_DAY][row] = AnalyticsSnapshot.day(startDate);
+        rows.ints[AnalyticsSnapshot.VISIT_START_MONTH][row] = AnalyticsSnapshot.month(startDate);
+        rows.floats[AnalyticsSnapshot.VISIT_REGISTRATION_FEE][row] = getFloat(rs, 5);
+        rows.ints[AnalyticsSnapshot.VISIT_END_DAY][row] = AnalyticsSnapshot.day(rs.getDate(6));
+        int bed = rs.getInt(7);
+        rows.ints[AnalyticsSnapshot.VISIT_BED][row] = rs.wasNull() ? ColumnTable.NO_ROW : bed;
+    }
+
+    private static void readRecord(ResultSet rs, ColumnTable.Rows rows, int row, Dictionary strings) throws SQLException {
+        rows.ints[AnalyticsSnapshot.RECORD_ID][row] = rs.getInt(1);
+        rows.ints[AnalyticsSnapshot.RECORD_VISIT][row] = rs.getInt(2);
+        rows.floats[AnalyticsSnapshot.RECORD_CONSULT_FEE][row] = getFloat(rs, 3);
+        rows.floats[AnalyticsSnapshot.RECORD_TEST_FEE][row] = getFloat(rs, 4);
+        rows.floats[AnalyticsSnapshot.RECORD_TREATMENT_FEE][row] = getFloat(rs, 5);
+    }
+
+    private static void readBed(ResultSet rs, ColumnTable.Rows rows, int row, Dictionary strings) throws SQLException {
+        rows.ints[AnalyticsSnapshot.BED_ID][row] = rs.getInt(1);
+        rows.ints[AnalyticsSnapshot.BED_HOSPITAL][row] = rs.getInt(2);
+        rows.ints[AnalyticsSnapshot.BED_SPECIALIZATION][row] = strings.encode(rs.getString(3));
+        rows.ints[AnalyticsSnapshot.BED_OCCUPIED][row] = rs.getBoolean(4) ? 1 : 0;
+    }
+
+    /** Read a nullable number column, giving NULL_FLOAT for SQL NULL */
+    private static float getFloat(ResultSet rs, int column) throws SQLException {
+        float value = rs.getFloat(column);
+        return rs.wasNull() ? ColumnTable.NULL_FLOAT : value;
+    }
+}
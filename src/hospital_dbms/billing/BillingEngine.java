@@ -0,0 +1,280 @@
+package hospital_dbms.billing;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import hospital_dbms.models.BillingStatement;
+import hospital_dbms.models.HospitalVisit;
+import hospital_dbms.models.Relation;
+import static hospital_dbms.HospitalDBMS.getConnection;
+import static hospital_dbms.HospitalDBMS.releaseConnection;
+
+/**
+ * Computes BillingStatements for a billing period (both dates inclusive) in one streaming pass.
+ *
+ * One query returns every visit that overlaps the period, joined to its medical records and to the daily
+ * charge of its bed, ordered by patient. The rows are read as they arrive and folded into one
+ * statement per patient:
+ *  - visits starting in the period are charged their registration fee once, plus the consultation, test and
+ *    treatment fees of each of their medical records;
+ *  - every day of a visit inside the period (up to today for visits still open) is charged the
+ *    Specialization.chargesPerDay of the visit's bed: the bed it holds, or else the specialization of the
+ *    bed it last held, which Bed.release() keeps on the visit once the schema is at version 8. A visit moved
+ *    between beds is charged every day at the rate of its latest bed.
+ *
+ * run() writes the statements to the BillingStatement table from a second thread (with its own connection),
+ * so writes overlap the read and memory use doesn't grow with the number of patients.
+ */
+public class BillingEngine {
+
+    // Statements written (and committed) together
+    private static final int WRITE_BATCH_SIZE = Integer.getInteger("hospital.billing.writeBatchSize", Relation.DEFAULT_BATCH_SIZE);
+    // Batches waiting for the writer before the reader blocks
+    private static final int WRITE_QUEUE_BATCHES = 4;
+    // Rows fetched from the server at a time, so the driver streams the result
+    private static final int FETCH_SIZE = 1000;
+
+    // Visits starting in the period plus earlier visits still open during it, with their records and bed charge
+    private static final String CHARGES_QUERY =
+            chargesQuery("COALESCE(B.specializationName, HV.bedSpecialization)");
+    // Before migration 8 only the bed a visit holds is known
+    private static final String HELD_BED_CHARGES_QUERY = chargesQuery("B.specializationName");
+
+    /** The charges query, finding the specialization a visit's bed days are charged at with an expression */
+    private static String chargesQuery(String bedSpecialization) {
+        return (
+            "SELECT HV.patientID, HV.ID, HV.startDate, HV.endDate, HV.registrationFee, S.chargesPerDay, " +
+            "  MR.ID AS recordID, MR.consultaionFee, MR.testFee, MR.treatmentFee " +
+            "FROM (" +
+            "  SELECT ID FROM HospitalVisit WHERE startDate >= ? AND startDate <= ? AND patientID >= ? AND patientID < ? " +
+            "  UNION " +
+            "  SELECT ID FROM HospitalVisit WHERE startDate < ? AND (endDate >= ? OR endDate IS NULL) " +
+            "    AND patientID >= ? AND patientID < ?" +
+            ") P " +
+            "  JOIN HospitalVisit HV ON HV.ID = P.ID " +
+            "  LEFT JOIN MedicalRecord MR ON MR.visitID = HV.ID " +
+            "  LEFT JOIN Bed B ON B.ID = HV.bedNumber " +
+            "  LEFT JOIN Specialization S ON S.name = " + bedSpecialization + " " +
+            "ORDER BY HV.patientID, HV.ID"
+            );
+    }
+
+    /** Receives each statement as soon as it is complete */
+    public interface StatementSink {
+        void accept(BillingStatement statement) throws SQLException;
+    }
+
+    private final Date periodStart;
+    private final Date periodEnd;
+
+    /**
+     * Construct an engine for one billing period
+     * @param periodStart The first day of the period
+     * @param periodEnd The last day of the period
+     */
+    public BillingEngine(Date periodStart, Date periodEnd) {
+        if (periodEnd.before(periodStart)) {
+            throw new IllegalArgumentException("The billing period ends before it starts");
+        }
+        this.periodStart = periodStart;
+        this.periodEnd = periodEnd;
+    }
+
+    /**
+     * Compute one Patient's statement without writing it
+     * @return The statement, with no charges if the patient wasn't charged in the period
+     */
+    public BillingStatement statementFor(int patientID) throws SQLException {
+        BillingStatement[] found = {null};
+        compute(patientID, patientID + 1, s -> found[0] = s);
+        return found[0] == null ? new BillingStatement(patientID, periodStart, periodEnd) : found[0];
+    }
+
+    /**
+     * Compute and write the statements of every Patient charged in the period
+     * @return The number of statements written
+     */
+    public int run() throws SQLException {
+        return run(0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Compute and write the statements of the Patients with IDs from fromPatientID (inclusive)
+     * to toPatientID (exclusive) who were charged in the period
+     * @return The number of statements written
+     */
+    public int run(int fromPatientID, int toPatientID) throws SQLException {
+        StatementWriter writer = new StatementWriter();
+        Thread thread = new Thread(writer, "billing-writer");
+        thread.start();
+
+        boolean completed = false;
+        try {
+            compute(fromPatientID, toPatientID, writer::add);
+            writer.flush();
+            completed = true;
+        } finally {
+            writer.finish(completed);
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        writer.check();
+        return writer.count;
+    }
+
+    /**
+     * Compute the statements of a range of Patients, passing each one with charges to sink in patient order
+     * @param fromPatientID First patient ID (inclusive)
+     * @param toPatientID Last patient ID (exclusive)
+     */
+    public void compute(int fromPatientID, int toPatientID, StatementSink sink) throws SQLException {
+        LocalDate first = periodStart.toLocalDate();
+        LocalDate last = periodEnd.toLocalDate();
+        LocalDate openUntil = LocalDate.now().isBefore(last) ? LocalDate.now() : last;
+
+        try (PreparedStatement statement = getConnection().prepareStatement(
+                HospitalVisit.isBedSpecializationKept() ? CHARGES_QUERY : HELD_BED_CHARGES_QUERY,
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            statement.setFetchSize(FETCH_SIZE);
+            statement.setDate(1, periodStart);
+            statement.setDate(2, periodEnd);
+            statement.setInt(3, fromPatientID);
+            statement.setInt(4, toPatientID);
+            statement.setDate(5, periodStart);
+            statement.setDate(6, periodStart);
+            statement.setInt(7, fromPatientID);
+            statement.setInt(8, toPatientID);
+
+            BillingStatement current = null;
+            int visitID = -1;
+            boolean startedInPeriod = false;
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    int patientID = rs.getInt(1);
+                    if (current == null || current.getPatientID() != patientID) {
+                        if (current != null && current.hasCharges()) {
+                            sink.accept(current);
+                        }
+                        current = new BillingStatement(patientID, periodStart, periodEnd);
+                    }
+
+                    // The first row of each visit carries the visit's own charges
+                    if (rs.getInt(2) != visitID) {
+                        visitID = rs.getInt(2);
+                        LocalDate start = rs.getDate(3).toLocalDate();
+                        Date endDate = rs.getDate(4);
+                        startedInPeriod = !start.isBefore(first);
+                        if (startedInPeriod) {
+                            current.addVisit(rs.getDouble(5));
+                        }
+                        double chargesPerDay = rs.getDouble(6);
+                        if (!rs.wasNull()) {
+                            LocalDate from = start.isBefore(first) ? first : start;
+                            LocalDate to = endDate == null ? openUntil
+                                         : endDate.toLocalDate().isBefore(last) ? endDate.toLocalDate() : last;
+                            int days = (int) (to.toEpochDay() - from.toEpochDay() + 1);
+                            if (days > 0) {
+                                current.addBedDays(days, chargesPerDay);
+                            }
+                        }
+                    }
+
+                    // Visits without medical records have one row, with a null recordID
+                    if (startedInPeriod && rs.getObject(7) != null) {
+                        current.addRecord(rs.getDouble(8), rs.getDouble(9), rs.getDouble(10));
+                    }
+                }
+            }
+            if (current != null && current.hasCharges()) {
+                sink.accept(current);
+            }
+        }
+    }
+
+    /**
+     * Collects statements into batches on the reading thread, and writes the batches on its own thread
+     * (and so its own connection)
+     */
+    private static final class StatementWriter implements Runnable {
+        private final BlockingQueue<List<BillingStatement>> queue = new ArrayBlockingQueue<>(WRITE_QUEUE_BATCHES);
+        // The batch being filled by the reading thread
+        private List<BillingStatement> batch = new ArrayList<>(WRITE_BATCH_SIZE);
+        // Statements handed to the writer
+        private int count = 0;
+        private volatile SQLException failure = null;
+
+        @Override
+        public void run() {
+            try {
+                List<BillingStatement> next;
+                // An empty batch marks the end
+                while (!(next = queue.take()).isEmpty()) {
+                    if (failure == null) {
+                        try {
+                            Relation.insertAll(next, next.size());
+                        } catch (SQLException e) {
+                            failure = e;
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                releaseConnection();
+            }
+        }
+
+        /** Add a statement, queueing the batch once it is full */
+        void add(BillingStatement statement) throws SQLException {
+            batch.add(statement);
+            count++;
+            if (batch.size() == WRITE_BATCH_SIZE) {
+                flush();
+            }
+        }
+
+        /** Queue the statements added so far, waiting while the queue is full; fails fast once a write has failed */
+        void flush() throws SQLException {
+            check();
+            if (batch.isEmpty()) {
+                return;
+            }
+            try {
+                queue.put(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Billing run interrupted", e);
+            }
+            batch = new ArrayList<>(WRITE_BATCH_SIZE);
+        }
+
+        /** Tell the writer there are no more batches; if the read failed, drop the batches still queued */
+        void finish(boolean completed) {
+            if (!completed) {
+                queue.clear();
+            }
+            try {
+                queue.put(new ArrayList<>());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /** Throw the error of a failed write, if any */
+        void check() throws SQLException {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+}
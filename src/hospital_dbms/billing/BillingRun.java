@@ -0,0 +1,258 @@
+package hospital_dbms.billing;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import hospital_dbms.models.BillingStatement;
+import hospital_dbms.models.Relation;
+import static hospital_dbms.HospitalDBMS.getConnection;
+import static hospital_dbms.HospitalDBMS.releaseConnection;
+
+/**
+ * Month-end billing job: writes every Patient's BillingStatement for a period, in parallel.
+ *
+ * Patients are split into partitions of consecutive IDs (aligned to multiples of the partition size,
+ * so the partitions of a period don't move as patients are added). A fixed pool of workers bills one
+ * partition at a time, each on its own pooled connection, with BillingEngine.compute(). A partition's
+ * statements are written in batches and then a row is added to BillingCheckpoint (created by schema
+ * migration 7). A run of a period skips the partitions already checkpointed, so a run that crashed or had
+ * failed partitions resumes where it stopped. A partition interrupted before its checkpoint is billed
+ * again, which replaces the statements it had written.
+ */
+public class BillingRun {
+
+    /** What a run did */
+    public static class Result {
+        private final int partitions;
+        private final int skipped;
+        private final int failed;
+        private final int statements;
+        private final long elapsedMillis;
+
+        Result(int partitions, int skipped, int failed, int statements, long elapsedMillis) {
+            this.partitions = partitions;
+            this.skipped = skipped;
+            this.failed = failed;
+            this.statements = statements;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        /** Partitions billed by this run */
+        public int getPartitions() {
+            return partitions;
+        }
+
+        /** Partitions skipped because an earlier run checkpointed them */
+        public int getSkipped() {
+            return skipped;
+        }
+
+        /** Partitions that failed; running the period again retries them */
+        public int getFailed() {
+            return failed;
+        }
+
+        /** Statements written by this run */
+        public int getStatements() {
+            return statements;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        /** Statements written per second */
+        public double getThroughput() {
+            return elapsedMillis == 0 ? 0 : statements * 1000.0 / elapsedMillis;
+        }
+    }
+
+    /** Default number of patient IDs per partition */
+    public static final int DEFAULT_PARTITION_SIZE = Integer.getInteger("hospital.billing.partitionSize", 10000);
+    /** Default number of workers; each holds a pooled connection, so keep it below hospital.pool.maxSize */
+    public static final int DEFAULT_WORKERS = Integer.getInteger("hospital.billing.workers", 4);
+
+    private static final String CHECKPOINT_QUERY =
+            "INSERT INTO BillingCheckpoint (periodStart, periodEnd, fromPatientID, toPatientID, statements) " +
+            "VALUES (?, ?, ?, ?, ?) ON DUPLICATE KEY UPDATE toPatientID=VALUES(toPatientID), " +
+            "statements=VALUES(statements), completedAt=CURRENT_TIMESTAMP";
+    private static final String COMPLETED_QUERY =
+            "SELECT fromPatientID, toPatientID FROM BillingCheckpoint WHERE periodStart=? AND periodEnd=?";
+
+    private final BillingEngine engine;
+    private final Date periodStart;
+    private final Date periodEnd;
+    private final int workers;
+    private final int partitionSize;
+
+    /**
+     * Construct a run for one billing period
+     * @param periodStart The first day of the period
+     * @param periodEnd The last day of the period
+     * @param workers Number of partitions billed at once
+     * @param partitionSize Number of patient IDs per partition
+     */
+    public BillingRun(Date periodStart, Date periodEnd, int workers, int partitionSize) {
+        if (workers < 1 || partitionSize < 1) {
+            throw new IllegalArgumentException("Workers and partition size must be positive");
+        }
+        this.engine = new BillingEngine(periodStart, periodEnd);
+        this.periodStart = periodStart;
+        this.periodEnd = periodEnd;
+        this.workers = workers;
+        this.partitionSize = partitionSize;
+    }
+
+    /**
+     * Execute a DROP TABLE if the table exists
+     */
+    public static void dropTable() throws SQLException {
+        Connection connection = getConnection();
+        Statement statement = connection.createStatement();
+
+        statement.executeUpdate("DROP TABLE IF EXISTS BillingCheckpoint;");
+    }
+
+    /**
+     * Forget the checkpoints of this period, so the next run bills every partition again
+     * @return The number of checkpoints removed
+     */
+    public int restart() throws SQLException {
+        try (PreparedStatement statement = getConnection().prepareStatement(
+                "DELETE FROM BillingCheckpoint WHERE periodStart=? AND periodEnd=?")) {
+            statement.setDate(1, periodStart);
+            statement.setDate(2, periodEnd);
+            return statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Bill every partition of the period that hasn't been checkpointed, printing progress as partitions finish.
+     * A failed partition is reported and the others carry on
+     * @throws SQLException if the partitions can't be planned
+     */
+    public Result run() throws SQLException {
+        long started = System.currentTimeMillis();
+        List<int[]> partitions = new ArrayList<>();
+        int skipped = 0;
+        try {
+            Set<Integer> completed = completedPartitions();
+            int[] ids = patientIDRange();
+            if (ids != null) {
+                for (long from = (long) ids[0] / partitionSize * partitionSize; from <= ids[1]; from += partitionSize) {
+                    int to = (int) Math.min(from + partitionSize, Integer.MAX_VALUE);
+                    if (completed.contains((int) from)) {
+                        skipped++;
+                    } else {
+                        partitions.add(new int[] {(int) from, to});
+                    }
+                }
+            }
+        } finally {
+            // The workers borrow their own connections
+            releaseConnection();
+        }
+
+        AtomicInteger workerNumber = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(workers, task -> {
+            Thread thread = new Thread(task, "billing-worker-" + workerNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        CompletionService<Integer> completion = new ExecutorCompletionService<>(pool);
+        for (int[] partition : partitions) {
+            completion.submit(() -> {
+                try {
+                    return bill(partition[0], partition[1]);
+                } catch (SQLException e) {
+                    throw new SQLException("Unable to bill patients " + partition[0] + " to " + (partition[1] - 1)
+                                           + ": " + e.getMessage(), e);
+                } finally {
+                    releaseConnection();
+                }
+            });
+        }
+
+        int statements = 0;
+        int failed = 0;
+        try {
+            for (int done = 1; done <= partitions.size(); done++) {
+                try {
+                    statements += completion.take().get();
+                } catch (ExecutionException e) {
+                    failed++;
+                    System.out.println(e.getCause().getMessage());
+                }
+                long elapsed = Math.max(1, System.currentTimeMillis() - started);
+                System.out.printf("%d of %d partitions billed, %d statements (%.0f statements/s)\n",
+                                  done, partitions.size(), statements, statements * 1000.0 / elapsed);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Billing run interrupted; run it again to resume", e);
+        } finally {
+            pool.shutdownNow();
+        }
+        return new Result(partitions.size() - failed, skipped, failed, statements, System.currentTimeMillis() - started);
+    }
+
+    /** Bill one partition on the current thread's connection, then checkpoint it */
+    private int bill(int fromPatientID, int toPatientID) throws SQLException {
+        List<BillingStatement> statements = new ArrayList<>();
+        engine.compute(fromPatientID, toPatientID, statements::add);
+        Relation.insertAll(statements);
+
+        try (PreparedStatement statement = getConnection().prepareStatement(CHECKPOINT_QUERY)) {
+            statement.setDate(1, periodStart);
+            statement.setDate(2, periodEnd);
+            statement.setInt(3, fromPatientID);
+            statement.setInt(4, toPatientID);
+            statement.setInt(5, statements.size());
+            statement.executeUpdate();
+        }
+        return statements.size();
+    }
+
+    /** The first patient ID of each partition of this period that a run has completed */
+    private Set<Integer> completedPartitions() throws SQLException {
+        Set<Integer> completed = new HashSet<>();
+        try (PreparedStatement statement = getConnection().prepareStatement(COMPLETED_QUERY)) {
+            statement.setDate(1, periodStart);
+            statement.setDate(2, periodEnd);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    // A checkpoint made with another partition size doesn't cover this run's partition
+                    if (rs.getInt(2) - rs.getInt(1) == partitionSize) {
+                        completed.add(rs.getInt(1));
+                    }
+                }
+            }
+        }
+        return completed;
+    }
+
+    /** The lowest and highest patient IDs, or null if there are no patients */
+    private int[] patientIDRange() throws SQLException {
+        try (Statement statement = getConnection().createStatement();
+             ResultSet rs = statement.executeQuery("SELECT MIN(personID), MAX(personID) FROM Patient")) {
+            if (!rs.next() || rs.getObject(1) == null) {
+                return null;
+            }
+            return new int[] {rs.getInt(1), rs.getInt(2)};
+        }
+    }
+}
@@ -0,0 +1,424 @@
+package hospital_dbms.db;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded pool of JDBC connections to the database.
+ * Connections are validated when they are borrowed, idle connections above the minimum size
+ * are closed after a timeout, and connections held for too long are reported as leaks.
+ * Each connection owns a StatementCache that lives as long as the connection does.
+ * The pool's state is guarded by a ReentrantLock rather than a monitor, so a virtual thread waiting for a
+ * connection unmounts from its carrier instead of pinning it.
+ */
+public class ConnectionPool {
+
+    // Seconds the driver is given to answer a validation check on borrow
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+    // How often the housekeeping task runs (evicting idle connections and detecting leaks)
+    private static final long HOUSEKEEPING_INTERVAL_MILLIS = 5000;
+
+    private final String url;
+    private final String username;
+    private final String password;
+    private final int minSize;
+    private final int maxSize;
+    private final long idleTimeoutMillis;
+    private final long leakThresholdMillis;
+    private final long borrowTimeoutMillis;
+    private final int statementCacheSize;
+
+    // Guards the fields below
+    private final ReentrantLock lock = new ReentrantLock();
+    // Signalled when a connection is released or a slot frees up
+    private final Condition available = lock.newCondition();
+    // Connections ready to be borrowed, most recently used first
+    private final Deque<PooledConnection> idle = new ArrayDeque<>();
+    // Connections currently handed out, keyed by the Connection given to the caller
+    private final Map<Connection, PooledConnection> borrowed = new IdentityHashMap<>();
+    // Number of open (or opening) connections, both idle and borrowed
+    private int total = 0;
+    private boolean closed = false;
+
+    private final ScheduledExecutorService housekeeper;
+
+    /**
+     * Construct a pool for the given database
+     * @param url JDBC URL of the database
+     * @param username Username to log in with
+     * @param password Password to log in with
+     * @param minSize Number of connections kept open even when idle
+     * @param maxSize Maximum number of connections open at once
+     * @param idleTimeoutMillis How long a connection above minSize may sit idle before it is closed
+     * @param leakThresholdMillis How long a connection may be borrowed before it is reported as leaked (0 disables)
+     * @param borrowTimeoutMillis How long borrow() waits for a free connection before failing
+     * @param statementCacheSize Number of prepared statements cached per connection
+     */
+    public ConnectionPool(String url, String username, String password, int minSize, int maxSize,
+                          long idleTimeoutMillis, long leakThresholdMillis, long borrowTimeoutMillis,
+                          int statementCacheSize) {
+        if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+            throw new IllegalArgumentException("Invalid pool size: min " + minSize + ", max " + maxSize);
+        }
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.leakThresholdMillis = leakThresholdMillis;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.statementCacheSize = statementCacheSize;
+
+        housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "connection-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        housekeeper.scheduleWithFixedDelay(this::housekeep, 0, HOUSEKEEPING_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrow a connection from the pool, opening a new one if none are idle and the pool is not full.
+     * Waits up to the borrow timeout for a connection to be released if the pool is exhausted.
+     * @return A validated connection, which must be given back with release()
+     * @throws SQLException if no connection could be obtained
+     */
+    public Connection borrow() throws SQLException {
+        long deadline = System.currentTimeMillis() + borrowTimeoutMillis;
+
+        while (true) {
+            PooledConnection pc = null;
+            lock.lock();
+            try {
+                while (!closed && idle.isEmpty() && total >= maxSize) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        throw new SQLException("Timed out waiting for a database connection (" + maxSize + " in use)");
+                    }
+                    try {
+                        available.await(remaining, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Interrupted while waiting for a database connection");
+                    }
+                }
+                if (closed) {
+                    throw new SQLException("Connection pool is closed");
+                }
+                if (!idle.isEmpty()) {
+                    pc = idle.pollFirst();
+                } else {
+                    total++; // Reserve a slot, then open the connection outside the lock
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if (pc == null) {
+                pc = open();
+            } else if (!isValid(pc)) {
+                discard(pc);
+                continue;
+            }
+
+            pc.borrowedAt = System.currentTimeMillis();
+            pc.borrowSite = leakThresholdMillis > 0 ? new Throwable("Connection borrowed here") : null;
+            pc.leakReported = false;
+            lock.lock();
+            try {
+                borrowed.put(pc.connection, pc);
+            } finally {
+                lock.unlock();
+            }
+            return pc.connection;
+        }
+    }
+
+    /**
+     * Give a borrowed connection back to the pool.
+     * Any uncommitted work is rolled back and auto-commit is switched back on.
+     * @param connection A connection previously returned by borrow()
+     */
+    public void release(Connection connection) {
+        PooledConnection pc;
+        lock.lock();
+        try {
+            pc = borrowed.remove(connection);
+        } finally {
+            lock.unlock();
+        }
+        if (pc == null) {
+            throw new IllegalArgumentException("Connection was not borrowed from this pool");
+        }
+
+        try {
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            discard(pc);
+            return;
+        }
+
+        pc.lastUsed = System.currentTimeMillis();
+        lock.lock();
+        try {
+            if (closed) {
+                total--;
+            } else {
+                idle.addFirst(pc);
+                available.signalAll();
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        closeQuietly(pc);
+    }
+
+    /** Close every idle connection and stop handing out new ones. Borrowed connections are closed on release */
+    public void close() {
+        List<PooledConnection> toClose;
+        lock.lock();
+        try {
+            closed = true;
+            toClose = new ArrayList<>(idle);
+            total -= idle.size();
+            idle.clear();
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        housekeeper.shutdownNow();
+        for (PooledConnection pc : toClose) {
+            closeQuietly(pc);
+        }
+    }
+
+    /** Maximum number of connections open at once */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /** Number of open connections (idle and borrowed) */
+    public int size() {
+        lock.lock();
+        try {
+            return total;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Number of connections currently borrowed */
+    public int borrowedCount() {
+        lock.lock();
+        try {
+            return borrowed.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the prepared statement cache owned by a borrowed connection
+     * @param connection A connection previously returned by borrow() and not yet released
+     */
+    public StatementCache getStatementCache(Connection connection) {
+        lock.lock();
+        try {
+            PooledConnection pc = borrowed.get(connection);
+            if (pc == null) {
+                throw new IllegalArgumentException("Connection is not currently borrowed from this pool");
+            }
+            return pc.statements;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Total statement cache hits over all open connections */
+    public long getStatementCacheHits() {
+        lock.lock();
+        try {
+            long hits = 0;
+            for (PooledConnection pc : idle) {
+                hits += pc.statements.getHits();
+            }
+            for (PooledConnection pc : borrowed.values()) {
+                hits += pc.statements.getHits();
+            }
+            return hits;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Total statement cache misses over all open connections */
+    public long getStatementCacheMisses() {
+        lock.lock();
+        try {
+            long misses = 0;
+            for (PooledConnection pc : idle) {
+                misses += pc.statements.getMisses();
+            }
+            for (PooledConnection pc : borrowed.values()) {
+                misses += pc.statements.getMisses();
+            }
+            return misses;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Open a new physical connection. The caller must already have reserved a slot in total */
+    private PooledConnection open() throws SQLException {
+        try {
+            Connection connection = DriverManager.getConnection(url, username, password);
+            if (QueryMonitor.ENABLED) {
+                connection = InstrumentedConnection.wrap(connection);
+            }
+            PooledConnection pc = new PooledConnection(connection, statementCacheSize);
+            pc.lastUsed = System.currentTimeMillis();
+            return pc;
+        } catch (SQLException | RuntimeException e) {
+            freeSlot();
+            throw e;
+        }
+    }
+
+    /** Check that an idle connection is still usable */
+    private boolean isValid(PooledConnection pc) {
+        try {
+            return pc.connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /** Close a connection and free its slot in the pool */
+    private void discard(PooledConnection pc) {
+        closeQuietly(pc);
+        freeSlot();
+    }
+
+    /** Give back the slot of a connection that was closed or never opened, waking a borrower */
+    private void freeSlot() {
+        lock.lock();
+        try {
+            total--;
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void closeQuietly(PooledConnection pc) {
+        pc.statements.close();
+        try {
+            pc.connection.close();
+        } catch (SQLException e) {
+            // Nothing more can be done with a broken connection
+        }
+    }
+
+    /** Evict long-idle connections, top the pool back up to minSize and report leaked connections */
+    private void housekeep() {
+        long now = System.currentTimeMillis();
+        List<PooledConnection> evicted = new ArrayList<>();
+        List<PooledConnection> leaked = new ArrayList<>();
+        int missing;
+
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            // Idle connections are kept most recently used first, so the stalest are at the end
+            Iterator<PooledConnection> it = idle.descendingIterator();
+            while (it.hasNext() && total > minSize) {
+                PooledConnection pc = it.next();
+                if (now - pc.lastUsed < idleTimeoutMillis) {
+                    break;
+                }
+                it.remove();
+                total--;
+                evicted.add(pc);
+            }
+
+            if (leakThresholdMillis > 0) {
+                for (PooledConnection pc : borrowed.values()) {
+                    if (!pc.leakReported && now - pc.borrowedAt > leakThresholdMillis) {
+                        pc.leakReported = true;
+                        leaked.add(pc);
+                    }
+                }
+            }
+
+            missing = Math.max(0, minSize - total);
+            total += missing;
+        } finally {
+            lock.unlock();
+        }
+
+        for (PooledConnection pc : evicted) {
+            closeQuietly(pc);
+        }
+        for (PooledConnection pc : leaked) {
+            System.out.printf("Possible connection leak: connection borrowed %d ms ago has not been released%n",
+                              now - pc.borrowedAt);
+            if (pc.borrowSite != null) {
+                pc.borrowSite.printStackTrace(System.out);
+            }
+        }
+        for (int i = 0; i < missing; i++) {
+            try {
+                PooledConnection pc = open();
+                lock.lock();
+                try {
+                    if (!closed) {
+                        idle.addLast(pc);
+                        available.signalAll();
+                        continue;
+                    }
+                    total--;
+                } finally {
+                    lock.unlock();
+                }
+                closeQuietly(pc);
+            } catch (SQLException e) {
+                // open() already gave the slot back; try again on the next run
+            }
+        }
+    }
+
+    /** A physical connection plus the bookkeeping the pool needs for it */
+    static class PooledConnection {
+        final Connection connection;
+        final StatementCache statements;
+        long lastUsed;
+        long borrowedAt;
+        Throwable borrowSite;
+        boolean leakReported;
+
+        PooledConnection(Connection connection, int statementCacheSize) {
+            this.connection = connection;
+            this.statements = new StatementCache(connection, statementCacheSize);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package hospital_dbms.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+/**
+ * Wraps a JDBC Connection so every statement executed through it is timed by QueryMonitor.
+ * The wrappers are dynamic proxies: only the execute methods (and ResultSet.next, to count rows)
+ * do extra work; every other call goes straight to the driver's object.
+ */
+public final class InstrumentedConnection {
+
+    private InstrumentedConnection() {
+    }
+
+    /**
+     * Wrap a connection
+     * @param connection The driver's connection
+     * @return A Connection whose Statements and PreparedStatements report to QueryMonitor
+     */
+    public static Connection wrap(Connection connection) {
+        return proxy(Connection.class, new ConnectionHandler(connection));
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(InstrumentedConnection.class.getClassLoader(), new Class<?>[] {type}, handler));
+    }
+
+    /** Call a method on the wrapped object, unwrapping the exception it throws */
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /** Wraps the statements a connection creates */
+    private static class ConnectionHandler implements InvocationHandler {
+        private final Connection connection;
+
+        ConnectionHandler(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Object result = InstrumentedConnection.invoke(connection, method, args);
+            if (result instanceof PreparedStatement && method.getName().equals("prepareStatement")) {
+                String sql = (String) args[0];
+                return proxy(PreparedStatement.class, new StatementHandler((Statement) result, QueryMonitor.statsFor(sql)));
+            }
+            if (result instanceof Statement && method.getName().equals("createStatement")) {
+                return proxy(Statement.class, new StatementHandler((Statement) result, null));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Times the execute methods of a Statement or PreparedStatement.
+     * A PreparedStatement's SQL is known up front; a plain Statement's is passed to each execute call.
+     */
+    private static class StatementHandler implements InvocationHandler {
+        private final Statement statement;
+        // Statistics for a PreparedStatement's SQL; null for plain Statements
+        private final QueryMonitor.StatementStats preparedStats;
+
+        StatementHandler(Statement statement, QueryMonitor.StatementStats preparedStats) {
+            this.statement = statement;
+            this.preparedStats = preparedStats;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            // addBatch(String) and the like are not executions
+            if (!name.startsWith("execute")) {
+                return InstrumentedConnection.invoke(statement, method, args);
+            }
+
+            QueryMonitor.StatementStats stats = preparedStats;
+            if (args != null && args.length > 0 && args[0] instanceof String) {
+                stats = QueryMonitor.statsFor((String) args[0]);
+            }
+            if (stats == null) {
+                // executeBatch() on a plain Statement: the SQL texts were added one by one
+                stats = QueryMonitor.statsFor("<batch>");
+            }
+
+            long start = System.nanoTime();
+            Object result;
+            try {
+                result = InstrumentedConnection.invoke(statement, method, args);
+            } catch (Throwable t) {
+                QueryMonitor.record(stats, System.nanoTime() - start, 0, true);
+                throw t;
+            }
+            long elapsed = System.nanoTime() - start;
+
+            long rows = 0;
+            if (result instanceof Integer) {
+                rows = (Integer) result;
+            } else if (result instanceof Long) {
+                rows = (Long) result;
+            } else if (result instanceof int[]) {
+                for (int count : (int[]) result) {
+                    rows += Math.max(0, count);
+                }
+            } else if (result instanceof long[]) {
+                for (long count : (long[]) result) {
+                    rows += Math.max(0, count);
+                }
+            } else if (result instanceof ResultSet) {
+                result = proxy(ResultSet.class, new ResultSetHandler((ResultSet) result, stats));
+            }
+            QueryMonitor.record(stats, elapsed, rows, false);
+            return result;
+        }
+    }
+
+    /** Counts the rows read from a query's ResultSet */
+    private static class ResultSetHandler implements InvocationHandler {
+        private final ResultSet resultSet;
+        private final QueryMonitor.StatementStats stats;
+
+        ResultSetHandler(ResultSet resultSet, QueryMonitor.StatementStats stats) {
+            this.resultSet = resultSet;
+            this.stats = stats;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Object result = InstrumentedConnection.invoke(resultSet, method, args);
+            if (Boolean.TRUE.equals(result) && method.getName().equals("next")) {
+                stats.rows.increment();
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package hospital_dbms.db;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in microseconds with about 3% relative precision, in the style of HdrHistogram.
+ * Values below 64 get a bucket each; above that, every power of two is split into 32 equal buckets.
+ * Recording is lock-free, so one histogram can be shared by all threads.
+ */
+public class LatencyHistogram {
+
+    // Values below this get their own bucket
+    private static final int LINEAR_BUCKETS = 64;
+    // Buckets per power of two above LINEAR_BUCKETS
+    private static final int SUB_BUCKETS = 32;
+    // Enough buckets for any positive long
+    private static final int BUCKET_COUNT = LINEAR_BUCKETS + 58 * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong maxValue = new AtomicLong();
+
+    /**
+     * Record one value
+     * @param micros The latency in microseconds; negative values are recorded as 0
+     */
+    public void record(long micros) {
+        long value = Math.max(0, micros);
+        counts.incrementAndGet(bucketOf(value));
+        totalCount.incrementAndGet();
+        maxValue.accumulateAndGet(value, Math::max);
+    }
+
+    /** Number of values recorded */
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    /** Largest value recorded, in microseconds */
+    public long getMax() {
+        return maxValue.get();
+    }
+
+    /**
+     * Get a percentile of the recorded values
+     * @param percentile Between 0 and 100
+     * @return The upper bound of the bucket holding the percentile (never more than the maximum), or 0 if empty
+     */
+    public long getPercentile(double percentile) {
+        long count = totalCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(upperBoundOf(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    private static int bucketOf(long value) {
+        if (value < LINEAR_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - 5;
+        int subBucket = (int) (value >>> shift);
+        return LINEAR_BUCKETS + (shift - 1) * SUB_BUCKETS + (subBucket - SUB_BUCKETS);
+    }
+
+    private static long upperBoundOf(int bucket) {
+        if (bucket < LINEAR_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + 1;
+        long subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
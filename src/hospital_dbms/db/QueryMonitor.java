@@ -0,0 +1,195 @@
+package hospital_dbms.db;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Collects timing statistics for every SQL statement run through an instrumented connection.
+ * Statements are grouped by their normalized SQL (literals and IN lists replaced by placeholders),
+ * so the same query with different values is counted together.
+ * Statements slower than the slow-query threshold are also appended to the slow-query log.
+ * Instrumentation wraps every connection, statement and result set in a proxy, so it is off unless asked for.
+ *
+ * Settings (system properties):
+ *   hospital.sql.instrument       wrap pooled connections (default false)
+ *   hospital.sql.slowQueryMillis  slow-query threshold in milliseconds (default 200)
+ *   hospital.sql.slowQueryLog     slow-query log file (default slow-queries.log)
+ */
+public class QueryMonitor {
+
+    /** Whether new pooled connections are instrumented */
+    public static final boolean ENABLED = Boolean.getBoolean("hospital.sql.instrument");
+    private static final long SLOW_QUERY_NANOS = Long.getLong("hospital.sql.slowQueryMillis", 200) * 1_000_000;
+    private static final String SLOW_QUERY_LOG = System.getProperty("hospital.sql.slowQueryLog", "slow-queries.log");
+
+    // Normalized SQL texts kept before the normalization cache is cleared
+    private static final int MAX_NORMALIZED = 10000;
+
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^'\\\\]|\\\\.|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("\\b\\d+(?:\\.\\d+)?\\b");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern PLACEHOLDER_LIST = Pattern.compile("\\(\\s*\\?(?:\\s*,\\s*\\?)+\\s*\\)");
+
+    /** Statistics for one normalized statement */
+    public static class StatementStats {
+        final String sql;
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder totalNanos = new LongAdder();
+        final LongAdder rows = new LongAdder();
+        final LongAdder errors = new LongAdder();
+
+        StatementStats(String sql) {
+            this.sql = sql;
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        public long getCount() {
+            return latency.getCount();
+        }
+
+        public long getTotalNanos() {
+            return totalNanos.sum();
+        }
+
+        public long getRows() {
+            return rows.sum();
+        }
+
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+    }
+
+    // Statistics by normalized SQL
+    private static final Map<String, StatementStats> statistics = new ConcurrentHashMap<>();
+    // Normalized form of each raw SQL text seen
+    private static final Map<String, String> normalized = new ConcurrentHashMap<>();
+
+    private static PrintWriter slowQueryLog;
+    // Set once the log could not be opened, so the error is only reported once
+    private static boolean slowQueryLogFailed = false;
+
+    /**
+     * Get the statistics entry for a statement, creating it if needed
+     * @param sql The raw SQL text
+     */
+    static StatementStats statsFor(String sql) {
+        return statistics.computeIfAbsent(normalize(sql), StatementStats::new);
+    }
+
+    /**
+     * Record one execution of a statement
+     * @param stats The statement's entry
+     * @param nanos Time the execution took
+     * @param rows Rows affected (for queries, rows are added as they are read)
+     * @param failed Whether the execution threw an exception
+     */
+    static void record(StatementStats stats, long nanos, long rows, boolean failed) {
+        stats.latency.record(nanos / 1000);
+        stats.totalNanos.add(nanos);
+        if (rows > 0) {
+            stats.rows.add(rows);
+        }
+        if (failed) {
+            stats.errors.increment();
+        }
+        if (nanos >= SLOW_QUERY_NANOS) {
+            logSlowQuery(stats.sql, nanos, failed);
+        }
+    }
+
+    /**
+     * Replace literals with ? and collapse whitespace and lists of placeholders
+     * @param sql The raw SQL text
+     * @return SQL that is the same for every execution of the same statement shape
+     */
+    public static String normalize(String sql) {
+        String result = normalized.get(sql);
+        if (result == null) {
+            result = STRING_LITERAL.matcher(sql).replaceAll("?");
+            result = NUMBER_LITERAL.matcher(result).replaceAll("?");
+            result = WHITESPACE.matcher(result).replaceAll(" ").trim();
+            result = PLACEHOLDER_LIST.matcher(result).replaceAll("(?, ...)");
+            if (result.endsWith(";")) {
+                result = result.substring(0, result.length() - 1).trim();
+            }
+            if (normalized.size() >= MAX_NORMALIZED) {
+                normalized.clear();
+            }
+            normalized.put(sql, result);
+        }
+        return result;
+    }
+
+    /** Get a snapshot of every statement's statistics, most total time first */
+    public static List<StatementStats> getStatistics() {
+        List<StatementStats> list = new ArrayList<>(statistics.values());
+        list.sort(Comparator.comparingLong(StatementStats::getTotalNanos).reversed());
+        return list;
+    }
+
+    /** Forget all statistics collected so far */
+    public static void reset() {
+        statistics.clear();
+    }
+
+    /**
+     * Print a table of the statements, most total time first. Latencies are in milliseconds
+     * @param out Where to print
+     * @param limit Maximum number of statements to print
+     */
+    public static void dump(PrintStream out, int limit) {
+        List<StatementStats> list = getStatistics();
+        if (list.isEmpty()) {
+            out.println(ENABLED ? "No statements recorded yet" : "Query instrumentation is off; run with -Dhospital.sql.instrument=true to time statements");
+            return;
+        }
+
+        out.printf("%8s %6s %9s %10s %8s %8s %8s %8s %8s %8s  %s%n",
+                   "Count", "Errors", "Rows", "Total", "Mean", "p50", "p90", "p99", "p99.9", "Max", "SQL");
+        for (StatementStats s : list.subList(0, Math.min(limit, list.size()))) {
+            LatencyHistogram h = s.latency;
+            long count = Math.max(1, s.getCount());
+            out.printf("%8d %6d %9d %10.1f %8.2f %8.2f %8.2f %8.2f %8.2f %8.2f  %s%n",
+                       s.getCount(), s.getErrors(), s.getRows(), s.getTotalNanos() / 1e6, s.getTotalNanos() / 1e6 / count,
+                       h.getPercentile(50) / 1e3, h.getPercentile(90) / 1e3, h.getPercentile(99) / 1e3,
+                       h.getPercentile(99.9) / 1e3, h.getMax() / 1e3, s.sql);
+        }
+        if (list.size() > limit) {
+            out.println("(" + (list.size() - limit) + " more statements not shown)");
+        }
+    }
+
+    /** Append a statement to the slow-query log */
+    private static synchronized void logSlowQuery(String sql, long nanos, boolean failed) {
+        if (slowQueryLogFailed) {
+            return;
+        }
+        try {
+            if (slowQueryLog == null) {
+                slowQueryLog = new PrintWriter(new FileWriter(SLOW_QUERY_LOG, true), true);
+            }
+            slowQueryLog.printf("%s %.1f ms%s %s%n", LocalDateTime.now(), nanos / 1e6, failed ? " FAILED" : "", sql);
+        } catch (IOException e) {
+            slowQueryLogFailed = true;
+            System.out.println("Unable to write slow-query log " + SLOW_QUERY_LOG + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package hospital_dbms.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Applies versioned changes to the schema of an existing database.
+ * The SchemaVersion table records every migration that has been applied; migrate() runs the
+ * missing ones in version order. Migrations only add to the schema and use IF NOT EXISTS,
+ * so re-running a migration that was interrupted is safe.
+ */
+public class SchemaMigrator {
+
+    /** One numbered change to the schema */
+    public static class Migration {
+        final int version;
+        final String description;
+        final String[] statements;
+
+        Migration(int version, String description, String... statements) {
+            this.version = version;
+            this.description = description;
+            this.statements = statements;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+    }
+
+    // All migrations, in version order. Never edit a released migration; add a new one instead
+    private static final List<Migration> MIGRATIONS = Collections.unmodifiableList(Arrays.asList(
+        new Migration(1, "Baseline schema created by the createTable() methods"),
+        new Migration(2, "Composite and covering indexes for hot lookups",
+            // Patient.getCurrentVisit and Reports.printDoctorsForPatient: open visits of a patient
+            "CREATE INDEX IF NOT EXISTS idx_visit_patient_open ON HospitalVisit (patientID, endDate, hospitalID)",
+            // Bed.release: visits holding a bed
+            "CREATE INDEX IF NOT EXISTS idx_visit_bed ON HospitalVisit (bedNumber)",
+            // Reports.printPatientsPerMonth: visits of a hospital by start date
+            "CREATE INDEX IF NOT EXISTS idx_visit_hospital_start ON HospitalVisit (hospitalID, startDate)",
+            // Bed.getAvailableBed, Bed.claim and Reports.printAvailableBeds
+            "CREATE INDEX IF NOT EXISTS idx_bed_available ON Bed (hospitalID, specializationName, occupied)",
+            // Reports.printBilling: fees of a visit's records without reading the rows
+            "CREATE INDEX IF NOT EXISTS idx_record_visit_fees ON MedicalRecord (visitID, consultaionFee, testFee, treatmentFee)",
+            // Reports.printDoctorsForPatient: staff of a visit without reading the rows
+            "CREATE INDEX IF NOT EXISTS idx_responsible_visit_staff ON ResponsibleStaff (visitID, staffID)"
+        ),
+        new Migration(3, "HospitalUsage bed counts per hospital and specialization",
+            // Maintained by the Bed model (see HospitalUsage); beds without a specialization are counted under ''
+            "CREATE TABLE IF NOT EXISTS HospitalUsage (" +
+            "hospitalID INT NOT NULL, " +
+            "specializationName VARCHAR(255) NOT NULL DEFAULT '', " +
+            "totalBeds INT NOT NULL DEFAULT 0, " +
+            "occupiedBeds INT NOT NULL DEFAULT 0, " +
+            "PRIMARY KEY (hospitalID, specializationName), " +
+            "CONSTRAINT fk_usage_hospitalID " +
+            "    FOREIGN KEY (hospitalID) REFERENCES Hospital(ID) " +
+            "    ON DELETE CASCADE " +
+            "    ON UPDATE CASCADE" +
+            ")",
+            "INSERT INTO HospitalUsage (hospitalID, specializationName, totalBeds, occupiedBeds) " +
+            "SELECT hospitalID, COALESCE(specializationName, ''), COUNT(*), COUNT(IF(occupied=TRUE, 1, null)) " +
+            "FROM Bed GROUP BY hospitalID, COALESCE(specializationName, '') " +
+            "ON DUPLICATE KEY UPDATE totalBeds=VALUES(totalBeds), occupiedBeds=VALUES(occupiedBeds)"
+        ),
+        new Migration(4, "VisitRollup visit counts per hospital and month",
+            // Maintained by the HospitalVisit model (see VisitRollup)
+            "CREATE TABLE IF NOT EXISTS VisitRollup (" +
+            "hospitalID INT NOT NULL, " +
+            "year SMALLINT NOT NULL, " +
+            "month TINYINT NOT NULL, " +
+            "visits INT NOT NULL DEFAULT 0, " +
+            "PRIMARY KEY (hospitalID, year, month), " +
+            "CONSTRAINT fk_rollup_hospitalID " +
+            "    FOREIGN KEY (hospitalID) REFERENCES Hospital(ID) " +
+            "    ON DELETE CASCADE " +
+            "    ON UPDATE CASCADE" +
+            ")",
+            "INSERT INTO VisitRollup (hospitalID, year, month, visits) " +
+            "SELECT hospitalID, YEAR(startDate), MONTH(startDate), COUNT(*) FROM HospitalVisit " +
+            "WHERE startDate IS NOT NULL GROUP BY hospitalID, YEAR(startDate), MONTH(startDate) " +
+            "ON DUPLICATE KEY UPDATE visits=VALUES(visits)"
+        ),
+        new Migration(5, "updatedAt change times for refreshing the analytics snapshot",
+            // AnalyticsSnapshot refreshes read only the rows changed since its last load
+            "ALTER TABLE HospitalVisit ADD COLUMN IF NOT EXISTS " +
+            "updatedAt TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3) ON UPDATE CURRENT_TIMESTAMP(3)",
+            "CREATE INDEX IF NOT EXISTS idx_visit_updated ON HospitalVisit (updatedAt)",
+            "ALTER TABLE MedicalRecord ADD COLUMN IF NOT EXISTS " +
+            "updatedAt TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3) ON UPDATE CURRENT_TIMESTAMP(3)",
+            "CREATE INDEX IF NOT EXISTS idx_record_updated ON MedicalRecord (updatedAt)",
+            "ALTER TABLE Bed ADD COLUMN IF NOT EXISTS " +
+            "updatedAt TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3) ON UPDATE CURRENT_TIMESTAMP(3)",
+            "CREATE INDEX IF NOT EXISTS idx_bed_updated ON Bed (updatedAt)"
+        ),
+        new Migration(6, "BillingStatement charges per patient and billing period",
+            // Written by BillingEngine; one statement per patient and period
+            "CREATE TABLE IF NOT EXISTS BillingStatement (" +
+            "ID INT NOT NULL AUTO_INCREMENT, " +
+            "patientID INT NOT NULL, " +
+            "periodStart DATE NOT NULL, " +
+            "periodEnd DATE NOT NULL, " +
+            "visits INT NOT NULL DEFAULT 0, " +
+            "registrationFees DECIMAL(12, 2) NOT NULL DEFAULT 0, " +
+            "consultFees DECIMAL(12, 2) NOT NULL DEFAULT 0, " +
+            "testFees DECIMAL(12, 2) NOT NULL DEFAULT 0, " +
+            "treatmentFees DECIMAL(12, 2) NOT NULL DEFAULT 0, " +
+            "bedDays INT NOT NULL DEFAULT 0, " +
+            "bedCharges DECIMAL(12, 2) NOT NULL DEFAULT 0, " +
+            "total DECIMAL(12, 2) NOT NULL DEFAULT 0, " +
+            "createdAt TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP, " +
+            "PRIMARY KEY (ID), " +
+            "UNIQUE KEY uq_statement_period (patientID, periodStart, periodEnd), " +
+            "CONSTRAINT fk_statement_patientID " +
+            "    FOREIGN KEY (patientID) REFERENCES Patient(personID) " +
+            "    ON DELETE CASCADE " +
+            "    ON UPDATE CASCADE" +
+            ")",
+            // BillingEngine: visits starting in a period, and visits still open when it starts
+            "CREATE INDEX IF NOT EXISTS idx_visit_start_patient ON HospitalVisit (startDate, patientID)",
+            "CREATE INDEX IF NOT EXISTS idx_visit_end_patient ON HospitalVisit (endDate, patientID)"
+        ),
+        new Migration(7, "BillingCheckpoint progress of billing runs",
+            // Written by BillingRun as each partition of patients is billed
+            "CREATE TABLE IF NOT EXISTS BillingCheckpoint (" +
+            "periodStart DATE NOT NULL, " +
+            "periodEnd DATE NOT NULL, " +
+            "fromPatientID INT NOT NULL, " +
+            "toPatientID INT NOT NULL, " +
+            "statements INT NOT NULL DEFAULT 0, " +
+            "completedAt TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, " +
+            "PRIMARY KEY (periodStart, periodEnd, fromPatientID)" +
+            ")"
+        ),
+        new Migration(8, "HospitalVisit specialization of the bed last held",
+            // Set by Bed.claim and Bed.release, so BillingEngine charges bed days after the bed is released
+            "ALTER TABLE HospitalVisit ADD COLUMN IF NOT EXISTS bedSpecialization VARCHAR(255)",
+            "UPDATE HospitalVisit HV JOIN Bed B ON B.ID = HV.bedNumber " +
+            "SET HV.bedSpecialization = B.specializationName WHERE HV.bedSpecialization IS NULL"
+        )
+    ));
+
+    // The connection to run migrations on
+    private final Connection connection;
+
+    /**
+     * Construct a migrator for a database
+     * @param connection The connection to run migrations on
+     */
+    public SchemaMigrator(Connection connection) {
+        this.connection = connection;
+    }
+
+    /** Get every known migration, in version order */
+    public static List<Migration> getMigrations() {
+        return MIGRATIONS;
+    }
+
+    /** The newest schema version this program knows about */
+    public static int latestVersion() {
+        return MIGRATIONS.get(MIGRATIONS.size() - 1).version;
+    }
+
+    /** CREATE the SchemaVersion table if it doesn't exist */
+    public void createTable() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate(
+                    "CREATE TABLE IF NOT EXISTS SchemaVersion (" +
+                    "version INT NOT NULL, " +
+                    "description VARCHAR(255), " +
+                    "appliedAt TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, " +
+                    "PRIMARY KEY (version)" +
+                    ");"
+                );
+        }
+    }
+
+    /** DROP the SchemaVersion table if it does exist */
+    public void dropTable() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("DROP TABLE IF EXISTS SchemaVersion;");
+        }
+    }
+
+    /**
+     * Get the version of the database's schema
+     * @return The highest applied migration, or 0 if none have been applied
+     */
+    public int currentVersion() throws SQLException {
+        createTable();
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT MAX(version) FROM SchemaVersion")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    /**
+     * Apply every migration newer than the database's schema version, oldest first.
+     * DDL commits implicitly, so each migration's statements are applied and then recorded;
+     * if one fails, the migrations before it stay applied.
+     * @return The number of migrations applied
+     * @throws SQLException if a migration fails
+     */
+    public int migrate() throws SQLException {
+        int current = currentVersion();
+        int applied = 0;
+
+        for (Migration migration : MIGRATIONS) {
+            if (migration.version <= current) {
+                continue;
+            }
+            try (Statement statement = connection.createStatement()) {
+                for (String sql : migration.statements) {
+                    statement.executeUpdate(sql);
+                }
+            }
+            try (PreparedStatement record = connection.prepareStatement(
+                    "INSERT INTO SchemaVersion (version, description) VALUES (?, ?)")) {
+                record.setInt(1, migration.version);
+                record.setString(2, migration.description);
+                record.executeUpdate();
+            }
+            if (!connection.getAutoCommit()) {
+                connection.commit();
+            }
+            System.out.println("Applied migration " + migration.version + ": " + migration.description);
+            applied++;
+        }
+        return applied;
+    }
+}
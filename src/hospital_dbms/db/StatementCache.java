@@ -0,0 +1,173 @@
+package hospital_dbms.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Least-recently-used cache of PreparedStatements for one connection, keyed by SQL text.
+ * Statements handed out by the cache are reused by later callers with the same SQL,
+ * so callers must not close them. Statements evicted from the cache are closed.
+ * Guarded by a ReentrantLock, so preparing a statement doesn't pin a virtual thread to its carrier.
+ */
+public class StatementCache {
+
+    // The connection the cached statements belong to
+    private final Connection connection;
+    // Maximum number of statements kept open
+    private final int maxSize;
+    // Cached statements, least recently used first (guarded by lock, as are the counts)
+    private final LinkedHashMap<Key, PreparedStatement> statements;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * Construct an empty cache for a connection
+     * @param connection The connection to prepare statements on
+     * @param maxSize Maximum number of statements to keep open
+     */
+    public StatementCache(Connection connection, int maxSize) {
+        this.connection = connection;
+        this.maxSize = maxSize;
+        this.statements = new LinkedHashMap<Key, PreparedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, PreparedStatement> eldest) {
+                if (size() <= StatementCache.this.maxSize) {
+                    return false;
+                }
+                evictions++;
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Get a prepared statement for the given SQL, preparing it on the first use
+     * @param sql The SQL text of the statement
+     */
+    public PreparedStatement prepare(String sql) throws SQLException {
+        return prepare(sql, Statement.NO_GENERATED_KEYS);
+    }
+
+    /**
+     * Get a prepared statement for the given SQL, preparing it on the first use
+     * @param sql The SQL text of the statement
+     * @param autoGeneratedKeys Statement.RETURN_GENERATED_KEYS or Statement.NO_GENERATED_KEYS
+     */
+    public PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+        Key key = new Key(sql, autoGeneratedKeys);
+        lock.lock();
+        try {
+            PreparedStatement statement = statements.get(key);
+
+            if (statement != null && !statement.isClosed()) {
+                hits++;
+                statement.clearParameters();
+                return statement;
+            }
+
+            misses++;
+            statement = connection.prepareStatement(sql, autoGeneratedKeys);
+            statements.put(key, statement);
+            return statement;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Close every cached statement and empty the cache */
+    public void close() {
+        lock.lock();
+        try {
+            Iterator<PreparedStatement> it = statements.values().iterator();
+            while (it.hasNext()) {
+                closeQuietly(it.next());
+                it.remove();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Number of statements currently cached */
+    public int size() {
+        lock.lock();
+        try {
+            return statements.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Number of prepare() calls answered from the cache */
+    public long getHits() {
+        lock.lock();
+        try {
+            return hits;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Number of prepare() calls that had to prepare a new statement */
+    public long getMisses() {
+        lock.lock();
+        try {
+            return misses;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Number of statements closed to make room for newer ones */
+    public long getEvictions() {
+        lock.lock();
+        try {
+            return evictions;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            // The statement is being thrown away anyway
+        }
+    }
+
+    /** Cache key: the SQL text plus whether generated keys were requested */
+    private static final class Key {
+        final String sql;
+        final int autoGeneratedKeys;
+
+        Key(String sql, int autoGeneratedKeys) {
+            this.sql = sql;
+            this.autoGeneratedKeys = autoGeneratedKeys;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return autoGeneratedKeys == other.autoGeneratedKeys && sql.equals(other.sql);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * sql.hashCode() + autoGeneratedKeys;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package hospital_dbms.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+
+/**
+ * Wraps a connection so that several operations run in one transaction.
+ * The models commit their own work; through this wrapper commit() and setAutoCommit() do nothing,
+ * so everything stays in one transaction until the owner commits or rolls back the real connection.
+ * A rollback() by a model still rolls back the whole transaction, and is remembered so the owner
+ * can tell that earlier work was lost.
+ */
+public final class TransactionGroupConnection implements InvocationHandler {
+
+    private final Connection connection;
+    private boolean rolledBack = false;
+
+    private TransactionGroupConnection(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Wrap a connection. The caller should turn off auto-commit on the connection first
+     * @param connection The real connection
+     */
+    public static Connection wrap(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(TransactionGroupConnection.class.getClassLoader(),
+                                                   new Class<?>[] {Connection.class},
+                                                   new TransactionGroupConnection(connection));
+    }
+
+    /**
+     * Check whether anything rolled back the transaction through a wrapper
+     * @param wrapper A connection returned by wrap()
+     */
+    public static boolean wasRolledBack(Connection wrapper) {
+        return ((TransactionGroupConnection) Proxy.getInvocationHandler(wrapper)).rolledBack;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "commit":
+            case "setAutoCommit":
+                return null;
+            case "getAutoCommit":
+                return false;
+            case "rollback":
+                rolledBack = true;
+                break;
+            default:
+                break;
+        }
+        try {
+            return method.invoke(connection, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
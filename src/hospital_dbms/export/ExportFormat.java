@@ -0,0 +1,94 @@
+package hospital_dbms.export;
+
+import hospital_dbms.Json;
+
+/**
+ * How exported rows are written: comma-separated values with a header line, or one JSON object per line.
+ * Dates and timestamps are written with toString() (yyyy-mm-dd and yyyy-mm-dd hh:mm:ss.f), nulls as an empty
+ * CSV field or a JSON null.
+ */
+public enum ExportFormat {
+    CSV("csv") {
+        @Override
+        public void header(StringBuilder line, String[] labels) {
+            for (int c = 0; c < labels.length; c++) {
+                if (c > 0) {
+                    line.append(',');
+                }
+                appendField(line, labels[c]);
+            }
+            line.append('\n');
+        }
+
+        @Override
+        public void row(StringBuilder line, String[] labels, Object[] values) {
+            for (int c = 0; c < values.length; c++) {
+                if (c > 0) {
+                    line.append(',');
+                }
+                if (values[c] != null) {
+                    appendField(line, values[c].toString());
+                }
+            }
+            line.append('\n');
+        }
+    },
+    NDJSON("ndjson") {
+        @Override
+        public void header(StringBuilder line, String[] labels) {
+        }
+
+        @Override
+        public void row(StringBuilder line, String[] labels, Object[] values) {
+            line.append('{');
+            for (int c = 0; c < values.length; c++) {
+                if (c > 0) {
+                    line.append(',');
+                }
+                Json.quote(line, labels[c]);
+                line.append(':');
+                Json.write(line, values[c]);
+            }
+            line.append("}\n");
+        }
+    };
+
+    private final String extension;
+
+    ExportFormat(String extension) {
+        this.extension = extension;
+    }
+
+    /** The file name extension, without the dot */
+    public String getExtension() {
+        return extension;
+    }
+
+    /** Append what goes before the first row (nothing for NDJSON) */
+    public abstract void header(StringBuilder line, String[] labels);
+
+    /** Append one row, ending with a newline */
+    public abstract void row(StringBuilder line, String[] labels, Object[] values);
+
+    /** Append a CSV field, quoting it (RFC 4180) if it holds a comma, quote or line break */
+    private static void appendField(StringBuilder line, String value) {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            line.append(value);
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                line.append('"');
+            }
+            line.append(c);
+        }
+        line.append('"');
+    }
+}
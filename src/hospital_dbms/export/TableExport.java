@@ -0,0 +1,377 @@
+package hospital_dbms.export;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import static hospital_dbms.HospitalDBMS.getConnection;
+import static hospital_dbms.HospitalDBMS.releaseConnection;
+
+/**
+ * Exports tables to CSV or NDJSON files (gzip-compressed by default) for downstream analytics.
+ *
+ * Each table is split into chunks of consecutive IDs (aligned to multiples of the chunk size, so a table's
+ * chunks don't move as rows are added), and each chunk is written to its own file, e.g.
+ * Person.001000000-001999999.csv.gz. A fixed pool of workers exports one chunk at a time, so several tables are
+ * exported in parallel. For each chunk the worker reads the rows with a forward-only, streaming query on its
+ * own pooled connection and hands them in batches, through a bounded queue, to an encoder thread that formats
+ * and compresses them into the file through a FileChannel. Reading and encoding overlap, and a slow disk holds
+ * the reader back instead of filling memory.
+ *
+ * A chunk is written to a .part file and renamed once complete. An export skips the chunks whose file exists,
+ * so an export that crashed or had failed chunks resumes where it stopped. The last chunk of a table is still
+ * open (new rows get higher IDs and land in it), so it is always exported again and its file replaced. Rows
+ * added to or changed in an earlier chunk's range aren't picked up; delete its file to export it again.
+ */
+public class TableExport {
+
+    /** What an export did */
+    public static class Result {
+        private final int chunks;
+        private final int skipped;
+        private final int failed;
+        private final long rows;
+        private final long elapsedMillis;
+
+        Result(int chunks, int skipped, int failed, long rows, long elapsedMillis) {
+            this.chunks = chunks;
+            this.skipped = skipped;
+            this.failed = failed;
+            this.rows = rows;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        /** Chunks written by this export */
+        public int getChunks() {
+            return chunks;
+        }
+
+        /** Chunks skipped because their file already exists */
+        public int getSkipped() {
+            return skipped;
+        }
+
+        /** Chunks that failed; exporting again retries them */
+        public int getFailed() {
+            return failed;
+        }
+
+        /** Rows written by this export */
+        public long getRows() {
+            return rows;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        /** Rows written per second */
+        public double getThroughput() {
+            return elapsedMillis == 0 ? 0 : rows * 1000.0 / elapsedMillis;
+        }
+    }
+
+    /** Tables that can be exported, with their integer ID column */
+    public static final Map<String, String> TABLES = new LinkedHashMap<>();
+    static {
+        TABLES.put("Person", "ID");
+        TABLES.put("Patient", "personID");
+        TABLES.put("Staff", "personID");
+        TABLES.put("Hospital", "ID");
+        TABLES.put("HospitalVisit", "ID");
+        TABLES.put("Bed", "ID");
+        TABLES.put("MedicalRecord", "ID");
+        TABLES.put("Billing", "ID");
+        TABLES.put("BillingStatement", "ID");
+    }
+
+    /** Default number of IDs per chunk */
+    public static final int DEFAULT_CHUNK_SIZE = Integer.getInteger("hospital.export.chunkSize", 1000000);
+    /** Default number of workers; each holds a pooled connection, so keep it below hospital.pool.maxSize */
+    public static final int DEFAULT_WORKERS = Integer.getInteger("hospital.export.workers", 4);
+
+    // Rows fetched from the server at a time while streaming a chunk
+    private static final int FETCH_SIZE = 10000;
+    // Rows handed to the encoder at a time, and batches the queue holds before the reader waits
+    private static final int BATCH_ROWS = 1000;
+    private static final int QUEUE_BATCHES = 16;
+    // Size of the character and compression buffers in front of each file
+    private static final int BUFFER_SIZE = 1 << 20;
+    // Handed to the encoder after a chunk's last batch
+    private static final List<Object[]> END = new ArrayList<>();
+
+    private final Path directory;
+    private final ExportFormat format;
+    private final boolean gzip;
+    private final int workers;
+    private final int chunkSize;
+
+    /**
+     * Construct an export
+     * @param directory Where the files are written; created if it doesn't exist
+     * @param format How rows are written
+     * @param gzip Whether to compress the files
+     * @param workers Number of chunks exported at once
+     * @param chunkSize Number of IDs per chunk
+     */
+    public TableExport(Path directory, ExportFormat format, boolean gzip, int workers, int chunkSize) {
+        if (workers < 1 || chunkSize < 1) {
+            throw new IllegalArgumentException("Workers and chunk size must be positive");
+        }
+        this.directory = directory;
+        this.format = format;
+        this.gzip = gzip;
+        this.workers = workers;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Export the chunks of some tables that haven't been exported, and the last (open) chunk of each table,
+     * printing progress as chunks finish.
+     * A failed chunk is reported and the others carry on
+     * @param tables Names of tables in TABLES
+     * @param fromID The first ID to export, or null to start at the lowest
+     * @param toID The last ID to export, or null to end at the highest. A chunk cut short by fromID or toID is
+     *             named after the IDs it covers, so exporting the rest of the table later writes other files
+     * @throws SQLException if the chunks can't be planned
+     * @throws IOException if the directory can't be created
+     */
+    public Result run(List<String> tables, Integer fromID, Integer toID) throws SQLException, IOException {
+        long started = System.currentTimeMillis();
+        Files.createDirectories(directory);
+        List<Chunk> chunks = new ArrayList<>();
+        int skipped = 0;
+        try {
+            for (String table : tables) {
+                String idColumn = TABLES.get(table);
+                if (idColumn == null) {
+                    throw new IllegalArgumentException("Unknown table " + table + "; tables are " + TABLES.keySet());
+                }
+                long[] ids = idRange(table, idColumn);
+                if (ids == null) {
+                    continue;
+                }
+                long first = Math.max(ids[0], fromID == null ? Long.MIN_VALUE : fromID);
+                long last = Math.min(ids[1], toID == null ? Long.MAX_VALUE : toID);
+                for (long from = Math.floorDiv(first, chunkSize) * chunkSize; from <= last; from += chunkSize) {
+                    long to = from + chunkSize - 1;
+                    Chunk chunk = new Chunk(table, idColumn, fromID == null ? from : Math.max(from, fromID),
+                                            toID == null ? to : Math.min(to, toID));
+                    // The chunk holding the table's highest ID may have gained rows since it was written
+                    boolean open = chunk.toID > ids[1];
+                    if (!open && Files.exists(chunk.file)) {
+                        skipped++;
+                    } else {
+                        chunks.add(chunk);
+                    }
+                }
+            }
+        } finally {
+            // The workers borrow their own connections
+            releaseConnection();
+        }
+
+        AtomicInteger workerNumber = new AtomicInteger();
+        ExecutorService readers = Executors.newFixedThreadPool(workers, task -> {
+            Thread thread = new Thread(task, "export-reader-" + workerNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger encoderNumber = new AtomicInteger();
+        ExecutorService encoders = Executors.newFixedThreadPool(workers, task -> {
+            Thread thread = new Thread(task, "export-encoder-" + encoderNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        CompletionService<Long> completion = new ExecutorCompletionService<>(readers);
+        for (Chunk chunk : chunks) {
+            completion.submit(() -> {
+                try {
+                    return export(chunk, encoders);
+                } catch (SQLException | IOException e) {
+                    throw new IOException("Unable to export " + chunk.table + " " + chunk.fromID + " to " + chunk.toID
+                                          + ": " + e.getMessage(), e);
+                } finally {
+                    releaseConnection();
+                }
+            });
+        }
+
+        long rows = 0;
+        int failed = 0;
+        try {
+            for (int done = 1; done <= chunks.size(); done++) {
+                try {
+                    rows += completion.take().get();
+                } catch (ExecutionException e) {
+                    failed++;
+                    System.out.println(e.getCause().getMessage());
+                }
+                long elapsed = Math.max(1, System.currentTimeMillis() - started);
+                System.out.printf("%d of %d chunks exported, %d rows (%.0f rows/s)\n",
+                                  done, chunks.size(), rows, rows * 1000.0 / elapsed);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Export interrupted; run it again to resume", e);
+        } finally {
+            readers.shutdownNow();
+            encoders.shutdownNow();
+        }
+        return new Result(chunks.size() - failed, skipped, failed, rows, System.currentTimeMillis() - started);
+    }
+
+    /** A range of IDs of one table and the file it is written to */
+    private class Chunk {
+        final String table;
+        final String idColumn;
+        final long fromID;
+        final long toID;
+        final Path file;
+
+        Chunk(String table, String idColumn, long fromID, long toID) {
+            this.table = table;
+            this.idColumn = idColumn;
+            this.fromID = fromID;
+            this.toID = toID;
+            this.file = directory.resolve(String.format("%s.%09d-%09d.%s%s", table, fromID, toID,
+                                                        format.getExtension(), gzip ? ".gz" : ""));
+        }
+    }
+
+    /**
+     * Export one chunk: read its rows on the current thread's connection and hand them to an encoder
+     * @return The number of rows written
+     */
+    private long export(Chunk chunk, ExecutorService encoders) throws SQLException, IOException, InterruptedException {
+        Path part = chunk.file.resolveSibling(chunk.file.getFileName() + ".part");
+        String query = "SELECT * FROM " + chunk.table + " WHERE " + chunk.idColumn + " BETWEEN ? AND ? ORDER BY " + chunk.idColumn;
+        long rows = 0;
+        try (PreparedStatement statement = getConnection().prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            statement.setFetchSize(FETCH_SIZE);
+            statement.setLong(1, chunk.fromID);
+            statement.setLong(2, chunk.toID);
+            try (ResultSet rs = statement.executeQuery()) {
+                ResultSetMetaData meta = rs.getMetaData();
+                String[] labels = new String[meta.getColumnCount()];
+                for (int c = 0; c < labels.length; c++) {
+                    labels[c] = meta.getColumnLabel(c + 1);
+                }
+
+                BlockingQueue<List<Object[]>> queue = new ArrayBlockingQueue<>(QUEUE_BATCHES);
+                Future<Void> encoding = encoders.submit(() -> {
+                    encode(part, labels, queue);
+                    return null;
+                });
+                try {
+                    List<Object[]> batch = new ArrayList<>(BATCH_ROWS);
+                    while (rs.next()) {
+                        Object[] values = new Object[labels.length];
+                        for (int c = 0; c < values.length; c++) {
+                            values[c] = rs.getObject(c + 1);
+                        }
+                        batch.add(values);
+                        if (batch.size() == BATCH_ROWS) {
+                            hand(queue, batch, encoding);
+                            batch = new ArrayList<>(BATCH_ROWS);
+                        }
+                        rows++;
+                    }
+                    if (!batch.isEmpty()) {
+                        hand(queue, batch, encoding);
+                    }
+                    hand(queue, END, encoding);
+                    encoding.get();
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+                } finally {
+                    // Stops the encoder if reading failed; the .part file is rewritten by the next export
+                    encoding.cancel(true);
+                }
+            }
+        }
+        Files.move(part, chunk.file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return rows;
+    }
+
+    /** Put a batch on the queue, waiting while it is full, unless the encoder has stopped */
+    private static void hand(BlockingQueue<List<Object[]>> queue, List<Object[]> batch, Future<Void> encoding)
+            throws InterruptedException, ExecutionException {
+        while (!queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+            if (encoding.isDone()) {
+                // Throws the encoder's error
+                encoding.get();
+                throw new ExecutionException(new IOException("The encoder stopped early"));
+            }
+        }
+    }
+
+    /** Write batches from the queue to a file until END, encoding and compressing them on the current thread */
+    private void encode(Path file, String[] labels, BlockingQueue<List<Object[]>> queue) throws IOException, InterruptedException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING);
+             Writer out = new BufferedWriter(new OutputStreamWriter(output(channel), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            // Reused for every row
+            StringBuilder line = new StringBuilder();
+            format.header(line, labels);
+            out.append(line);
+            while (true) {
+                List<Object[]> batch = queue.take();
+                if (batch == END) {
+                    break;
+                }
+                for (Object[] values : batch) {
+                    line.setLength(0);
+                    format.row(line, labels, values);
+                    out.append(line);
+                }
+            }
+        }
+    }
+
+    /** The stream to write a file's bytes to, through the channel */
+    private OutputStream output(FileChannel channel) throws IOException {
+        OutputStream out = Channels.newOutputStream(channel);
+        return gzip ? new GZIPOutputStream(out, BUFFER_SIZE) : out;
+    }
+
+    /** The lowest and highest IDs of a table, or null if it is empty */
+    private static long[] idRange(String table, String idColumn) throws SQLException {
+        try (Statement statement = getConnection().createStatement();
+             ResultSet rs = statement.executeQuery("SELECT MIN(" + idColumn + "), MAX(" + idColumn + ") FROM " + table)) {
+            if (!rs.next() || rs.getObject(1) == null) {
+                return null;
+            }
+            return new long[] {rs.getLong(1), rs.getLong(2)};
+        }
+    }
+}
@@ -1,17 +1,43 @@
 package hospital_dbms.models;
 
 import java.sql.*;
+import java.util.List;
+import java.util.Objects;
 
+import hospital_dbms.HospitalDBMS;
 import hospital_dbms.models.Relation;
 import static hospital_dbms.HospitalDBMS.getConnection;
 
 public class Bed extends Relation {
 
+    // Number of times claim() retries after a deadlock or lock wait timeout
+    private static final int MAX_CLAIM_ATTEMPTS = 3;
+    // MariaDB error codes that mean the claim transaction can simply be tried again
+    private static final int ER_LOCK_WAIT_TIMEOUT = 1205;
+    private static final int ER_LOCK_DEADLOCK = 1213;
+    // Cleared the first time the server rejects SKIP LOCKED (MariaDB before 10.6)
+    private static volatile boolean skipLockedSupported = true;
+
+    // The columns other than ID, in INSERT_QUERY's order; bit i of a set of changed columns stands for COLUMNS[i]
+    private static final String[] COLUMNS = {"hospitalID", "specializationName", "nurseID", "occupied"};
+    private static final int HOSPITAL_ID = 1;
+    private static final int SPECIALIZATION = 1 << 1;
+    private static final int NURSE_ID = 1 << 2;
+    private static final int OCCUPIED = 1 << 3;
+    private static final int ALL_COLUMNS = (1 << COLUMNS.length) - 1;
+
     private int ID;
     private int hospitalID;
     private String specializationName;
     private Integer nurseID;
     private boolean occupied;
+    // The hospital, specialization and occupancy last read from or written to the database, so HospitalUsage
+    // can be adjusted by the difference (savedOccupied is null when they aren't known)
+    private int savedHospitalID;
+    private String savedSpecialization;
+    private Boolean savedOccupied;
+    // Columns set since the object was last read from or written to the database (all of them until then)
+    private int changed = ALL_COLUMNS;
 
     /**
      * Construct a bed object from its properties
@@ -60,17 +86,25 @@ public class Bed extends Relation {
     }
 
     /**
-     * Lookup a Bed object with the given id and return it
+     * Lookup a Bed object with the given id and return it (or null if there is no such Bed)
      */
     public static Bed getById(int id) throws SQLException {
-        Connection connection = getConnection();
         String query = "SELECT * FROM Bed WHERE id = ?";
+        Relation buffered = WriteBehindBuffer.pending(bufferKey(id));
+        if (buffered != null) {
+            Bed b = (Bed) buffered.pendingCopy(null);
+            b.markSaved();
+            return b;
+        }
 
-        PreparedStatement statement = connection.prepareStatement(query);
+        PreparedStatement statement = prepareStatement(query);
         statement.setInt(1, id);
 
         ResultSet rs = statement.executeQuery();
-        rs.absolute(1);
+        if (!rs.next()) {
+            rs.close();
+            return null;
+        }
 
         int storedID = rs.getInt("ID");
         int storedHospitalID = rs.getInt("hospitalID");
@@ -81,16 +115,20 @@ public class Bed extends Relation {
 
         Bed b = new Bed(storedHospitalID, storedSpecialization, storedNurseID, storedOccupied);
         b.setID(storedID);
+        b.markSaved();
         return b;
     }
     /**
  * Retreives available beds given a hospitalID and specialization
+ * Answered from the BedAvailabilityIndex once it is loaded
  */
     public static Bed getAvailableBed(int hospitalID, String specialization) throws SQLException {
-        Connection connection = getConnection();
+        if (BedAvailabilityIndex.isLoaded()) {
+            return BedAvailabilityIndex.peek(hospitalID, specialization);
+        }
         String query = "SELECT * FROM Bed WHERE hospitalID = ? AND specializationName=? AND occupied=FALSE LIMIT 1";
 
-        PreparedStatement statement = connection.prepareStatement(query);
+        PreparedStatement statement = prepareStatement(query);
         statement.setInt(1, hospitalID);
         statement.setString(2, specialization);
 
@@ -99,7 +137,6 @@ public class Bed extends Relation {
         if (!rs.next()) {
             return null;
         }
-        rs.absolute(1);
 
         int storedID = rs.getInt("ID");
         int storedHospitalID = rs.getInt("hospitalID");
@@ -110,31 +147,21 @@ public class Bed extends Relation {
 
         Bed b = new Bed(storedHospitalID, storedSpecialization, storedNurseID, storedOccupied);
         b.setID(storedID);
+        b.markSaved();
         return b;
     }
 
+    // SQL to insert one Bed row
+    private static final String INSERT_QUERY = "INSERT INTO Bed" +
+                                               "(hospitalID, specializationName, nurseID, occupied)" +
+                                               "VALUES ( ?, ?, ?, ? )";
+
     /**
      * Insert the current object into the database
      */
     public void insert() throws SQLException {
-        String query = "INSERT INTO Bed" +
-                       "(hospitalID, specializationName, nurseID, occupied)" +
-                       "VALUES ( ?, ?, ?, ? )";
-
-        PreparedStatement statement = connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS);
-
-        statement.setInt(1, getHospitalID());
-        if (getSpecializationName() == null) {
-            statement.setNull(2, Types.VARCHAR);
-        } else {
-            statement.setString(2, getSpecializationName());
-        }
-        if (getNurseID() == null) {
-            statement.setNull(3, Types.INTEGER);
-        } else {
-            statement.setInt(3, getNurseID());
-        }
-        statement.setBoolean(4, isOccupied());
+        PreparedStatement statement = prepareStatement(INSERT_QUERY, Statement.RETURN_GENERATED_KEYS);
+        bindInsert(statement, this);
 
         statement.executeUpdate();
 
@@ -147,65 +174,370 @@ public class Bed extends Relation {
                 throw new SQLException("Creating Bed failed, no ID obtained.");
             }
         }
+        HospitalUsage.adjust(getHospitalID(), getSpecializationName(), 1, isOccupied() ? 1 : 0);
+        markSaved();
+        BedAvailabilityIndex.changed(this);
 
     }
 
     /**
-     * Update the object in the databse to match the Java object
+     * Insert many Beds as one batch (see Relation.insertAll)
+     */
+    void insertBatch(List<? extends Relation> rows) throws SQLException {
+        executeBatch(INSERT_QUERY, rows, Bed::bindInsert, Bed::setID);
+        HospitalUsage.added(rows);
+        for (Relation row : rows) {
+            ((Bed) row).markSaved();
+            BedAvailabilityIndex.changed((Bed) row);
+        }
+    }
+
+    /**
+     * Set the parameters of INSERT_QUERY from a Bed
+     */
+    private static void bindInsert(PreparedStatement statement, Bed bed) throws SQLException {
+        for (int column = 0; column < COLUMNS.length; column++) {
+            bed.bindColumn(statement, column + 1, column);
+        }
+    }
+
+    /**
+     * Set the parameters of an UPDATE made by updateQuery() from a Bed: its changed columns, then its ID
+     */
+    private static void bindUpdate(PreparedStatement statement, Bed bed) throws SQLException {
+        int index = 1;
+        for (int column = 0; column < COLUMNS.length; column++) {
+            if ((bed.changed & (1 << column)) != 0) {
+                bed.bindColumn(statement, index++, column);
+            }
+        }
+        statement.setInt(index, bed.getID());
+    }
+
+    /** Set one parameter of a statement to the value of COLUMNS[column] */
+    private void bindColumn(PreparedStatement statement, int index, int column) throws SQLException {
+        switch (column) {
+            case 0:
+                statement.setInt(index, getHospitalID());
+                break;
+            case 1:
+                if (getSpecializationName() == null) {
+                    statement.setNull(index, Types.VARCHAR);
+                } else {
+                    statement.setString(index, getSpecializationName());
+                }
+                break;
+            case 2:
+                if (getNurseID() == null) {
+                    statement.setNull(index, Types.INTEGER);
+                } else {
+                    statement.setInt(index, getNurseID());
+                }
+                break;
+            default:
+                statement.setBoolean(index, isOccupied());
+        }
+    }
+
+    /**
+     * Update the object in the databse to match the Java object, writing only the columns changed since it was
+     * read or saved. While the WriteBehindBuffer is running, changes made outside a transaction that don't
+     * occupy the bed are buffered instead
      */
     public void update() throws SQLException {
-        String query = "UPDATE Bed set hospitalID=?, specializationName=?, nurseID=?, occupied=? WHERE id=?";
+        if (changed == 0) {
+            return;
+        }
+        if (savedOccupied != null && (savedOccupied || !occupied) && WriteBehindBuffer.accepts()) {
+            WriteBehindBuffer.defer(bufferKey(getID()), this);
+            markSaved();
+            return;
+        }
 
-        PreparedStatement statement = connection.prepareStatement(query);
-        statement.setInt(1, getHospitalID());
-        if (getSpecializationName() == null) {
-            statement.setNull(2, Types.VARCHAR);
-        } else {
-            statement.setString(2, getSpecializationName());
+        // A buffered change to the row is written now, as part of this update
+        WriteBehindBuffer.Pending buffered = WriteBehindBuffer.take(bufferKey(getID()));
+        if (buffered != null) {
+            absorb((Bed) buffered.getRow());
         }
-        if (getNurseID() == null) {
-            statement.setNull(3, Types.INTEGER);
-        } else {
-            statement.setInt(3, getNurseID());
+        try {
+            if (HospitalUsage.isLoaded()) {
+                loadSaved();
+            }
+            PreparedStatement statement = prepareStatement(updateQuery("Bed", COLUMNS, changed));
+            bindUpdate(statement, this);
+            statement.executeUpdate();
+            if (savedOccupied != null) {
+                moveUsage();
+            }
+        } catch (SQLException e) {
+            if (buffered != null) {
+                buffered.failed(e);
+            }
+            throw e;
         }
-        statement.setBoolean(4, isOccupied());
+        if (buffered != null) {
+            buffered.written();
+        }
+        markSaved();
+        BedAvailabilityIndex.changed(this);
+    }
 
-        statement.setInt(5, getID());
+    /**
+     * Write buffered changes to many Beds (see WriteBehindBuffer)
+     */
+    void updateBatch(List<? extends Relation> rows) throws SQLException {
+        executeUpdates("Bed", COLUMNS, rows, (Bed bed) -> bed.changed, Bed::bindUpdate);
+        for (Relation row : rows) {
+            ((Bed) row).moveUsage();
+        }
+        for (Relation row : rows) {
+            Bed bed = (Bed) row;
+            bed.markSaved();
+            BedAvailabilityIndex.changed(bed);
+        }
+    }
 
-        statement.executeUpdate();
+    /**
+     * Copy the bed for the WriteBehindBuffer (see Relation.pendingCopy)
+     */
+    Relation pendingCopy(Relation older) {
+        Bed copy = new Bed(hospitalID, specializationName, 0, occupied);
+        copy.nurseID = nurseID;
+        copy.ID = ID;
+        Bed base = older == null ? this : (Bed) older;
+        copy.savedHospitalID = base.savedHospitalID;
+        copy.savedSpecialization = base.savedSpecialization;
+        copy.savedOccupied = base.savedOccupied;
+        copy.changed = older == null ? changed : changed | base.changed;
+        return copy;
+    }
+
+    /**
+     * Take over a buffered change to this bed's row: its values of the columns this object hasn't changed,
+     * and the saved state it was made against
+     */
+    private void absorb(Bed buffered) {
+        int theirs = buffered.changed & ~changed;
+        if ((theirs & HOSPITAL_ID) != 0) {
+            hospitalID = buffered.hospitalID;
+        }
+        if ((theirs & SPECIALIZATION) != 0) {
+            specializationName = buffered.specializationName;
+        }
+        if ((theirs & NURSE_ID) != 0) {
+            nurseID = buffered.nurseID;
+        }
+        if ((theirs & OCCUPIED) != 0) {
+            occupied = buffered.occupied;
+        }
+        changed |= buffered.changed;
+        savedHospitalID = buffered.savedHospitalID;
+        savedSpecialization = buffered.savedSpecialization;
+        savedOccupied = buffered.savedOccupied;
+    }
+
+    /** Key of a bed's row in the WriteBehindBuffer */
+    private static String bufferKey(int id) {
+        return "Bed/" + id;
     }
 
     /**
      * Delete the current object from the databse
      */
     public void delete() throws SQLException {
+        Connection connection = getConnection();
         String query = "DELETE FROM Bed WHERE ID = ?";
+        // The row's buffered change is dropped with it, but the counts are adjusted from the state it was made against
+        WriteBehindBuffer.Pending buffered = WriteBehindBuffer.take(bufferKey(getID()));
+        if (buffered != null) {
+            absorb((Bed) buffered.getRow());
+            buffered.written();
+        }
+        if (HospitalUsage.isLoaded()) {
+            loadSaved();
+        }
 
-        PreparedStatement statement = connection.prepareStatement(query);
+        PreparedStatement statement = prepareStatement(query);
         statement.setInt(1, getID());
         statement.executeUpdate();
-        connection.commit();
+        if (savedOccupied != null) {
+            HospitalUsage.adjust(savedHospitalID, savedSpecialization, -1, savedOccupied ? -1 : 0);
+        }
+        commit(connection);
+        savedOccupied = null;
+        BedAvailabilityIndex.removed(getID());
     }
 
     /** Set a bed as unoccupied and unset it from any HospitalVisit */
     public void release() throws SQLException {
+        Connection connection = getConnection();
         setOccupied(false);
 
         connection.setAutoCommit(false);
         try {
-            PreparedStatement statement = connection.prepareStatement("UPDATE HospitalVisit SET bedNumber=NULL WHERE bedNumber=?;");
-            statement.setInt(1, getID());
+            PreparedStatement statement;
+            if (HospitalVisit.isBedSpecializationKept()) {
+                // The visit keeps the bed's specialization, so its bed days can still be billed
+                statement = prepareStatement(
+                        "UPDATE HospitalVisit SET bedSpecialization=(SELECT specializationName FROM Bed WHERE ID=?), " +
+                        "bedNumber=NULL WHERE bedNumber=?;");
+                statement.setInt(1, getID());
+                statement.setInt(2, getID());
+            } else {
+                statement = prepareStatement("UPDATE HospitalVisit SET bedNumber=NULL WHERE bedNumber=?;");
+                statement.setInt(1, getID());
+            }
             statement.executeUpdate();
 
             this.update();
 
-            connection.commit();
+            commit(connection);
         } catch (SQLException e) {
-            connection.rollback();
+            rollback(connection);
             throw e;
         }
     }
 
+    /**
+     * Atomically reserve a free bed for a HospitalVisit.
+     * In one transaction, locks a free bed row (skipping rows other transactions have locked),
+     * marks it occupied and sets it as the visit's bedNumber. Retries a few times on deadlock, except inside a
+     * transaction group, where the whole group has to be retried.
+     * Commits on success, so must not be called in the middle of another transaction.
+     * @param hospitalID The Hospital to find a bed in
+     * @param specialization The specialization the bed must have
+     * @param visitID The HospitalVisit to assign the bed to; it must not already have a bed
+     * @return The reserved bed, or null if no bed is free
+     * @throws SQLException if the visit doesn't exist or already has a bed, or the claim keeps failing
+     */
+    public static Bed claim(int hospitalID, String specialization, int visitID) throws SQLException {
+        Connection connection = getConnection();
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    Bed bed = claimOnce(hospitalID, specialization, visitID);
+                    commit(connection);
+                    return bed;
+                } catch (SQLException e) {
+                    rollback(connection);
+                    boolean retryable = e.getErrorCode() == ER_LOCK_DEADLOCK || e.getErrorCode() == ER_LOCK_WAIT_TIMEOUT
+                                        || e instanceof SQLTransactionRollbackException;
+                    // Inside a transaction group the rollback discarded the group's earlier work too,
+                    // so only the group's owner can retry
+                    if (!retryable || attempt >= MAX_CLAIM_ATTEMPTS || HospitalDBMS.inTransactionGroup()) {
+                        throw e;
+                    }
+                    try {
+                        Thread.sleep(10L * attempt);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        throw e;
+                    }
+                }
+            }
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    /** One attempt at claim(), run inside the caller's transaction */
+    private static Bed claimOnce(int hospitalID, String specialization, int visitID) throws SQLException {
+        String query = "SELECT * FROM Bed WHERE hospitalID=? AND specializationName=? AND occupied=FALSE LIMIT 1 FOR UPDATE";
+
+        ResultSet rs = null;
+        if (skipLockedSupported) {
+            try {
+                rs = selectFreeBed(query + " SKIP LOCKED", hospitalID, specialization);
+            } catch (SQLSyntaxErrorException e) {
+                // Older servers don't know SKIP LOCKED; a plain FOR UPDATE waits for the lock instead
+                skipLockedSupported = false;
+            }
+        }
+        if (rs == null) {
+            rs = selectFreeBed(query, hospitalID, specialization);
+        }
+
+        Bed bed;
+        try {
+            if (!rs.next()) {
+                return null;
+            }
+            bed = new Bed(rs.getInt("hospitalID"), rs.getString("specializationName"), rs.getInt("nurseID"), true);
+            bed.setID(rs.getInt("ID"));
+        } finally {
+            rs.close();
+        }
+
+        PreparedStatement occupy = prepareStatement("UPDATE Bed SET occupied=TRUE WHERE ID=?");
+        occupy.setInt(1, bed.getID());
+        occupy.executeUpdate();
+        HospitalUsage.adjust(bed.getHospitalID(), bed.getSpecializationName(), 0, 1);
+        BedAvailabilityIndex.removed(bed.getID());
+        bed.markSaved();
+
+        PreparedStatement link;
+        if (HospitalVisit.isBedSpecializationKept()) {
+            link = prepareStatement("UPDATE HospitalVisit SET bedNumber=?, bedSpecialization=? " +
+                                    "WHERE ID=? AND (bedNumber IS NULL OR bedNumber=0)");
+            link.setInt(1, bed.getID());
+            link.setString(2, bed.getSpecializationName());
+            link.setInt(3, visitID);
+        } else {
+            link = prepareStatement("UPDATE HospitalVisit SET bedNumber=? WHERE ID=? AND (bedNumber IS NULL OR bedNumber=0)");
+            link.setInt(1, bed.getID());
+            link.setInt(2, visitID);
+        }
+        if (link.executeUpdate() != 1) {
+            throw new SQLException("HospitalVisit " + visitID + " does not exist or already has a bed.");
+        }
+        return bed;
+    }
+
+    private static ResultSet selectFreeBed(String query, int hospitalID, String specialization) throws SQLException {
+        PreparedStatement statement = prepareStatement(query);
+        statement.setInt(1, hospitalID);
+        statement.setString(2, specialization);
+        return statement.executeQuery();
+    }
+
+    /** Remember the current hospital, specialization and occupancy as the ones in the database */
+    void markSaved() {
+        savedHospitalID = hospitalID;
+        savedSpecialization = specializationName;
+        savedOccupied = occupied;
+        changed = 0;
+    }
+
+    /** Read the saved hospital, specialization and occupancy from the database if they aren't known */
+    private void loadSaved() throws SQLException {
+        if (savedOccupied != null) {
+            return;
+        }
+        PreparedStatement statement = prepareStatement("SELECT hospitalID, specializationName, occupied FROM Bed WHERE ID=?");
+        statement.setInt(1, getID());
+        try (ResultSet rs = statement.executeQuery()) {
+            if (rs.next()) {
+                savedHospitalID = rs.getInt("hospitalID");
+                savedSpecialization = rs.getString("specializationName");
+                savedOccupied = rs.getBoolean("occupied");
+            }
+        }
+    }
+
+    /** Move this bed's counts in HospitalUsage from its saved state to its current one */
+    private void moveUsage() throws SQLException {
+        int wasOccupied = savedOccupied ? 1 : 0;
+        int nowOccupied = occupied ? 1 : 0;
+        if (savedHospitalID == hospitalID && Objects.equals(savedSpecialization, specializationName)) {
+            HospitalUsage.adjust(hospitalID, specializationName, 0, nowOccupied - wasOccupied);
+        } else {
+            HospitalUsage.adjust(savedHospitalID, savedSpecialization, -1, -wasOccupied);
+            HospitalUsage.adjust(hospitalID, specializationName, 1, nowOccupied);
+        }
+    }
+
     /**
      * Get ID.
      *
@@ -239,6 +571,9 @@ public class Bed extends Relation {
      * @param hospitalID the value to set.
      */
     public void setHospitalID(int hospitalID) {
+        if (this.hospitalID != hospitalID) {
+            changed |= HOSPITAL_ID;
+        }
         this.hospitalID = hospitalID;
     }
 
@@ -257,6 +592,9 @@ public class Bed extends Relation {
      * @param specializationName the value to set.
      */
     public void setSpecializationName(String specializationName) {
+        if (!Objects.equals(this.specializationName, specializationName)) {
+            changed |= SPECIALIZATION;
+        }
         this.specializationName = specializationName;
     }
 
@@ -275,6 +613,9 @@ public class Bed extends Relation {
      * @param nurseID the value to set.
      */
     public void setNurseID(int nurseID) {
+        if (!Objects.equals(this.nurseID, nurseID)) {
+            changed |= NURSE_ID;
+        }
         this.nurseID = nurseID;
     }
 
@@ -293,6 +634,9 @@ public class Bed extends Relation {
      * @param occupied the value to set.
      */
     public void setOccupied(boolean occupied) {
+        if (this.occupied != occupied) {
+            changed |= OCCUPIED;
+        }
         this.occupied = occupied;
     }
 }
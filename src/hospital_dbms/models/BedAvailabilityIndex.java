@@ -0,0 +1,142 @@
+package hospital_dbms.models;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import hospital_dbms.HospitalDBMS;
+import static hospital_dbms.HospitalDBMS.getConnection;
+
+/**
+ * In-memory index of the free Beds in each Hospital, grouped by specialization, so Bed.getAvailableBed()
+ * doesn't query the Bed table.
+ *
+ * Bed.insert(), update(), release(), delete() and claim() keep the index current, as does Hospital.delete() for
+ * the beds it deletes by cascade. Each change is applied once its transaction commits (see
+ * HospitalDBMS.afterCommit), so a rolled back change never shows up. Reserving a bed is left to Bed.claim(),
+ * which locks the row in the database. reconcile() rebuilds the index from the database, and must be called
+ * once at startup before the index is used.
+ */
+public class BedAvailabilityIndex {
+
+    // Free beds keyed by "hospitalID/specialization", each ordered by bed ID
+    private static final Map<String, ConcurrentSkipListMap<Integer, Bed>> freeBeds = new ConcurrentHashMap<>();
+    // The key each free bed is filed under, so a bed can be removed knowing only its ID
+    private static final Map<Integer, String> location = new ConcurrentHashMap<>();
+    // Whether reconcile() has run; until then the index is not used
+    private static volatile boolean loaded = false;
+
+    /**
+     * Rebuild the index from the Bed table. Run at startup, and any time the index may have drifted
+     * from the database (for example after beds were changed by another program)
+     */
+    public static synchronized void reconcile() throws SQLException {
+        String query = "SELECT * FROM Bed WHERE occupied=FALSE";
+
+        loaded = false;
+        freeBeds.clear();
+        location.clear();
+        try (ResultSet rs = getConnection().createStatement().executeQuery(query)) {
+            while (rs.next()) {
+                Bed b = new Bed(rs.getInt("hospitalID"), rs.getString("specializationName"), rs.getInt("nurseID"), false);
+                b.setID(rs.getInt("ID"));
+                b.markSaved();
+                add(b);
+            }
+        }
+        loaded = true;
+    }
+
+    /** Whether the index has been loaded with reconcile() */
+    public static boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Find a free bed without claiming it
+     * @return A copy of a free bed, or null if there are none (or the index isn't loaded)
+     */
+    public static Bed peek(int hospitalID, String specialization) {
+        ConcurrentSkipListMap<Integer, Bed> beds = freeBeds.get(key(hospitalID, specialization));
+        if (beds == null) {
+            return null;
+        }
+        Map.Entry<Integer, Bed> first = beds.firstEntry();
+        return first == null ? null : copy(first.getValue());
+    }
+
+    /** Record that a bed was inserted or updated, once the caller's transaction commits */
+    static void changed(Bed bed) throws SQLException {
+        if (!loaded) {
+            return;
+        }
+        // Keep a copy so later changes to the caller's object don't alter the index
+        Bed saved = copy(bed);
+        HospitalDBMS.afterCommit(() -> {
+            drop(saved.getID());
+            if (!saved.isOccupied()) {
+                add(saved);
+            }
+        });
+    }
+
+    /** Record that a bed was deleted or occupied, once the caller's transaction commits */
+    static void removed(int bedID) throws SQLException {
+        if (!loaded) {
+            return;
+        }
+        HospitalDBMS.afterCommit(() -> drop(bedID));
+    }
+
+    /** Record that a Hospital was deleted, and its beds with it by cascade, once the caller's transaction commits */
+    static void hospitalRemoved(int hospitalID) throws SQLException {
+        if (!loaded) {
+            return;
+        }
+        String prefix = hospitalID + "/";
+        HospitalDBMS.afterCommit(() -> {
+            for (String key : freeBeds.keySet()) {
+                if (key.startsWith(prefix)) {
+                    ConcurrentSkipListMap<Integer, Bed> beds = freeBeds.remove(key);
+                    if (beds != null) {
+                        beds.keySet().forEach(location::remove);
+                    }
+                }
+            }
+        });
+    }
+
+    /** Take a bed out of the index */
+    private static void drop(int bedID) {
+        String key = location.remove(bedID);
+        if (key != null) {
+            ConcurrentSkipListMap<Integer, Bed> beds = freeBeds.get(key);
+            if (beds != null) {
+                beds.remove(bedID);
+            }
+        }
+    }
+
+    private static void add(Bed bed) {
+        String key = key(bed);
+        location.put(bed.getID(), key);
+        freeBeds.computeIfAbsent(key, k -> new ConcurrentSkipListMap<>()).put(bed.getID(), bed);
+    }
+
+    private static Bed copy(Bed bed) {
+        Bed copy = new Bed(bed.getHospitalID(), bed.getSpecializationName(), bed.getNurseID(), bed.isOccupied());
+        copy.setID(bed.getID());
+        copy.markSaved();
+        return copy;
+    }
+
+    private static String key(Bed bed) {
+        return key(bed.getHospitalID(), bed.getSpecializationName());
+    }
+
+    private static String key(int hospitalID, String specialization) {
+        return hospitalID + "/" + specialization;
+    }
+}
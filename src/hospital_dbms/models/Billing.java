@@ -2,6 +2,7 @@ package hospital_dbms.models;
 import static hospital_dbms.HospitalDBMS.getConnection;
 import hospital_dbms.models.Relation;
 import java.sql.*;
+import java.util.List;
 
 import hospital_dbms.models.Relation;
 import static hospital_dbms.HospitalDBMS.getConnection;
@@ -48,24 +49,19 @@ public class Billing extends Relation {
 
         statement.executeUpdate("DROP TABLE IF EXISTS Billing;");
     }
+    // SQL to insert one Billing row
+    private static final String INSERT_QUERY = "INSERT INTO Billing" +
+                                               "(patientID, paymentInfo)" +
+                                               "VALUES ( ?, ? )";
+
     /**
      * Insert the current object into the database
      */
     public void insert() throws SQLException {
         // Connection c = getConnection();
         // c.setAutoCommit(true);
-        String query = "INSERT INTO Billing" +
-                       "(patientID, paymentInfo)" +
-                       "VALUES ( ?, ? )";
-
-        PreparedStatement statement = connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS);
-
-        statement.setInt(1, getPatientID());
-        if (getPaymentInfo() == null) {
-            statement.setNull(2, Types.VARCHAR);
-        } else {
-            statement.setString(2, getPaymentInfo());
-        }
+        PreparedStatement statement = prepareStatement(INSERT_QUERY, Statement.RETURN_GENERATED_KEYS);
+        bindInsert(statement, this);
 
         statement.executeUpdate();
 
@@ -79,13 +75,32 @@ public class Billing extends Relation {
             }
         }
     }
+    /**
+     * Insert many Billing accounts as one batch (see Relation.insertAll)
+     */
+    void insertBatch(List<? extends Relation> rows) throws SQLException {
+        executeBatch(INSERT_QUERY, rows, Billing::bindInsert, Billing::setID);
+    }
+
+    /**
+     * Set the parameters of INSERT_QUERY from a Billing account
+     */
+    private static void bindInsert(PreparedStatement statement, Billing billing) throws SQLException {
+        statement.setInt(1, billing.getPatientID());
+        if (billing.getPaymentInfo() == null) {
+            statement.setNull(2, Types.VARCHAR);
+        } else {
+            statement.setString(2, billing.getPaymentInfo());
+        }
+    }
+
     /**
      * Update the object in the databse to match the Java object
      */
     public void update() throws SQLException {
         String query = "UPDATE Billing set patientID=?, paymentInfo=? WHERE id=?";
 
-        PreparedStatement statement = connection.prepareStatement(query);
+        PreparedStatement statement = prepareStatement(query);
         statement.setInt(1, getPatientID());
         if (getPaymentInfo() == null) {
             statement.setNull(2, Types.VARCHAR);
@@ -99,10 +114,9 @@ public class Billing extends Relation {
     }
 
     public static Billing getById(int id) throws SQLException {
-        Connection connection = getConnection();
         String query = "SELECT * FROM Billing WHERE id = ?";
 
-        PreparedStatement statement = connection.prepareStatement(query);
+        PreparedStatement statement = prepareStatement(query);
         statement.setInt(1, id);
 
         ResultSet rs = statement.executeQuery();
@@ -126,12 +140,13 @@ public class Billing extends Relation {
      * Delete the current object from the database
      */
     public void delete() throws SQLException {
+        Connection connection = getConnection();
         String query = "DELETE FROM Billing WHERE ID = ?";
 
-        PreparedStatement statement = connection.prepareStatement(query);
+        PreparedStatement statement = prepareStatement(query);
         statement.setInt(1, getID());
         statement.executeUpdate();
-        connection.commit();
+        commit(connection);
     }
 
        /**
@@ -0,0 +1,177 @@
+package hospital_dbms.models;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import static hospital_dbms.HospitalDBMS.getConnection;
+
+/**
+ * The charges to one Patient for a billing period, kept in the BillingStatement table (created by schema
+ * migration 6). Statements are computed by BillingEngine; there is one per patient and period, and
+ * writing a statement again replaces it.
+ */
+public class BillingStatement extends Relation {
+
+    // Writes a statement, replacing the patient's statement for the same period
+    private static final String UPSERT_QUERY =
+            "INSERT INTO BillingStatement (patientID, periodStart, periodEnd, visits, registrationFees, consultFees, " +
+            "testFees, treatmentFees, bedDays, bedCharges, total) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?) " +
+            "ON DUPLICATE KEY UPDATE visits=VALUES(visits), registrationFees=VALUES(registrationFees), " +
+            "consultFees=VALUES(consultFees), testFees=VALUES(testFees), treatmentFees=VALUES(treatmentFees), " +
+            "bedDays=VALUES(bedDays), bedCharges=VALUES(bedCharges), total=VALUES(total)";
+
+    private final int patientID;
+    private final Date periodStart;
+    private final Date periodEnd;
+    // Visits that started in the period
+    private int visits;
+    private double registrationFees;
+    private double consultFees;
+    private double testFees;
+    private double treatmentFees;
+    // Days in the period spent in a bed, and what they cost
+    private int bedDays;
+    private double bedCharges;
+
+    /** Construct a statement with no charges */
+    public BillingStatement(int patientID, Date periodStart, Date periodEnd) {
+        this.patientID = patientID;
+        this.periodStart = periodStart;
+        this.periodEnd = periodEnd;
+    }
+
+    /**
+     * Execute a DROP TABLE if the table exists
+     */
+    public static void dropTable() throws SQLException {
+        Connection connection = getConnection();
+        Statement statement = connection.createStatement();
+
+        statement.executeUpdate("DROP TABLE IF EXISTS BillingStatement;");
+    }
+
+    /**
+     * Write the statement, replacing any earlier statement for the same patient and period
+     */
+    public void insert() throws SQLException {
+        PreparedStatement statement = prepareStatement(UPSERT_QUERY);
+        bind(statement, this);
+        statement.executeUpdate();
+    }
+
+    /**
+     * Write many statements as one batch (see Relation.insertAll)
+     */
+    void insertBatch(List<? extends Relation> rows) throws SQLException {
+        executeBatch(UPSERT_QUERY, rows, BillingStatement::bind, null);
+    }
+
+    /**
+     * Same as insert(); statements are identified by patient and period
+     */
+    public void update() throws SQLException {
+        insert();
+    }
+
+    private static void bind(PreparedStatement statement, BillingStatement s) throws SQLException {
+        statement.setInt(1, s.patientID);
+        statement.setDate(2, s.periodStart);
+        statement.setDate(3, s.periodEnd);
+        statement.setInt(4, s.visits);
+        statement.setDouble(5, s.registrationFees);
+        statement.setDouble(6, s.consultFees);
+        statement.setDouble(7, s.testFees);
+        statement.setDouble(8, s.treatmentFees);
+        statement.setInt(9, s.bedDays);
+        statement.setDouble(10, s.bedCharges);
+        statement.setDouble(11, s.getTotal());
+    }
+
+    /** Add a visit that started in the period, with its registration fee */
+    public void addVisit(double registrationFee) {
+        visits++;
+        registrationFees += registrationFee;
+    }
+
+    /** Add the fees of one medical record */
+    public void addRecord(double consultFee, double testFee, double treatmentFee) {
+        consultFees += consultFee;
+        testFees += testFee;
+        treatmentFees += treatmentFee;
+    }
+
+    /** Add days spent in a bed at a daily charge */
+    public void addBedDays(int days, double chargesPerDay) {
+        bedDays += days;
+        bedCharges += days * chargesPerDay;
+    }
+
+    /**
+     * Add the charges of another statement (for the same patient and period) to this one
+     * @return This statement
+     */
+    public BillingStatement add(BillingStatement other) {
+        visits += other.visits;
+        registrationFees += other.registrationFees;
+        consultFees += other.consultFees;
+        testFees += other.testFees;
+        treatmentFees += other.treatmentFees;
+        bedDays += other.bedDays;
+        bedCharges += other.bedCharges;
+        return this;
+    }
+
+    /** Whether the patient was charged anything in the period */
+    public boolean hasCharges() {
+        return visits > 0 || bedDays > 0;
+    }
+
+    public int getPatientID() {
+        return patientID;
+    }
+
+    public Date getPeriodStart() {
+        return periodStart;
+    }
+
+    public Date getPeriodEnd() {
+        return periodEnd;
+    }
+
+    public int getVisits() {
+        return visits;
+    }
+
+    public double getRegistrationFees() {
+        return registrationFees;
+    }
+
+    public double getConsultFees() {
+        return consultFees;
+    }
+
+    public double getTestFees() {
+        return testFees;
+    }
+
+    public double getTreatmentFees() {
+        return treatmentFees;
+    }
+
+    public int getBedDays() {
+        return bedDays;
+    }
+
+    public double getBedCharges() {
+        return bedCharges;
+    }
+
+    /** Sum of every charge on the statement */
+    public double getTotal() {
+        return registrationFees + consultFees + testFees + treatmentFees + bedCharges;
+    }
+}
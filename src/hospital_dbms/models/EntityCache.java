@@ -0,0 +1,203 @@
+package hospital_dbms.models;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches objects looked up by ID so repeated lookups within a command don't go back to the database.
+ *
+ * There are two levels:
+ *  - an identity map per unit of work (per thread, between beginUnitOfWork() and endUnitOfWork()),
+ *    which always returns the same instance for the same row
+ *  - an optional shared second-level cache, bounded in size (least recently used entries are dropped)
+ *    and with a time-to-live on each entry. It keeps its own copy of each object (see Relation.cacheCopy())
+ *    and hands every lookup a fresh copy, so callers on different threads never share an instance.
+ *    It is only invalidated by this process, so it is off unless -Dhospital.cache.enabled=true is given
+ *
+ * update() and delete() on a cached relation must call invalidate(), both when the change is made and once it
+ * commits, so neither level serves stale rows. Within a unit of work the same instance is shared, so changes
+ * to it should be saved with update() rather than left in memory.
+ */
+public class EntityCache {
+
+    // Whether the second-level cache is used. Rows changed by another process (the server, or the command line
+    // and batch tools) are served stale for up to TTL_MILLIS, so only turn it on when one process writes
+    private static final boolean SECOND_LEVEL_ENABLED = Boolean.getBoolean("hospital.cache.enabled");
+    // Maximum number of entries in the second-level cache
+    private static final int MAX_SIZE = Integer.getInteger("hospital.cache.maxSize", 10000);
+    // How long an entry stays in the second-level cache
+    private static final long TTL_MILLIS = Long.getLong("hospital.cache.ttlMillis", 60000);
+
+    // Identity map of the unit of work running on each thread (null outside a unit of work)
+    private static final ThreadLocal<Map<Key, Relation>> unitOfWork = new ThreadLocal<>();
+
+    // Shared second-level cache, least recently used first
+    private static final LinkedHashMap<Key, Entry> secondLevel = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+
+    private static final AtomicLong identityHits = new AtomicLong();
+    private static final AtomicLong secondLevelHits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    /** Start a unit of work on the current thread. Lookups return the same instance until endUnitOfWork() */
+    public static void beginUnitOfWork() {
+        unitOfWork.set(new HashMap<>());
+    }
+
+    /** End the current thread's unit of work, forgetting its identity map */
+    public static void endUnitOfWork() {
+        unitOfWork.remove();
+    }
+
+    /**
+     * Look up a cached object
+     * @param type The type of object (Person, Patient, Staff, ...)
+     * @param id The ID of the row
+     * @return The cached object, or null if it has to be loaded from the database
+     */
+    static <T extends Relation> T get(Class<T> type, int id) {
+        Key key = new Key(type, id);
+
+        Map<Key, Relation> identityMap = unitOfWork.get();
+        if (identityMap != null) {
+            Relation found = identityMap.get(key);
+            if (found != null) {
+                identityHits.incrementAndGet();
+                return type.cast(found);
+            }
+        }
+
+        if (SECOND_LEVEL_ENABLED) {
+            Relation found = null;
+            synchronized (secondLevel) {
+                Entry entry = secondLevel.get(key);
+                if (entry != null) {
+                    if (System.currentTimeMillis() < entry.expiresAt) {
+                        found = entry.value.cacheCopy();
+                    } else {
+                        secondLevel.remove(key);
+                    }
+                }
+            }
+            if (found != null) {
+                secondLevelHits.incrementAndGet();
+                if (identityMap != null) {
+                    identityMap.put(key, found);
+                }
+                return type.cast(found);
+            }
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Remember an object that was just loaded from the database
+     * @param type The type it was looked up as
+     * @param id The ID of the row
+     * @param value The loaded object
+     */
+    static <T extends Relation> void put(Class<T> type, int id, T value) {
+        Key key = new Key(type, id);
+
+        Map<Key, Relation> identityMap = unitOfWork.get();
+        if (identityMap != null) {
+            identityMap.put(key, value);
+        }
+        if (SECOND_LEVEL_ENABLED) {
+            Relation copy = value.cacheCopy();
+            synchronized (secondLevel) {
+                secondLevel.put(key, new Entry(copy, System.currentTimeMillis() + TTL_MILLIS));
+            }
+        }
+    }
+
+    /**
+     * Drop a row from both cache levels after it was updated or deleted
+     * @param type The type of object that changed
+     * @param id The ID of the row
+     */
+    static void invalidate(Class<? extends Relation> type, int id) {
+        Key key = new Key(type, id);
+
+        Map<Key, Relation> identityMap = unitOfWork.get();
+        if (identityMap != null) {
+            identityMap.remove(key);
+        }
+        synchronized (secondLevel) {
+            secondLevel.remove(key);
+        }
+    }
+
+    /** Empty the second-level cache */
+    public static void clear() {
+        synchronized (secondLevel) {
+            secondLevel.clear();
+        }
+    }
+
+    /** Number of lookups answered by a unit of work's identity map */
+    public static long getIdentityHits() {
+        return identityHits.get();
+    }
+
+    /** Number of lookups answered by the second-level cache */
+    public static long getSecondLevelHits() {
+        return secondLevelHits.get();
+    }
+
+    /** Number of lookups that had to go to the database */
+    public static long getMisses() {
+        return misses.get();
+    }
+
+    /** Fraction of lookups answered by either cache level (0 if there were no lookups) */
+    public static double getHitRate() {
+        long hits = identityHits.get() + secondLevelHits.get();
+        long total = hits + misses.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /** Cache key: the type of object plus its ID */
+    private static final class Key {
+        final Class<?> type;
+        final int id;
+
+        Key(Class<?> type, int id) {
+            this.type = type;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return id == other.id && type == other.type;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * type.hashCode() + id;
+        }
+    }
+
+    /** A second-level cache entry and the time it expires */
+    private static final class Entry {
+        final Relation value;
+        final long expiresAt;
+
+        Entry(Relation value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -3,6 +3,7 @@ package hospital_dbms.models;
 import static hospital_dbms.HospitalDBMS.getConnection;
 import hospital_dbms.models.Relation;
 import java.sql.*;
+import java.util.List;
 
 public class Hospital extends Relation {
     private int hospitalID;
@@ -32,7 +33,7 @@ public class Hospital extends Relation {
 
     // Delete the entire database table
     public static void dropTable() throws SQLException {
-        connection = getConnection();
+        Connection connection = getConnection();
         Statement statement = connection.createStatement();
 
         statement.executeUpdate("DROP TABLE IF EXISTS Hospital;");
@@ -40,10 +41,9 @@ public class Hospital extends Relation {
 
     //Updates hospital object with new values
     public void update() throws SQLException {
-        connection = getConnection();
         String query = "UPDATE Hospital set address=?, phoneNum=? WHERE id=?";
 
-        PreparedStatement statement = connection.prepareStatement(query);
+        PreparedStatement statement = prepareStatement(query);
 
         statement.setString(1, this.address);
         statement.setString(2, this.phone);
@@ -52,17 +52,18 @@ public class Hospital extends Relation {
         statement.executeUpdate();
     }
 
+    // SQL to insert one Hospital row
+    private static final String INSERT_QUERY = "INSERT INTO Hospital" +
+        "(address, phoneNum)" +
+        "VALUES ( ?, ? )";
+
     //called to insert Hospital object into the table
     public void insert() throws SQLException {
-        String query = "INSERT INTO Hospital" +
-            "(address, phoneNum)" +
-            "VALUES ( ?, ? )";
-
-        PreparedStatement statement = connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS);
-        statement.setString(1, this.address);
-        statement.setString(2, this.phone);
+        Connection connection = getConnection();
+        PreparedStatement statement = prepareStatement(INSERT_QUERY, Statement.RETURN_GENERATED_KEYS);
+        bindInsert(statement, this);
         statement.executeUpdate();
-        connection.commit();
+        commit(connection);
 
         // Get the id that the database created
         try (ResultSet generatedKeys = statement.getGeneratedKeys()) {
@@ -75,16 +76,29 @@ public class Hospital extends Relation {
         }
     }
 
-    //returns a hospital based on a given ID
+    //inserts many Hospitals as one batch (see Relation.insertAll)
+    void insertBatch(List<? extends Relation> rows) throws SQLException {
+        executeBatch(INSERT_QUERY, rows, Hospital::bindInsert, Hospital::setHospitalID);
+    }
+
+    //sets the parameters of INSERT_QUERY from a Hospital
+    private static void bindInsert(PreparedStatement statement, Hospital hospital) throws SQLException {
+        statement.setString(1, hospital.address);
+        statement.setString(2, hospital.phone);
+    }
+
+    //returns a hospital based on a given ID, or null if there is none
     public static Hospital getByID(int id) throws SQLException {
-        Connection connection = getConnection();
         String query = "SELECT * FROM Hospital WHERE ID = ?";
 
-        PreparedStatement statement = connection.prepareStatement(query);
+        PreparedStatement statement = prepareStatement(query);
         statement.setInt(1, id);
 
         ResultSet rs = statement.executeQuery();
-        rs.absolute(1);
+        if (!rs.next()) {
+            rs.close();
+            return null;
+        }
 
         int storedID = rs.getInt("ID");
         String storedAddress = rs.getString("address");
@@ -99,13 +113,17 @@ public class Hospital extends Relation {
  * deletes a Hospital
  */
     public void delete() {
+        Connection connection = getConnection();
         String query = "DELETE FROM Hospital WHERE id = ?";
 
         try {
-            PreparedStatement statement = connection.prepareStatement(query);
+            PreparedStatement statement = prepareStatement(query);
             statement.setInt(1, this.hospitalID);
             statement.executeUpdate();
-            connection.commit();
+            // The hospital's beds and usage counts are deleted by cascade
+            BedAvailabilityIndex.hospitalRemoved(this.hospitalID);
+            commit(connection);
+            HospitalUsage.hospitalRemoved(this.hospitalID);
         } catch (SQLException e) {
             e.printStackTrace();
         }
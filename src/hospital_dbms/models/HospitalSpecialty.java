@@ -1,6 +1,7 @@
 package hospital_dbms.models;
 
 import java.sql.*;
+import java.util.List;
 
 import hospital_dbms.models.Relation;
 import static hospital_dbms.HospitalDBMS.getConnection;
@@ -49,20 +50,31 @@ public class HospitalSpecialty extends Relation {
 
         statement.executeUpdate("DROP TABLE IF EXISTS HospitalSpecialty;");
     }
+    // SQL to insert one HospitalSpecialty row
+    private static final String INSERT_QUERY = "INSERT INTO HospitalSpecialty VALUES ( ?, ? )";
     /**
  * inserts into HospitalSpecialty
  */
     public void insert() throws SQLException {
-        String query = "INSERT INTO HospitalSpecialty VALUES ( ?, ? )";
-
-        PreparedStatement statement = connection.prepareStatement(query);
-
-        statement.setInt(1, getHospitalID());
-        statement.setString(2, getSpecialization());
+        PreparedStatement statement = prepareStatement(INSERT_QUERY);
+        bindInsert(statement, this);
 
         statement.executeUpdate();
     }
     /**
+ * inserts many HospitalSpecialty rows as one batch (see Relation.insertAll)
+ */
+    void insertBatch(List<? extends Relation> rows) throws SQLException {
+        executeBatch(INSERT_QUERY, rows, HospitalSpecialty::bindInsert, null);
+    }
+    /**
+ * sets the parameters of INSERT_QUERY from a HospitalSpecialty
+ */
+    private static void bindInsert(PreparedStatement statement, HospitalSpecialty hs) throws SQLException {
+        statement.setInt(1, hs.getHospitalID());
+        statement.setString(2, hs.getSpecialization());
+    }
+    /**
  * updates the HospitalSpecialty relation
  * cannot be updated
  */
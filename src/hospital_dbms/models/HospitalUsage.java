@@ -0,0 +1,398 @@
+package hospital_dbms.models;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import hospital_dbms.HospitalDBMS;
+import static hospital_dbms.HospitalDBMS.getConnection;
+import static hospital_dbms.HospitalDBMS.releaseConnection;
+
+/**
+ * Bed counts per Hospital and specialization, kept in the HospitalUsage table (created by schema migration 3)
+ * and mirrored in memory, so usage reports read one row per specialization instead of counting every Bed.
+ *
+ * Bed.insert(), update(), release(), delete() and claim() adjust the counts once their transaction commits,
+ * so a bed change never waits on (or locks) the shared counter row. The adjustment is applied to the mirror
+ * at once and queued as a delta; fold() adds the queued deltas to the table in one short transaction, and
+ * startReconciler() runs it every FOLD_MILLIS, so the table trails the mirror by about that long. Deltas not
+ * yet folded when the process dies are lost. reconcile() recounts the Bed table and corrects any counts that
+ * have drifted (from lost deltas, beds changed by another program, or cascading deletes); startReconciler()
+ * runs it periodically too.
+ *
+ * The counts are only maintained once load() has succeeded, which startup does when the table exists.
+ */
+public class HospitalUsage {
+
+    /** The bed counts of one Hospital and specialization */
+    public static class Counts {
+        private final int hospitalID;
+        private final String specialization;
+        private final AtomicInteger totalBeds;
+        private final AtomicInteger occupiedBeds;
+
+        Counts(int hospitalID, String specialization, int totalBeds, int occupiedBeds) {
+            this.hospitalID = hospitalID;
+            this.specialization = specialization;
+            this.totalBeds = new AtomicInteger(totalBeds);
+            this.occupiedBeds = new AtomicInteger(occupiedBeds);
+        }
+
+        public int getHospitalID() {
+            return hospitalID;
+        }
+
+        /** The specialization, or null for beds without one */
+        public String getSpecialization() {
+            return specialization;
+        }
+
+        public int getTotalBeds() {
+            return totalBeds.get();
+        }
+
+        public int getOccupiedBeds() {
+            return occupiedBeds.get();
+        }
+
+        public int getAvailableBeds() {
+            return totalBeds.get() - occupiedBeds.get();
+        }
+    }
+
+    // Adds to (or creates) the row for a hospital and specialization
+    private static final String ADJUST_QUERY =
+            "INSERT INTO HospitalUsage (hospitalID, specializationName, totalBeds, occupiedBeds) VALUES (?, ?, ?, ?) " +
+            "ON DUPLICATE KEY UPDATE totalBeds=totalBeds+VALUES(totalBeds), occupiedBeds=occupiedBeds+VALUES(occupiedBeds)";
+    // Replaces the counts of a hospital and specialization
+    private static final String SET_QUERY =
+            "INSERT INTO HospitalUsage (hospitalID, specializationName, totalBeds, occupiedBeds) VALUES (?, ?, ?, ?) " +
+            "ON DUPLICATE KEY UPDATE totalBeds=VALUES(totalBeds), occupiedBeds=VALUES(occupiedBeds)";
+    // The true counts, from the Bed table
+    private static final String COUNT_QUERY =
+            "SELECT hospitalID, COALESCE(specializationName, '') AS specializationName, COUNT(*) AS totalBeds, " +
+            "COUNT(IF(occupied=TRUE, 1, null)) AS occupiedBeds FROM Bed GROUP BY hospitalID, COALESCE(specializationName, '')";
+
+    // How often the queued deltas are added to the table
+    private static final long FOLD_MILLIS = 1000;
+
+    // Counts keyed by "hospitalID/specialization": the table's plus the deltas not yet folded into it
+    private static final Map<String, Counts> mirror = new ConcurrentHashMap<>();
+    // Committed changes not yet added to the table, keyed like mirror (guarded by deltaLock)
+    private static final Map<String, Counts> deltas = new HashMap<>();
+    // Held while a delta is applied, so the mirror and the deltas change together
+    private static final Object deltaLock = new Object();
+    // Whether load() has run; until then the counts are not maintained
+    private static volatile boolean loaded = false;
+    // Runs fold() and reconcile() periodically, once started
+    private static ScheduledExecutorService reconciler = null;
+
+    /**
+     * Execute a DROP TABLE if the table exists
+     */
+    public static void dropTable() throws SQLException {
+        Connection connection = getConnection();
+        Statement statement = connection.createStatement();
+
+        statement.executeUpdate("DROP TABLE IF EXISTS HospitalUsage;");
+    }
+
+    /**
+     * Read the HospitalUsage table into memory and start maintaining the counts.
+     * Deltas not yet folded into the table are added on top
+     * @throws SQLException if the table can't be read (for example, the schema hasn't been migrated)
+     */
+    public static synchronized void load() throws SQLException {
+        Map<String, Counts> counts = new HashMap<>();
+        try (Statement statement = getConnection().createStatement();
+             ResultSet rs = statement.executeQuery("SELECT * FROM HospitalUsage")) {
+            while (rs.next()) {
+                Counts c = readCounts(rs);
+                counts.put(key(c.hospitalID, c.specialization), c);
+            }
+        }
+        synchronized (deltaLock) {
+            mirror.clear();
+            mirror.putAll(counts);
+            for (Counts d : deltas.values()) {
+                addTo(mirror, d.hospitalID, d.specialization, d.getTotalBeds(), d.getOccupiedBeds());
+            }
+            loaded = true;
+        }
+    }
+
+    /**
+     * Add the queued deltas to the HospitalUsage table, in one transaction on the current thread's connection.
+     * If that fails the deltas are queued again for the next fold
+     * @return The number of counts changed
+     */
+    public static synchronized int fold() throws SQLException {
+        Connection connection = getConnection();
+        boolean autoCommit = connection.getAutoCommit();
+        Map<String, Counts> folding = takeDeltas();
+        if (folding.isEmpty()) {
+            return 0;
+        }
+        try {
+            connection.setAutoCommit(false);
+            PreparedStatement statement = Relation.prepareStatement(ADJUST_QUERY);
+            for (Counts d : folding.values()) {
+                bind(statement, d.hospitalID, d.specialization, d.getTotalBeds(), d.getOccupiedBeds());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+            Relation.commit(connection);
+        } catch (SQLException | RuntimeException e) {
+            requeue(folding);
+            Relation.rollback(connection);
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+        return folding.size();
+    }
+
+    /** Remove and return the queued deltas */
+    private static Map<String, Counts> takeDeltas() {
+        synchronized (deltaLock) {
+            Map<String, Counts> taken = new HashMap<>(deltas);
+            deltas.clear();
+            return taken;
+        }
+    }
+
+    /** Queue deltas taken by takeDeltas() again, after they couldn't be used */
+    private static void requeue(Map<String, Counts> taken) {
+        synchronized (deltaLock) {
+            for (Counts d : taken.values()) {
+                addTo(deltas, d.hospitalID, d.specialization, d.getTotalBeds(), d.getOccupiedBeds());
+            }
+        }
+    }
+
+    /** Whether the counts have been loaded with load() */
+    public static boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Recount the Bed table and correct any counts in HospitalUsage that differ, then reload the mirror.
+     * The queued deltas are dropped, since every change they hold has committed and so is in the recount.
+     * A bed change that commits while the recount runs may be counted twice (by the recount and by its delta)
+     * until the next reconcile
+     * @return The number of counts that were corrected
+     */
+    public static synchronized int reconcile() throws SQLException {
+        Connection connection = getConnection();
+        boolean autoCommit = connection.getAutoCommit();
+        Map<String, Counts> dropped = takeDeltas();
+        int corrected = 0;
+        try {
+            connection.setAutoCommit(false);
+            Map<String, Counts> stored = new HashMap<>();
+            try (Statement statement = connection.createStatement();
+                 ResultSet rs = statement.executeQuery("SELECT * FROM HospitalUsage FOR UPDATE")) {
+                while (rs.next()) {
+                    Counts c = readCounts(rs);
+                    stored.put(key(c.hospitalID, c.specialization), c);
+                }
+            }
+            Map<String, Counts> actual = new HashMap<>();
+            try (Statement statement = connection.createStatement();
+                 ResultSet rs = statement.executeQuery(COUNT_QUERY)) {
+                while (rs.next()) {
+                    Counts c = readCounts(rs);
+                    actual.put(key(c.hospitalID, c.specialization), c);
+                }
+            }
+
+            PreparedStatement set = Relation.prepareStatement(SET_QUERY);
+            for (Counts s : stored.values()) {
+                actual.putIfAbsent(key(s.hospitalID, s.specialization), new Counts(s.hospitalID, s.specialization, 0, 0));
+            }
+            for (Map.Entry<String, Counts> entry : actual.entrySet()) {
+                Counts a = entry.getValue();
+                Counts s = stored.get(entry.getKey());
+                if (s == null || s.getTotalBeds() != a.getTotalBeds() || s.getOccupiedBeds() != a.getOccupiedBeds()) {
+                    bind(set, a.hospitalID, a.specialization, a.getTotalBeds(), a.getOccupiedBeds());
+                    set.executeUpdate();
+                    corrected++;
+                }
+            }
+            Relation.commit(connection);
+        } catch (SQLException | RuntimeException e) {
+            requeue(dropped);
+            Relation.rollback(connection);
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+        load();
+        return corrected;
+    }
+
+    /**
+     * Run fold() every FOLD_MILLIS and reconcile() every periodMillis on a background thread, with its own
+     * connection. The deltas are also folded when the program exits normally
+     * @param periodMillis Time between reconciles; 0 or less only folds
+     */
+    public static synchronized void startReconciler(long periodMillis) {
+        if (reconciler != null) {
+            return;
+        }
+        reconciler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "usage-reconciler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reconciler.scheduleWithFixedDelay(HospitalUsage::foldInBackground, FOLD_MILLIS, FOLD_MILLIS, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(HospitalUsage::foldInBackground));
+        if (periodMillis <= 0) {
+            return;
+        }
+        reconciler.scheduleWithFixedDelay(() -> {
+            try {
+                int corrected = reconcile();
+                if (corrected > 0) {
+                    System.out.println("Corrected " + corrected + " drifted hospital usage counts");
+                }
+            } catch (SQLException e) {
+                System.out.println("Unable to reconcile hospital usage: " + e.getMessage());
+            } finally {
+                releaseConnection();
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** Run fold() on a background thread, reporting failures */
+    private static void foldInBackground() {
+        try {
+            fold();
+        } catch (SQLException | RuntimeException e) {
+            System.out.println("Unable to write hospital usage counts: " + e.getMessage());
+        } finally {
+            releaseConnection();
+        }
+    }
+
+    /** Stop the job started by startReconciler() */
+    public static synchronized void stopReconciler() {
+        if (reconciler != null) {
+            reconciler.shutdownNow();
+            reconciler = null;
+        }
+    }
+
+    /**
+     * Get the counts of every Hospital and specialization, ordered by hospital then specialization
+     * @throws IllegalStateException if the counts haven't been loaded
+     */
+    public static List<Counts> getUsage() {
+        if (!loaded) {
+            throw new IllegalStateException("Hospital usage has not been loaded");
+        }
+        List<Counts> usage = new ArrayList<>();
+        for (Counts c : mirror.values()) {
+            if (c.getTotalBeds() > 0) {
+                usage.add(c);
+            }
+        }
+        usage.sort((a, b) -> a.hospitalID != b.hospitalID ? Integer.compare(a.hospitalID, b.hospitalID)
+                             : String.valueOf(a.specialization).compareTo(String.valueOf(b.specialization)));
+        return usage;
+    }
+
+    /**
+     * Get the counts of one Hospital's specializations
+     * @throws IllegalStateException if the counts haven't been loaded
+     */
+    public static List<Counts> getUsage(int hospitalID) {
+        List<Counts> usage = getUsage();
+        usage.removeIf(c -> c.hospitalID != hospitalID);
+        return usage;
+    }
+
+    /**
+     * Add to the counts of a Hospital and specialization once the caller's transaction commits: in memory at
+     * once, and in the table at the next fold()
+     * @param beds Change in the number of beds
+     * @param occupied Change in the number of occupied beds
+     */
+    static void adjust(int hospitalID, String specialization, int beds, int occupied) throws SQLException {
+        if (!loaded || (beds == 0 && occupied == 0)) {
+            return;
+        }
+        HospitalDBMS.afterCommit(() -> {
+            synchronized (deltaLock) {
+                addTo(mirror, hospitalID, specialization, beds, occupied);
+                addTo(deltas, hospitalID, specialization, beds, occupied);
+            }
+        });
+    }
+
+    /** Add newly inserted beds to the counts, with one statement per hospital and specialization */
+    static void added(List<? extends Relation> beds) throws SQLException {
+        if (!loaded) {
+            return;
+        }
+        Map<String, Counts> added = new HashMap<>();
+        for (Relation row : beds) {
+            Bed bed = (Bed) row;
+            Counts c = added.computeIfAbsent(key(bed.getHospitalID(), bed.getSpecializationName()),
+                                             k -> new Counts(bed.getHospitalID(), bed.getSpecializationName(), 0, 0));
+            c.totalBeds.incrementAndGet();
+            if (bed.isOccupied()) {
+                c.occupiedBeds.incrementAndGet();
+            }
+        }
+        for (Counts c : added.values()) {
+            adjust(c.hospitalID, c.specialization, c.getTotalBeds(), c.getOccupiedBeds());
+        }
+    }
+
+    /** Add to the counts of a Hospital and specialization in the mirror or the deltas (caller holds deltaLock) */
+    private static void addTo(Map<String, Counts> counts, int hospitalID, String specialization, int beds, int occupied) {
+        Counts c = counts.computeIfAbsent(key(hospitalID, specialization),
+                                          k -> new Counts(hospitalID, specialization, 0, 0));
+        c.totalBeds.addAndGet(beds);
+        c.occupiedBeds.addAndGet(occupied);
+    }
+
+    /** Record that a Hospital (and, by cascade, its beds and counts) was deleted */
+    static void hospitalRemoved(int hospitalID) {
+        synchronized (deltaLock) {
+            mirror.values().removeIf(c -> c.hospitalID == hospitalID);
+            deltas.values().removeIf(c -> c.hospitalID == hospitalID);
+        }
+    }
+
+    private static Counts readCounts(ResultSet rs) throws SQLException {
+        String specialization = rs.getString("specializationName");
+        return new Counts(rs.getInt("hospitalID"), specialization.isEmpty() ? null : specialization,
+                          rs.getInt("totalBeds"), rs.getInt("occupiedBeds"));
+    }
+
+    /** Set the parameters of ADJUST_QUERY or SET_QUERY; beds without a specialization are stored under '' */
+    private static void bind(PreparedStatement statement, int hospitalID, String specialization, int beds, int occupied)
+            throws SQLException {
+        statement.setInt(1, hospitalID);
+        statement.setString(2, specialization == null ? "" : specialization);
+        statement.setInt(3, beds);
+        statement.setInt(4, occupied);
+    }
+
+    private static String key(int hospitalID, String specialization) {
+        return hospitalID + "/" + specialization;
+    }
+}
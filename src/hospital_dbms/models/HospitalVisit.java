@@ -1,6 +1,8 @@
 package hospital_dbms.models;
 import hospital_dbms.models.Relation;
 import java.sql.*;
+import java.util.List;
+import java.util.Objects;
 
 import static hospital_dbms.HospitalDBMS.getConnection;
 
@@ -9,6 +11,21 @@ import static hospital_dbms.HospitalDBMS.getConnection;
  */
 public class HospitalVisit extends Relation {
 
+    // The columns other than ID, in INSERT_QUERY's order; bit i of a set of changed columns stands for COLUMNS[i]
+    private static final String[] COLUMNS = {"hospitalID", "patientID", "startDate", "endDate", "diagnosis",
+                                             "bedNumber", "registrationFee"};
+    private static final int HOSPITAL_ID = 1;
+    private static final int PATIENT_ID = 1 << 1;
+    private static final int START_DATE = 1 << 2;
+    private static final int END_DATE = 1 << 3;
+    private static final int DIAGNOSIS = 1 << 4;
+    private static final int BED_NUMBER = 1 << 5;
+    private static final int REGISTRATION_FEE = 1 << 6;
+    private static final int ALL_COLUMNS = (1 << COLUMNS.length) - 1;
+
+    // Whether the bedSpecialization column exists (it arrives with migration 8)
+    private static volatile boolean bedSpecializationKept = false;
+
     private int ID;
     private int hospitalID;
     private int patientID;
@@ -17,6 +34,13 @@ public class HospitalVisit extends Relation {
     private String diagnosis;
     private Integer bedNumber;
     private Float registrationFee;
+    // The hospital and startDate last read from or written to the database, so VisitRollup can be adjusted
+    // when they change (saved is false when they aren't known)
+    private boolean saved = false;
+    private int savedHospitalID;
+    private Date savedStartDate;
+    // Columns set since the object was last read from or written to the database (all of them until then)
+    private int changed = ALL_COLUMNS;
 
     /**
      * Construct a HospitalVisit from all properties
@@ -61,6 +85,19 @@ public class HospitalVisit extends Relation {
                 );
     }
 
+    /**
+     * Start keeping the specialization of the bed a visit last held, for billing.
+     * Only call this once the bedSpecialization column exists
+     */
+    public static void keepBedSpecialization() {
+        bedSpecializationKept = true;
+    }
+
+    /** Whether the specialization of the bed a visit last held is kept (and so can be billed from) */
+    public static boolean isBedSpecializationKept() {
+        return bedSpecializationKept;
+    }
+
     /**
      * DROP the HospitalVisit table if it exists
      */
@@ -71,43 +108,17 @@ public class HospitalVisit extends Relation {
         statement.executeUpdate("DROP TABLE IF EXISTS HospitalVisit;");
     }
 
+    // SQL to insert one HospitalVisit row
+    private static final String INSERT_QUERY = "INSERT INTO HospitalVisit" +
+                                               "(hospitalID, patientID, startDate, endDate, diagnosis, bedNumber, registrationFee)" +
+                                               "VALUES ( ?, ?, ?, ?, ?, ?, ? )";
+
     /**
      * Insert the current object into the database
      */
     public void insert() throws SQLException {
-        String query = "INSERT INTO HospitalVisit" +
-                       "(hospitalID, patientID, startDate, endDate, diagnosis, bedNumber, registrationFee)" +
-                       "VALUES ( ?, ?, ?, ?, ?, ?, ? )";
-
-        PreparedStatement statement = connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS);
-
-        statement.setInt(1, getHospitalID());
-        statement.setInt(2, getPatientID());
-        if (getStartDate() == null) {
-            statement.setNull(3, Types.DATE);
-        } else {
-            statement.setDate(3, getStartDate());
-        }
-        if (getEndDate() == null) {
-            statement.setNull(4, Types.DATE);
-        } else {
-            statement.setDate(4, getEndDate());
-        }
-        if (getDiagnosis() == null) {
-            statement.setNull(5, Types.VARCHAR);
-        } else {
-            statement.setString(5, getDiagnosis());
-        }
-        if (getBedNumber() == null) {
-            statement.setNull(6, Types.INTEGER);
-        } else {
-            statement.setInt(6, getBedNumber());
-        }
-        if (getRegistrationFee() == null) {
-            statement.setNull(7, Types.FLOAT);
-        } else {
-            statement.setFloat(7, getRegistrationFee());
-        }
+        PreparedStatement statement = prepareStatement(INSERT_QUERY, Statement.RETURN_GENERATED_KEYS);
+        bindInsert(statement, this);
 
         statement.executeUpdate();
 
@@ -120,60 +131,235 @@ public class HospitalVisit extends Relation {
                 throw new SQLException("Creating HospitalVisit failed, no ID obtained.");
             }
         }
+        VisitRollup.adjust(getHospitalID(), getStartDate(), 1);
+        markSaved();
+    }
+
+    /**
+     * Insert many HospitalVisits as one batch (see Relation.insertAll)
+     */
+    void insertBatch(List<? extends Relation> rows) throws SQLException {
+        executeBatch(INSERT_QUERY, rows, HospitalVisit::bindInsert, HospitalVisit::setID);
+        VisitRollup.added(rows);
+        for (Relation row : rows) {
+            ((HospitalVisit) row).markSaved();
+        }
+    }
+
+    /**
+     * Set the parameters of INSERT_QUERY from a HospitalVisit
+     */
+    private static void bindInsert(PreparedStatement statement, HospitalVisit visit) throws SQLException {
+        for (int column = 0; column < COLUMNS.length; column++) {
+            visit.bindColumn(statement, column + 1, column);
+        }
+    }
+
+    /**
+     * Set the parameters of an UPDATE made by updateQuery() from a HospitalVisit: its changed columns, then its ID
+     */
+    private static void bindUpdate(PreparedStatement statement, HospitalVisit visit) throws SQLException {
+        int index = 1;
+        for (int column = 0; column < COLUMNS.length; column++) {
+            if ((visit.changed & (1 << column)) != 0) {
+                visit.bindColumn(statement, index++, column);
+            }
+        }
+        statement.setInt(index, visit.getID());
+    }
+
+    /** Set one parameter of a statement to the value of COLUMNS[column] */
+    private void bindColumn(PreparedStatement statement, int index, int column) throws SQLException {
+        switch (column) {
+            case 0:
+                statement.setInt(index, getHospitalID());
+                break;
+            case 1:
+                statement.setInt(index, getPatientID());
+                break;
+            case 2:
+                if (getStartDate() == null) {
+                    statement.setNull(index, Types.DATE);
+                } else {
+                    statement.setDate(index, getStartDate());
+                }
+                break;
+            case 3:
+                if (getEndDate() == null) {
+                    statement.setNull(index, Types.DATE);
+                } else {
+                    statement.setDate(index, getEndDate());
+                }
+                break;
+            case 4:
+                if (getDiagnosis() == null) {
+                    statement.setNull(index, Types.VARCHAR);
+                } else {
+                    statement.setString(index, getDiagnosis());
+                }
+                break;
+            case 5:
+                if (getBedNumber() == null) {
+                    statement.setNull(index, Types.INTEGER);
+                } else {
+                    statement.setInt(index, getBedNumber());
+                }
+                break;
+            default:
+                if (getRegistrationFee() == null) {
+                    statement.setNull(index, Types.FLOAT);
+                } else {
+                    statement.setFloat(index, getRegistrationFee());
+                }
+        }
     }
 
     /**
-     * Update the database record to match the current object state
+     * Update the database record to match the current object state, writing only the columns changed since the
+     * object was read or saved. While the WriteBehindBuffer is running, changes made outside a transaction that
+     * don't assign a bed are buffered instead
      */
     public void update() throws SQLException {
-        String query = "UPDATE HospitalVisit set hospitalID=?, patientID=?, startDate=?, endDate=?, diagnosis=?, bedNumber=?, registrationFee=? WHERE id=?";
+        if (changed == 0) {
+            return;
+        }
+        if (saved && (changed & BED_NUMBER) == 0 && WriteBehindBuffer.accepts()) {
+            WriteBehindBuffer.defer(bufferKey(getID()), this);
+            markSaved();
+            return;
+        }
 
-        PreparedStatement statement = connection.prepareStatement(query);
-        statement.setInt(1, getHospitalID());
-        statement.setInt(2, getPatientID());
-        if (getStartDate() == null) {
-            statement.setNull(3, Types.DATE);
-        } else {
-            statement.setDate(3, getStartDate());
+        // A buffered change to the row is written now, as part of this update
+        WriteBehindBuffer.Pending buffered = WriteBehindBuffer.take(bufferKey(getID()));
+        if (buffered != null) {
+            absorb((HospitalVisit) buffered.getRow());
         }
-        if (getEndDate() == null) {
-            statement.setNull(4, Types.DATE);
-        } else {
-            statement.setDate(4, getEndDate());
+        try {
+            if (VisitRollup.isEnabled()) {
+                loadSaved();
+            }
+            PreparedStatement statement = prepareStatement(updateQuery("HospitalVisit", COLUMNS, changed));
+            bindUpdate(statement, this);
+            statement.executeUpdate();
+            updated();
+        } catch (SQLException e) {
+            if (buffered != null) {
+                buffered.failed(e);
+            }
+            throw e;
         }
-        if (getDiagnosis() == null) {
-            statement.setNull(5, Types.VARCHAR);
-        } else {
-            statement.setString(5, getDiagnosis());
+        if (buffered != null) {
+            buffered.written();
         }
-        if (getBedNumber() == null) {
-            statement.setNull(6, Types.INTEGER);
-        } else {
-            statement.setInt(6, getBedNumber());
+    }
+
+    /**
+     * Write buffered changes to many HospitalVisits (see WriteBehindBuffer)
+     */
+    void updateBatch(List<? extends Relation> rows) throws SQLException {
+        executeUpdates("HospitalVisit", COLUMNS, rows, (HospitalVisit visit) -> visit.changed, HospitalVisit::bindUpdate);
+        for (Relation row : rows) {
+            ((HospitalVisit) row).moveRollup();
         }
-        if (getRegistrationFee() == null) {
-            statement.setNull(7, Types.FLOAT);
-        } else {
-            statement.setFloat(7, getRegistrationFee());
+        for (Relation row : rows) {
+            ((HospitalVisit) row).markSaved();
         }
+    }
 
-        statement.setInt(8, getID());
+    /**
+     * Copy the visit for the WriteBehindBuffer (see Relation.pendingCopy)
+     */
+    Relation pendingCopy(Relation older) {
+        HospitalVisit copy = new HospitalVisit(hospitalID, patientID, startDate, endDate, diagnosis, bedNumber, registrationFee);
+        copy.ID = ID;
+        HospitalVisit base = older == null ? this : (HospitalVisit) older;
+        copy.saved = base.saved;
+        copy.savedHospitalID = base.savedHospitalID;
+        copy.savedStartDate = base.savedStartDate;
+        copy.changed = older == null ? changed : changed | base.changed;
+        return copy;
+    }
 
-        statement.executeUpdate();
+    /**
+     * Take over a buffered change to this visit's row: its values of the columns this object hasn't changed,
+     * and the saved state it was made against
+     */
+    private void absorb(HospitalVisit buffered) {
+        int theirs = buffered.changed & ~changed;
+        if ((theirs & HOSPITAL_ID) != 0) {
+            hospitalID = buffered.hospitalID;
+        }
+        if ((theirs & PATIENT_ID) != 0) {
+            patientID = buffered.patientID;
+        }
+        if ((theirs & START_DATE) != 0) {
+            startDate = buffered.startDate;
+        }
+        if ((theirs & END_DATE) != 0) {
+            endDate = buffered.endDate;
+        }
+        if ((theirs & DIAGNOSIS) != 0) {
+            diagnosis = buffered.diagnosis;
+        }
+        if ((theirs & BED_NUMBER) != 0) {
+            bedNumber = buffered.bedNumber;
+        }
+        if ((theirs & REGISTRATION_FEE) != 0) {
+            registrationFee = buffered.registrationFee;
+        }
+        changed |= buffered.changed;
+        saved = buffered.saved;
+        savedHospitalID = buffered.savedHospitalID;
+        savedStartDate = buffered.savedStartDate;
+    }
+
+    /** Record an update that has been written: move the visit between VisitRollup months if needed */
+    private void updated() throws SQLException {
+        moveRollup();
+        markSaved();
+    }
+
+    /** Move this visit's count in VisitRollup from its saved hospital and month to its current ones */
+    private void moveRollup() throws SQLException {
+        if (saved && (savedHospitalID != getHospitalID() || !Objects.equals(savedStartDate, getStartDate()))) {
+            VisitRollup.adjust(savedHospitalID, savedStartDate, -1);
+            VisitRollup.adjust(getHospitalID(), getStartDate(), 1);
+        }
+    }
+
+    /** Key of a visit's row in the WriteBehindBuffer */
+    private static String bufferKey(int id) {
+        return "HospitalVisit/" + id;
+    }
+
+    /** The visit's buffered state, if it has changes in the WriteBehindBuffer, or null */
+    private static HospitalVisit buffered(int id) {
+        Relation row = WriteBehindBuffer.pending(bufferKey(id));
+        if (row == null) {
+            return null;
+        }
+        HospitalVisit hv = (HospitalVisit) row.pendingCopy(null);
+        hv.markSaved();
+        return hv;
     }
 
     /**
-     * Lookup a HospitalVisit by ID and return it as an object
+     * Lookup a HospitalVisit by ID and return it as an object, or null if there is no such visit
      */
     public static HospitalVisit getByID(int id) throws SQLException {
-        Connection connection = getConnection();
         String query = "SELECT * FROM HospitalVisit WHERE id = ?";
+        HospitalVisit buffered = buffered(id);
+        if (buffered != null) {
+            return buffered;
+        }
 
-        PreparedStatement statement = connection.prepareStatement(query);
+        PreparedStatement statement = prepareStatement(query);
         statement.setInt(1, id);
 
         ResultSet rs = statement.executeQuery();
-        rs.absolute(1);
+        if (!rs.next()) {
+            return null;
+        }
 
         int storedID = rs.getInt("ID");
         int storedHospitalID = rs.getInt("hospitalID");
@@ -187,6 +373,43 @@ public class HospitalVisit extends Relation {
 
         HospitalVisit hv = new HospitalVisit(storedHospitalID, storedPatientID, storedStartDate, storedEndDate, storedDiagnosis, storedBedNumber, storedRegistrationFee);
         hv.setID(storedID);
+        hv.markSaved();
+        return hv;
+    }
+
+    /**
+     * Lookup a Patient's open visit (one without an endDate) to a Hospital, or null if they aren't checked in
+     */
+    public static HospitalVisit getCurrentVisit(int patientID, int hospitalID) throws SQLException {
+        String query = "SELECT * FROM HospitalVisit WHERE endDate IS NULL AND patientID=? AND hospitalID=? LIMIT 1";
+
+        PreparedStatement statement = prepareStatement(query);
+        statement.setInt(1, patientID);
+        statement.setInt(2, hospitalID);
+
+        ResultSet rs = statement.executeQuery();
+        if (!rs.next()) {
+            return null;
+        }
+
+        int storedID = rs.getInt("ID");
+        int storedHospitalID = rs.getInt("hospitalID");
+        int storedPatientID = rs.getInt("patientID");
+        Date storedStartDate = rs.getDate("startDate");
+        Date storedEndDate = rs.getDate("endDate");
+        String storedDiagnosis = rs.getString("diagnosis");
+        Integer storedBedNumber = rs.getInt("bedNumber");
+        Float storedRegistrationFee = rs.getFloat("registrationFee");
+        rs.close();
+
+        HospitalVisit hv = new HospitalVisit(storedHospitalID, storedPatientID, storedStartDate, storedEndDate, storedDiagnosis, storedBedNumber, storedRegistrationFee);
+        hv.setID(storedID);
+        hv.markSaved();
+        // A checkout still in the WriteBehindBuffer has ended the visit
+        HospitalVisit buffered = buffered(storedID);
+        if (buffered != null) {
+            return buffered.getEndDate() == null ? buffered : null;
+        }
         return hv;
     }
 
@@ -194,18 +417,55 @@ public class HospitalVisit extends Relation {
      * Delete the current object from the database
      */
     public void delete() {
+        Connection connection = getConnection();
         String query = "DELETE FROM HospitalVisit WHERE id = ?";
 
+        // The row's buffered change is dropped with it, but the rollups are adjusted from the state it was made against
+        WriteBehindBuffer.Pending buffered = WriteBehindBuffer.take(bufferKey(getID()));
+        if (buffered != null) {
+            absorb((HospitalVisit) buffered.getRow());
+            buffered.written();
+        }
         try {
-            PreparedStatement statement = connection.prepareStatement(query);
+            if (VisitRollup.isEnabled()) {
+                loadSaved();
+            }
+            PreparedStatement statement = prepareStatement(query);
             statement.setInt(1, getID());
-            statement.executeUpdate();
-            connection.commit();
+            if (statement.executeUpdate() == 1 && saved) {
+                VisitRollup.adjust(savedHospitalID, savedStartDate, -1);
+            }
+            commit(connection);
+            saved = false;
         } catch (SQLException e) {
 
         }
     }
 
+    /** Remember the current hospital and startDate as the ones in the database */
+    void markSaved() {
+        saved = true;
+        savedHospitalID = hospitalID;
+        savedStartDate = startDate;
+        changed = 0;
+    }
+
+    /** Read the saved hospital and startDate from the database if they aren't known */
+    private void loadSaved() throws SQLException {
+        if (saved) {
+            return;
+        }
+        PreparedStatement statement = prepareStatement("SELECT hospitalID, startDate FROM HospitalVisit WHERE ID=?");
+        statement.setInt(1, getID());
+        try (ResultSet rs = statement.executeQuery()) {
+            if (rs.next()) {
+                saved = true;
+                savedHospitalID = rs.getInt("hospitalID");
+                savedStartDate = rs.getDate("startDate");
+            }
+        }
+    }
+
     /**
      * Get ID.
      *
@@ -239,6 +499,9 @@ public class HospitalVisit extends Relation {
      * @param hospitalID the value to set.
      */
     public void setHospitalID(int hospitalID) {
+        if (this.hospitalID != hospitalID) {
+            changed |= HOSPITAL_ID;
+        }
         this.hospitalID = hospitalID;
     }
 
@@ -257,6 +520,9 @@ public class HospitalVisit extends Relation {
      * @param patientID the value to set.
      */
     public void setPatientID(int patientID) {
+        if (this.patientID != patientID) {
+            changed |= PATIENT_ID;
+        }
         this.patientID = patientID;
     }
 
@@ -275,6 +541,9 @@ public class HospitalVisit extends Relation {
      * @param startDate the value to set.
      */
     public void setStartDate(Date startDate) {
+        if (!Objects.equals(this.startDate, startDate)) {
+            changed |= START_DATE;
+        }
         this.startDate = startDate;
     }
 
@@ -293,6 +562,9 @@ public class HospitalVisit extends Relation {
      * @param endDate the value to set.
      */
     public void setEndDate(Date endDate) {
+        if (!Objects.equals(this.endDate, endDate)) {
+            changed |= END_DATE;
+        }
         this.endDate = endDate;
     }
 
@@ -311,6 +583,9 @@ public class HospitalVisit extends Relation {
      * @param diagnosis the value to set.
      */
     public void setDiagnosis(String diagnosis) {
+        if (!Objects.equals(this.diagnosis, diagnosis)) {
+            changed |= DIAGNOSIS;
+        }
         this.diagnosis = diagnosis;
     }
 
@@ -329,6 +604,9 @@ public class HospitalVisit extends Relation {
      * @param bedNumber the value to set.
      */
     public void setBedNumber(Integer bedNumber) {
+        if (!Objects.equals(this.bedNumber, bedNumber)) {
+            changed |= BED_NUMBER;
+        }
         this.bedNumber = bedNumber;
     }
 
@@ -347,6 +625,9 @@ public class HospitalVisit extends Relation {
      * @param registrationFee the value to set.
      */
     public void setRegistrationFee(Float registrationFee) {
+        if (!Objects.equals(this.registrationFee, registrationFee)) {
+            changed |= REGISTRATION_FEE;
+        }
         this.registrationFee = registrationFee;
     }
 }
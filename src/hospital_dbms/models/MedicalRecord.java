@@ -1,6 +1,7 @@
 package hospital_dbms.models;
 
 import java.sql.*;
+import java.util.List;
 
 import hospital_dbms.models.Relation;
 import static hospital_dbms.HospitalDBMS.getConnection;
@@ -92,27 +93,18 @@ public class MedicalRecord extends Relation {
         Statement statement = connection.createStatement();
 
         statement.executeUpdate("DROP TABLE IF EXISTS MedicalRecord;");
-        connection.commit();
+        commit(connection);
     }
 
+    // SQL to insert one MedicalRecord row
+    private static final String INSERT_QUERY = "INSERT INTO MedicalRecord" +
+                                               "(visitID, doctorID, prescription, diagnostic, test, result, treatment, consultaionFee, testFee, treatmentFee)" +
+                                               "VALUES ( ?, ?, ?, ?, ?, ?, ?, ?, ?, ? )";
+
     /** Insert the current object into the MedicalRecord table */
     public void insert() throws SQLException {
-        String query = "INSERT INTO MedicalRecord" +
-                       "(visitID, doctorID, prescription, diagnostic, test, result, treatment, consultaionFee, testFee, treatmentFee)" +
-                       "VALUES ( ?, ?, ?, ?, ?, ?, ?, ?, ?, ? )";
-
-        PreparedStatement statement = connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS);
-
-        statement.setInt(1, getVisitID());
-        statement.setInt(2, getDoctorID());
-        statement.setString(3, getPrescription());
-        statement.setString(4, getDiagnostic());
-        statement.setString(5, getTest());
-        statement.setString(6, getResult());
-        statement.setString(7, getTreatment());
-        statement.setInt(8, getConsultaionFee());
-        statement.setInt(9, getTestFee());
-        statement.setInt(10, getTreatmentFee());
+        PreparedStatement statement = prepareStatement(INSERT_QUERY, Statement.RETURN_GENERATED_KEYS);
+        bindInsert(statement, this);
 
         statement.executeUpdate();
 
@@ -127,13 +119,32 @@ public class MedicalRecord extends Relation {
         }
     }
 
+    /** Insert many MedicalRecords as one batch (see Relation.insertAll) */
+    void insertBatch(List<? extends Relation> rows) throws SQLException {
+        executeBatch(INSERT_QUERY, rows, MedicalRecord::bindInsert, MedicalRecord::setID);
+    }
+
+    /** Set the parameters of INSERT_QUERY from a MedicalRecord */
+    private static void bindInsert(PreparedStatement statement, MedicalRecord record) throws SQLException {
+        statement.setInt(1, record.getVisitID());
+        statement.setInt(2, record.getDoctorID());
+        statement.setString(3, record.getPrescription());
+        statement.setString(4, record.getDiagnostic());
+        statement.setString(5, record.getTest());
+        statement.setString(6, record.getResult());
+        statement.setString(7, record.getTreatment());
+        statement.setInt(8, record.getConsultaionFee());
+        statement.setInt(9, record.getTestFee());
+        statement.setInt(10, record.getTreatmentFee());
+    }
+
     /**
      * Update the object in the databse to match the Java object
      */
     public void update() throws SQLException {
         String query = "UPDATE MedicalRecord set visitID=?, doctorID=?, prescription=?, diagnostic=?, test=?, result=?, treatment=?, consultaionFee=?, testFee=?, treatmentFee=? WHERE id=?";
 
-        PreparedStatement statement = connection.prepareStatement(query);
+        PreparedStatement statement = prepareStatement(query);
 
         statement.setInt(1, getVisitID());
         statement.setInt(2, getDoctorID());
@@ -151,16 +162,21 @@ public class MedicalRecord extends Relation {
         statement.executeUpdate();
     }
 
-    /** Lookup a Person in the database by ID and return it as an object */
+    /**
+     * Lookup a MedicalRecord in the database by ID and return it as an object
+     * @return The record, or null if there is no record with that ID
+     */
     public static MedicalRecord getByID(int id) throws SQLException {
-        Connection connection = getConnection();
         String query = "SELECT * FROM MedicalRecord WHERE id = ?";
 
-        PreparedStatement statement = connection.prepareStatement(query);
+        PreparedStatement statement = prepareStatement(query);
         statement.setInt(1, id);
 
         ResultSet rs = statement.executeQuery();
-        rs.absolute(1);
+        if (!rs.next()) {
+            rs.close();
+            return null;
+        }
 
         int storedID = rs.getInt("ID");
         int sVisitId = rs.getInt("visitId");
@@ -181,6 +197,19 @@ public class MedicalRecord extends Relation {
         return mr;
     }
 
+    /**
+     * Delete the current object from the database
+     */
+    public void delete() throws SQLException {
+        Connection connection = getConnection();
+        String query = "DELETE FROM MedicalRecord WHERE ID = ?";
+
+        PreparedStatement statement = prepareStatement(query);
+        statement.setInt(1, getID());
+        statement.executeUpdate();
+        commit(connection);
+    }
+
     /**
      * Get id.
      *
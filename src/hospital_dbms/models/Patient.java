@@ -2,6 +2,7 @@ package hospital_dbms.models;
 
 import java.sql.*;
 import java.util.Calendar;
+import java.util.List;
 
 import hospital_dbms.models.Person;
 import static hospital_dbms.HospitalDBMS.getConnection;
@@ -66,32 +67,28 @@ public class Patient extends Person {
         statement.executeUpdate("DROP TABLE IF EXISTS Patient;");
     }
 
+    // SQL to insert one Patient row (after its Person row)
+    private static final String INSERT_QUERY = "INSERT INTO Patient" +
+                                               "(personID, ssn, gender, status)" +
+                                               "VALUES ( ?, ?, ?, ? )";
+
     /** INSERT the current patient into the database */
     public void insert() throws SQLException {
+        Connection connection = getConnection();
         try {
             connection.setAutoCommit(false);
             super.insert();
-            String query = "INSERT INTO Patient" +
-                        "(personID, ssn, gender, status)" +
-                        "VALUES ( ?, ?, ?, ? )";
-
-            PreparedStatement statement = connection.prepareStatement(query);
-            statement.setInt(1, super.getID());
-            if (getSSN() == null) {
-                statement.setNull(2, Types.INTEGER);
-            } else {
-                statement.setInt(2, this.ssn);
-            }
-            statement.setString(3, this.gender);
-            statement.setString(4, this.status.toString());
+
+            PreparedStatement statement = prepareStatement(INSERT_QUERY);
+            bindInsert(statement, this);
 
             statement.executeUpdate();
-            connection.commit();
+            commit(connection);
         } catch (SQLException e) {
             System.out.println("Error occurred while inserting into Patient.");
             try {
                 if(connection!=null) {
-                    connection.rollback();
+                    rollback(connection);
                     System.out.println("Successfully rolled back changes during Patient insert.");
                 }
             } catch(SQLException e2) {
@@ -102,15 +99,34 @@ public class Patient extends Person {
         }
     }
 
+    /** Insert many Patients as two batches: their Person rows, then their Patient rows */
+    void insertBatch(List<? extends Relation> rows) throws SQLException {
+        insertPersonBatch(rows);
+        executeBatch(INSERT_QUERY, rows, Patient::bindInsert, null);
+    }
+
+    /** Set the parameters of INSERT_QUERY from a Patient whose Person row has been inserted */
+    private static void bindInsert(PreparedStatement statement, Patient patient) throws SQLException {
+        statement.setInt(1, patient.getID());
+        if (patient.getSSN() == null) {
+            statement.setNull(2, Types.INTEGER);
+        } else {
+            statement.setInt(2, patient.getSSN());
+        }
+        statement.setString(3, patient.gender);
+        statement.setString(4, patient.status.toString());
+    }
+
     /** UPDATE the database to match the current object */
     public void update() throws SQLException {
+        Connection connection = getConnection();
         try {
             connection.setAutoCommit(false); // Perform parent and child update as one x-actn
             super.update();
 
             String query = "UPDATE Patient set ssn=?, gender=?, status=? WHERE personID=?";
 
-            PreparedStatement statement = connection.prepareStatement(query);
+            PreparedStatement statement = prepareStatement(query);
 
             statement.setInt(1, this.ssn);
             statement.setString(2, this.gender);
@@ -119,13 +135,14 @@ public class Patient extends Person {
 
             statement.executeUpdate();
 
-            connection.commit();
+            commit(connection);
             connection.setAutoCommit(true);
+            invalidate(getID());
         } catch (SQLException e) {
             System.out.println("Error occurred while updating an entry in Patient.");
             try {
                 if(connection!=null) {
-                    connection.rollback();
+                    rollback(connection);
                     System.out.println("Successfully rolled back changes during Patient update.");
                 }
             } catch(SQLException e2) {
@@ -135,64 +152,51 @@ public class Patient extends Person {
         }
     }
 
+    // Loads Person and Patient columns together; completed with "= ?" or "IN (...)"
+    private static final String SELECT_QUERY = "SELECT * FROM Person JOIN Patient ON Patient.personID = Person.ID WHERE Person.ID ";
+
     /** Lookup a patient by their personID and return it as an object */
     public static Patient getByID(int id) throws SQLException {
-        Connection connection = getConnection();
-        Person parent = Person.getByID(id);
-        if(parent == null)
-            return null;
-        String query = "SELECT * FROM Patient WHERE personID = ?";
+        Patient cached = EntityCache.get(Patient.class, id);
+        if (cached != null) {
+            return cached;
+        }
+        String query = SELECT_QUERY + "= ?";
 
-        PreparedStatement statement = connection.prepareStatement(query);
+        PreparedStatement statement = prepareStatement(query);
         statement.setInt(1, id);
 
-        ResultSet rs = statement.executeQuery();
-        rs.absolute(1);
-
-        try {
-            int storedID = rs.getInt("personID");
-            int storedSSN = rs.getInt("ssn");
-            String storedGender = rs.getString("gender");
-            Status storedStatus = Status.valueOf((rs.getString("status")));
-            rs.close();
-            Patient p = new Patient(parent, storedSSN, storedGender, storedStatus);
-            p.setID(storedID);
+        try (ResultSet rs = statement.executeQuery()) {
+            if (!rs.next()) {
+                System.out.println("Could not find a Patient with that ID. Please try again.");
+                return null;
+            }
+            Patient p = readPatient(rs);
+            EntityCache.put(Patient.class, p.getID(), p);
             return p;
-        } catch (SQLDataException e) {
-            System.out.println("Could not find a Patient with that ID. Please try again.");
-            rs.close();
-            return null;
         }
+    }
 
-        
+    /** Lookup many patients by personID with IN (...) queries. IDs that aren't patients are skipped */
+    public static List<Patient> getByIDs(int... ids) throws SQLException {
+        return loadByIDs(Patient.class, SELECT_QUERY + "IN ", ids, Patient::readPatient);
     }
-    /**Gets the current visit of the patient if they have one*/
-    public HospitalVisit getCurrentVisit(int hospitalID) throws SQLException {
-        String query = "SELECT * FROM HospitalVisit WHERE endDate IS NULL AND patientID=? AND hospitalID=? LIMIT 1";
 
-        PreparedStatement statement = connection.prepareStatement(query);
-        statement.setInt(1, id);
-        statement.setInt(2, hospitalID);
+    /** Build a Patient from a row of SELECT_QUERY */
+    private static Patient readPatient(ResultSet rs) throws SQLException {
+        Person parent = readPerson(rs);
+        int storedSSN = rs.getInt("ssn");
+        String storedGender = rs.getString("gender");
+        Status storedStatus = Status.valueOf((rs.getString("status")));
 
-        ResultSet rs = statement.executeQuery();
-        if (!rs.next()) {
-            return null;
-        }
-        rs.absolute(1);
-
-        int storedID = rs.getInt("ID");
-        int storedHospitalID = rs.getInt("hospitalID");
-        int storedPatientID = rs.getInt("patientID");
-        Date storedStartDate = rs.getDate("startDate");
-        Date storedEndDate = rs.getDate("endDate");
-        String storedDiagnosis = rs.getString("diagnosis");
-        Integer storedBedNumber = rs.getInt("bedNumber");
-        Float storedRegistrationFee = rs.getFloat("registrationFee");
-        rs.close();
-
-        HospitalVisit hv = new HospitalVisit(storedHospitalID, storedPatientID, storedStartDate, storedEndDate, storedDiagnosis, storedBedNumber, storedRegistrationFee);
-        hv.setID(storedID);
-        return hv;
+        Patient p = new Patient(parent, storedSSN, storedGender, storedStatus);
+        p.setID(parent.getID());
+        return p;
+    }
+
+    /**Gets the current visit of the patient if they have one*/
+    public HospitalVisit getCurrentVisit(int hospitalID) throws SQLException {
+        return HospitalVisit.getCurrentVisit(id, hospitalID);
     }
 
     /**
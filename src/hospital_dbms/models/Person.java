@@ -1,13 +1,22 @@
 package hospital_dbms.models;
 import hospital_dbms.models.Relation;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
+import hospital_dbms.HospitalDBMS;
 import static hospital_dbms.HospitalDBMS.getConnection;
 
 /**
  * Stores basic personal info for all individuals in the system (Patients, Staff, and Doctors)
  */
-public class Person extends Relation {
+public class Person extends Relation implements Cloneable {
+
+    // Most IDs sent in one IN (...) list by the getByIDs() loaders
+    private static final int MAX_IDS_PER_QUERY = 512;
 
     protected int id;
     protected String name;
@@ -47,17 +56,15 @@ public class Person extends Relation {
         statement.executeUpdate("DROP TABLE IF EXISTS Person;");
     }
 
+    // SQL to insert one Person row
+    private static final String INSERT_QUERY = "INSERT INTO Person" +
+                                               "(name, address, phoneNum, dateOfBirth)" +
+                                               "VALUES ( ?, ?, ?, ? )";
+
     /** Insert the current object into the Person table */
     public void insert() throws SQLException {
-        String query = "INSERT INTO Person" +
-                       "(name, address, phoneNum, dateOfBirth)" +
-                       "VALUES ( ?, ?, ?, ? )";
-
-        PreparedStatement statement = connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS);
-        statement.setString(1, this.name);
-        statement.setString(2, this.address);
-        statement.setString(3, this.phoneNum);
-        statement.setDate(4, this.dateOfBirth);
+        PreparedStatement statement = prepareStatement(INSERT_QUERY, Statement.RETURN_GENERATED_KEYS);
+        bindInsert(statement, this);
 
         statement.executeUpdate();
 
@@ -70,13 +77,35 @@ public class Person extends Relation {
                 throw new SQLException("Creating Person failed, no ID obtained.");
             }
         }
+        PersonSearchIndex.changed(this);
+    }
+
+    /** Insert many Person rows as one batch (see Relation.insertAll) */
+    void insertBatch(List<? extends Relation> rows) throws SQLException {
+        insertPersonBatch(rows);
+    }
+
+    /** Batch insert the Person part of each row; used by subclasses before inserting their own table */
+    static void insertPersonBatch(List<? extends Relation> rows) throws SQLException {
+        executeBatch(INSERT_QUERY, rows, Person::bindInsert, Person::setID);
+        for (Relation row : rows) {
+            PersonSearchIndex.changed((Person) row);
+        }
+    }
+
+    /** Set the parameters of INSERT_QUERY from a Person */
+    private static void bindInsert(PreparedStatement statement, Person person) throws SQLException {
+        statement.setString(1, person.name);
+        statement.setString(2, person.address);
+        statement.setString(3, person.phoneNum);
+        statement.setDate(4, person.dateOfBirth);
     }
 
     /** UPDATE the database to the current Person object values */
     public void update() throws SQLException {
         String query = "UPDATE Person set name=?, address=?, phoneNum=?, dateOfBirth=? WHERE id=?";
 
-        PreparedStatement statement = connection.prepareStatement(query);
+        PreparedStatement statement = prepareStatement(query);
 
         statement.setString(1, this.name);
         statement.setString(2, this.address);
@@ -85,51 +114,119 @@ public class Person extends Relation {
         statement.setInt(5, this.id);
 
         statement.executeUpdate();
+        invalidate(this.id);
+        PersonSearchIndex.changed(this);
     }
 
     /** Lookup a Person in the database by ID and return it as an object */
     public static Person getByID(int id) throws SQLException {
-        Connection connection = getConnection();
+        Person cached = EntityCache.get(Person.class, id);
+        if (cached != null) {
+            return cached;
+        }
         String query = "SELECT * FROM Person WHERE id = ?";
 
-        PreparedStatement statement = connection.prepareStatement(query);
+        PreparedStatement statement = prepareStatement(query);
         statement.setInt(1, id);
 
-        ResultSet rs = statement.executeQuery();
-        rs.absolute(1);
-
-        try {
-            int storedID = rs.getInt("ID");
-            String storedName = rs.getString("name");
-            String storedAddress = rs.getString("address");
-            String storedPhoneNum = rs.getString("phoneNum");
-            Date storedDate = rs.getDate("dateOfBirth");
-            rs.close();
-
-            Person p = new Person(storedName, storedAddress, storedPhoneNum, storedDate);
-            p.setID(storedID);
+        try (ResultSet rs = statement.executeQuery()) {
+            if (!rs.next()) {
+                System.out.println("Could not find a Person with that ID. Please try again.");
+                return null;
+            }
+            Person p = readPerson(rs);
+            EntityCache.put(Person.class, p.getID(), p);
             return p;
-        } catch (SQLDataException e) {
-            System.out.println("Could not find a Person with that ID. Please try again.");
-            rs.close();
-            return null;
         }
     }
 
+    /** Build a Person from the Person columns of the current row */
+    static Person readPerson(ResultSet rs) throws SQLException {
+        int storedID = rs.getInt("ID");
+        String storedName = rs.getString("name");
+        String storedAddress = rs.getString("address");
+        String storedPhoneNum = rs.getString("phoneNum");
+        Date storedDate = rs.getDate("dateOfBirth");
+
+        Person p = new Person(storedName, storedAddress, storedPhoneNum, storedDate);
+        p.setID(storedID);
+        return p;
+    }
+
+    /**
+     * Load many people (or a subtype) by ID, in the order the IDs were given.
+     * People already in the EntityCache are not queried again; the rest are fetched with IN (...) lists.
+     * @param type The type to load and cache the people as
+     * @param selectPrefix The SELECT up to and including "IN ", selecting rows by Person.ID
+     * @param ids The IDs to load
+     * @param reader Builds one object from a row of the result
+     */
+    static <T extends Person> List<T> loadByIDs(Class<T> type, String selectPrefix, int[] ids, RowReader<T> reader) throws SQLException {
+        Map<Integer, T> found = new HashMap<>();
+        int[] missing = new int[ids.length];
+        int missingCount = 0;
+        for (int id : ids) {
+            T cached = EntityCache.get(type, id);
+            if (cached != null) {
+                found.put(id, cached);
+            } else {
+                missing[missingCount++] = id;
+            }
+        }
+
+        for (int start = 0; start < missingCount; start += MAX_IDS_PER_QUERY) {
+            int count = Math.min(MAX_IDS_PER_QUERY, missingCount - start);
+            // Round the list size up to a power of two (padding with a repeated ID) so only a few
+            // distinct statements end up in the statement cache
+            int slots = Integer.highestOneBit(count) == count ? count : Integer.highestOneBit(count) << 1;
+
+            char[] placeholders = new char[slots * 2 - 1];
+            Arrays.fill(placeholders, ',');
+            for (int i = 0; i < slots; i++) {
+                placeholders[i * 2] = '?';
+            }
+
+            PreparedStatement statement = prepareStatement(selectPrefix + "(" + new String(placeholders) + ")");
+            for (int i = 0; i < slots; i++) {
+                statement.setInt(i + 1, missing[start + Math.min(i, count - 1)]);
+            }
+
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    T loaded = reader.read(rs);
+                    found.put(loaded.getID(), loaded);
+                    EntityCache.put(type, loaded.getID(), loaded);
+                }
+            }
+        }
+
+        List<T> result = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            T p = found.get(id);
+            if (p != null) {
+                result.add(p);
+            }
+        }
+        return result;
+    }
+
     /** DELETE the current object form the database */
     public void delete() {
+        Connection connection = getConnection();
         String query = "DELETE FROM Person WHERE id = ?";
 
         try {
-            PreparedStatement statement = connection.prepareStatement(query);
+            PreparedStatement statement = prepareStatement(query);
             statement.setInt(1, this.id);
             statement.executeUpdate();
-            connection.commit();
+            commit(connection);
+            invalidate(this.id);
+            PersonSearchIndex.removed(this.id);
         } catch (SQLException e) {
             System.out.println("Error occurred while inserting into Staff.");
             try {
                 if(connection!=null) {
-                    connection.rollback();
+                    rollback(connection);
                     System.out.println("Successfully rolled back changes during Staff insert.");
                 }
             } catch(SQLException e2) {
@@ -140,6 +237,36 @@ public class Person extends Relation {
         }
     }
 
+    /**
+     * Drop a person from the EntityCache under every type it may be cached as
+     * (Person, Patient and Staff share the same ID). The entries are dropped again once the caller's
+     * transaction commits, since a concurrent lookup may have cached the row as it was before the change
+     */
+    static void invalidate(int id) throws SQLException {
+        evict(id);
+        HospitalDBMS.afterCommit(() -> evict(id));
+    }
+
+    private static void evict(int id) {
+        EntityCache.invalidate(Person.class, id);
+        EntityCache.invalidate(Patient.class, id);
+        EntityCache.invalidate(Staff.class, id);
+    }
+
+    /**
+     * Copy the person (or patient, or staff member) for the EntityCache. The fields are values, apart from
+     * the date of birth, which is copied too
+     */
+    Relation cacheCopy() {
+        try {
+            Person copy = (Person) clone();
+            copy.dateOfBirth = dateOfBirth == null ? null : (Date) dateOfBirth.clone();
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
     /**
      * Get id.
      *
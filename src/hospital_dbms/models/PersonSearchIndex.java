@@ -0,0 +1,586 @@
+package hospital_dbms.models;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import hospital_dbms.HospitalDBMS;
+import static hospital_dbms.HospitalDBMS.releaseConnection;
+
+/**
+ * In-memory search index over every Person (patients and staff), for finding people by name, phone number and
+ * date of birth without scanning the Person table.
+ *
+ * Names are indexed by word, for prefix matches ("smi jo" finds "John Smith"), and by trigram, for misspellings
+ * ("jon smyth"). Phone numbers are indexed by their digits, for prefix matches, and dates of birth by day.
+ * search() ranks exact words above prefixes above similar names.
+ *
+ * Person.insert(), update() and delete() keep the index current once it is loaded; load() reads the Person
+ * table in chunks and runs the first time the index is searched (or at startup, see loadInBackground()).
+ * The index is changed once the caller's transaction commits (see HospitalDBMS.afterCommit), so a rolled back
+ * change never shows up in a search.
+ */
+public class PersonSearchIndex {
+
+    /** One person found by search() */
+    public static class Match {
+        private final int id;
+        private final String name;
+        private final String phoneNum;
+        private final int dateOfBirth;
+        private final double score;
+
+        Match(Entry entry, double score) {
+            this.id = entry.id;
+            this.name = entry.name;
+            this.phoneNum = entry.phoneNum;
+            this.dateOfBirth = entry.dateOfBirth;
+            this.score = score;
+        }
+
+        public int getID() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getPhoneNum() {
+            return phoneNum;
+        }
+
+        public Date getDateOfBirth() {
+            return dateOfBirth == NO_DATE ? null : Date.valueOf(LocalDate.ofEpochDay(dateOfBirth));
+        }
+
+        /** How well the person matched; higher is better */
+        public double getScore() {
+            return score;
+        }
+    }
+
+    /** The indexed fields of one person */
+    private static final class Entry {
+        final int id;
+        final String name;
+        final String phoneNum;
+        final int dateOfBirth;
+        // Words of the normalized name
+        final String[] words;
+
+        Entry(int id, String name, String phoneNum, Date dateOfBirth) {
+            this.id = id;
+            this.name = name == null ? "" : name;
+            this.phoneNum = phoneNum == null ? "" : phoneNum;
+            this.dateOfBirth = dateOfBirth == null ? NO_DATE : (int) dateOfBirth.toLocalDate().toEpochDay();
+            String normalized = normalize(this.name);
+            this.words = normalized.isEmpty() ? new String[0] : normalized.split(" ");
+        }
+    }
+
+    /** A sorted set of person IDs; IDs are mostly added in increasing order, which appends */
+    private static final class Postings {
+        private int[] ids = new int[2];
+        private int size = 0;
+
+        void add(int id) {
+            if (size > 0 && ids[size - 1] >= id) {
+                int at = Arrays.binarySearch(ids, 0, size, id);
+                if (at >= 0) {
+                    return;
+                }
+                insertAt(-at - 1, id);
+                return;
+            }
+            insertAt(size, id);
+        }
+
+        private void insertAt(int at, int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size + (size >> 1) + 1);
+            }
+            System.arraycopy(ids, at, ids, at + 1, size - at);
+            ids[at] = id;
+            size++;
+        }
+
+        void remove(int id) {
+            int at = Arrays.binarySearch(ids, 0, size, id);
+            if (at >= 0) {
+                System.arraycopy(ids, at + 1, ids, at, size - at - 1);
+                size--;
+            }
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void addTo(BitSet set) {
+            for (int i = 0; i < size; i++) {
+                set.set(ids[i]);
+            }
+        }
+    }
+
+    // Entry.dateOfBirth of people without one
+    private static final int NO_DATE = Integer.MIN_VALUE;
+    // Rows read from Person at a time by load()
+    private static final int LOAD_CHUNK_ROWS = Integer.getInteger("hospital.search.chunkRows", 50000);
+    // Names sharing fewer trigrams than this (by Dice coefficient) with the query aren't similar
+    private static final double MIN_SIMILARITY = 0.4;
+    // Most postings read to find people with similar names; the rarest trigrams of the query are read first
+    private static final int SIMILAR_POSTINGS_BUDGET = 200000;
+    // People with the most trigrams in common with the query whose similarity is worked out, per match wanted
+    private static final int SIMILAR_CANDIDATES_PER_MATCH = 20;
+    // Ranks matches best first: by score, then name, then ID
+    private static final Comparator<Match> RANKING = Comparator.comparingDouble((Match m) -> -m.score)
+                                                               .thenComparing(m -> m.name)
+                                                               .thenComparingInt(m -> m.id);
+    // Fewest digits in a term for it to be searched as a phone number
+    private static final int MIN_PHONE_DIGITS = 3;
+    private static final String LOAD_QUERY =
+            "SELECT ID, name, phoneNum, dateOfBirth FROM Person WHERE ID > ? ORDER BY ID LIMIT ?";
+
+    private static final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // Everything below is guarded by lock
+    private static final Map<Integer, Entry> people = new HashMap<>();
+    private static final TreeMap<String, Postings> words = new TreeMap<>();
+    private static final Map<Long, Postings> trigrams = new HashMap<>();
+    private static final TreeMap<String, Postings> phones = new TreeMap<>();
+    private static final TreeMap<Integer, Postings> birthdays = new TreeMap<>();
+    // People deleted while load() runs, so a chunk read before the delete doesn't add them back
+    private static final Set<Integer> deletedWhileLoading = new HashSet<>();
+    // Whether changes are applied: set once load() starts, so changes made while it runs aren't missed
+    private static volatile boolean maintained = false;
+    private static volatile boolean loaded = false;
+
+    /**
+     * Read the Person table into the index and start keeping it current. Changes made while it runs
+     * take precedence over the rows it reads
+     */
+    public static synchronized void load() throws SQLException {
+        lock.writeLock().lock();
+        try {
+            loaded = false;
+            people.clear();
+            words.clear();
+            trigrams.clear();
+            phones.clear();
+            birthdays.clear();
+            deletedWhileLoading.clear();
+            maintained = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        try {
+            int lastID = 0;
+            while (true) {
+                List<Entry> chunk = new ArrayList<>(LOAD_CHUNK_ROWS);
+                PreparedStatement statement = Relation.prepareStatement(LOAD_QUERY);
+                statement.setInt(1, lastID);
+                statement.setInt(2, LOAD_CHUNK_ROWS);
+                try (ResultSet rs = statement.executeQuery()) {
+                    while (rs.next()) {
+                        chunk.add(new Entry(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getDate(4)));
+                    }
+                }
+                if (chunk.isEmpty()) {
+                    break;
+                }
+                lastID = chunk.get(chunk.size() - 1).id;
+
+                lock.writeLock().lock();
+                try {
+                    for (Entry entry : chunk) {
+                        if (!people.containsKey(entry.id) && !deletedWhileLoading.contains(entry.id)) {
+                            add(entry);
+                        }
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+        } catch (SQLException e) {
+            maintained = false;
+            throw e;
+        }
+
+        lock.writeLock().lock();
+        try {
+            deletedWhileLoading.clear();
+            loaded = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Run load() on a background thread (with its own connection), so the first search doesn't wait for it */
+    public static void loadInBackground() {
+        Thread thread = new Thread(() -> {
+            try {
+                load();
+            } catch (SQLException e) {
+                System.out.println("Unable to load the person search index: " + e.getMessage());
+            } finally {
+                releaseConnection();
+            }
+        }, "person-search-loader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Whether load() has finished */
+    public static boolean isLoaded() {
+        return loaded;
+    }
+
+    /** Number of people in the index */
+    public static int size() {
+        lock.readLock().lock();
+        try {
+            return people.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Find people matching a query, best matches first. The query is a list of terms, all of which must match:
+     * a date (yyyy-mm-dd) matches the date of birth, a term of at least three digits (dashes, spaces and
+     * brackets are ignored) matches the start of the phone number, and any other term matches the start of a
+     * word of the name. If fewer than limit people match every name term, people with similar names are added.
+     * Loads the index first if needed
+     * @param query The terms to search for
+     * @param limit Most matches to return
+     */
+    public static List<Match> search(String query, int limit) throws SQLException {
+        if (!loaded) {
+            synchronized (PersonSearchIndex.class) {
+                if (!loaded) {
+                    load();
+                }
+            }
+        }
+
+        List<String> nameTerms = new ArrayList<>();
+        List<String> phoneTerms = new ArrayList<>();
+        List<LocalDate> dateTerms = new ArrayList<>();
+        for (String term : query.trim().split("\\s+")) {
+            if (term.isEmpty()) {
+                continue;
+            }
+            String digits = term.replaceAll("[-()+.]", "");
+            if (term.matches("\\d{4}-\\d{1,2}-\\d{1,2}")) {
+                try {
+                    dateTerms.add(LocalDate.parse(term));
+                    continue;
+                } catch (DateTimeParseException e) {
+                    // Not a real date, so search it as digits
+                }
+            }
+            if (digits.length() >= MIN_PHONE_DIGITS && digits.chars().allMatch(Character::isDigit)) {
+                phoneTerms.add(digits);
+            } else {
+                String normalized = normalize(term);
+                if (!normalized.isEmpty()) {
+                    nameTerms.addAll(Arrays.asList(normalized.split(" ")));
+                }
+            }
+        }
+        if (nameTerms.isEmpty() && phoneTerms.isEmpty() && dateTerms.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        lock.readLock().lock();
+        try {
+            // People matching the phone and date terms, or null if there are none
+            BitSet filter = null;
+            for (String digits : phoneTerms) {
+                filter = intersect(filter, prefixed(phones, digits));
+            }
+            for (LocalDate date : dateTerms) {
+                BitSet born = new BitSet();
+                Postings postings = birthdays.get((int) date.toEpochDay());
+                if (postings != null) {
+                    postings.addTo(born);
+                }
+                filter = intersect(filter, born);
+            }
+
+            // The best matches so far, worst first
+            PriorityQueue<Match> best = new PriorityQueue<>(limit + 1, RANKING.reversed());
+            if (nameTerms.isEmpty()) {
+                for (int id = filter.nextSetBit(0); id >= 0; id = filter.nextSetBit(id + 1)) {
+                    offer(best, new Match(people.get(id), 0), limit);
+                }
+            } else {
+                BitSet matched = filter == null ? null : (BitSet) filter.clone();
+                for (String term : nameTerms) {
+                    matched = intersect(matched, prefixed(words, term));
+                }
+                for (int id = matched.nextSetBit(0); id >= 0; id = matched.nextSetBit(id + 1)) {
+                    offer(best, new Match(people.get(id), score(people.get(id), nameTerms)), limit);
+                }
+                if (best.size() < limit) {
+                    addSimilar(best, limit, String.join(" ", nameTerms), filter, matched);
+                }
+            }
+
+            List<Match> matches = new ArrayList<>(best);
+            matches.sort(RANKING);
+            return matches;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Record that a person was inserted or updated, once the caller's transaction commits */
+    static void changed(Person person) throws SQLException {
+        if (!maintained) {
+            return;
+        }
+        Entry entry = new Entry(person.getID(), person.getName(), person.getPhoneNum(), person.getDateOfBirth());
+        HospitalDBMS.afterCommit(() -> put(entry));
+    }
+
+    /** Record that a person was deleted, once the caller's transaction commits */
+    static void removed(int id) throws SQLException {
+        if (!maintained) {
+            return;
+        }
+        HospitalDBMS.afterCommit(() -> drop(id));
+    }
+
+    /** Add or replace a person's entry */
+    private static void put(Entry entry) {
+        if (!maintained) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            Entry old = people.get(entry.id);
+            if (old != null) {
+                remove(old);
+            }
+            add(entry);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Remove a person's entry */
+    private static void drop(int id) {
+        if (!maintained) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            Entry old = people.get(id);
+            if (old != null) {
+                remove(old);
+            }
+            if (!loaded) {
+                deletedWhileLoading.add(id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Add people whose names are similar to the query's (by the Dice coefficient of their trigrams) to the best
+     * matches. Candidates are the people sharing the most trigrams with the query, read from the rarest trigrams
+     * first until SIMILAR_POSTINGS_BUDGET postings have been read
+     * @param filter The people the phone and date terms allow, or null for everyone
+     * @param matched People already matched, who are skipped
+     */
+    private static void addSimilar(PriorityQueue<Match> best, int limit, String name, BitSet filter, BitSet matched) {
+        long[] grams = trigrams(name);
+        List<Postings> lists = new ArrayList<>(grams.length);
+        for (long gram : grams) {
+            Postings postings = trigrams.get(gram);
+            if (postings != null) {
+                lists.add(postings);
+            }
+        }
+        lists.sort(Comparator.comparingInt(postings -> postings.size));
+
+        // Number of the query's trigrams each candidate shares, among the trigrams read
+        Map<Integer, Integer> shared = new HashMap<>();
+        int read = 0;
+        for (Postings postings : lists) {
+            if (read > 0 && read + postings.size > SIMILAR_POSTINGS_BUDGET) {
+                break;
+            }
+            read += postings.size;
+            for (int i = 0; i < postings.size; i++) {
+                int id = postings.ids[i];
+                if ((filter == null || filter.get(id)) && !matched.get(id)) {
+                    shared.merge(id, 1, Integer::sum);
+                }
+            }
+        }
+
+        List<Map.Entry<Integer, Integer>> candidates = new ArrayList<>(shared.entrySet());
+        candidates.sort((a, b) -> Integer.compare(b.getValue(), a.getValue()));
+        Set<Long> query = new HashSet<>();
+        for (long gram : grams) {
+            query.add(gram);
+        }
+        for (Map.Entry<Integer, Integer> candidate : candidates.subList(0, Math.min(candidates.size(), limit * SIMILAR_CANDIDATES_PER_MATCH))) {
+            Entry entry = people.get(candidate.getKey());
+            long[] theirs = trigrams(String.join(" ", entry.words));
+            int common = 0;
+            for (long gram : theirs) {
+                if (query.contains(gram)) {
+                    common++;
+                }
+            }
+            double similarity = 2.0 * common / (grams.length + theirs.length);
+            if (similarity >= MIN_SIMILARITY) {
+                offer(best, new Match(entry, similarity), limit);
+            }
+        }
+    }
+
+    /** Add a match to the best ones, dropping the worst if there are more than limit */
+    private static void offer(PriorityQueue<Match> best, Match match, int limit) {
+        best.add(match);
+        if (best.size() > limit) {
+            best.poll();
+        }
+    }
+
+    /**
+     * Score a person whose name has a word starting with every name term: 2 for each term that is a whole word,
+     * 1 for each that is only a prefix, plus the share of the name's letters the terms cover
+     */
+    private static double score(Entry entry, List<String> terms) {
+        double score = 0;
+        int termLetters = 0;
+        for (String term : terms) {
+            score += Arrays.asList(entry.words).contains(term) ? 2 : 1;
+            termLetters += term.length();
+        }
+        int nameLetters = 0;
+        for (String word : entry.words) {
+            nameLetters += word.length();
+        }
+        return score + Math.min(1.0, (double) termLetters / Math.max(1, nameLetters));
+    }
+
+    /** The people filed under every key starting with prefix */
+    private static BitSet prefixed(TreeMap<String, Postings> index, String prefix) {
+        BitSet found = new BitSet();
+        for (Postings postings : index.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values()) {
+            postings.addTo(found);
+        }
+        return found;
+    }
+
+    /** Intersect two sets, where null stands for everyone */
+    private static BitSet intersect(BitSet a, BitSet b) {
+        if (a == null) {
+            return b;
+        }
+        a.and(b);
+        return a;
+    }
+
+    private static void add(Entry entry) {
+        people.put(entry.id, entry);
+        for (String word : entry.words) {
+            words.computeIfAbsent(word, k -> new Postings()).add(entry.id);
+        }
+        for (long gram : trigrams(String.join(" ", entry.words))) {
+            trigrams.computeIfAbsent(gram, k -> new Postings()).add(entry.id);
+        }
+        String digits = entry.phoneNum.replaceAll("\\D", "");
+        if (!digits.isEmpty()) {
+            phones.computeIfAbsent(digits, k -> new Postings()).add(entry.id);
+        }
+        if (entry.dateOfBirth != NO_DATE) {
+            birthdays.computeIfAbsent(entry.dateOfBirth, k -> new Postings()).add(entry.id);
+        }
+    }
+
+    private static void remove(Entry entry) {
+        people.remove(entry.id);
+        for (String word : entry.words) {
+            removeFrom(words, word, entry.id);
+        }
+        for (long gram : trigrams(String.join(" ", entry.words))) {
+            removeFrom(trigrams, gram, entry.id);
+        }
+        removeFrom(phones, entry.phoneNum.replaceAll("\\D", ""), entry.id);
+        removeFrom(birthdays, entry.dateOfBirth, entry.id);
+    }
+
+    private static <K> void removeFrom(Map<K, Postings> index, K key, int id) {
+        Postings postings = index.get(key);
+        if (postings != null) {
+            postings.remove(id);
+            if (postings.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    /** Lower-case a name and reduce it to words of letters and digits separated by single spaces */
+    private static String normalize(String name) {
+        StringBuilder normalized = new StringBuilder(name.length());
+        boolean space = false;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (space && normalized.length() > 0) {
+                    normalized.append(' ');
+                }
+                normalized.append(Character.toLowerCase(c));
+                space = false;
+            } else {
+                space = true;
+            }
+        }
+        return normalized.toString();
+    }
+
+    /** The distinct trigrams of a normalized name, padded with a space at each end, packed into longs */
+    private static long[] trigrams(String normalized) {
+        if (normalized.isEmpty()) {
+            return new long[0];
+        }
+        String padded = " " + normalized + " ";
+        long[] grams = new long[padded.length() - 2];
+        for (int i = 0; i < grams.length; i++) {
+            grams[i] = ((long) padded.charAt(i) << 32) | ((long) padded.charAt(i + 1) << 16) | padded.charAt(i + 2);
+        }
+        Arrays.sort(grams);
+        int distinct = 0;
+        for (int i = 0; i < grams.length; i++) {
+            if (i == 0 || grams[i] != grams[i - 1]) {
+                grams[distinct++] = grams[i];
+            }
+        }
+        return Arrays.copyOf(grams, distinct);
+    }
+}
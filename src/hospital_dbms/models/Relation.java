@@ -1,23 +1,253 @@
 package hospital_dbms.models;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToIntFunction;
 
+import hospital_dbms.HospitalDBMS;
 import static hospital_dbms.HospitalDBMS.getConnection;
+import static hospital_dbms.HospitalDBMS.getStatementCache;
 
 /**
  * Base class for a table in the database.
- * Defines operations that all relations will support
- * and stores the connection instance
+ * Defines operations that all relations will support.
+ * Relations run their SQL on the connection the current thread has borrowed
+ * from the pool (see HospitalDBMS.getConnection())
  */
 public abstract class Relation {
 
-    /** SQL Connection object */
-    protected static Connection connection;
+    /** Default number of rows sent (and committed) together by insertAll() */
+    public static final int DEFAULT_BATCH_SIZE = 500;
 
-    /** Base constructor. Obtains connection */
-    public Relation() {
-        this.connection = getConnection();
+    /** Binds one object's values to the parameters of a batched statement */
+    interface RowBinder<T> {
+        void bind(PreparedStatement statement, T row) throws SQLException;
+    }
+
+    /** Builds an object from the current row of a ResultSet */
+    interface RowReader<T> {
+        T read(ResultSet rs) throws SQLException;
+    }
+
+    /** Stores a generated ID back into an object after it was inserted */
+    interface KeySetter<T> {
+        void setKey(T row, int id);
+    }
+
+    /**
+     * Get a cached PreparedStatement for the given SQL on the current thread's connection.
+     * The statement is shared with later callers, so it must not be closed.
+     * @param query SQL text of the statement
+     */
+    protected static PreparedStatement prepareStatement(String query) throws SQLException {
+        return getStatementCache().prepare(query);
+    }
+
+    /**
+     * Get a cached PreparedStatement for the given SQL on the current thread's connection.
+     * The statement is shared with later callers, so it must not be closed.
+     * @param query SQL text of the statement
+     * @param autoGeneratedKeys Statement.RETURN_GENERATED_KEYS or Statement.NO_GENERATED_KEYS
+     */
+    protected static PreparedStatement prepareStatement(String query, int autoGeneratedKeys) throws SQLException {
+        return getStatementCache().prepare(query, autoGeneratedKeys);
+    }
+
+    /**
+     * Commit a transaction the model owns, then run the actions waiting for it (see HospitalDBMS.afterCommit)
+     */
+    static void commit(Connection connection) throws SQLException {
+        connection.commit();
+        HospitalDBMS.committed();
+    }
+
+    /**
+     * Roll back a transaction the model owns, dropping the actions waiting for it
+     */
+    static void rollback(Connection connection) throws SQLException {
+        HospitalDBMS.rolledBack();
+        connection.rollback();
+    }
+
+    /**
+     * Insert many objects using JDBC batches, committing every DEFAULT_BATCH_SIZE rows.
+     * Generated IDs are stored back into the objects.
+     * @param rows Objects to insert. May contain several Relation types; each type is inserted in order of first appearance
+     * @throws SQLException if any SQL error occurs. The chunk being inserted is rolled back; earlier chunks stay committed
+     */
+    public static void insertAll(Collection<? extends Relation> rows) throws SQLException {
+        insertAll(rows, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Insert many objects using JDBC batches, committing every batchSize rows.
+     * Generated IDs are stored back into the objects.
+     * @param rows Objects to insert. May contain several Relation types; each type is inserted in order of first appearance
+     * @param batchSize Number of rows sent and committed together
+     * @throws SQLException if any SQL error occurs. The chunk being inserted is rolled back; earlier chunks stay committed
+     */
+    public static void insertAll(Collection<? extends Relation> rows, int batchSize) throws SQLException {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+
+        // Group the rows by type, since each type has its own INSERT statement
+        Map<Class<?>, List<Relation>> byType = new LinkedHashMap<>();
+        for (Relation row : rows) {
+            byType.computeIfAbsent(row.getClass(), k -> new ArrayList<>()).add(row);
+        }
+
+        Connection connection = getConnection();
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            for (List<Relation> group : byType.values()) {
+                for (int start = 0; start < group.size(); start += batchSize) {
+                    List<Relation> chunk = group.subList(start, Math.min(start + batchSize, group.size()));
+                    chunk.get(0).insertBatch(chunk);
+                    commit(connection);
+                }
+            }
+        } catch (SQLException e) {
+            rollback(connection);
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Insert a list of objects of this object's type as part of insertAll().
+     * The caller manages the transaction. By default each object is inserted on its own;
+     * relations override this to send the rows as one JDBC batch.
+     * @param rows Objects of the same type as this one
+     */
+    void insertBatch(List<? extends Relation> rows) throws SQLException {
+        for (Relation row : rows) {
+            row.insert();
+        }
+    }
+
+    /**
+     * Run an INSERT once per row as a single JDBC batch.
+     * With rewriteBatchedStatements enabled the driver sends multi-row VALUES lists.
+     * @param query The single-row INSERT statement
+     * @param rows Objects to insert, all of type T
+     * @param binder Sets the statement parameters for one row
+     * @param keySetter Stores the generated ID into each row, or null if the table has no generated key
+     */
+    @SuppressWarnings("unchecked")
+    static <T extends Relation> void executeBatch(String query, List<? extends Relation> rows,
+                                                  RowBinder<T> binder, KeySetter<T> keySetter) throws SQLException {
+        PreparedStatement statement = keySetter == null
+            ? prepareStatement(query)
+            : prepareStatement(query, Statement.RETURN_GENERATED_KEYS);
+
+        try {
+            for (Relation row : rows) {
+                binder.bind(statement, (T) row);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        } finally {
+            // The statement is cached, so never leave half a batch queued on it
+            statement.clearBatch();
+        }
+
+        if (keySetter != null) {
+            try (ResultSet generatedKeys = statement.getGeneratedKeys()) {
+                for (Relation row : rows) {
+                    if (!generatedKeys.next()) {
+                        throw new SQLException("Batch insert returned fewer IDs than rows inserted.");
+                    }
+                    keySetter.setKey((T) row, generatedKeys.getInt(1));
+                }
+            }
+        }
+    }
+
+    /**
+     * Build an UPDATE of some of a table's columns by ID, e.g. "UPDATE Bed SET occupied=? WHERE ID=?"
+     * @param columns The table's column names
+     * @param changed The columns to set; bit i selects columns[i]
+     */
+    static String updateQuery(String table, String[] columns, int changed) {
+        StringBuilder query = new StringBuilder("UPDATE ").append(table).append(" SET ");
+        String separator = "";
+        for (int i = 0; i < columns.length; i++) {
+            if ((changed & (1 << i)) != 0) {
+                query.append(separator).append(columns[i]).append("=?");
+                separator = ", ";
+            }
+        }
+        return query.append(" WHERE ID=?").toString();
+    }
+
+    /**
+     * Run an UPDATE of each row's changed columns, as one JDBC batch per set of changed columns
+     * @param columns The table's column names
+     * @param rows Objects to update, all of type T
+     * @param changed Gets a row's changed columns, with bit i selecting columns[i]
+     * @param binder Sets the parameters of updateQuery() for one row: its changed columns, then its ID
+     */
+    @SuppressWarnings("unchecked")
+    static <T extends Relation> void executeUpdates(String table, String[] columns, List<? extends Relation> rows,
+                                                    ToIntFunction<T> changed, RowBinder<T> binder) throws SQLException {
+        Map<Integer, List<Relation>> byColumns = new LinkedHashMap<>();
+        for (Relation row : rows) {
+            byColumns.computeIfAbsent(changed.applyAsInt((T) row), k -> new ArrayList<>()).add(row);
+        }
+        for (Map.Entry<Integer, List<Relation>> group : byColumns.entrySet()) {
+            PreparedStatement statement = prepareStatement(updateQuery(table, columns, group.getKey()));
+            try {
+                for (Relation row : group.getValue()) {
+                    binder.bind(statement, (T) row);
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            } finally {
+                statement.clearBatch();
+            }
+        }
+    }
+
+    /**
+     * Copy this object for the second-level EntityCache, which gives every caller its own instance.
+     * Only relations cached there override this
+     */
+    Relation cacheCopy() {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " objects can't be cached");
+    }
+
+    /**
+     * Copy this object for the WriteBehindBuffer: its current values, the columns changed since it was last
+     * saved, and the saved state those changes are relative to. Only relations whose updates can be
+     * buffered override this
+     * @param older The copy already buffered for the same row, or null. The new copy keeps its saved
+     *              state and changed columns, so both changes are written as one
+     */
+    Relation pendingCopy(Relation older) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " updates can't be buffered");
+    }
+
+    /**
+     * Write the changes of a list of objects of this object's type, for the WriteBehindBuffer.
+     * The caller manages the transaction. By default each object is updated on its own;
+     * relations that override pendingCopy() override this to send the rows as JDBC batches.
+     * @param rows Objects of the same type as this one
+     */
+    void updateBatch(List<? extends Relation> rows) throws SQLException {
+        for (Relation row : rows) {
+            row.update();
+        }
     }
 
     /**
@@ -1,6 +1,7 @@
 package hospital_dbms.models;
 
 import java.sql.*;
+import java.util.List;
 
 import hospital_dbms.models.Relation;
 import static hospital_dbms.HospitalDBMS.getConnection;
@@ -52,18 +53,28 @@ public class ResponsibleStaff extends Relation {
 
     }
 
+    // SQL to insert one ResponsibleStaff row
+    private static final String INSERT_QUERY = "INSERT INTO ResponsibleStaff" +
+                                               "(visitID, staffID)" +
+                                               "VALUES ( ?, ? )";
+
     /** INSERT the current object into the database */
     public void insert() throws SQLException {
-        String query = "INSERT INTO ResponsibleStaff" +
-                       "(visitID, staffID)" +
-                       "VALUES ( ?, ? )";
+        PreparedStatement statement = prepareStatement(INSERT_QUERY);
+        bindInsert(statement, this);
 
-        PreparedStatement statement = connection.prepareStatement(query);
+        statement.executeUpdate();
+    }
 
-        statement.setInt(1, getVisitID());
-        statement.setInt(2, getStaffID());
+    /** INSERT many ResponsibleStaff rows as one batch (see Relation.insertAll) */
+    void insertBatch(List<? extends Relation> rows) throws SQLException {
+        executeBatch(INSERT_QUERY, rows, ResponsibleStaff::bindInsert, null);
+    }
 
-        statement.executeUpdate();
+    /** Set the parameters of INSERT_QUERY from a ResponsibleStaff */
+    private static void bindInsert(PreparedStatement statement, ResponsibleStaff rs) throws SQLException {
+        statement.setInt(1, rs.getVisitID());
+        statement.setInt(2, rs.getStaffID());
     }
 
     /** Update the DB with the current object (not supported for this relation) */
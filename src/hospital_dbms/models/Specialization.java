@@ -1,6 +1,7 @@
 package hospital_dbms.models;
 
 import java.sql.*;
+import java.util.List;
 import hospital_dbms.models.Relation;
 import hospital_dbms.HospitalDBMS;
 
@@ -33,7 +34,7 @@ public class Specialization extends Relation {
                 "PRIMARY KEY (name)" +
                 ");"
             );
-        connection.commit();
+        commit(connection);
     }
 
     /** DROP the Specialization table if it does exist */
@@ -45,25 +46,23 @@ public class Specialization extends Relation {
     }
 
 
+    // SQL to insert one Specialization row
+    private static final String INSERT_QUERY = "INSERT INTO Specialization VALUES ( ?, ? )";
+
     /** INSERT the current object into the database */
     public void insert() {
-        String query = "INSERT INTO Specialization VALUES ( ?, ? )";
+        Connection connection = HospitalDBMS.getConnection();
 
         try {
-            PreparedStatement statement = connection.prepareStatement(query);
-            statement.setString(1, this.name);
-            if (getChargesPerDay() == null) {
-                statement.setNull(2, Types.FLOAT);
-            } else {
-                statement.setFloat(2, getChargesPerDay());
-            }
+            PreparedStatement statement = prepareStatement(INSERT_QUERY);
+            bindInsert(statement, this);
             statement.executeUpdate();
-            connection.commit();
+            commit(connection);
         } catch (SQLException e) {
             System.out.println("Error occurred while updating an entry in Staff.");
             try {
                 if(connection!=null) {
-                    connection.rollback();
+                    rollback(connection);
                     System.out.println("Successfully rolled back changes during Staff update.");
                 }
             } catch(SQLException e2) {
@@ -73,12 +72,27 @@ public class Specialization extends Relation {
         }
     }
 
+    /** INSERT many Specializations as one batch (see Relation.insertAll) */
+    void insertBatch(List<? extends Relation> rows) throws SQLException {
+        executeBatch(INSERT_QUERY, rows, Specialization::bindInsert, null);
+    }
+
+    /** Set the parameters of INSERT_QUERY from a Specialization */
+    private static void bindInsert(PreparedStatement statement, Specialization s) throws SQLException {
+        statement.setString(1, s.name);
+        if (s.getChargesPerDay() == null) {
+            statement.setNull(2, Types.FLOAT);
+        } else {
+            statement.setFloat(2, s.getChargesPerDay());
+        }
+    }
+
     /** Lookup a Specialization by name to get it as an object */
     public static Specialization getByName(String name) {
         String query = "SELECT * FROM Specialization WHERE name = ?";
 
         try {
-            PreparedStatement statement = connection.prepareStatement(query);
+            PreparedStatement statement = prepareStatement(query);
             statement.setString(1, name);
 
             ResultSet rs = statement.executeQuery();
@@ -102,13 +116,14 @@ public class Specialization extends Relation {
 
     /** DELETE the current Specialization from the database */
     public void delete() {
+        Connection connection = HospitalDBMS.getConnection();
         String query = "DELETE FROM Specialization WHERE name = ?";
 
         try {
-            PreparedStatement statement = connection.prepareStatement(query);
+            PreparedStatement statement = prepareStatement(query);
             statement.setString(1, this.name);
             statement.executeUpdate();
-            connection.commit();
+            commit(connection);
         } catch (SQLException e) {
 
         }
@@ -4,6 +4,7 @@ import static hospital_dbms.HospitalDBMS.getConnection;
 import static hospital_dbms.Reports.printResultsSet;
 import hospital_dbms.models.Person;
 import java.sql.*;
+import java.util.List;
 
 /**
  * Represents someone who works at the Hospital
@@ -88,37 +89,29 @@ public class Staff extends Person {
         statement.executeUpdate("DROP TABLE IF EXISTS Staff;");
     }
 
+    // SQL to insert one Staff row (after its Person row)
+    private static final String INSERT_QUERY = "INSERT INTO Staff" +
+                                               "(personID, hospitalID, department, jobTitle, profTitle, officeAddress, specialization)" +
+                                               "VALUES ( ?, ?, ?, ?, ?, ?, ? )";
+
     /** INSERT the current object into the database */
     public void insert() throws SQLException {
+        Connection connection = getConnection();
         try {
             connection.setAutoCommit(false);
             super.insert();
-            String query = "INSERT INTO Staff" +
-                        "(personID, hospitalID, department, jobTitle, profTitle, officeAddress, specialization)" +
-                        "VALUES ( ?, ?, ?, ?, ?, ?, ? )";
-
-            PreparedStatement statement = connection.prepareStatement(query);
-            statement.setInt(1, getID());
-            statement.setInt(2, getHospitalID());
-            statement.setString(3, getDepartment());
-            statement.setString(4, getJobTitle().toString());
-            statement.setString(5, getProfTitle());
-            statement.setString(6, getOfficeAddress());
 
-            if (getSpecialization() == null) {
-                statement.setNull(7, Types.VARCHAR);
-            } else {
-                statement.setString(7, getSpecialization());
-            }
+            PreparedStatement statement = prepareStatement(INSERT_QUERY);
+            bindInsert(statement, this);
 
             statement.executeUpdate();
-            connection.commit();
+            commit(connection);
             connection.setAutoCommit(true);
         } catch (SQLException e) {
             System.out.println("Error occurred while inserting into Staff.");
             try {
                 if(connection!=null) {
-                    connection.rollback();
+                    rollback(connection);
                     System.out.println("Successfully rolled back changes during Staff insert.");
                 }
             } catch(SQLException e2) {
@@ -129,15 +122,38 @@ public class Staff extends Person {
         }
     }
 
+    /** Insert many Staff as two batches: their Person rows, then their Staff rows */
+    void insertBatch(List<? extends Relation> rows) throws SQLException {
+        insertPersonBatch(rows);
+        executeBatch(INSERT_QUERY, rows, Staff::bindInsert, null);
+    }
+
+    /** Set the parameters of INSERT_QUERY from a Staff member whose Person row has been inserted */
+    private static void bindInsert(PreparedStatement statement, Staff staff) throws SQLException {
+        statement.setInt(1, staff.getID());
+        statement.setInt(2, staff.getHospitalID());
+        statement.setString(3, staff.getDepartment());
+        statement.setString(4, staff.getJobTitle().toString());
+        statement.setString(5, staff.getProfTitle());
+        statement.setString(6, staff.getOfficeAddress());
+
+        if (staff.getSpecialization() == null) {
+            statement.setNull(7, Types.VARCHAR);
+        } else {
+            statement.setString(7, staff.getSpecialization());
+        }
+    }
+
     /** UPDATE the database to reflect the current object */
     public void update() throws SQLException {
+        Connection connection = getConnection();
         try {
             connection.setAutoCommit(false); // Perform parent and child update as one x-actn
             super.update();
 
             String query = "UPDATE Staff set hospitalID=?, department=?, jobTitle=?, profTitle=?, officeAddress=?, specialization=? WHERE personID=?";
 
-            PreparedStatement statement = connection.prepareStatement(query);
+            PreparedStatement statement = prepareStatement(query);
 
             statement.setInt(1, getHospitalID());
             statement.setString(2, getDepartment());
@@ -153,13 +169,14 @@ public class Staff extends Person {
 
             statement.executeUpdate();
 
-            connection.commit();
+            commit(connection);
             connection.setAutoCommit(true);
+            invalidate(getID());
         } catch (SQLException e) {
             System.out.println("Error occurred while updating an entry in Staff.");
             try {
                 if(connection!=null) {
-                    connection.rollback();
+                    rollback(connection);
                     System.out.println("Successfully rolled back changes during Staff update.");
                 }
             } catch(SQLException e2) {
@@ -169,39 +186,51 @@ public class Staff extends Person {
         }
     }
 
+    // Loads Person and Staff columns together; completed with "= ?" or "IN (...)"
+    private static final String SELECT_QUERY = "SELECT * FROM Person JOIN Staff ON Staff.personID = Person.ID WHERE Person.ID ";
+
     /** Lookup a Staff by personID and return it as an object */
     public static Staff getByID(int id) throws SQLException {
-        Connection connection = getConnection();
-        Person parent = Person.getByID(id);
-        if(parent == null)
-            return null;
-        
-        String query = "SELECT * FROM Staff WHERE personID = ?";
+        Staff cached = EntityCache.get(Staff.class, id);
+        if (cached != null) {
+            return cached;
+        }
+        String query = SELECT_QUERY + "= ?";
 
-        PreparedStatement statement = connection.prepareStatement(query);
+        PreparedStatement statement = prepareStatement(query);
         statement.setInt(1, id);
 
-        ResultSet rs = statement.executeQuery();
-        rs.absolute(1);
-        
-        try {
-            int storedHospitalID = rs.getInt("hospitalID");
-            String storedDepartment = rs.getString("department");
-            JobTitle storedJobTitle = JobTitle.valueOf(rs.getString("jobTitle"));
-            String storedProfTitle = rs.getString("profTitle");
-            String storedOfficeAddress = rs.getString("officeAddress");
-            String storedSpecialization = rs.getString("specialization");
-            rs.close();
-            Staff s = new Staff(parent, storedJobTitle, storedHospitalID, storedDepartment, storedProfTitle, storedOfficeAddress, storedSpecialization);
-            s.setID(parent.getID());
+        try (ResultSet rs = statement.executeQuery()) {
+            if (!rs.next()) {
+                System.out.println("Could not find a Staff member with that ID. Please try again.");
+                return null;
+            }
+            Staff s = readStaff(rs);
+            EntityCache.put(Staff.class, s.getID(), s);
             return s;
-        } catch(SQLDataException e) {
-            System.out.println("Could not find a Staff member with that ID. Please try again.");
-            rs.close();
-            return null;
         }
     }
 
+    /** Lookup many Staff members by personID with IN (...) queries. IDs that aren't Staff are skipped */
+    public static List<Staff> getByIDs(int... ids) throws SQLException {
+        return loadByIDs(Staff.class, SELECT_QUERY + "IN ", ids, Staff::readStaff);
+    }
+
+    /** Build a Staff member from a row of SELECT_QUERY */
+    private static Staff readStaff(ResultSet rs) throws SQLException {
+        Person parent = readPerson(rs);
+        int storedHospitalID = rs.getInt("hospitalID");
+        String storedDepartment = rs.getString("department");
+        JobTitle storedJobTitle = JobTitle.valueOf(rs.getString("jobTitle"));
+        String storedProfTitle = rs.getString("profTitle");
+        String storedOfficeAddress = rs.getString("officeAddress");
+        String storedSpecialization = rs.getString("specialization");
+
+        Staff s = new Staff(parent, storedJobTitle, storedHospitalID, storedDepartment, storedProfTitle, storedOfficeAddress, storedSpecialization);
+        s.setID(parent.getID());
+        return s;
+    }
+
     /**
      * Get hospitalID.
      *
@@ -0,0 +1,134 @@
+package hospital_dbms.models;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static hospital_dbms.HospitalDBMS.getConnection;
+
+/**
+ * Number of HospitalVisits per Hospital and month (of the visit's startDate), kept in the VisitRollup table
+ * (created by schema migration 4) so visits-per-month reports read one row per month instead of every visit.
+ *
+ * HospitalVisit.insert(), update() and delete() adjust the counts in the same transaction as the change to
+ * the visit, once enable() has been called (startup does this when the table exists). rebuild() recounts
+ * a range of months from HospitalVisit, for backfilling or repairing the counts.
+ */
+public class VisitRollup {
+
+    // Adds to (or creates) the count of a hospital and month
+    private static final String ADJUST_QUERY =
+            "INSERT INTO VisitRollup (hospitalID, year, month, visits) VALUES (?, ?, ?, ?) " +
+            "ON DUPLICATE KEY UPDATE visits=visits+VALUES(visits)";
+    // Recounts the visits starting between two dates
+    private static final String REBUILD_QUERY =
+            "INSERT INTO VisitRollup (hospitalID, year, month, visits) " +
+            "SELECT hospitalID, YEAR(startDate), MONTH(startDate), COUNT(*) FROM HospitalVisit " +
+            "WHERE startDate >= ? AND startDate < ? " +
+            "GROUP BY hospitalID, YEAR(startDate), MONTH(startDate)";
+
+    // Whether the counts are maintained
+    private static volatile boolean enabled = false;
+
+    /**
+     * Execute a DROP TABLE if the table exists
+     */
+    public static void dropTable() throws SQLException {
+        Connection connection = getConnection();
+        Statement statement = connection.createStatement();
+
+        statement.executeUpdate("DROP TABLE IF EXISTS VisitRollup;");
+    }
+
+    /** Start maintaining the counts. Only call this once the VisitRollup table exists */
+    public static void enable() {
+        enabled = true;
+    }
+
+    /** Whether the counts are maintained (and so can be reported from) */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Recount the months from the month of one date to the month of another, replacing their counts
+     * @param from A date in the first month to rebuild, or null to start from the earliest visit
+     * @param to A date in the last month to rebuild, or null to end with the latest visit
+     * @return The number of (hospital, month) counts written
+     */
+    public static int rebuild(Date from, Date to) throws SQLException {
+        LocalDate start = from == null ? LocalDate.of(1000, 1, 1) : from.toLocalDate().withDayOfMonth(1);
+        LocalDate end = to == null ? LocalDate.of(9999, 12, 1) : to.toLocalDate().withDayOfMonth(1).plusMonths(1);
+
+        Connection connection = getConnection();
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            PreparedStatement delete = Relation.prepareStatement(
+                    "DELETE FROM VisitRollup WHERE year * 100 + month >= ? AND year * 100 + month < ?");
+            delete.setInt(1, start.getYear() * 100 + start.getMonthValue());
+            delete.setInt(2, end.getYear() * 100 + end.getMonthValue());
+            delete.executeUpdate();
+
+            PreparedStatement insert = Relation.prepareStatement(REBUILD_QUERY);
+            insert.setDate(1, Date.valueOf(start));
+            insert.setDate(2, Date.valueOf(end));
+            int written = insert.executeUpdate();
+
+            Relation.commit(connection);
+            return written;
+        } catch (SQLException e) {
+            Relation.rollback(connection);
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Add to the count of a Hospital's visits starting in the month of a date (in the caller's transaction)
+     * @param startDate The visit's startDate; visits without one aren't counted
+     * @param visits Change in the number of visits
+     */
+    static void adjust(int hospitalID, Date startDate, int visits) throws SQLException {
+        if (!enabled || startDate == null || visits == 0) {
+            return;
+        }
+        LocalDate month = startDate.toLocalDate();
+        PreparedStatement statement = Relation.prepareStatement(ADJUST_QUERY);
+        statement.setInt(1, hospitalID);
+        statement.setInt(2, month.getYear());
+        statement.setInt(3, month.getMonthValue());
+        statement.setInt(4, visits);
+        statement.executeUpdate();
+    }
+
+    /** Count newly inserted visits, with one statement per hospital and month */
+    static void added(List<? extends Relation> rows) throws SQLException {
+        if (!enabled) {
+            return;
+        }
+        Map<String, Integer> counts = new HashMap<>();
+        Map<String, HospitalVisit> examples = new HashMap<>();
+        for (Relation row : rows) {
+            HospitalVisit visit = (HospitalVisit) row;
+            if (visit.getStartDate() == null) {
+                continue;
+            }
+            LocalDate month = visit.getStartDate().toLocalDate();
+            String key = visit.getHospitalID() + "/" + month.getYear() + "/" + month.getMonthValue();
+            counts.merge(key, 1, Integer::sum);
+            examples.putIfAbsent(key, visit);
+        }
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            HospitalVisit visit = examples.get(entry.getKey());
+            adjust(visit.getHospitalID(), visit.getStartDate(), entry.getValue());
+        }
+    }
+}
@@ -0,0 +1,432 @@
+package hospital_dbms.models;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import hospital_dbms.HospitalDBMS;
+import static hospital_dbms.HospitalDBMS.getConnection;
+import static hospital_dbms.HospitalDBMS.releaseConnection;
+
+/**
+ * Buffers updates to HospitalVisits and Beds and writes them in batches from a background thread.
+ *
+ * While the buffer is running (see start()), HospitalVisit.update() and Bed.update() made outside a transaction
+ * hand their changed columns to the buffer instead of running an UPDATE. Repeated updates to the same row are
+ * coalesced into one. The buffer is written every flushMillis, or as soon as maxPending rows are waiting, with
+ * one JDBC batch per table and set of changed columns, committed every Relation.DEFAULT_BATCH_SIZE rows.
+ * HospitalUsage, VisitRollup and BedAvailabilityIndex are adjusted when the change is written.
+ *
+ * The durability setting decides when a buffered update() returns:
+ *  - COMMIT: once the batch holding the change has committed, so it is as durable as a synchronous update.
+ *    Concurrent updates share one commit, at the cost of up to flushMillis of latency. The waiting thread
+ *    hands its connection back to the pool first, so waiters can't starve the flusher of a connection;
+ *  - ASYNC: as soon as the change is buffered. Changes not yet written are lost if the process dies (they are
+ *    written on a normal exit), and a change that can't be written is only reported on the console.
+ *
+ * Updates made in a transaction (auto-commit off, or a transaction group) are written at once, as are updates
+ * that occupy a bed or assign one to a visit, since Bed.claim() must see them. A write that isn't buffered
+ * takes the row's buffered change with it, so a row's changes are written in order. Reads by ID see buffered
+ * changes; other queries (reports, searches, other programs) see them once they are written.
+ */
+public class WriteBehindBuffer {
+
+    /** When an update handed to the buffer returns */
+    public enum Durability {
+        /** Once the change has been committed */
+        COMMIT,
+        /** As soon as the change is buffered */
+        ASYNC
+    }
+
+    /** A buffered change to one row */
+    static final class Pending {
+        // "table/ID" of the row
+        private final String key;
+        // Copy of the row with its latest values, changed columns and saved state (see Relation.pendingCopy)
+        private final Relation row;
+        // Completed once the change is written; shared by the updates coalesced into it
+        private final CompletableFuture<Void> written;
+        // Set while a flush is writing the change (guarded by lock)
+        private boolean writing = false;
+
+        private Pending(String key, Relation row, CompletableFuture<Void> written) {
+            this.key = key;
+            this.row = row;
+            this.written = written;
+        }
+
+        /** The row to write */
+        Relation getRow() {
+            return row;
+        }
+
+        /** Record that the change was written by its row's own update */
+        void written() {
+            written.complete(null);
+            WriteBehindBuffer.written.incrementAndGet();
+        }
+
+        /** Record that the change could not be written */
+        void failed(SQLException e) {
+            written.completeExceptionally(e);
+            WriteBehindBuffer.failed.incrementAndGet();
+        }
+    }
+
+    // Guards pending and the writing flags
+    private static final Object lock = new Object();
+    // Held while a flush runs, so flushes don't overlap and a row's changes are written in order
+    private static final Object flushLock = new Object();
+    // Buffered changes keyed by "table/ID", in the order they were first buffered
+    private static final Map<String, Pending> pending = new LinkedHashMap<>();
+    // Set while a flush requested because the buffer filled up is waiting to run
+    private static final AtomicBoolean flushRequested = new AtomicBoolean();
+    private static final AtomicLong buffered = new AtomicLong();
+    private static final AtomicLong written = new AtomicLong();
+    private static final AtomicLong failed = new AtomicLong();
+
+    // Whether updates are being buffered
+    private static volatile boolean running = false;
+    private static volatile Durability durability = Durability.COMMIT;
+    private static volatile int maxPending = 1000;
+    // Writes the buffer every flushMillis, and when it fills up
+    private static volatile ScheduledExecutorService flusher = null;
+
+    /**
+     * Start buffering updates, writing them every flushMillis on a background thread (with its own connection).
+     * The buffer is also written when the program exits normally
+     * @param flushMillis Time between writes; 0 or less doesn't start the buffer, so every update is written at once
+     * @param maxPending Number of buffered rows that triggers a write before the timer
+     * @param durability When a buffered update returns
+     */
+    public static synchronized void start(long flushMillis, int maxPending, Durability durability) {
+        if (flusher != null || flushMillis <= 0) {
+            return;
+        }
+        if (maxPending < 1) {
+            throw new IllegalArgumentException("maxPending must be positive");
+        }
+        WriteBehindBuffer.maxPending = maxPending;
+        WriteBehindBuffer.durability = durability;
+        flusher = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "write-behind-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(WriteBehindBuffer::flushInBackground, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(WriteBehindBuffer::stop));
+        running = true;
+    }
+
+    /** Stop buffering updates and write the changes still buffered on the current thread's connection */
+    public static synchronized void stop() {
+        if (flusher == null) {
+            return;
+        }
+        running = false;
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flusher = null;
+        try {
+            flush();
+        } finally {
+            releaseConnection();
+        }
+    }
+
+    /** Whether updates are being buffered */
+    public static boolean isRunning() {
+        return running;
+    }
+
+    /** Number of rows with changes waiting to be written */
+    public static int getPendingCount() {
+        synchronized (lock) {
+            return pending.size();
+        }
+    }
+
+    /** Number of updates handed to the buffer */
+    public static long getBufferedCount() {
+        return buffered.get();
+    }
+
+    /** Number of rows written; fewer than getBufferedCount() by the updates that were coalesced */
+    public static long getWrittenCount() {
+        return written.get();
+    }
+
+    /** Number of rows whose changes could not be written */
+    public static long getFailedCount() {
+        return failed.get();
+    }
+
+    /** Whether an update on the current thread can be buffered: the buffer is running and no transaction is open */
+    static boolean accepts() throws SQLException {
+        return running && !HospitalDBMS.inTransactionGroup() && getConnection().getAutoCommit();
+    }
+
+    /**
+     * Buffer a row's changed columns, coalescing them with the row's changes already buffered.
+     * With COMMIT durability, releases the current thread's connection and waits until the change has been written
+     * @param key "table/ID" of the row
+     * @param row The object being updated
+     * @throws SQLException if the durability is COMMIT and the change couldn't be written
+     */
+    static void defer(String key, Relation row) throws SQLException {
+        Pending change;
+        int size;
+        synchronized (lock) {
+            Pending older = pending.get(key);
+            if (older != null && !older.writing) {
+                change = new Pending(key, row.pendingCopy(older.row), older.written);
+            } else {
+                // A change being written is already saved as far as this one is concerned; if the flush can't
+                // write it after all, requeue() merges it back into this one
+                change = new Pending(key, row.pendingCopy(null), new CompletableFuture<>());
+            }
+            pending.put(key, change);
+            size = pending.size();
+        }
+        buffered.incrementAndGet();
+
+        if (size >= maxPending && flushRequested.compareAndSet(false, true)) {
+            try {
+                flusher.execute(WriteBehindBuffer::flushInBackground);
+            } catch (RuntimeException e) {
+                // The buffer is stopping, and stop() writes what is left
+                flushRequested.set(false);
+            }
+        }
+        if (durability == Durability.COMMIT) {
+            // Not in a transaction (see accepts()), so the connection holds nothing the caller still needs
+            releaseConnection();
+            await(change.written);
+        }
+    }
+
+    /**
+     * Get the buffered state of a row, so reads by ID see changes that haven't been written
+     * @param key "table/ID" of the row
+     * @return A copy made by Relation.pendingCopy(), which must not be changed, or null if the row has no buffered change
+     */
+    static Relation pending(String key) {
+        synchronized (lock) {
+            Pending change = pending.get(key);
+            return change == null ? null : change.row;
+        }
+    }
+
+    /**
+     * Remove a row's buffered change so the caller writes it along with its own.
+     * The caller must call written() or failed() on the change once it has run its statement
+     * @param key "table/ID" of the row
+     * @return The change, or null if the row has none (or a flush is already writing it)
+     */
+    static Pending take(String key) {
+        synchronized (lock) {
+            Pending change = pending.get(key);
+            if (change == null || change.writing) {
+                return null;
+            }
+            pending.remove(key);
+            return change;
+        }
+    }
+
+    /**
+     * Write every buffered change now, on the current thread's connection. Changes to each table are written in
+     * batches, one transaction per batch; if a batch fails, its rows are written one at a time so only the rows
+     * at fault fail
+     * @return The number of rows written
+     */
+    public static int flush() {
+        synchronized (flushLock) {
+            flushRequested.set(false);
+            Map<Class<?>, List<Pending>> byType = new LinkedHashMap<>();
+            synchronized (lock) {
+                for (Pending change : pending.values()) {
+                    byType.computeIfAbsent(change.row.getClass(), k -> new ArrayList<>()).add(change);
+                }
+            }
+
+            int count = 0;
+            for (List<Pending> group : byType.values()) {
+                for (int start = 0; start < group.size(); start += Relation.DEFAULT_BATCH_SIZE) {
+                    List<Pending> batch = claim(group.subList(start, Math.min(start + Relation.DEFAULT_BATCH_SIZE, group.size())));
+                    if (batch.isEmpty()) {
+                        continue;
+                    }
+                    try {
+                        count += write(batch);
+                    } catch (RuntimeException e) {
+                        // No connection, or a bug: leave the batch (and the rest of the buffer) for the next flush
+                        requeue(batch);
+                        throw e;
+                    }
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Mark the changes of a batch as being written, leaving out those coalesced into a newer change or taken by
+     * their row's own update since the flush listed them
+     */
+    private static List<Pending> claim(List<Pending> changes) {
+        List<Pending> batch = new ArrayList<>(changes.size());
+        synchronized (lock) {
+            for (Pending change : changes) {
+                if (pending.get(change.key) == change) {
+                    change.writing = true;
+                    batch.add(change);
+                }
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Put back the changes of a batch that wasn't written, so the next flush writes them. A change buffered for
+     * the same row while the batch was being written is merged into it: the newer values on top of the older
+     * ones, against the older saved state, and the older change's waiters complete with it
+     */
+    private static void requeue(List<Pending> batch) {
+        synchronized (lock) {
+            for (Pending change : batch) {
+                if (!change.writing) {
+                    // Already written, failed or put back
+                    continue;
+                }
+                change.writing = false;
+                Pending newer = pending.get(change.key);
+                if (newer == change) {
+                    continue;
+                }
+                Pending merged = new Pending(change.key, newer.row.pendingCopy(change.row), newer.written);
+                newer.written.whenComplete((result, error) -> {
+                    if (error == null) {
+                        change.written.complete(null);
+                    } else {
+                        change.written.completeExceptionally(error);
+                    }
+                });
+                pending.put(change.key, merged);
+            }
+        }
+    }
+
+    /** Flush on the background thread, reporting failures */
+    private static void flushInBackground() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            System.out.println("Unable to write buffered updates: " + e.getMessage());
+        } finally {
+            releaseConnection();
+        }
+    }
+
+    /** Write one batch of changes to the same table in a transaction, falling back to one row at a time */
+    private static int write(List<Pending> batch) {
+        List<Relation> rows = new ArrayList<>(batch.size());
+        for (Pending change : batch) {
+            rows.add(change.row);
+        }
+
+        Connection connection = getConnection();
+        try {
+            try {
+                connection.setAutoCommit(false);
+                rows.get(0).updateBatch(rows);
+                Relation.commit(connection);
+            } catch (SQLException e) {
+                Relation.rollback(connection);
+                throw e;
+            } catch (RuntimeException e) {
+                Relation.rollback(connection);
+                resync();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            resync();
+            if (batch.size() > 1) {
+                int count = 0;
+                for (Pending change : batch) {
+                    count += write(List.of(change));
+                }
+                return count;
+            }
+            finished(batch.get(0), e);
+            return 0;
+        }
+
+        for (Pending change : batch) {
+            finished(change, null);
+        }
+        return batch.size();
+    }
+
+    /** Complete a change that a flush has written (or failed to write) and drop it unless it has been replaced */
+    private static void finished(Pending change, SQLException error) {
+        synchronized (lock) {
+            change.writing = false;
+            if (pending.get(change.key) == change) {
+                pending.remove(change.key);
+            }
+        }
+        if (error == null) {
+            change.written();
+        } else {
+            change.failed(error);
+            if (durability == Durability.ASYNC) {
+                System.out.println("Unable to write a buffered update to " + change.row.getClass().getSimpleName()
+                                   + ": " + error.getMessage());
+            }
+        }
+    }
+
+    /** Re-read the in-memory counts and bed index after a batch was rolled back */
+    private static void resync() {
+        try {
+            if (HospitalUsage.isLoaded()) {
+                HospitalUsage.load();
+            }
+            if (BedAvailabilityIndex.isLoaded()) {
+                BedAvailabilityIndex.reconcile();
+            }
+        } catch (SQLException e) {
+            System.out.println("Unable to reload hospital usage and bed availability: " + e.getMessage());
+        }
+    }
+
+    /** Wait for a change to be written, throwing the error if it couldn't be */
+    private static void await(CompletableFuture<Void> written) throws SQLException {
+        try {
+            written.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for a buffered update to be written", e);
+        } catch (ExecutionException e) {
+            throw new SQLException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package hospital_dbms.service;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeoutException;
+
+import hospital_dbms.HospitalDBMS;
+import hospital_dbms.models.*;
+import hospital_dbms.service.TaskScope.Subtask;
+import static hospital_dbms.HospitalDBMS.releaseConnection;
+
+/**
+ * The admission workflows: check-in, check-out, bed reservation and release, and transfers between hospitals.
+ *
+ * The lookups a workflow needs before it changes anything (the patient, the hospitals, the current visit and
+ * a free bed) don't depend on each other, so they run concurrently in a TaskScope, each on its own thread and
+ * connection. At most maxForks lookups of all workflows together run that way; the rest run on the workflow's
+ * own thread and connection, so concurrent requests can't drain the connection pool with lookups.
+ * If one fails or they take longer than the timeout, the rest are cancelled and nothing is written.
+ * The writes then run on the calling thread, so they join any transaction group it is running
+ * (inside a group the lookups run on the calling thread as well, so they see the group's earlier work).
+ *
+ * Workflows can be called directly or submitted to run on their own (virtual, if possible) thread;
+ * cancelling the returned Future interrupts the workflow and cancels its lookups.
+ *
+ * Problems the caller should report (missing rows, no free bed, timeouts) are thrown as ApiExceptions.
+ */
+public class AdmissionService {
+
+    // Time the concurrent lookups of one workflow may take
+    private static final long DEFAULT_TIMEOUT_MILLIS = Long.getLong("hospital.admission.timeoutMillis", 5000);
+
+    // Lookups on their own connection, over all workflows (0 uses half the connection pool)
+    private static final int DEFAULT_MAX_FORKS = Integer.getInteger("hospital.admission.maxForks", 0);
+
+    private final ExecutorService executor;
+    private final long timeoutMillis;
+    // Held by each lookup running on the executor
+    private final Semaphore forkPermits;
+
+    /** The result of a transfer */
+    public static class Transfer {
+        private final HospitalVisit closedVisit;
+        private final HospitalVisit newVisit;
+        private final Bed releasedBed;
+        private final Bed newBed;
+
+        Transfer(HospitalVisit closedVisit, HospitalVisit newVisit, Bed releasedBed, Bed newBed) {
+            this.closedVisit = closedVisit;
+            this.newVisit = newVisit;
+            this.releasedBed = releasedBed;
+            this.newBed = newBed;
+        }
+
+        /** The visit to the old hospital, now ended */
+        public HospitalVisit getClosedVisit() {
+            return closedVisit;
+        }
+
+        /** The visit to the new hospital */
+        public HospitalVisit getNewVisit() {
+            return newVisit;
+        }
+
+        /** The bed the patient left, or null if they didn't have one */
+        public Bed getReleasedBed() {
+            return releasedBed;
+        }
+
+        /** The bed reserved in the new hospital, or null if no specialization was asked for */
+        public Bed getNewBed() {
+            return newBed;
+        }
+    }
+
+    /** Construct a service running lookups on a per-task executor with the default timeout and fork limit */
+    public AdmissionService() {
+        this(Workers.newPerTaskExecutor("admission"), DEFAULT_TIMEOUT_MILLIS,
+             DEFAULT_MAX_FORKS > 0 ? DEFAULT_MAX_FORKS : Math.max(1, HospitalDBMS.getPool().getMaxSize() / 2));
+    }
+
+    /**
+     * Construct a service
+     * @param executor Runs lookups and submitted workflows
+     * @param timeoutMillis Time the lookups of one workflow may take
+     * @param maxForks Most lookups running on the executor at once, over all workflows
+     */
+    public AdmissionService(ExecutorService executor, long timeoutMillis, int maxForks) {
+        this.executor = executor;
+        this.timeoutMillis = timeoutMillis;
+        this.forkPermits = new Semaphore(maxForks);
+    }
+
+    /**
+     * Run a workflow on its own thread, with its own unit of work and connection
+     * @param workflow e.g. () -> admissions.checkin(patientID, hospitalID)
+     * @return The workflow's result; cancel(true) interrupts it
+     */
+    public <T> Future<T> submit(Callable<T> workflow) {
+        return executor.submit(() -> {
+            EntityCache.beginUnitOfWork();
+            try {
+                return workflow.call();
+            } finally {
+                EntityCache.endUnitOfWork();
+                releaseConnection();
+            }
+        });
+    }
+
+    /** Stop the service's threads once submitted workflows have finished */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Check a Patient in to a Hospital
+     * @return The new visit
+     */
+    public HospitalVisit checkin(int patientID, int hospitalID) throws SQLException {
+        try (TaskScope scope = newScope()) {
+            Subtask<Patient> patient = scope.fork(() -> Patient.getByID(patientID));
+            Subtask<Hospital> hospital = scope.fork(() -> Hospital.getByID(hospitalID));
+            Subtask<HospitalVisit> current = scope.fork(() -> HospitalVisit.getCurrentVisit(patientID, hospitalID));
+            join(scope);
+
+            require(patient.get(), "Patient " + patientID);
+            require(hospital.get(), "Hospital " + hospitalID);
+            if (current.get() != null) {
+                throw ApiException.conflict("Patient " + patientID + " is already checked in to hospital " + hospitalID);
+            }
+            return patient.get().checkin(hospital.get());
+        }
+    }
+
+    /**
+     * End a Patient's current visit to a Hospital
+     * @return The ended visit
+     */
+    public HospitalVisit checkout(int patientID, int hospitalID) throws SQLException {
+        HospitalVisit visit = currentVisit(patientID, hospitalID);
+        visit.setEndDate(new Date(System.currentTimeMillis()));
+        visit.update();
+        return visit;
+    }
+
+    /**
+     * Reserve a free bed with a specialization for a Patient's current visit to a Hospital
+     * @return The reserved bed
+     */
+    public Bed reserveBed(int patientID, int hospitalID, String specialization) throws SQLException {
+        HospitalVisit visit;
+        try (TaskScope scope = newScope()) {
+            Subtask<HospitalVisit> current = scope.fork(() -> HospitalVisit.getCurrentVisit(patientID, hospitalID));
+            // Seeing no free bed here lets the caller skip the locking claim below
+            Subtask<Bed> free = scope.fork(() -> Bed.getAvailableBed(hospitalID, specialization));
+            join(scope);
+
+            visit = current.get();
+            if (visit == null) {
+                throw ApiException.notFound("Patient " + patientID + " is not checked in to hospital " + hospitalID);
+            }
+            if (hasBed(visit)) {
+                throw ApiException.conflict("Patient " + patientID + " is already assigned to bed " + visit.getBedNumber());
+            }
+            if (free.get() == null) {
+                throw noBeds(hospitalID, specialization);
+            }
+        }
+
+        // Another desk may have taken the bed found above, so claim whichever bed is free now
+        Bed bed = Bed.claim(hospitalID, specialization, visit.getID());
+        if (bed == null) {
+            throw noBeds(hospitalID, specialization);
+        }
+        return bed;
+    }
+
+    /**
+     * Mark a bed unoccupied and remove it from the visit it was assigned to
+     * @return The released bed
+     */
+    public Bed releaseBed(int bedID) throws SQLException {
+        Bed bed = require(Bed.getById(bedID), "Bed " + bedID);
+        if (!bed.isOccupied()) {
+            throw ApiException.conflict("Bed " + bedID + " is already unoccupied");
+        }
+        bed.release();
+        return bed;
+    }
+
+    /**
+     * Move a Patient from one Hospital to another: end the current visit, release its bed,
+     * check in to the new Hospital and, if a specialization is given, reserve a bed there.
+     * The changes are made in one transaction, so a failure part way leaves the patient where they were
+     * @param specialization The bed to reserve in the new Hospital, or null for none
+     */
+    public Transfer transfer(int patientID, int fromHospitalID, int toHospitalID, String specialization) throws SQLException {
+        if (fromHospitalID == toHospitalID) {
+            throw ApiException.badRequest("Patient is already in hospital " + toHospitalID);
+        }
+
+        Patient patient;
+        Hospital hospital;
+        HospitalVisit visit;
+        Bed oldBed;
+        try (TaskScope scope = newScope()) {
+            Subtask<Patient> p = scope.fork(() -> Patient.getByID(patientID));
+            Subtask<Hospital> h = scope.fork(() -> Hospital.getByID(toHospitalID));
+            Subtask<HospitalVisit> current = scope.fork(() -> HospitalVisit.getCurrentVisit(patientID, fromHospitalID));
+            Subtask<HospitalVisit> existing = scope.fork(() -> HospitalVisit.getCurrentVisit(patientID, toHospitalID));
+            Subtask<Bed> free = specialization == null ? null
+                                : scope.fork(() -> Bed.getAvailableBed(toHospitalID, specialization));
+            join(scope);
+
+            patient = require(p.get(), "Patient " + patientID);
+            hospital = require(h.get(), "Hospital " + toHospitalID);
+            visit = current.get();
+            if (visit == null) {
+                throw ApiException.notFound("Patient " + patientID + " is not checked in to hospital " + fromHospitalID);
+            }
+            if (existing.get() != null) {
+                throw ApiException.conflict("Patient " + patientID + " is already checked in to hospital " + toHospitalID);
+            }
+            if (free != null && free.get() == null) {
+                throw noBeds(toHospitalID, specialization);
+            }
+        }
+        oldBed = hasBed(visit) ? Bed.getById(visit.getBedNumber()) : null;
+
+        boolean group = !HospitalDBMS.inTransactionGroup();
+        if (group) {
+            HospitalDBMS.beginTransactionGroup();
+        }
+        boolean ok = false;
+        Transfer transfer;
+        try {
+            visit.setEndDate(new Date(System.currentTimeMillis()));
+            visit.update();
+            if (oldBed != null && oldBed.isOccupied()) {
+                oldBed.release();
+            }
+            HospitalVisit newVisit = patient.checkin(hospital);
+            Bed newBed = null;
+            if (specialization != null) {
+                newBed = Bed.claim(toHospitalID, specialization, newVisit.getID());
+                if (newBed == null) {
+                    throw noBeds(toHospitalID, specialization);
+                }
+            }
+            transfer = new Transfer(visit, newVisit, oldBed, newBed);
+            ok = true;
+        } finally {
+            // The index and usage changes of the released and claimed beds wait for the commit,
+            // so a rollback leaves nothing in memory to undo
+            if (group) {
+                ok = HospitalDBMS.endTransactionGroup(ok);
+            }
+        }
+        if (!ok) {
+            // A model caught an error and rolled the group back, so the patient is still where they were
+            throw new ApiException(500, "Transfer of patient " + patientID + " failed and was rolled back");
+        }
+        return transfer;
+    }
+
+    /** Look up a Patient's current visit to a Hospital, which must exist */
+    private HospitalVisit currentVisit(int patientID, int hospitalID) throws SQLException {
+        HospitalVisit visit = HospitalVisit.getCurrentVisit(patientID, hospitalID);
+        if (visit == null) {
+            throw ApiException.notFound("Patient " + patientID + " is not checked in to hospital " + hospitalID);
+        }
+        return visit;
+    }
+
+    /**
+     * Open a scope for a workflow's lookups. Inside a transaction group they run on the calling thread,
+     * since other connections can't see the group's uncommitted work
+     */
+    private TaskScope newScope() {
+        return HospitalDBMS.inTransactionGroup() ? TaskScope.inline() : new TaskScope(executor, timeoutMillis, forkPermits);
+    }
+
+    /** Join a scope, reporting a timeout or interruption to the caller */
+    private void join(TaskScope scope) throws SQLException {
+        try {
+            scope.join();
+        } catch (TimeoutException e) {
+            throw new ApiException(504, "Lookups did not finish within " + timeoutMillis + " ms");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApiException(503, "Request was cancelled");
+        }
+    }
+
+    private static boolean hasBed(HospitalVisit visit) {
+        return visit.getBedNumber() != null && visit.getBedNumber() != 0;
+    }
+
+    private static <T> T require(T found, String description) {
+        if (found == null) {
+            throw ApiException.notFound(description + " does not exist");
+        }
+        return found;
+    }
+
+    private static ApiException noBeds(int hospitalID, String specialization) {
+        return ApiException.conflict("No beds are available in hospital " + hospitalID + " with specialization "
+                                     + specialization);
+    }
+}
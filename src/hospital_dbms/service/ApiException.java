@@ -0,0 +1,37 @@
+package hospital_dbms.service;
+
+/**
+ * An error to report to an API client with the given HTTP status
+ */
+public class ApiException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    // HTTP status code for the response
+    private final int status;
+
+    /**
+     * @param status HTTP status code (e.g. 404)
+     * @param message Explanation sent to the client
+     */
+    public ApiException(int status, String message) {
+        super(message);
+        this.status = status;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    static ApiException notFound(String message) {
+        return new ApiException(404, message);
+    }
+
+    static ApiException conflict(String message) {
+        return new ApiException(409, message);
+    }
+
+    static ApiException badRequest(String message) {
+        return new ApiException(400, message);
+    }
+}
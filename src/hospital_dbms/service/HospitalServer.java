@@ -0,0 +1,551 @@
+package hospital_dbms.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import hospital_dbms.HospitalDBMS;
+import hospital_dbms.Json;
+import hospital_dbms.Reports;
+import hospital_dbms.TableListing;
+import hospital_dbms.models.*;
+import static hospital_dbms.HospitalDBMS.releaseConnection;
+
+/**
+ * HTTP/JSON front end for the HospitalDBMS system, built on the JDK's com.sun.net.httpserver.
+ * Each request runs on its own task from Workers.newPerTaskExecutor(), borrows a pooled connection
+ * for its duration and returns it when the response is sent. Admission workflows go through
+ * AdmissionService, which runs their lookups concurrently.
+ *
+ * The server listens on the loopback interface unless -Dhospital.http.bind names another address. When
+ * -Dhospital.http.token is set, every request except /health must send "Authorization: Bearer TOKEN"; a
+ * token is required to listen on any other interface. /tables only lists the tables in
+ * -Dhospital.http.tables, which by default leaves out the ones holding personal or billing data.
+ *
+ * Endpoints (request bodies are JSON objects; parameters may also be given in the query string):
+ *   POST   /visits/checkin            {patientID, hospitalID}
+ *   POST   /visits/checkout           {patientID, hospitalID}
+ *   POST   /visits/transfer           {patientID, fromHospitalID, toHospitalID, specialization (optional)}
+ *   POST   /beds/reserve              {patientID, hospitalID, specialization}
+ *   POST   /beds/release              {bedID}
+ *   POST   /records                   {visitID, doctorID, prescription, diagnostic, test, result, treatment,
+ *                                      consultationFee, testFee, treatmentFee}
+ *   GET    /records/{id}
+ *   PUT    /records/{id}              (same fields as POST)
+ *   DELETE /records/{id}
+ *   GET    /reports/hospitals-by-specialty
+ *   GET    /reports/doctors?patientID=
+ *   GET    /reports/hospital-usage
+ *   GET    /reports/billing?patientID=&start=yyyy-mm-dd&end=yyyy-mm-dd
+ *   GET    /reports/available-beds?hospitalID=
+ *   GET    /reports/patients-per-month?hospitalID=&start=yyyy-mm-dd&end=yyyy-mm-dd (start and end optional)
+ *   GET    /people/search?q=&limit=   (name words or prefixes, phone digits, yyyy-mm-dd dates; limit defaults to 20)
+ *   GET    /tables/{table}?columns=&where=&pageSize=&cursor=
+ *                                     (one page of an exposed table in key order: columns separated by commas,
+ *                                      filters such as "hospitalID = 3" separated by semicolons, the cursor of the
+ *                                      previous page)
+ *   GET    /health
+ */
+public class HospitalServer {
+
+    /** Handles one matched request and returns the object to send back as JSON */
+    interface Handler {
+        Object handle(Request request) throws SQLException;
+    }
+
+    /** A route: an HTTP method and a path pattern whose {name} segments are captured */
+    private static class Route {
+        final String method;
+        final String[] segments;
+        final int status;
+        final Handler handler;
+        // Whether the route needs the bearer token (when the server has one)
+        final boolean authenticated;
+
+        Route(String method, String pattern, int status, Handler handler, boolean authenticated) {
+            this.method = method;
+            this.segments = split(pattern);
+            this.status = status;
+            this.handler = handler;
+            this.authenticated = authenticated;
+        }
+
+        /** Match a path, returning the captured segments or null if it doesn't match */
+        Map<String, String> match(String[] path) {
+            if (path.length != segments.length) {
+                return null;
+            }
+            Map<String, String> captured = new HashMap<>();
+            for (int i = 0; i < segments.length; i++) {
+                if (segments[i].startsWith("{")) {
+                    captured.put(segments[i].substring(1, segments[i].length() - 1), path[i]);
+                } else if (!segments[i].equals(path[i])) {
+                    return null;
+                }
+            }
+            return captured;
+        }
+    }
+
+    /** The parameters of a request: path segments, then the query string, then the JSON body */
+    static class Request {
+        final Map<String, String> pathParameters;
+        final Map<String, String> queryParameters;
+        final Map<String, Object> body;
+
+        Request(Map<String, String> pathParameters, Map<String, String> queryParameters, Map<String, Object> body) {
+            this.pathParameters = pathParameters;
+            this.queryParameters = queryParameters;
+            this.body = body;
+        }
+
+        /** Get a parameter as a string, or null if it wasn't given */
+        String optionalString(String name) {
+            if (pathParameters.containsKey(name)) {
+                return pathParameters.get(name);
+            }
+            if (queryParameters.containsKey(name)) {
+                return queryParameters.get(name);
+            }
+            Object value = body.get(name);
+            if (value == null) {
+                return null;
+            }
+            return value instanceof Number ? Json.write(value) : value.toString();
+        }
+
+        String string(String name) {
+            String value = optionalString(name);
+            if (value == null) {
+                throw ApiException.badRequest("Missing parameter " + name);
+            }
+            return value;
+        }
+
+        int integer(String name) {
+            try {
+                return Integer.parseInt(string(name).trim());
+            } catch (NumberFormatException e) {
+                throw ApiException.badRequest("Parameter " + name + " must be an integer");
+            }
+        }
+
+        int integer(String name, int defaultValue) {
+            return optionalString(name) == null ? defaultValue : integer(name);
+        }
+
+        Date optionalDate(String name) {
+            return optionalString(name) == null ? null : date(name);
+        }
+
+        Date date(String name) {
+            try {
+                return Date.valueOf(string(name).trim());
+            } catch (IllegalArgumentException e) {
+                throw ApiException.badRequest("Parameter " + name + " must be a date (yyyy-mm-dd)");
+            }
+        }
+    }
+
+    // Port used when none is given
+    private static final int DEFAULT_PORT = Integer.getInteger("hospital.http.port", 8080);
+    // Connections the server's socket queues before refusing new ones
+    private static final int BACKLOG = Integer.getInteger("hospital.http.backlog", 1024);
+    // Address the server listens on when none is given
+    private static final String DEFAULT_BIND_ADDRESS = System.getProperty("hospital.http.bind", "127.0.0.1");
+    // Bearer token clients must send (no authentication when unset)
+    private static final String TOKEN = System.getProperty("hospital.http.token");
+    // Tables /tables may list, separated by commas
+    private static final String EXPOSED_TABLES = System.getProperty("hospital.http.tables",
+            "Hospital,Specialization,HospitalSpecialty,Bed,HospitalUsage,VisitRollup");
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final List<Route> routes = new ArrayList<>();
+    private final AdmissionService admissions;
+    // Lower-cased names of the tables /tables may list
+    private final Set<String> exposedTables = new HashSet<>();
+    // Numbers the internal errors, so a client's report can be matched to the server's log
+    private final AtomicLong errorNumber = new AtomicLong();
+
+    /**
+     * Create a server listening on a port of the default address (loopback, or -Dhospital.http.bind).
+     * Call start() to begin handling requests
+     * @param port The TCP port, or 0 for any free port
+     */
+    public HospitalServer(int port) throws IOException {
+        this(DEFAULT_BIND_ADDRESS, port);
+    }
+
+    /**
+     * Create a server listening on an address and port. Call start() to begin handling requests
+     * @param bindAddress The host name or IP address of the interface to listen on
+     * @param port The TCP port, or 0 for any free port
+     * @throws IllegalStateException if the address isn't a loopback address and no token is set
+     */
+    public HospitalServer(String bindAddress, int port) throws IOException {
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getByName(bindAddress), port);
+        if (!address.getAddress().isLoopbackAddress() && (TOKEN == null || TOKEN.isEmpty())) {
+            throw new IllegalStateException("Set -Dhospital.http.token to listen on " + bindAddress);
+        }
+        for (String table : EXPOSED_TABLES.split(",")) {
+            exposedTables.add(table.trim().toLowerCase());
+        }
+        server = HttpServer.create(address, BACKLOG);
+        executor = Workers.newPerTaskExecutor("http");
+        admissions = new AdmissionService();
+        server.setExecutor(executor);
+        server.createContext("/", this::dispatch);
+
+        route("POST", "/visits/checkin", 201, this::checkin);
+        route("POST", "/visits/checkout", 200, this::checkout);
+        route("POST", "/visits/transfer", 200, this::transfer);
+        route("POST", "/beds/reserve", 200, this::reserveBed);
+        route("POST", "/beds/release", 200, this::releaseBed);
+        route("POST", "/records", 201, this::createRecord);
+        route("GET", "/records/{id}", 200, this::getRecord);
+        route("PUT", "/records/{id}", 200, this::updateRecord);
+        route("DELETE", "/records/{id}", 200, this::deleteRecord);
+        route("GET", "/reports/hospitals-by-specialty", 200, r -> Reports.getHospitalsBySpecialty());
+        route("GET", "/reports/doctors", 200, r -> Reports.getDoctorsForPatient(r.integer("patientID")));
+        route("GET", "/reports/hospital-usage", 200, r -> Reports.getHospitalUsage());
+        route("GET", "/reports/billing", 200,
+              r -> Reports.getBilling(r.integer("patientID"), r.date("start"), r.date("end")));
+        route("GET", "/reports/available-beds", 200, r -> Reports.getAvailableBeds(r.integer("hospitalID")));
+        route("GET", "/reports/patients-per-month", 200,
+              r -> Reports.getPatientsPerMonth(r.integer("hospitalID"), r.optionalDate("start"), r.optionalDate("end")));
+        route("GET", "/people/search", 200, this::searchPeople);
+        route("GET", "/tables/{table}", 200, this::listTable);
+        routes.add(new Route("GET", "/health", 200, this::health, false));
+    }
+
+    /**
+     * Main method for the server
+     * @param args Optional port number (default 8080, or -Dhospital.http.port)
+     */
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        HospitalDBMS.startUp();
+
+        HospitalServer server = new HospitalServer(port);
+        server.start();
+        System.out.println("HospitalDBMS service listening on " + DEFAULT_BIND_ADDRESS + " port " + server.getPort()
+                           + (Workers.virtualThreadsAvailable() ? " (virtual threads)" : " (platform threads)"));
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /** Stop accepting requests, give running requests a second to finish, then stop the workers */
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+        admissions.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** The port the server is listening on */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void route(String method, String pattern, int status, Handler handler) {
+        routes.add(new Route(method, pattern, status, handler, true));
+    }
+
+    /** Find the route for a request, run it and send its result (or the error) as JSON */
+    private void dispatch(HttpExchange exchange) throws IOException {
+        int status;
+        Object result;
+        EntityCache.beginUnitOfWork();
+        try {
+            String[] path = split(exchange.getRequestURI().getPath());
+            Route route = null;
+            Map<String, String> pathParameters = null;
+            boolean pathMatched = false;
+            for (Route candidate : routes) {
+                Map<String, String> captured = candidate.match(path);
+                if (captured != null) {
+                    pathMatched = true;
+                    if (candidate.method.equals(exchange.getRequestMethod())) {
+                        route = candidate;
+                        pathParameters = captured;
+                        break;
+                    }
+                }
+            }
+            if (route == null) {
+                throw pathMatched ? new ApiException(405, "Method not allowed") : ApiException.notFound("No such endpoint");
+            }
+            if (route.authenticated) {
+                authenticate(exchange);
+            }
+
+            Request request = new Request(pathParameters, parseQuery(exchange.getRequestURI().getRawQuery()),
+                                          readBody(exchange));
+            result = route.handler.handle(request);
+            status = route.status;
+        } catch (ApiException e) {
+            status = e.getStatus();
+            result = error(e.getMessage());
+        } catch (IllegalArgumentException e) {
+            status = 400;
+            result = error(e.getMessage());
+        } catch (SQLException | RuntimeException e) {
+            status = 500;
+            result = internalError(exchange, e);
+        } finally {
+            EntityCache.endUnitOfWork();
+            releaseConnection();
+        }
+
+        byte[] response = Json.write(result).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, response.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(response);
+        }
+    }
+
+    private Object checkin(Request request) throws SQLException {
+        return toJson(admissions.checkin(request.integer("patientID"), request.integer("hospitalID")));
+    }
+
+    private Object checkout(Request request) throws SQLException {
+        return toJson(admissions.checkout(request.integer("patientID"), request.integer("hospitalID")));
+    }
+
+    private Object transfer(Request request) throws SQLException {
+        AdmissionService.Transfer transfer = admissions.transfer(request.integer("patientID"),
+                                                                 request.integer("fromHospitalID"),
+                                                                 request.integer("toHospitalID"),
+                                                                 request.optionalString("specialization"));
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("closedVisit", toJson(transfer.getClosedVisit()));
+        json.put("newVisit", toJson(transfer.getNewVisit()));
+        json.put("releasedBed", transfer.getReleasedBed() == null ? null : toJson(transfer.getReleasedBed()));
+        json.put("newBed", transfer.getNewBed() == null ? null : toJson(transfer.getNewBed()));
+        return json;
+    }
+
+    private Object reserveBed(Request request) throws SQLException {
+        return toJson(admissions.reserveBed(request.integer("patientID"), request.integer("hospitalID"),
+                                            request.string("specialization")));
+    }
+
+    private Object releaseBed(Request request) throws SQLException {
+        return toJson(admissions.releaseBed(request.integer("bedID")));
+    }
+
+    private Object createRecord(Request request) throws SQLException {
+        MedicalRecord record = recordFrom(request);
+        record.insert();
+        return toJson(record);
+    }
+
+    private Object getRecord(Request request) throws SQLException {
+        return toJson(findRecord(request.integer("id")));
+    }
+
+    private Object updateRecord(Request request) throws SQLException {
+        MedicalRecord existing = findRecord(request.integer("id"));
+        MedicalRecord record = recordFrom(request);
+        record.setID(existing.getID());
+        record.update();
+        return toJson(record);
+    }
+
+    private Object deleteRecord(Request request) throws SQLException {
+        MedicalRecord record = findRecord(request.integer("id"));
+        record.delete();
+        return Collections.singletonMap("deleted", record.getID());
+    }
+
+    private Object searchPeople(Request request) throws SQLException {
+        int limit = request.integer("limit", 20);
+        if (limit < 1) {
+            throw ApiException.badRequest("Parameter limit must be positive");
+        }
+        return Reports.searchPeople(request.string("q"), limit);
+    }
+
+    /** Check the request's bearer token, if the server has one */
+    private static void authenticate(HttpExchange exchange) {
+        if (TOKEN == null || TOKEN.isEmpty()) {
+            return;
+        }
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        byte[] expected = ("Bearer " + TOKEN).getBytes(StandardCharsets.UTF_8);
+        if (authorization == null || !MessageDigest.isEqual(expected, authorization.getBytes(StandardCharsets.UTF_8))) {
+            throw new ApiException(401, "Missing or wrong bearer token");
+        }
+    }
+
+    private Object listTable(Request request) throws SQLException {
+        if (!exposedTables.contains(request.string("table").trim().toLowerCase())) {
+            throw ApiException.notFound("Table " + request.string("table") + " is not exposed");
+        }
+        TableListing.Page page;
+        try {
+            List<TableListing.Filter> filters = new ArrayList<>();
+            String where = request.optionalString("where");
+            if (where != null) {
+                for (String filter : where.split(";")) {
+                    if (!filter.trim().isEmpty()) {
+                        filters.add(TableListing.Filter.parse(filter));
+                    }
+                }
+            }
+            String columns = request.optionalString("columns");
+            TableListing listing = new TableListing(request.string("table"),
+                                                    columns == null ? null : Arrays.asList(columns.split(",")),
+                                                    filters, request.integer("pageSize", TableListing.DEFAULT_PAGE_SIZE));
+            page = listing.page(request.optionalString("cursor"));
+        } catch (IllegalArgumentException e) {
+            throw ApiException.badRequest(e.getMessage());
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("rows", page.getRows());
+        result.put("cursor", page.getCursor());
+        return result;
+    }
+
+    private Object health(Request request) {
+        Map<String, Object> health = new LinkedHashMap<>();
+        health.put("status", "ok");
+        health.put("connections", HospitalDBMS.getPool().size());
+        health.put("borrowedConnections", HospitalDBMS.getPool().borrowedCount());
+        health.put("virtualThreads", Workers.virtualThreadsAvailable());
+        return health;
+    }
+
+    /** Build a MedicalRecord from a request's fields. Missing text fields are empty and missing fees are 0 */
+    private static MedicalRecord recordFrom(Request request) {
+        return new MedicalRecord(request.integer("visitID"), request.integer("doctorID"),
+                                 text(request, "prescription"), text(request, "diagnostic"), text(request, "test"),
+                                 text(request, "result"), text(request, "treatment"),
+                                 request.integer("consultationFee", 0), request.integer("testFee", 0),
+                                 request.integer("treatmentFee", 0));
+    }
+
+    private static String text(Request request, String name) {
+        String value = request.optionalString(name);
+        return value == null ? "" : value;
+    }
+
+    private static MedicalRecord findRecord(int id) throws SQLException {
+        MedicalRecord record = MedicalRecord.getByID(id);
+        if (record == null) {
+            throw ApiException.notFound("Medical record " + id + " does not exist");
+        }
+        return record;
+    }
+
+    static Map<String, Object> toJson(HospitalVisit visit) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("id", visit.getID());
+        json.put("hospitalID", visit.getHospitalID());
+        json.put("patientID", visit.getPatientID());
+        json.put("startDate", visit.getStartDate());
+        json.put("endDate", visit.getEndDate());
+        json.put("diagnosis", visit.getDiagnosis());
+        json.put("bedNumber", visit.getBedNumber());
+        json.put("registrationFee", visit.getRegistrationFee());
+        return json;
+    }
+
+    static Map<String, Object> toJson(Bed bed) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("id", bed.getID());
+        json.put("hospitalID", bed.getHospitalID());
+        json.put("specialization", bed.getSpecializationName());
+        json.put("nurseID", bed.getNurseID());
+        json.put("occupied", bed.isOccupied());
+        return json;
+    }
+
+    static Map<String, Object> toJson(MedicalRecord record) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("id", record.getID());
+        json.put("visitID", record.getVisitID());
+        json.put("doctorID", record.getDoctorID());
+        json.put("prescription", record.getPrescription());
+        json.put("diagnostic", record.getDiagnostic());
+        json.put("test", record.getTest());
+        json.put("result", record.getResult());
+        json.put("treatment", record.getTreatment());
+        json.put("consultationFee", record.getConsultaionFee());
+        json.put("testFee", record.getTestFee());
+        json.put("treatmentFee", record.getTreatmentFee());
+        return json;
+    }
+
+    private static Map<String, Object> error(String message) {
+        return Collections.singletonMap("error", message);
+    }
+
+    /** Log an unexpected error with a number, and answer with only the number so no SQL or schema leaks */
+    private Map<String, Object> internalError(HttpExchange exchange, Exception e) {
+        long number = errorNumber.incrementAndGet();
+        System.out.println("Error " + number + " handling " + exchange.getRequestMethod() + " "
+                           + exchange.getRequestURI().getPath() + ": " + e);
+        e.printStackTrace();
+        return error("Internal error " + number);
+    }
+
+    /** Split a path into its non-empty segments */
+    private static String[] split(String path) {
+        return path.replaceAll("^/+|/+$", "").isEmpty() ? new String[0] : path.replaceAll("^/+|/+$", "").split("/+");
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> parameters = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return parameters;
+        }
+        for (String pair : rawQuery.split("&")) {
+            String[] nameValue = pair.split("=", 2);
+            parameters.put(URLDecoder.decode(nameValue[0], StandardCharsets.UTF_8),
+                           nameValue.length > 1 ? URLDecoder.decode(nameValue[1], StandardCharsets.UTF_8) : "");
+        }
+        return parameters;
+    }
+
+    private static Map<String, Object> readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            String text = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            if (text.trim().isEmpty()) {
+                return Collections.emptyMap();
+            }
+            return Json.parseObject(text);
+        }
+    }
+}
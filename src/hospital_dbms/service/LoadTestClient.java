@@ -0,0 +1,218 @@
+package hospital_dbms.service;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import hospital_dbms.db.LatencyHistogram;
+
+/**
+ * Load generator for HospitalServer. A number of concurrent clients send a mix of requests until the requested
+ * total has been sent, then throughput, status codes and latency per endpoint are printed.
+ *
+ * Reads look up medical records, available beds and a patient's doctors. A write checks a patient in,
+ * tries to reserve a bed, releases it and checks the patient out again, so the data ends as it started.
+ * 404 and 409 responses are expected for randomly chosen IDs and are reported but not counted as errors.
+ *
+ * Options are given as name=value arguments:
+ *   url=http://localhost:8080  concurrency=64  requests=10000  writes=10 (percent of operations)
+ *   hospitals=N  patients=N  records=N (largest IDs to choose from)  specialization=Cardiology  seed=42
+ */
+public class LoadTestClient {
+
+    // Bearer token the server expects (see HospitalServer), sent when set
+    private static final String TOKEN = System.getProperty("hospital.http.token");
+
+    private final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+    private final String url;
+    private final int concurrency;
+    private final int requests;
+    private final int writePercent;
+    private final int hospitals;
+    private final int patients;
+    private final int records;
+    private final String specialization;
+    private final long seed;
+
+    private final Map<String, LatencyHistogram> latency = new ConcurrentHashMap<>();
+    private final Map<Integer, AtomicLong> statuses = new ConcurrentHashMap<>();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicInteger sent = new AtomicInteger();
+
+    LoadTestClient(String url, int concurrency, int requests, int writePercent, int hospitals, int patients,
+                   int records, String specialization, long seed) {
+        this.url = url.replaceAll("/+$", "");
+        this.concurrency = concurrency;
+        this.requests = requests;
+        this.writePercent = writePercent;
+        this.hospitals = hospitals;
+        this.patients = patients;
+        this.records = records;
+        this.specialization = specialization;
+        this.seed = seed;
+    }
+
+    /**
+     * Main method for the load test
+     * @param args name=value options (see the class comment)
+     */
+    public static void main(String[] args) throws Exception {
+        String url = "http://localhost:" + Integer.getInteger("hospital.http.port", 8080);
+        int concurrency = 64;
+        int requests = 10000;
+        int writes = 10;
+        int hospitals = 10;
+        int patients = 1000;
+        int records = 1000;
+        String specialization = "Cardiology";
+        long seed = 42;
+
+        for (String arg : args) {
+            String[] option = arg.split("=", 2);
+            if (option.length != 2) {
+                throw new IllegalArgumentException("Expected name=value but got " + arg);
+            }
+            switch (option[0]) {
+                case "url": url = option[1]; break;
+                case "concurrency": concurrency = Integer.parseInt(option[1]); break;
+                case "requests": requests = Integer.parseInt(option[1]); break;
+                case "writes": writes = Integer.parseInt(option[1]); break;
+                case "hospitals": hospitals = Integer.parseInt(option[1]); break;
+                case "patients": patients = Integer.parseInt(option[1]); break;
+                case "records": records = Integer.parseInt(option[1]); break;
+                case "specialization": specialization = option[1]; break;
+                case "seed": seed = Long.parseLong(option[1]); break;
+                default: throw new IllegalArgumentException("Unknown option " + option[0]);
+            }
+        }
+
+        new LoadTestClient(url, concurrency, requests, writes, hospitals, patients, records, specialization, seed).run();
+    }
+
+    /** Run the clients until every request has been sent, then print the report */
+    void run() throws InterruptedException {
+        System.out.printf("Sending %d requests to %s from %d clients (%d%% writes)%n", requests, url, concurrency,
+                          writePercent);
+        ExecutorService executor = Workers.newPerTaskExecutor("loadtest");
+        SplittableRandom seeds = new SplittableRandom(seed);
+        long start = System.nanoTime();
+        for (int i = 0; i < concurrency; i++) {
+            SplittableRandom random = seeds.split();
+            executor.execute(() -> clientLoop(random));
+        }
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        report(System.nanoTime() - start);
+    }
+
+    /** One client: pick operations until the shared request budget runs out */
+    private void clientLoop(SplittableRandom random) {
+        while (sent.get() < requests) {
+            if (random.nextInt(100) < writePercent) {
+                admission(random);
+            } else {
+                switch (random.nextInt(3)) {
+                    case 0:
+                        send("GET /records/{id}", "GET", "/records/" + (1 + random.nextInt(records)), null);
+                        break;
+                    case 1:
+                        send("GET /reports/available-beds", "GET",
+                             "/reports/available-beds?hospitalID=" + (1 + random.nextInt(hospitals)), null);
+                        break;
+                    default:
+                        send("GET /reports/doctors", "GET", "/reports/doctors?patientID=" + (1 + random.nextInt(patients)),
+                             null);
+                        break;
+                }
+            }
+        }
+    }
+
+    /** Check in, reserve a bed, release it and check out, stopping at the first step that fails */
+    private void admission(SplittableRandom random) {
+        int patientID = 1 + random.nextInt(patients);
+        int hospitalID = 1 + random.nextInt(hospitals);
+        String visit = "{\"patientID\": " + patientID + ", \"hospitalID\": " + hospitalID + "}";
+
+        if (send("POST /visits/checkin", "POST", "/visits/checkin", visit) / 100 != 2) {
+            return;
+        }
+        String reservation = "{\"patientID\": " + patientID + ", \"hospitalID\": " + hospitalID
+                             + ", \"specialization\": \"" + specialization + "\"}";
+        HttpResponse<String> bed = exchange("POST /beds/reserve", "POST", "/beds/reserve", reservation);
+        if (bed != null && bed.statusCode() == 200) {
+            String bedID = bed.body().replaceAll("(?s).*\"id\"\\s*:\\s*(\\d+).*", "$1");
+            send("POST /beds/release", "POST", "/beds/release", "{\"bedID\": " + bedID + "}");
+        }
+        send("POST /visits/checkout", "POST", "/visits/checkout", visit);
+    }
+
+    /** Send a request and return its status code, or -1 if it could not be sent */
+    private int send(String endpoint, String method, String path, String body) {
+        HttpResponse<String> response = exchange(endpoint, method, path, body);
+        return response == null ? -1 : response.statusCode();
+    }
+
+    private HttpResponse<String> exchange(String endpoint, String method, String path, String body) {
+        sent.incrementAndGet();
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url + path)).timeout(Duration.ofSeconds(30));
+        if (TOKEN != null) {
+            request.header("Authorization", "Bearer " + TOKEN);
+        }
+        if (body == null) {
+            request.method(method, HttpRequest.BodyPublishers.noBody());
+        } else {
+            request.header("Content-Type", "application/json").method(method, HttpRequest.BodyPublishers.ofString(body));
+        }
+
+        long start = System.nanoTime();
+        try {
+            HttpResponse<String> response = client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+            latency.computeIfAbsent(endpoint, k -> new LatencyHistogram()).record((System.nanoTime() - start) / 1000);
+            statuses.computeIfAbsent(response.statusCode(), k -> new AtomicLong()).incrementAndGet();
+            if (response.statusCode() >= 500) {
+                errors.incrementAndGet();
+            }
+            return response;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            statuses.computeIfAbsent(-1, k -> new AtomicLong()).incrementAndGet();
+        }
+        errors.incrementAndGet();
+        return null;
+    }
+
+    /** Print throughput, status codes and per-endpoint latencies (in milliseconds) */
+    private void report(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        long total = sent.get();
+        System.out.println();
+        System.out.printf("Sent %d requests in %.2f s (%.1f requests/s), %d errors%n", total, seconds,
+                          total / Math.max(seconds, 1e-9), errors.get());
+        StringBuilder codes = new StringBuilder("Status codes:");
+        for (Map.Entry<Integer, AtomicLong> entry : new TreeMap<>(statuses).entrySet()) {
+            codes.append(' ').append(entry.getKey() == -1 ? "failed" : entry.getKey().toString())
+                 .append('=').append(entry.getValue().get());
+        }
+        System.out.println(codes);
+
+        System.out.printf("%-30s %8s %9s %9s %9s %9s%n", "Endpoint", "Count", "p50", "p90", "p99", "Max");
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(latency).entrySet()) {
+            LatencyHistogram h = entry.getValue();
+            System.out.printf("%-30s %8d %9.2f %9.2f %9.2f %9.2f%n", entry.getKey(), h.getCount(),
+                              h.getPercentile(50) / 1e3, h.getPercentile(90) / 1e3, h.getPercentile(99) / 1e3,
+                              h.getMax() / 1e3);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package hospital_dbms.service;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static hospital_dbms.HospitalDBMS.releaseConnection;
+
+/**
+ * Runs a few lookups concurrently and waits for all of them, in the manner of Java 21's StructuredTaskScope
+ * (which is not available on the runtimes this program supports).
+ *
+ * Tasks are forked inside a try-with-resources block and joined before their results are used.
+ * If any task fails, the deadline passes or the joining thread is interrupted, the remaining tasks are cancelled.
+ * Closing the scope cancels anything still running, so no task outlives the block that forked it.
+ * Each task runs on its own thread with its own pooled connection, which is returned when the task ends.
+ * A scope may share a Semaphore of fork permits with other scopes, bounding the connections their tasks
+ * borrow: a task forked when no permit is free runs on the calling thread, with its connection, instead.
+ * Tasks that must see the caller's uncommitted work use an inline() scope, which runs them on the calling thread.
+ */
+public final class TaskScope implements AutoCloseable {
+
+    /** A forked task, whose result can be read once the scope has been joined */
+    public static final class Subtask<T> {
+        private final Future<T> future;
+
+        private Subtask(Future<T> future) {
+            this.future = future;
+        }
+
+        /** The task's result. Only call this after join() has returned */
+        public T get() {
+            if (!future.isDone()) {
+                throw new IllegalStateException("Subtask read before the scope was joined");
+            }
+            try {
+                return future.get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IllegalStateException("Subtask read after the scope failed", e);
+            }
+        }
+    }
+
+    // Runs the forked tasks, or null to run them on the calling thread
+    private final ExecutorService executor;
+    // Permits for tasks on the executor, shared between scopes, or null for no limit
+    private final Semaphore permits;
+    private final long deadlineNanos;
+    private final List<Future<?>> forks = new CopyOnWriteArrayList<>();
+    // The first failure of any task
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    /**
+     * Open a scope
+     * @param executor Runs the forked tasks
+     * @param timeoutMillis Time join() waits for every task to finish
+     */
+    public TaskScope(ExecutorService executor, long timeoutMillis) {
+        this(executor, timeoutMillis, null);
+    }
+
+    /**
+     * Open a scope whose tasks only run on the executor while a permit is free
+     * @param executor Runs the forked tasks
+     * @param timeoutMillis Time join() waits for every task to finish
+     * @param permits Held by each task running on the executor; without one a task runs on the calling thread
+     */
+    public TaskScope(ExecutorService executor, long timeoutMillis, Semaphore permits) {
+        this.executor = executor;
+        this.permits = permits;
+        this.deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    /**
+     * Open a scope whose tasks run one after another on the calling thread, with its connection
+     */
+    public static TaskScope inline() {
+        return new TaskScope(null, 0);
+    }
+
+    /**
+     * Start a task
+     * @param task A lookup; unless the scope is inline it may run on another thread, so it must not depend on
+     *             the caller's transaction
+     */
+    public <T> Subtask<T> fork(Callable<T> task) {
+        if (executor == null || (permits != null && !permits.tryAcquire())) {
+            FutureTask<T> future = new FutureTask<>(task);
+            forks.add(future);
+            if (failure.get() == null) {
+                future.run();
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    failure.compareAndSet(null, e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            } else {
+                future.cancel(false);
+            }
+            return new Subtask<>(future);
+        }
+        Future<T> future;
+        try {
+            future = executor.submit(() -> {
+                try {
+                    return task.call();
+                } catch (Throwable t) {
+                    if (failure.compareAndSet(null, t)) {
+                        cancelAll();
+                    }
+                    throw t;
+                } finally {
+                    releaseConnection();
+                    if (permits != null) {
+                        permits.release();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            if (permits != null) {
+                permits.release();
+            }
+            throw e;
+        }
+        forks.add(future);
+        return new Subtask<>(future);
+    }
+
+    /**
+     * Wait for every task to finish
+     * @throws SQLException if a task failed with one (other failures are rethrown unchecked)
+     * @throws TimeoutException if the tasks didn't finish before the deadline
+     * @throws InterruptedException if the waiting thread was interrupted
+     */
+    public void join() throws SQLException, TimeoutException, InterruptedException {
+        try {
+            for (Future<?> fork : forks) {
+                long remaining = deadlineNanos - System.nanoTime();
+                try {
+                    fork.get(Math.max(0, remaining), TimeUnit.NANOSECONDS);
+                } catch (ExecutionException | CancellationException e) {
+                    if (failure.get() == null) {
+                        throw new CancellationException("Scope was cancelled");
+                    }
+                    // Report the task that failed first, not one cancelled because of it
+                    break;
+                }
+            }
+        } catch (TimeoutException | InterruptedException e) {
+            cancelAll();
+            throw e;
+        }
+
+        Throwable t = failure.get();
+        if (t instanceof SQLException) {
+            throw (SQLException) t;
+        } else if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        } else if (t != null) {
+            throw new RuntimeException(t);
+        }
+    }
+
+    /** Cancel any tasks that are still running */
+    @Override
+    public void close() {
+        cancelAll();
+    }
+
+    private void cancelAll() {
+        for (Future<?> fork : forks) {
+            fork.cancel(true);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package hospital_dbms.service;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors for running one task per request.
+ * On Java 21 and newer every task gets its own virtual thread, so blocking on JDBC costs no platform thread.
+ * On older runtimes a fixed pool of daemon platform threads is used instead.
+ * Either way the connection pool limits how many tasks use the database at once.
+ */
+public final class Workers {
+
+    // Platform threads used when virtual threads are not available
+    private static final int FALLBACK_THREADS = Integer.getInteger("hospital.workers.fallbackThreads", 200);
+
+    private Workers() {
+    }
+
+    /**
+     * Create an executor that runs each task on its own (virtual, if possible) thread
+     * @param name Prefix for the names of platform threads, if they are used
+     */
+    public static ExecutorService newPerTaskExecutor(String name) {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return Executors.newFixedThreadPool(FALLBACK_THREADS, daemonThreads(name));
+        }
+    }
+
+    /** Whether newPerTaskExecutor() gives virtual threads on this runtime */
+    public static boolean virtualThreadsAvailable() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /** A factory for named daemon threads */
+    static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,249 @@
+package hospital_dbms.ui;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.TreeMap;
+
+import hospital_dbms.HospitalDBMS;
+import hospital_dbms.Json;
+import hospital_dbms.db.LatencyHistogram;
+import hospital_dbms.models.BedAvailabilityIndex;
+import hospital_dbms.models.EntityCache;
+import hospital_dbms.models.HospitalUsage;
+import static hospital_dbms.HospitalDBMS.releaseConnection;
+
+/**
+ * Runs HospitalUI commands from a file without prompting, then reports throughput and latency per command.
+ *
+ * Two file formats are accepted:
+ *   - a script: exactly what would be typed at the prompts, one value per line
+ *     (blank lines and lines starting with # between commands are skipped)
+ *   - newline-delimited JSON (.ndjson or .jsonl, or any file whose first line starts with '{'):
+ *     one command per line, e.g. {"command": "cip", "args": [3001, 1]}
+ *
+ * Commands are grouped into transactions of groupSize commands. If a command fails, its group is rolled back
+ * and the next command starts a new group. A command fails if it throws, which HospitalUI does in a batch
+ * for the errors it would only print interactively, or if a model rolls back its work. With a group size of 1
+ * each command commits on its own, as it does interactively.
+ */
+public class BatchRunner {
+
+    /** Latency and failures of one kind of command */
+    private static class CommandStats {
+        final LatencyHistogram latency = new LatencyHistogram();
+        long totalNanos = 0;
+        long failures = 0;
+    }
+
+    // Runs the commands, without prompts
+    private final HospitalUI ui = new HospitalUI(false);
+    // Commands per transaction
+    private final int groupSize;
+
+    private final Map<String, CommandStats> stats = new TreeMap<>();
+    private long commands = 0;
+    private long failures = 0;
+    private long groupsCommitted = 0;
+    private long groupsRolledBack = 0;
+    private long commandsRolledBack = 0;
+    // Commands run in the current group so far
+    private int inGroup = 0;
+
+    /**
+     * Construct a runner
+     * @param groupSize Number of commands to run in each transaction
+     */
+    public BatchRunner(int groupSize) {
+        if (groupSize < 1) {
+            throw new IllegalArgumentException("Group size must be positive");
+        }
+        this.groupSize = groupSize;
+    }
+
+    /**
+     * Run every command in a file and print a report
+     * @param file A script or NDJSON file
+     * @throws IOException if the file cannot be read
+     * @throws SQLException if a transaction cannot be committed or rolled back
+     */
+    public void run(Path file) throws IOException, SQLException {
+        long start = System.nanoTime();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            if (isNdjson(file)) {
+                runNdjson(reader);
+            } else {
+                runScript(new Scanner(reader));
+            }
+        } catch (IOException | SQLException | RuntimeException e) {
+            if (inGroup > 0) {
+                endGroup(false);
+            }
+            throw e;
+        }
+        if (inGroup > 0) {
+            endGroup(true);
+        }
+        report(System.nanoTime() - start);
+    }
+
+    /** Decide the format from the file name, or else from the first non-blank character */
+    private static boolean isNdjson(Path file) throws IOException {
+        String name = file.getFileName().toString();
+        if (name.endsWith(".ndjson") || name.endsWith(".jsonl")) {
+            return true;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    return line.trim().startsWith("{");
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Run a script; each command reads its own arguments from the following lines */
+    private void runScript(Scanner in) throws SQLException {
+        while (in.hasNextLine()) {
+            String command = in.nextLine().trim();
+            if (command.isEmpty() || command.startsWith("#")) {
+                continue;
+            }
+            if (command.equalsIgnoreCase("quit")) {
+                break;
+            }
+            runCommand(command, in);
+        }
+    }
+
+    /** Run NDJSON commands; each line's args are given to its command one per line */
+    private void runNdjson(BufferedReader reader) throws IOException, SQLException {
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+
+            String command;
+            StringBuilder args = new StringBuilder();
+            try {
+                Map<String, Object> json = Json.parseObject(line);
+                command = String.valueOf(json.get("command"));
+                Object argList = json.get("args");
+                if (argList instanceof List) {
+                    for (Object arg : (List<?>) argList) {
+                        args.append(arg == null ? "" : arg instanceof Number ? Json.write(arg) : arg.toString()).append('\n');
+                    }
+                }
+            } catch (IllegalArgumentException e) {
+                System.out.println("Skipping line " + lineNumber + ": " + e.getMessage());
+                failures++;
+                continue;
+            }
+            if (command.equalsIgnoreCase("quit")) {
+                break;
+            }
+            runCommand(command, new Scanner(args.toString()));
+        }
+    }
+
+    /** Run one command inside the current group, starting and finishing groups as needed */
+    private void runCommand(String command, Scanner args) throws SQLException {
+        if (inGroup == 0) {
+            beginGroup();
+        }
+
+        boolean ok = true;
+        long start = System.nanoTime();
+        HospitalDBMS.takeRollback();
+        try {
+            ui.execute(command, args);
+            if (HospitalDBMS.takeRollback()) {
+                ok = false;
+                System.out.println("Command " + (commands + 1) + " (" + command + ") failed: its work was rolled back");
+            }
+        } catch (SQLException | RuntimeException e) {
+            ok = false;
+            System.out.println("Command " + (commands + 1) + " (" + command + ") failed: " + e);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        CommandStats s = stats.computeIfAbsent(command.toLowerCase(), k -> new CommandStats());
+        s.latency.record(elapsed / 1000);
+        s.totalNanos += elapsed;
+        commands++;
+        if (!ok) {
+            s.failures++;
+            failures++;
+        }
+
+        inGroup++;
+        if (!ok || inGroup >= groupSize) {
+            endGroup(ok);
+        }
+    }
+
+    private void beginGroup() throws SQLException {
+        EntityCache.beginUnitOfWork();
+        if (groupSize > 1) {
+            HospitalDBMS.beginTransactionGroup();
+        }
+    }
+
+    /** Commit (or roll back) the current group and return the connection to the pool */
+    private void endGroup(boolean commit) throws SQLException {
+        try {
+            if (groupSize > 1) {
+                if (HospitalDBMS.endTransactionGroup(commit)) {
+                    groupsCommitted++;
+                } else {
+                    groupsRolledBack++;
+                    commandsRolledBack += inGroup;
+                    // Cached objects, bed availability and usage counts may describe work that was just undone
+                    EntityCache.clear();
+                    if (BedAvailabilityIndex.isLoaded()) {
+                        BedAvailabilityIndex.reconcile();
+                    }
+                    if (HospitalUsage.isLoaded()) {
+                        HospitalUsage.load();
+                    }
+                }
+            }
+        } finally {
+            inGroup = 0;
+            EntityCache.endUnitOfWork();
+            releaseConnection();
+        }
+    }
+
+    /** Print totals and per-command latencies (in milliseconds) */
+    private void report(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.println();
+        System.out.printf("Ran %d commands in %.2f s (%.1f commands/s), %d failed%n",
+                          commands, seconds, commands / Math.max(seconds, 1e-9), failures);
+        if (groupSize > 1) {
+            System.out.printf("Transactions of up to %d commands: %d committed, %d rolled back (%d commands undone)%n",
+                              groupSize, groupsCommitted, groupsRolledBack, commandsRolledBack);
+        }
+
+        System.out.printf("%-10s %8s %7s %9s %9s %9s %9s %9s%n", "Command", "Count", "Failed", "Mean", "p50", "p90", "p99", "Max");
+        for (Map.Entry<String, CommandStats> entry : stats.entrySet()) {
+            CommandStats s = entry.getValue();
+            LatencyHistogram h = s.latency;
+            System.out.printf("%-10s %8d %7d %9.2f %9.2f %9.2f %9.2f %9.2f%n", entry.getKey(), h.getCount(), s.failures,
+                              s.totalNanos / 1e6 / Math.max(1, h.getCount()), h.getPercentile(50) / 1e3,
+                              h.getPercentile(90) / 1e3, h.getPercentile(99) / 1e3, h.getMax() / 1e3);
+        }
+    }
+}
@@ -1,8 +1,10 @@
 package hospital_dbms.ui;
 
-import java.sql.Connection;
 import java.sql.Date;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Scanner;
 import java.util.InputMismatchException;
 
@@ -10,25 +12,74 @@ import hospital_dbms.models.*;
 import hospital_dbms.models.Patient.Status;
 import hospital_dbms.models.Staff.JobTitle;
 import hospital_dbms.Reports;
-import static hospital_dbms.HospitalDBMS.getConnection;
+import hospital_dbms.TableListing;
+import hospital_dbms.analytics.AnalyticsSnapshot;
+import hospital_dbms.db.ConnectionPool;
+import hospital_dbms.db.QueryMonitor;
+import hospital_dbms.service.AdmissionService;
+import hospital_dbms.service.ApiException;
+import static hospital_dbms.HospitalDBMS.getPool;
+import static hospital_dbms.HospitalDBMS.releaseConnection;
 
 /**
  * User Interface for the HospitalDBMS system
  */
 public class HospitalUI {
 
-    // Connection with the database
-    public Connection c;
+    // Most people listed by the search command
+    private static final int SEARCH_RESULTS = 20;
+
+    // Whether prompts are printed; off when commands come from a batch file
+    private final boolean interactive;
+    // Runs check-in, check-out, bed reservation and transfer, looking up what they need concurrently
+    private final AdmissionService admissions = new AdmissionService();
 
     /**
-     * Sets up and starts the User Interface and repeatedly prompts the user for commands to enter
+     * Sets up and starts the User Interface and repeatedly prompts the user for commands to enter.
+     * Each command borrows a connection from the pool and returns it once the command finishes
      */
-    public HospitalUI(Connection c) throws SQLException {
-        this.c = c;
+    public HospitalUI() throws SQLException {
+        this(true);
 
         // Scanner for user input
         Scanner in = new Scanner( System.in );
 
+        while (true) {
+            try {
+                prompt("Enter a command (type \"help\" to see a list of commands or \"quit\" to exit): ");
+                String input = in.nextLine();
+                EntityCache.beginUnitOfWork();
+                execute(input, in);
+            } catch(SQLException s) {
+                System.out.println("Exception occurred while communicating with the Database: ");
+                s.printStackTrace();
+                continue;
+            } catch(Exception e) {
+                System.out.println("An error has occurred: ");
+                e.printStackTrace();
+                continue;
+            } finally {
+                EntityCache.endUnitOfWork();
+                releaseConnection();
+            }
+        }
+    }
+
+    /**
+     * Construct a User Interface without starting it
+     * @param interactive Whether to print prompts for each value read
+     */
+    HospitalUI(boolean interactive) {
+        this.interactive = interactive;
+    }
+
+    /**
+     * Runs one command, reading its arguments from the given Scanner
+     * @param command The command name (e.g. "cip")
+     * @param in Scanner holding the command's arguments, one per line
+     * @throws SQLException upon error while communicating with the Database
+     */
+    public void execute(String command, Scanner in) throws SQLException {
         // Instances of Classes
         Bed bed;
         Billing billing;
@@ -45,279 +96,309 @@ public class HospitalUI {
         // Used as a temporary variable to store IDs 
         int tmpID;
 
-        while (true) {
-            try {
-                System.out.print("Enter a command (type \"help\" to see a list of commands or \"quit\" to exit): ");
-                String input = in.nextLine();
-                input = input.toLowerCase();
-                switch (input) {
-                    // Help
-                    case "help":
-                        printCommands();
-                        break;
-                    // Exit
-                    case "quit":
-                        System.out.println("Bye.");
-                        System.exit(0);
-                    // Add Hospital
-                    case "ah":
-                        hospital = hospitalParameters(in);
-                        try {
-                            hospital.insert();
-                            System.out.printf("Created hospital with id %d\n", hospital.getHospitalID());
-                        } catch (SQLException e) {
-                            System.out.println("Error creating hospital");
-                            e.printStackTrace();
-                        }
-                        break;
-                    // Add Patient
-                    case "ap":
-                        person = personParameters(in);
-                        patient = patientParameters(in, person);
-                        try {
-                            patient.insert();
-                            System.out.printf("Created patient with id %d\n", patient.getID());
-                        } catch (SQLException e) {
-                            System.out.println("Error creating patient");
-                            e.printStackTrace();
-                        }
-                        break;
-                    // Add Staff
-                    case "as":
-                        person = personParameters(in);
-                        staff = staffParameters(in, person);
-                        try {
-                            staff.insert();
-                            System.out.printf("Created staff with id %d\n", staff.getID());
-                        } catch (SQLException e) {
-                            System.out.println("Error creating patient");
-                            e.printStackTrace();
-                        }
-                        break;
-                    // Edit Hospital
-                    case "eh":
-                        System.out.print("Enter the ID of the Hospital you would like to Edit: ");
-                        tmpID = in.nextInt();
-                        in.nextLine();
-                        Hospital hospitalToEdit = Hospital.getByID(tmpID);
-                        Hospital updatedHospital = hospitalParameters(in);
-                        hospitalToEdit.setAddress(updatedHospital.getAddress());
-                        hospitalToEdit.setPhone(updatedHospital.getPhone());
-                        try {
-                            hospitalToEdit.update();
-                        } catch (SQLException e) {
-                            System.out.println("Error updating hospital");
-                            e.printStackTrace();
-                        }
-                        break;
-                    // Edit Patient
-                    case "ep":
-                        System.out.print("Enter the ID of the Patient you would like to Edit: ");
-                        tmpID = in.nextInt();
-                        in.nextLine();
-                        person = personParameters(in);
-                        Patient updatedPatient = patientParameters(in, person);
-                        updatedPatient.setID(tmpID);
-                        try {
-                            updatedPatient.update();
-                        } catch (SQLException e) {
-                            System.out.println("Error updating patient");
-                            e.printStackTrace();
-                        }
-                        break;
-                    // Edit Staff
-                    case "es":
-                        System.out.print("Enter the ID of the Staff you would like to Edit: ");
-                        tmpID = in.nextInt();
-                        in.nextLine();
-                        person = personParameters( in );
-                        staff = staffParameters( in, person );
-                        staff.setID(tmpID);
-                        try {
-                            staff.update();
-                        } catch (SQLException e) {
-                            System.out.println("Error updating staff");
-                            e.printStackTrace();
-                        }
-                        break;
-                    // Delete Hospital
-                    case "dh":
-                        System.out.print("Enter the ID of the Hospital you would like to Delete: ");
-                        int hospitalID = in.nextInt();
-                        in.nextLine();
-                        hospital = Hospital.getByID(hospitalID);
-                        hospital.delete();
-                        break;
-                    // Delete Patient
-                    case "dp":
-                        System.out.print("Enter the ID of the Patient you would like to Delete: ");
-                        int patientID = in.nextInt();
-                        in.nextLine();
-                        patient = Patient.getByID(patientID);
-                        if(patient == null)
-                            break;
-                        patient.delete();
-                        break;
-                    // Delete Staff
-                    case "ds":
-                        System.out.print("Enter the ID of the Staff you would like to Delete: ");
-                        int staffID = in.nextInt();
-                        in.nextLine();
-                        staff = Staff.getByID(staffID);
-                        if(staff == null)
-                            break;
-                        staff.delete();
-                        break;
-                    // Check Beds In Hospital With Specialty
-                    case "cbh":
-                        System.out.print("Enter hospital ID: ");
-                        tmpID = in.nextInt();
-                        in.nextLine();
-                        Reports.printAvailableBeds(tmpID);
-                        break;
-                    // Reserve Bed
-                    case "rsb":
-                        reserveBed(in);
-                        break;
-                    // Release Bed
-                    case "rlb":
-                        releaseBed(in);
-                        break;
-                    // Transfer Patient to New Hospital
-                    case "tp":
+        switch (command.toLowerCase()) {
+            // Help
+            case "help":
+                printCommands();
+                break;
+            // Exit
+            case "quit":
+                System.out.println("Bye.");
+                System.exit(0);
+            // Add Hospital
+            case "ah":
+                hospital = hospitalParameters(in);
+                try {
+                    hospital.insert();
+                    System.out.printf("Created hospital with id %d\n", hospital.getHospitalID());
+                } catch (SQLException e) {
+                    failed("Error creating hospital", e);
+                }
+                break;
+            // Add Patient
+            case "ap":
+                person = personParameters(in);
+                patient = patientParameters(in, person);
+                try {
+                    patient.insert();
+                    System.out.printf("Created patient with id %d\n", patient.getID());
+                } catch (SQLException e) {
+                    failed("Error creating patient", e);
+                }
+                break;
+            // Add Staff
+            case "as":
+                person = personParameters(in);
+                staff = staffParameters(in, person);
+                try {
+                    staff.insert();
+                    System.out.printf("Created staff with id %d\n", staff.getID());
+                } catch (SQLException e) {
+                    failed("Error creating patient", e);
+                }
+                break;
+            // Edit Hospital
+            case "eh":
+                prompt("Enter the ID of the Hospital you would like to Edit: ");
+                tmpID = in.nextInt();
+                in.nextLine();
+                Hospital hospitalToEdit = Hospital.getByID(tmpID);
+                Hospital updatedHospital = hospitalParameters(in);
+                hospitalToEdit.setAddress(updatedHospital.getAddress());
+                hospitalToEdit.setPhone(updatedHospital.getPhone());
+                try {
+                    hospitalToEdit.update();
+                } catch (SQLException e) {
+                    failed("Error updating hospital", e);
+                }
+                break;
+            // Edit Patient
+            case "ep":
+                prompt("Enter the ID of the Patient you would like to Edit: ");
+                tmpID = in.nextInt();
+                in.nextLine();
+                person = personParameters(in);
+                Patient updatedPatient = patientParameters(in, person);
+                updatedPatient.setID(tmpID);
+                try {
+                    updatedPatient.update();
+                } catch (SQLException e) {
+                    failed("Error updating patient", e);
+                }
+                break;
+            // Edit Staff
+            case "es":
+                prompt("Enter the ID of the Staff you would like to Edit: ");
+                tmpID = in.nextInt();
+                in.nextLine();
+                person = personParameters( in );
+                staff = staffParameters( in, person );
+                staff.setID(tmpID);
+                try {
+                    staff.update();
+                } catch (SQLException e) {
+                    failed("Error updating staff", e);
+                }
+                break;
+            // Delete Hospital
+            case "dh":
+                prompt("Enter the ID of the Hospital you would like to Delete: ");
+                int hospitalID = in.nextInt();
+                in.nextLine();
+                hospital = Hospital.getByID(hospitalID);
+                hospital.delete();
+                break;
+            // Delete Patient
+            case "dp":
+                prompt("Enter the ID of the Patient you would like to Delete: ");
+                int patientID = in.nextInt();
+                in.nextLine();
+                patient = Patient.getByID(patientID);
+                if(patient == null)
+                    break;
+                patient.delete();
+                break;
+            // Delete Staff
+            case "ds":
+                prompt("Enter the ID of the Staff you would like to Delete: ");
+                int staffID = in.nextInt();
+                in.nextLine();
+                staff = Staff.getByID(staffID);
+                if(staff == null)
+                    break;
+                staff.delete();
+                break;
+            // Check Beds In Hospital With Specialty
+            case "cbh":
+                prompt("Enter hospital ID: ");
+                tmpID = in.nextInt();
+                in.nextLine();
+                Reports.printAvailableBeds(tmpID);
+                break;
+            // Reserve Bed
+            case "rsb":
+                reserveBed(in);
+                break;
+            // Release Bed
+            case "rlb":
+                releaseBed(in);
+                break;
+            // Transfer Patient to New Hospital
+            case "tp":
 		                transferPatient(in);
-                        break;
-                    // Create Medical Record
-                    case "cm":
-                        MedicalRecord m = medRecParams(in);
-                        m.insert();
-                        break;
-                    // Edit Medical Record
-                    case "em":
-                        System.out.print("Enter the ID of the MedicalRecord you would like to edit: ");
-                        tmpID = in.nextInt();
-                        in.nextLine();
-                        MedicalRecord updatedMedRec = medRecParams(in);
-                        updatedMedRec.setID(tmpID);
-                        try {
-                            updatedMedRec.update();
-                        } catch (SQLException e) {
-                            System.out.println("Error updating record");
-                            e.printStackTrace();
-                        }
-                        break;
-                    // Create Billing Account
-                    case "cba":
-                        Billing b = billingParamenters(in);
-                        try {
-                            b.insert();
-                            System.out.printf("Created billing account with id %d\n", b.getID());
-                        } catch (SQLException e) {
-                            System.out.println("Error creating billing account");
-                            e.printStackTrace();
-                        }
-                        break;
-                    // Update Billing Account
-                    case "uba":
-                        System.out.print("Enter the ID of the Billing Account you would like to update: ");
-                        tmpID = in.nextInt();
-                        in.nextLine();
-                        Billing b3 = Billing.getById(tmpID);
-                        if(b3 == null) {
-                            System.out.printf("Billing account with id %d not found\n", tmpID);
-                            break;
-                        }
-                        try {
-                            Billing newb2 = billingParamenters(in);
-                            newb2.setID(tmpID);
-                            newb2.update();
-                        } catch (SQLException e) {
-                            System.out.println("Error updating billing account");
-                            e.printStackTrace();
-                        }
-                        System.out.printf("Updated billing account %d\n", tmpID);
-                        break;
-                    // Delete Billing Account
-                    case "dba":
-                        System.out.print("Enter the ID of the Billing Account you would like to Delete: ");
-                        tmpID = in.nextInt();
-                        in.nextLine();
-                        Billing b2 = Billing.getById(tmpID);
-                        if(b2 == null) {
-                            System.out.printf("Billing account with id %d not found\n", tmpID);
-                            break;
-                        }
-                        try {
-                            b2.delete();
-                        } catch (SQLException e) {
-                            System.out.println("Error deleting billing account");
-                            e.printStackTrace();
-                        }
-                        System.out.printf("Deleted billing account %d\n", tmpID);
-                        break;
-                    // Report Billing History
-                    case "rbh":
-                        billingReport(in);
-                        break;
-                    // Overall Hospital Usage
-                    case "hu":
-                        Reports.printHospitalUsage();
-                        break;
-                    // Hospital Patients Per Month
-                    case "ppm":
-                        System.out.print("Enter hospital id: ");
-                        tmpID = in.nextInt();
-                        in.nextLine();
-                        Reports.printPatientsPerMonth(tmpID);
-                        break;
-                    // Check-in Patient
-                    case "cip":
-                        System.out.print("Enter the patient ID: ");
-                        tmpID = in.nextInt();
-                        in.nextLine();
-                        Patient p = Patient.getByID(tmpID);
-                        System.out.print("Enter the Hospital ID to check in: ");
-                        tmpID = in.nextInt();
-                        in.nextLine();
-                        Hospital h = Hospital.getByID(tmpID);
-                        p.checkin(h);
-                        break;
-                    // Show all Doctors for Patient
-                    case "drs":
-                        System.out.print("Enter patient id: ");
-                        tmpID = in.nextInt();
-                        in.nextLine();
-                        Reports.printDoctorsForPatient(tmpID);
-                        break;
-                    // View Hospitals Grouped By Specialty
-                    case "hsp":
-                        Reports.printHospitalsBySpecialty();
-                        break;
-                    case "cop":
-                        System.out.print("Enter the patient ID: ");
-                        tmpID = in.nextInt();
-                        in.nextLine();
-                        Patient pat = Patient.getByID(tmpID);
-                        System.out.print("Enter the Hospital ID to check out: ");
-                        tmpID = in.nextInt();
-                        in.nextLine();
-                        HospitalVisit patientVisit = pat.getCurrentVisit(tmpID);
-                        long millis = System.currentTimeMillis();
-                        patientVisit.setEndDate(new java.sql.Date(millis));
-                        patientVisit.update();
-                        break;
-                    default:
-                        System.out.println("Invalid Command. Please try again.");
+                break;
+            // Create Medical Record
+            case "cm":
+                MedicalRecord m = medRecParams(in);
+                m.insert();
+                break;
+            // Edit Medical Record
+            case "em":
+                prompt("Enter the ID of the MedicalRecord you would like to edit: ");
+                tmpID = in.nextInt();
+                in.nextLine();
+                MedicalRecord updatedMedRec = medRecParams(in);
+                updatedMedRec.setID(tmpID);
+                try {
+                    updatedMedRec.update();
+                } catch (SQLException e) {
+                    failed("Error updating record", e);
                 }
-            } catch(SQLException s) {
-                System.out.println("Exception occurred while communicating with the Database: ");
-                s.printStackTrace();
-                continue;
-            } catch(Exception e) {
-                System.out.println("An error has occurred: ");
-                e.printStackTrace();
-                continue;
+                break;
+            // Create Billing Account
+            case "cba":
+                Billing b = billingParamenters(in);
+                try {
+                    b.insert();
+                    System.out.printf("Created billing account with id %d\n", b.getID());
+                } catch (SQLException e) {
+                    failed("Error creating billing account", e);
+                }
+                break;
+            // Update Billing Account
+            case "uba":
+                prompt("Enter the ID of the Billing Account you would like to update: ");
+                tmpID = in.nextInt();
+                in.nextLine();
+                Billing b3 = Billing.getById(tmpID);
+                if(b3 == null) {
+                    System.out.printf("Billing account with id %d not found\n", tmpID);
+                    break;
+                }
+                try {
+                    Billing newb2 = billingParamenters(in);
+                    newb2.setID(tmpID);
+                    newb2.update();
+                } catch (SQLException e) {
+                    failed("Error updating billing account", e);
+                }
+                System.out.printf("Updated billing account %d\n", tmpID);
+                break;
+            // Delete Billing Account
+            case "dba":
+                prompt("Enter the ID of the Billing Account you would like to Delete: ");
+                tmpID = in.nextInt();
+                in.nextLine();
+                Billing b2 = Billing.getById(tmpID);
+                if(b2 == null) {
+                    System.out.printf("Billing account with id %d not found\n", tmpID);
+                    break;
+                }
+                try {
+                    b2.delete();
+                } catch (SQLException e) {
+                    failed("Error deleting billing account", e);
+                }
+                System.out.printf("Deleted billing account %d\n", tmpID);
+                break;
+            // Report Billing History
+            case "rbh":
+                billingReport(in);
+                break;
+            // Overall Hospital Usage
+            case "hu":
+                Reports.printHospitalUsage();
+                break;
+            // Hospital Patients Per Month
+            case "ppm":
+                prompt("Enter hospital id: ");
+                tmpID = in.nextInt();
+                in.nextLine();
+                prompt("Enter the first month (YYYY-MM, blank for all): ");
+                String firstMonth = in.nextLine().trim();
+                prompt("Enter the last month (YYYY-MM, blank for all): ");
+                String lastMonth = in.nextLine().trim();
+                try {
+                    Reports.printPatientsPerMonth(tmpID, firstMonth.isEmpty() ? null : Date.valueOf(firstMonth + "-01"),
+                                                  lastMonth.isEmpty() ? null : Date.valueOf(lastMonth + "-01"));
+                } catch (IllegalArgumentException e) {
+                    failed("Invalid month. Please try again", e);
+                }
+                break;
+            // Check-in Patient
+            case "cip":
+                prompt("Enter the patient ID: ");
+                tmpID = in.nextInt();
+                in.nextLine();
+                prompt("Enter the Hospital ID to check in: ");
+                int checkinHospitalID = in.nextInt();
+                in.nextLine();
+                try {
+                    admissions.checkin(tmpID, checkinHospitalID);
+                } catch (ApiException e) {
+                    failed(e.getMessage(), e);
+                }
+                break;
+            // Show all Doctors for Patient
+            case "drs":
+                prompt("Enter patient id: ");
+                tmpID = in.nextInt();
+                in.nextLine();
+                Reports.printDoctorsForPatient(tmpID);
+                break;
+            // View Hospitals Grouped By Specialty
+            case "hsp":
+                Reports.printHospitalsBySpecialty();
+                break;
+            case "cop":
+                prompt("Enter the patient ID: ");
+                tmpID = in.nextInt();
+                in.nextLine();
+                prompt("Enter the Hospital ID to check out: ");
+                int checkoutHospitalID = in.nextInt();
+                in.nextLine();
+                try {
+                    admissions.checkout(tmpID, checkoutHospitalID);
+                } catch (ApiException e) {
+                    failed(e.getMessage(), e);
+                }
+                break;
+            // Search People by name, phone number or date of birth
+            case "sp":
+                prompt("Enter a name, phone number and/or date of birth (YYYY-MM-DD): ");
+                String searchQuery = in.nextLine().trim();
+                if (searchQuery.isEmpty()) {
+                    System.out.println("Nothing to search for. Please try again");
+                    break;
+                }
+                Reports.printPeopleSearch(searchQuery, SEARCH_RESULTS);
+                break;
+            // List a table, one page at a time
+            case "lt":
+                listTable(in);
+                break;
+            // Show SQL and Cache Statistics
+            case "qs":
+                printStatistics();
+                break;
+            default:
+                System.out.println("Invalid Command. Please try again.");
+        }
+    }
+
+    /** Print a prompt for the next value to be read, unless running a batch */
+    private void prompt(String text) {
+        if (interactive) {
+            System.out.print(text);
+        }
+    }
+
+    /**
+     * Report a command that failed. Interactively the error is printed and the user carries on; in a batch it is
+     * also thrown, so BatchRunner counts the command as failed and rolls back its group
+     * @param message What went wrong, for the console
+     * @param e The error
+     */
+    private void failed(String message, Exception e) throws SQLException {
+        System.out.println(message);
+        if (!interactive) {
+            if (e instanceof SQLException) {
+                throw (SQLException) e;
             }
+            throw e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e);
+        }
+        if (e instanceof SQLException) {
+            e.printStackTrace();
         }
     }
 
@@ -347,7 +428,79 @@ public class HospitalUI {
         System.out.println("Check in Patient: \"cip\"");
         System.out.println("Check out Patient: \"cop\"");
         System.out.println("Show all Doctors for Patient: \"drs\"");
-        System.out.println("View Hospitals Grouped By Specialty: \"hsp\"\n");
+        System.out.println("View Hospitals Grouped By Specialty: \"hsp\"");
+        System.out.println("Search People by Name, Phone or Date of Birth: \"sp\"");
+        System.out.println("List Table Page by Page: \"lt\"");
+        System.out.println("Show SQL and Cache Statistics: \"qs\"\n");
+    }
+
+    /**
+     * Asks for a table, the columns to show and filters, then prints the table one page at a time,
+     * waiting for Enter between pages
+     * @param in Scanner that handles User Input
+     */
+    public void listTable(Scanner in) throws SQLException {
+        prompt("Enter the table to list " + TableListing.getTables() + ": ");
+        String table = in.nextLine().trim();
+        prompt("Enter the columns to show, separated by commas (leave blank for all): ");
+        String columns = in.nextLine().trim();
+        List<TableListing.Filter> filters = new ArrayList<>();
+        TableListing listing;
+        try {
+            while (true) {
+                prompt("Enter a filter such as \"hospitalID = 3\" (leave blank when done): ");
+                String filter = in.nextLine().trim();
+                if (filter.isEmpty()) {
+                    break;
+                }
+                filters.add(TableListing.Filter.parse(filter));
+            }
+            listing = new TableListing(table, columns.isEmpty() ? null : Arrays.asList(columns.split(",")),
+                                       filters, TableListing.DEFAULT_PAGE_SIZE);
+        } catch (IllegalArgumentException e) {
+            failed(e.getMessage(), e);
+            return;
+        }
+
+        Object[] after = null;
+        for (int number = 1; ; number++) {
+            TableListing.Page page = Reports.printTablePage(listing, after);
+            if (page.getRows().isEmpty()) {
+                System.out.println(number == 1 ? "No rows to show" : "No more rows");
+                break;
+            }
+            if (!page.hasMore()) {
+                break;
+            }
+            prompt("Page " + number + ". Press Enter for the next page, or type q to stop: ");
+            if (!in.hasNextLine() || !in.nextLine().trim().isEmpty()) {
+                break;
+            }
+            after = page.getNextKey();
+        }
+    }
+
+    /** Prints the time spent in each SQL statement and the hit rates of the caches */
+    public void printStatistics() {
+        QueryMonitor.dump(System.out, 50);
+
+        ConnectionPool pool = getPool();
+        long statementHits = pool.getStatementCacheHits();
+        long statementMisses = pool.getStatementCacheMisses();
+        System.out.printf("\nConnections: %d open, %d borrowed\n", pool.size(), pool.borrowedCount());
+        System.out.printf("Statement cache: %d hits, %d misses\n", statementHits, statementMisses);
+        System.out.printf("Entity cache: %d identity hits, %d shared hits, %d misses (%.1f%% hit rate)\n\n",
+                          EntityCache.getIdentityHits(), EntityCache.getSecondLevelHits(), EntityCache.getMisses(),
+                          EntityCache.getHitRate() * 100);
+        AnalyticsSnapshot snapshot = AnalyticsSnapshot.current();
+        if (snapshot != null) {
+            System.out.printf("Analytics snapshot: %d rows, loaded %d ms ago\n\n", snapshot.getRowCount(), snapshot.getAgeMillis());
+        }
+        if (WriteBehindBuffer.isRunning()) {
+            System.out.printf("Write-behind buffer: %d updates buffered, %d rows written, %d failed, %d pending\n\n",
+                              WriteBehindBuffer.getBufferedCount(), WriteBehindBuffer.getWrittenCount(),
+                              WriteBehindBuffer.getFailedCount(), WriteBehindBuffer.getPendingCount());
+        }
     }
 
     /**
@@ -355,17 +508,17 @@ public class HospitalUI {
      * @param in Scanner that handles User Input
      */
     public Person personParameters ( Scanner in ) {
-        System.out.print( "Enter a name: " );
+        prompt( "Enter a name: " );
         String name = in.nextLine();
-        System.out.print( "Enter an address: " );
+        prompt( "Enter an address: " );
         String addr = in.nextLine();
-        System.out.print( "Enter a phone number: " );
+        prompt( "Enter a phone number: " );
         String phoneNum = in.nextLine();
 
         Date date = null;
         boolean error = true;
         while ( error ) {
-            System.out.print( "Enter a date of birth (yyyy-mm-dd): " );
+            prompt( "Enter a date of birth (yyyy-mm-dd): " );
             String dob = in.nextLine();
             try {
                 date = Date.valueOf(dob);
@@ -384,16 +537,16 @@ public class HospitalUI {
      * @param person Person object containing name, address, phoneNum and dateOfBirth
      */
     public Patient patientParameters ( Scanner in, Person person ) {
-        System.out.print( "Enter an SSN: " );
+        prompt( "Enter an SSN: " );
         int ssn = in.nextInt();
         in.nextLine();
-        System.out.print( "Enter gender: " );
+        prompt( "Enter gender: " );
         String gender = in.nextLine();
 
         boolean error = true;
         Status status = null;
         while ( error ) {
-            System.out.print( "Enter Patient Status ('PROCESSING', 'TREATMENT_COMPLETE', 'IN_TREATMENT'): " );
+            prompt( "Enter Patient Status ('PROCESSING', 'TREATMENT_COMPLETE', 'IN_TREATMENT'): " );
             String statusStr = in.nextLine().toLowerCase();
             switch ( statusStr ) {
                 case "processing":
@@ -421,19 +574,19 @@ public class HospitalUI {
      * @param person Person object containing name, address, phoneNum and dateOfBirth
      */
     public Staff staffParameters ( Scanner in, Person person ) {
-        System.out.print( "Enter a Hospital ID: " );
+        prompt( "Enter a Hospital ID: " );
         int hospitalId = in.nextInt();
         in.nextLine();
-        System.out.print( "Enter a department: " );
+        prompt( "Enter a department: " );
         String department = in.nextLine();
 
-        System.out.print( "Enter a professional title: " );
+        prompt( "Enter a professional title: " );
         String profTitle = in.nextLine();
 
-        System.out.print( "Enter an office address: " );
+        prompt( "Enter an office address: " );
         String officeAddress = in.nextLine();
 
-        System.out.print( "Enter a specialization (only for Doctors, leave blank if not): " );
+        prompt( "Enter a specialization (only for Doctors, leave blank if not): " );
         String specialization = in.nextLine();
         // If the User left Specialization blank, set it to NULL
         specialization = specialization.trim();
@@ -445,7 +598,7 @@ public class HospitalUI {
         boolean error = true;
         JobTitle jobTitle = null;
         while ( error ) {
-            System.out.print( "Enter Staff Job Title ('NURSE', 'DOCTOR', 'ADMINISTRATOR', 'BILLER'): " );
+            prompt( "Enter Staff Job Title ('NURSE', 'DOCTOR', 'ADMINISTRATOR', 'BILLER'): " );
             String statusStr = in.nextLine().toLowerCase();
             switch ( statusStr ) {
                 case "nurse":
@@ -476,9 +629,9 @@ public class HospitalUI {
      * @param in Scanner that handles User Input
      */
     public Hospital hospitalParameters(Scanner in) {
-        System.out.print("Enter an address: ");
+        prompt("Enter an address: ");
         String addr = in.nextLine();
-        System.out.print("Enter a phone number: ");
+        prompt("Enter a phone number: ");
         String phone = in.nextLine();
         return new Hospital(addr, phone);
     }
@@ -489,10 +642,10 @@ public class HospitalUI {
      * @param hospital Hospital the bed is located in
      */
     public Bed bedParameters ( Scanner in, Hospital hospital ) {
-        System.out.print( "Enter a specialization:" );
+        prompt( "Enter a specialization:" );
         String spec = in.nextLine();
 
-        System.out.print( "Enter a nurse ID: " );
+        prompt( "Enter a nurse ID: " );
         int nurse = in.nextInt();
         in.nextLine();
 
@@ -504,30 +657,30 @@ public class HospitalUI {
      * @param in Scanner that handles User Input
      */
     public MedicalRecord medRecParams(Scanner in) {
-        System.out.println("Filling information for a Medical Record. If this record is a Test, which has not yet been run, you may leave the test, result, treatment, consultationFee and treatmentFee blank, and update them later using the Edit Medical Record (\"em\") command. All monetary values should be reported to the nearest whole dollar.");
-        System.out.print("Enter a HospitalVisit ID: ");
+        prompt("Filling information for a Medical Record. If this record is a Test, which has not yet been run, you may leave the test, result, treatment, consultationFee and treatmentFee blank, and update them later using the Edit Medical Record (\"em\") command. All monetary values should be reported to the nearest whole dollar.\n");
+        prompt("Enter a HospitalVisit ID: ");
         int visitID = in.nextInt();
         in.nextLine();
-        System.out.print("Enter the ID of the Responsible Doctor: ");
+        prompt("Enter the ID of the Responsible Doctor: ");
         int doctorID = in.nextInt();
         in.nextLine();
-        System.out.print("Enter the Patient's prescriptions: ");
+        prompt("Enter the Patient's prescriptions: ");
         String prescriptions = in.nextLine();
-        System.out.print("Patient diagnosis: ");
+        prompt("Patient diagnosis: ");
         String diagnosis = in.nextLine();
-        System.out.print("Enter the test run on the Patient: ");
+        prompt("Enter the test run on the Patient: ");
         String test = in.nextLine();
-        System.out.print("Enter the results for the test: ");
+        prompt("Enter the results for the test: ");
         String results = in.nextLine();
-        System.out.print("Enter the Patient's treatment: ");
+        prompt("Enter the Patient's treatment: ");
         String treatment = in.nextLine();
-        System.out.print("Consultation Fee: ");
+        prompt("Consultation Fee: ");
         int consultationFee = in.nextInt();
         in.nextLine();
-        System.out.print("Test Fee (if no test was run, please enter 0): ");
+        prompt("Test Fee (if no test was run, please enter 0): ");
         int testFee = in.nextInt();
         in.nextLine();
-        System.out.print("Treatment Fee: ");
+        prompt("Treatment Fee: ");
         int treatmentFee = in.nextInt();
         in.nextLine();
         
@@ -539,11 +692,11 @@ public class HospitalUI {
      * @param in Scanner that handles User Input
      */
     public Billing billingParamenters(Scanner in) {
-        System.out.print("Enter patient ID: ");
+        prompt("Enter patient ID: ");
         int patientID = in.nextInt();
         in.nextLine();
 
-        System.out.println("Enter payment info (credit card number or 'CASH'): ");
+        prompt("Enter payment info (credit card number or 'CASH'): ");
         String payment = in.nextLine();
 
         return new Billing(patientID, payment);
@@ -553,20 +706,20 @@ public class HospitalUI {
      * Creates a Billing Report for a Patient between two user specified dates
      * @param in Scanner that handles User Input
      */
-    public void billingReport(Scanner in) {
+    public void billingReport(Scanner in) throws SQLException {
         try {
-            System.out.print("Enter a patient id: ");
+            prompt("Enter a patient id: ");
             int tmpID = in.nextInt();
             in.nextLine();
-            System.out.print("Enter the start date (YYYY-MM-dd): ");
+            prompt("Enter the start date (YYYY-MM-dd): ");
             String dateStr = in.nextLine();
             Date startDate = Date.valueOf(dateStr);
-            System.out.print("Enter the end date (YYYY-MM-dd): ");
+            prompt("Enter the end date (YYYY-MM-dd): ");
             dateStr = in.nextLine();
             Date endDate = Date.valueOf(dateStr);
             Reports.printBilling(tmpID, startDate, endDate);
         } catch (java.util.InputMismatchException | IllegalArgumentException e) {
-            System.out.println("Invalid input. Please try again");
+            failed("Invalid input. Please try again", e);
         }
     }
 
@@ -574,13 +727,17 @@ public class HospitalUI {
      * Unoccupies a user specified Bed in the Database
      * @param in Scanner that handles User Input
      */
-    public void releaseBed(Scanner in) {
+    public void releaseBed(Scanner in) throws SQLException {
         try {
-            System.out.print("Enter bed number: ");
+            prompt("Enter bed number: ");
             int bedID = in.nextInt();
             in.nextLine();
 
             Bed bed = Bed.getById(bedID);
+            if (bed == null) {
+                System.out.printf("Bed #%d does not exist.\n", bedID);
+                return;
+            }
             if (!bed.isOccupied()) {
                 System.out.printf("Bed #%d is already unoccupied.\n", bedID);
                 return;
@@ -588,8 +745,7 @@ public class HospitalUI {
             bed.release();
             System.out.printf("Successfully released bed #%d\n", bedID);
         } catch (SQLException e) {
-            System.out.println("Error releasing bed. Please try again.");
-            e.printStackTrace();
+            failed("Error releasing bed. Please try again.", e);
         }
 
     }
@@ -598,99 +754,63 @@ public class HospitalUI {
      * Occupies a Bed in user specified Hospital (and Specialization) for a given Patient
      * @param in Scanner that handles User Input
      */
-    public void reserveBed(Scanner in) {
+    public void reserveBed(Scanner in) throws SQLException {
         try {
-            System.out.print("Enter hospital id: ");
+            prompt("Enter hospital id: ");
             int hospitalID = in.nextInt();
             in.nextLine();
 
-            System.out.print("Enter desired specialization: ");
+            prompt("Enter desired specialization: ");
             String specialization = in.nextLine();
 
-            Bed bed = Bed.getAvailableBed(hospitalID, specialization);
-            if (bed == null) {
-                System.out.printf("No beds are available in hospital #%d with specialization %s\n", hospitalID, specialization);
-                return;
-            }
-
-            System.out.printf("Found a bed: #%d (overseen by nurse %d)\n", bed.getID(), bed.getNurseID());
-            System.out.print("Enter patient id: ");
+            prompt("Enter patient id: ");
             int patientID = in.nextInt();
             in.nextLine();
 
-            Patient p = Patient.getByID(patientID);
-
-            HospitalVisit patientVisit = p.getCurrentVisit(hospitalID);
-            if (patientVisit == null) {
-                System.out.printf("Patient %d is not currently checked in to hospital %d\n", patientID, hospitalID);
-            } else if (patientVisit.getBedNumber() != null && patientVisit.getBedNumber() != 0) {
-                System.out.printf("Patient %d is already assigned to bed #%d\n", patientID, patientVisit.getBedNumber());
-            } else {
-                Connection connection = getConnection();
-                connection.setAutoCommit(false);
-                try {
-                    bed.setOccupied(true);
-                    patientVisit.setBedNumber(bed.getID());
-                    patientVisit.update();
-                    bed.update();
-                    connection.commit();
-                } catch (SQLException e) {
-                    connection.rollback();
-                    throw e;
-                }
-                System.out.printf("Assigned patient %d to bed #%d\n", patientID, bed.getID());
-            }
-        } catch (SQLException | InputMismatchException | NullPointerException e) {
-            System.out.println("Error reserving bed. Please try again.");
-            e.printStackTrace();
+            Bed bed = admissions.reserveBed(patientID, hospitalID, specialization);
+            System.out.printf("Assigned patient %d to bed #%d (overseen by nurse %d)\n", patientID, bed.getID(), bed.getNurseID());
+        } catch (ApiException e) {
+            failed(e.getMessage(), e);
+        } catch (SQLException | InputMismatchException e) {
             in.nextLine();
+            failed("Error reserving bed. Please try again.", e);
         }
     }
 
     /**
      * Transfers a Patient from one hospital to another. Releases the Patient's old bed and reserves
      * a new bed in the new Hospital with the user specified specialization
+     * @param in Scanner that handles User Input
      */
- 	public void transferPatient(Scanner in) {
+    public void transferPatient(Scanner in) throws SQLException {
         try {
-		    System.out.print("Enter patient id: ");
-		    int patientID = in.nextInt();
-		    in.nextLine();
-	        Patient p = Patient.getByID(patientID);
-		    //Enter the current Hospital ID    
-            System.out.print("Enter current Hospital ID: ");
-            int tmpID = in.nextInt();
+            prompt("Enter patient id: ");
+            int patientID = in.nextInt();
             in.nextLine();
-            HospitalVisit patientVisit = p.getCurrentVisit(tmpID);
-            //end the Patient's current hospital Visit
-            long millis = System.currentTimeMillis();
-            patientVisit.setEndDate(new java.sql.Date(millis));
-            patientVisit.update();
-		    //release the patient from their bed
-            try {
-            	Bed bed = Bed.getById(patientVisit.getBedNumber());
-             	if (!bed.isOccupied()) {
-                	System.out.printf("Bed #%d is already unoccupied.\n", bed.getID());
-                	return;
-            	}
-            	bed.release();
-            	System.out.printf("Successfully released bed #%d\n", bed.getID());
-        	} catch (SQLException e) {
-            	System.out.println("Error releasing bed. Please try again.");
-        	}
-
-            //reserve a bed in a new hospital                                                                                                       
-            System.out.print("Enter hospital id to Transfer: ");
-            int hospitalID = in.nextInt();
+            prompt("Enter current Hospital ID: ");
+            int fromHospitalID = in.nextInt();
             in.nextLine();
-			Hospital newHospital = Hospital.getByID(hospitalID);
+            prompt("Enter hospital id to Transfer: ");
+            int toHospitalID = in.nextInt();
+            in.nextLine();
+            prompt("Enter desired specialization (blank for no bed): ");
+            String specialization = in.nextLine().trim();
 
-			//after confirming that there is enough room for the patient, then checkin the patient
- 	       	HospitalVisit hv = p.checkin(newHospital);
-        } catch (SQLException | InputMismatchException | NullPointerException e) {
-            System.out.println("Error reserving bed. Please try again.");
-            e.printStackTrace();
+            AdmissionService.Transfer transfer = admissions.transfer(patientID, fromHospitalID, toHospitalID,
+                                                                     specialization.isEmpty() ? null : specialization);
+            if (transfer.getReleasedBed() != null) {
+                System.out.printf("Successfully released bed #%d\n", transfer.getReleasedBed().getID());
+            }
+            System.out.printf("Transferred patient %d to hospital %d", patientID, toHospitalID);
+            if (transfer.getNewBed() != null) {
+                System.out.printf(", bed #%d", transfer.getNewBed().getID());
+            }
+            System.out.println();
+        } catch (ApiException e) {
+            failed(e.getMessage(), e);
+        } catch (SQLException | InputMismatchException e) {
             in.nextLine();
+            failed("Error transferring patient. Please try again.", e);
         }
     }
 }